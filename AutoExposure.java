@@ -0,0 +1,210 @@
+import java.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for adapting the exposure of the HDR scene (see PostProcess) to its brightness, like an
+ * eye adjusting to the light. Each frame the scene is drawn into a 256x256 log-luminance texture
+ * and its mip chain is generated, so the GPU reduces the whole frame to one texel holding the
+ * average log-luminance. That texel is copied into one of a ring of 3 pixel-pack buffers and only
+ * mapped a couple of frames later (as in FrameCapture), so reading it never waits for the GPU.
+ * 
+ * Only pixels that are lit and tonemapped are measured: the texture's second channel holds
+ * whether a pixel counts, so the averaged texel also gives the fraction that do, and the average
+ * log-luminance of those pixels is the first channel divided by it. Otherwise the black background
+ * alone would push the exposure to its maximum.
+ * 
+ * The exposure that would bring the average luminance to a mid-grey key value is approached
+ * smoothly over time, so changes in lighting (e.g. the global light intensity slider) are
+ * followed without flickering.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for automatic exposure from the average luminance of the scene
+ * - The background and Phong models are left out of the average
+ */
+public class AutoExposure {
+	private static final boolean DISPLAY_EXPOSURE = false;
+	private static final int SIZE = 256;
+	// Mip level holding the 1x1 average
+	private static final int TOP_LEVEL = 8;
+	private static final int RING_SIZE = 3;
+	// Frames between copying the average into a buffer and mapping it
+	private static final int LATENCY = 2;
+	// Average luminance the exposure aims for
+	private static final float KEY = 0.18f;
+	private static final float MIN_EXPOSURE = 0.1f;
+	private static final float MAX_EXPOSURE = 10f;
+	// Fraction of the frame that must be measured for the average to be used
+	private static final float MIN_COVERAGE = 0.001f;
+	// How quickly the exposure follows the target (per second)
+	private static final float ADAPTATION_RATE = 1.5f;
+
+	private Shader shader;
+	private int[] framebuffer = new int[1];
+	private int[] luminanceTexture = new int[1];
+	private int[] vertexArray = new int[1];
+	private int[] buffers = new int[RING_SIZE];
+	private long[] fences = new long[RING_SIZE];
+	private long[] slotFrame = new long[RING_SIZE];
+	private long frame = 0;
+	private int[] viewport = new int[4];
+	private int[] target = new int[1];
+
+	private float exposure = 1.0f;
+	private float targetExposure = 1.0f;
+	private long lastUpdate = 0;
+
+	/**
+	 * Constructor. Create the (weighted) log-luminance texture with its mip chain, its
+	 * framebuffer and the pixel-pack buffers the average is read back through.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public AutoExposure(GL3 gl) {
+		shader = new Shader(gl, "assets/shaders/vs_fullscreen.txt", "assets/shaders/fs_luminance.txt");
+		gl.glGenVertexArrays(1, vertexArray, 0);
+
+		gl.glGenTextures(1, luminanceTexture, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, luminanceTexture[0]);
+		for (int level=0; level<=TOP_LEVEL; level++) {
+			int size = SIZE >> level;
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, level, GL3.GL_RG16F, size, size, 0, GL3.GL_RG,
+							GL.GL_FLOAT, null);
+		}
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAX_LEVEL, TOP_LEVEL);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		gl.glGetIntegerv(GL3.GL_DRAW_FRAMEBUFFER_BINDING, target, 0);
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D,
+								  luminanceTexture[0], 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, target[0]);
+
+		gl.glGenBuffers(RING_SIZE, buffers, 0);
+		for (int i=0; i<RING_SIZE; i++) {
+			gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, buffers[i]);
+			gl.glBufferData(GL3.GL_PIXEL_PACK_BUFFER, 2*Float.BYTES, null, GL3.GL_STREAM_READ);
+		}
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	/**
+	 * Measure the average luminance of the scene and move the exposure towards the value that
+	 * suits it. Called once per frame after the scene has been drawn and before it is tonemapped.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param scene The post-processing stage holding the scene's linear HDR colour.
+	 * @return The exposure to tonemap the scene with.
+	 */
+	public float update(GL3 gl, PostProcess scene) {
+		// Read averages that have had time to be copied
+		for (int i=0; i<RING_SIZE; i++) {
+			if (fences[i] != 0 && frame-slotFrame[i] >= LATENCY) collect(gl, i);
+		}
+
+		// Reduce the scene to its average log-luminance
+		gl.glGetIntegerv(GL3.GL_DRAW_FRAMEBUFFER_BINDING, target, 0);
+		gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glViewport(0, 0, SIZE, SIZE);
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		shader.use(gl);
+		scene.bindScene(gl, shader);
+		gl.glBindVertexArray(vertexArray[0]);
+		gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3);
+		gl.glBindVertexArray(0);
+		gl.glEnable(GL.GL_DEPTH_TEST);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, target[0]);
+		gl.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, luminanceTexture[0]);
+		gl.glGenerateMipmap(GL.GL_TEXTURE_2D);
+
+		// Copy the 1x1 level into the next buffer (returns without waiting for the copy)
+		int slot = (int)(frame % RING_SIZE);
+		if (fences[slot] != 0) collect(gl, slot);
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+		gl.glGetTexImage(GL.GL_TEXTURE_2D, TOP_LEVEL, GL3.GL_RG, GL.GL_FLOAT, 0);
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		fences[slot] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		slotFrame[slot] = frame;
+		frame++;
+
+		// Adapt smoothly, independent of the frame rate
+		long now = System.nanoTime();
+		float seconds = (lastUpdate == 0) ? 0 : (now-lastUpdate)/1e9f;
+		lastUpdate = now;
+		float blend = 1 - (float)Math.exp(-ADAPTATION_RATE*seconds);
+		exposure += (targetExposure-exposure)*blend;
+		return exposure;
+	}
+
+	/**
+	 * Map a buffer holding an average log-luminance and set the target exposure from it.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param slot The buffer in the ring.
+	 */
+	private void collect(GL3 gl, int slot) {
+		// Normally already signalled (copied LATENCY frames ago)
+		gl.glClientWaitSync(fences[slot], GL3.GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+		gl.glDeleteSync(fences[slot]);
+		fences[slot] = 0;
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+		ByteBuffer texel = gl.glMapBufferRange(GL3.GL_PIXEL_PACK_BUFFER, 0, 2*Float.BYTES,
+											   GL.GL_MAP_READ_BIT).order(ByteOrder.nativeOrder());
+		float weightedLog = texel.getFloat(0);
+		float coverage = texel.getFloat(Float.BYTES);
+		gl.glUnmapBuffer(GL3.GL_PIXEL_PACK_BUFFER);
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+		// Nothing (or almost nothing) measured: keep the current target
+		if (Float.isNaN(weightedLog) || !(coverage >= MIN_COVERAGE)) return;
+		float average = (float)Math.exp(weightedLog/coverage);
+		targetExposure = Math.min(Math.max(KEY/average, MIN_EXPOSURE), MAX_EXPOSURE);
+		if (DISPLAY_EXPOSURE) {
+			System.out.printf("Average luminance %.4f over %.1f%% of the frame, target exposure %.3f%n",
+							  average, coverage*100, targetExposure);
+		}
+	}
+
+	/**
+	 * Whether the exposure is still moving towards its target (more frames are needed for it to
+	 * settle).
+	 * 
+	 * @return True while the exposure differs from its target by more than 1%.
+	 */
+	public boolean isAdapting() {
+		return Math.abs(targetExposure-exposure) > targetExposure*0.01f;
+	}
+
+	/**
+	 * Get the current (smoothed) exposure.
+	 * 
+	 * @return The exposure.
+	 */
+	public float getExposure() {
+		return exposure;
+	}
+
+	/**
+	 * Delete the textures, buffers and shader.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		for (int i=0; i<RING_SIZE; i++) {
+			if (fences[i] != 0) gl.glDeleteSync(fences[i]);
+		}
+		gl.glDeleteBuffers(RING_SIZE, buffers, 0);
+		gl.glDeleteFramebuffers(1, framebuffer, 0);
+		gl.glDeleteTextures(1, luminanceTexture, 0);
+		gl.glDeleteVertexArrays(1, vertexArray, 0);
+		gl.glDeleteProgram(shader.getID());
+	}
+}
\ No newline at end of file
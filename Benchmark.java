@@ -0,0 +1,390 @@
+import java.io.*;
+import java.util.*;
+import java.lang.management.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for benchmarking the spacecraft scene. A camera path (recorded with 'Spacecraft --record'
+ * or a built-in scripted path) is replayed offscreen with a fixed timestep, so every run renders
+ * exactly the same frames however fast the machine is, and frames are rendered without any frame
+ * rate cap. For each frame the CPU time, GPU time (timer queries), draw calls, triangles, light
+ * uploads, the fraction of room parts hidden by occlusion culling and garbage collection pauses
+ * are recorded and written to a CSV file, with a JSON summary of
+ * percentiles for comparing builds and machines.
+ * 
+ * Usage: java Benchmark [--path FILE] [--frames N] [--timestep S] [--warmup N] [--width W]
+ *                       [--height H] [--out DIR] [--occlusion true|false]
+ *                       [--objects N --lights M --seed S
+ *                       [--mode nodes|instanced|indirect]]
+ * (the last options add a generated stress-test scene, see StressScene)
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for deterministic benchmark runs with frame time reports
+ * - The room's occlusion culled ratio is reported ('--occlusion false' turns culling off)
+ */
+public class Benchmark {
+	private static final double DEFAULT_TIMESTEP = 1.0/60;
+	private static final int DEFAULT_WARMUP = 30;
+	private static final double SCRIPTED_DURATION = 10;
+	// Timer queries are read this many frames after they were issued so the CPU does not wait
+	private static final int QUERY_COUNT = 4;
+
+	/**
+	 * Run the benchmark according to the command line options.
+	 * 
+	 * @param args Command line options (see the class description).
+	 */
+	public static void main(String[] args) {
+		File pathFile = null;
+		int frames = -1;
+		double timestep = DEFAULT_TIMESTEP;
+		int warmup = DEFAULT_WARMUP;
+		int width = 1024;
+		int height = 768;
+		File outDir = new File("benchmark");
+		int objects = 0;
+		int extraLights = 0;
+		long seed = 1;
+		StressScene.Mode mode = StressScene.Mode.NODES;
+		boolean occlusion = true;
+		for (int i=0; i<args.length-1; i+=2) {
+			switch (args[i]) {
+				case "--path": pathFile = new File(args[i+1]); break;
+				case "--frames": frames = Integer.parseInt(args[i+1]); break;
+				case "--timestep": timestep = Double.parseDouble(args[i+1]); break;
+				case "--warmup": warmup = Integer.parseInt(args[i+1]); break;
+				case "--objects": objects = Integer.parseInt(args[i+1]); break;
+				case "--lights": extraLights = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				case "--mode": mode = StressScene.Mode.valueOf(args[i+1].toUpperCase()); break;
+				case "--width": width = Integer.parseInt(args[i+1]); break;
+				case "--height": height = Integer.parseInt(args[i+1]); break;
+				case "--out": outDir = new File(args[i+1]); break;
+				case "--occlusion": occlusion = Boolean.parseBoolean(args[i+1]); break;
+				default: System.err.println("Unknown option " + args[i]);
+			}
+		}
+
+		List<CameraRecorder.Event> path;
+		try {
+			path = (pathFile != null) ? CameraRecorder.load(pathFile)
+									  : CameraRecorder.scriptedPath(SCRIPTED_DURATION);
+		}
+		catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (frames < 0) {
+			double duration = CameraRecorder.duration(path);
+			frames = (int)Math.ceil(duration/timestep) + 1;
+		}
+
+		Camera camera = new Camera(Camera.DEFAULT_POSITION, Camera.DEFAULT_TARGET, Camera.DEFAULT_UP);
+		Spacecraft_GLEventListener listener = new Spacecraft_GLEventListener(camera);
+		listener.setStressScene(objects, extraLights, seed, mode);
+		listener.setOcclusionCulling(occlusion);
+		// The same work every run (no luminance reduction or adaptation frames)
+		listener.setAutoExposure(false);
+		GLOffscreenAutoDrawable drawable = SpacecraftHeadless.createDrawable(width, height);
+		Probe probe = new Probe(listener);
+		drawable.addGLEventListener(probe.begin);
+		drawable.addGLEventListener(listener);
+		drawable.addGLEventListener(probe.end);
+
+		// Warm-up frames (shader compilation, JIT, driver caches) are not recorded
+		for (int i=0; i<=warmup; i++) {
+			drawable.display();
+		}
+
+		probe.recording = true;
+		CameraRecorder.Replay replay = new CameraRecorder.Replay(path, camera);
+		for (int i=0; i<frames; i++) {
+			// Fixed timestep: run every UpdateLoop tick up to this frame's simulated time
+			replay.advanceTo(i*timestep);
+			drawable.display();
+		}
+		drawable.invoke(true, d -> {
+			probe.resolveAll(d.getGL().getGL3());
+			return true;
+		});
+		drawable.destroy();
+
+		outDir.mkdirs();
+		String pathName = (pathFile != null) ? pathFile.getPath() : "scripted";
+		try {
+			probe.writeCsv(new File(outDir, "frames.csv"));
+			probe.writeJson(new File(outDir, "summary.json"), width, height, timestep, pathName,
+							occlusion);
+		}
+		catch (IOException e) {
+			System.err.println("Error writing report to " + outDir);
+		}
+		probe.printSummary();
+		System.exit(0);
+	}
+
+	/**
+	 * The measurements taken for one frame.
+	 */
+	private static class Frame {
+		double cpuMs;
+		double gpuMs = -1;
+		int drawCalls;
+		long triangles;
+		int transformUpdates;
+		int lightUploads;
+		float culledRatio;
+		long gcMs;
+		long gcCount;
+	}
+
+	/**
+	 * A pair of listeners placed either side of the scene's listener to time each frame.
+	 */
+	private static class Probe {
+		private final Spacecraft_GLEventListener listener;
+		private boolean recording = false;
+		private List<Frame> frames = new ArrayList<>();
+		private int[] queries = new int[QUERY_COUNT];
+		private int[] queryFrame = new int[QUERY_COUNT];
+		private String renderer = "";
+		private String version = "";
+		private long frameStart;
+		private long gcTimeStart;
+		private long gcCountStart;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param listener The scene's listener (read for its occlusion culling statistics).
+		 */
+		Probe(Spacecraft_GLEventListener listener) {
+			this.listener = listener;
+		}
+
+		final GLEventListener begin = new GLEventListener() {
+			public void init(GLAutoDrawable drawable) {
+				GL3 gl = drawable.getGL().getGL3();
+				gl.setSwapInterval(0);
+				gl.glGenQueries(QUERY_COUNT, queries, 0);
+				Arrays.fill(queryFrame, -1);
+				renderer = gl.glGetString(GL.GL_RENDERER);
+				version = gl.glGetString(GL.GL_VERSION);
+			}
+
+			public void display(GLAutoDrawable drawable) {
+				if (!recording) return;
+				GL3 gl = drawable.getGL().getGL3();
+				int slot = frames.size() % QUERY_COUNT;
+				// The query in this slot was issued QUERY_COUNT frames ago, so is usually ready
+				if (queryFrame[slot] >= 0) resolve(gl, slot);
+				gcTimeStart = gcTime();
+				gcCountStart = gcCount();
+				RenderStats.reset();
+				frameStart = System.nanoTime();
+				gl.glBeginQuery(GL3.GL_TIME_ELAPSED, queries[slot]);
+				queryFrame[slot] = frames.size();
+			}
+
+			public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+			}
+
+			public void dispose(GLAutoDrawable drawable) {
+				drawable.getGL().getGL3().glDeleteQueries(QUERY_COUNT, queries, 0);
+			}
+		};
+
+		final GLEventListener end = new GLEventListener() {
+			public void init(GLAutoDrawable drawable) {
+			}
+
+			public void display(GLAutoDrawable drawable) {
+				if (!recording) return;
+				drawable.getGL().getGL3().glEndQuery(GL3.GL_TIME_ELAPSED);
+				Frame frame = new Frame();
+				frame.cpuMs = (System.nanoTime()-frameStart)/1e6;
+				frame.drawCalls = RenderStats.getDrawCalls();
+				frame.triangles = RenderStats.getTriangles();
+				frame.transformUpdates = RenderStats.getTransformUpdates();
+				frame.lightUploads = RenderStats.getLightUploads();
+				// Query results are read a frame or two late, so this is an earlier frame's ratio
+				frame.culledRatio = listener.getCulledRatio();
+				frame.gcMs = gcTime()-gcTimeStart;
+				frame.gcCount = gcCount()-gcCountStart;
+				frames.add(frame);
+			}
+
+			public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+			}
+
+			public void dispose(GLAutoDrawable drawable) {
+			}
+		};
+
+		/**
+		 * Read the result of one timer query into the frame it was issued for.
+		 * 
+		 * @param gl The OpenGL context used for rendering.
+		 * @param slot The query slot.
+		 */
+		private void resolve(GL3 gl, int slot) {
+			long[] nanoseconds = new long[1];
+			gl.glGetQueryObjecti64v(queries[slot], GL3.GL_QUERY_RESULT, nanoseconds, 0);
+			frames.get(queryFrame[slot]).gpuMs = nanoseconds[0]/1e6;
+			queryFrame[slot] = -1;
+		}
+
+		/**
+		 * Read every outstanding timer query (at the end of the run).
+		 * 
+		 * @param gl The OpenGL context used for rendering.
+		 */
+		void resolveAll(GL3 gl) {
+			for (int slot=0; slot<QUERY_COUNT; slot++) {
+				if (queryFrame[slot] >= 0) resolve(gl, slot);
+			}
+		}
+
+		/**
+		 * Write the measurements of every frame to a CSV file.
+		 * 
+		 * @param file The file to write to.
+		 * @throws IOException If the file cannot be written.
+		 */
+		void writeCsv(File file) throws IOException {
+			try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+				out.println("frame,cpu_ms,gpu_ms,draw_calls,triangles,transform_updates,light_uploads,"
+							+ "culled_ratio,gc_ms,gc_count");
+				for (int i=0; i<frames.size(); i++) {
+					Frame f = frames.get(i);
+					out.println(String.format(Locale.ROOT, "%d,%.4f,%.4f,%d,%d,%d,%d,%.4f,%d,%d", i,
+											  f.cpuMs, f.gpuMs, f.drawCalls, f.triangles,
+											  f.transformUpdates, f.lightUploads, f.culledRatio,
+											  f.gcMs, f.gcCount));
+				}
+			}
+		}
+
+		/**
+		 * Write a summary of the run (machine, settings and frame time percentiles) to a JSON file.
+		 * 
+		 * @param file The file to write to.
+		 * @param width The width of the frames.
+		 * @param height The height of the frames.
+		 * @param timestep The simulated time between frames.
+		 * @param path The camera path replayed.
+		 * @param occlusion Whether occlusion culling was used.
+		 * @throws IOException If the file cannot be written.
+		 */
+		void writeJson(File file, int width, int height, double timestep, String path,
+					   boolean occlusion) throws IOException {
+			long gcMs = 0, gcCount = 0;
+			double drawCalls = 0, triangles = 0, culledRatio = 0;
+			for (Frame f : frames) {
+				gcMs += f.gcMs;
+				gcCount += f.gcCount;
+				drawCalls += f.drawCalls;
+				triangles += f.triangles;
+				culledRatio += f.culledRatio;
+			}
+			int n = Math.max(1, frames.size());
+			try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+				out.println("{");
+				out.println("  \"renderer\": \"" + escape(renderer) + "\",");
+				out.println("  \"glVersion\": \"" + escape(version) + "\",");
+				out.println("  \"java\": \"" + escape(System.getProperty("java.version")) + "\",");
+				out.println("  \"os\": \"" + escape(System.getProperty("os.name") + " " +
+												  System.getProperty("os.arch")) + "\",");
+				out.println("  \"path\": \"" + escape(path) + "\",");
+				out.println(String.format(Locale.ROOT, "  \"width\": %d,\n  \"height\": %d,\n" +
+										  "  \"timestep\": %.6f,\n  \"frames\": %d,\n" +
+										  "  \"occlusionCulling\": %b,",
+										  width, height, timestep, frames.size(), occlusion));
+				out.println("  \"cpuMs\": " + stats(f -> f.cpuMs) + ",");
+				out.println("  \"gpuMs\": " + stats(f -> f.gpuMs) + ",");
+				out.println(String.format(Locale.ROOT, "  \"drawCallsMean\": %.2f,\n" +
+										  "  \"trianglesMean\": %.1f,\n" +
+										  "  \"culledRatioMean\": %.4f,\n" +
+										  "  \"gcPauseMs\": %d,\n  \"gcCollections\": %d",
+										  drawCalls/n, triangles/n, culledRatio/n, gcMs, gcCount));
+				out.println("}");
+			}
+		}
+
+		/**
+		 * Print the main figures of the run.
+		 */
+		void printSummary() {
+			System.out.println("Frames: " + frames.size() + " (" + renderer + ")");
+			System.out.println("CPU ms: " + stats(f -> f.cpuMs));
+			System.out.println("GPU ms: " + stats(f -> f.gpuMs));
+			System.out.println("Culled ratio: " + stats(f -> f.culledRatio));
+		}
+
+		/**
+		 * Summarise one measurement across all frames as a JSON object.
+		 * 
+		 * @param value The measurement taken from each frame.
+		 * @return The mean and percentiles of the measurement.
+		 */
+		private String stats(java.util.function.ToDoubleFunction<Frame> value) {
+			double[] sorted = new double[frames.size()];
+			double sum = 0;
+			for (int i=0; i<sorted.length; i++) {
+				sorted[i] = value.applyAsDouble(frames.get(i));
+				sum += sorted[i];
+			}
+			Arrays.sort(sorted);
+			return String.format(Locale.ROOT, "{\"mean\": %.4f, \"p50\": %.4f, \"p90\": %.4f, " +
+								 "\"p95\": %.4f, \"p99\": %.4f, \"max\": %.4f}",
+								 sum/Math.max(1, sorted.length),
+								 SpacecraftHeadless.percentile(sorted, 50),
+								 SpacecraftHeadless.percentile(sorted, 90),
+								 SpacecraftHeadless.percentile(sorted, 95),
+								 SpacecraftHeadless.percentile(sorted, 99),
+								 SpacecraftHeadless.percentile(sorted, 100));
+		}
+	}
+
+	/**
+	 * Get the total time spent in garbage collection by the JVM so far.
+	 * 
+	 * @return The collection time in milliseconds.
+	 */
+	private static long gcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * Get the total number of garbage collections by the JVM so far.
+	 * 
+	 * @return The number of collections.
+	 */
+	private static long gcCount() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionCount());
+		}
+		return total;
+	}
+
+	/**
+	 * Escape a string for use inside a JSON string.
+	 * 
+	 * @param s The string to escape.
+	 * @return The escaped string.
+	 */
+	private static String escape(String s) {
+		if (s == null) return "";
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
\ No newline at end of file
@@ -5,6 +5,15 @@ import com.jogamp.opengl.awt.GLCanvas;
 /**
  * Class for camera-related functionality (editing angles, target, position, parsing user inputs,
  * etc.).
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - getFront()/setView(): read and set the whole pose (used to copy the pose published by the
+ *   UpdateLoop into the camera used for rendering)
+ * - keyboardInput() can move a given distance (the UpdateLoop moves by speed * timestep)
  */
 public class Camera {
 	public enum CameraType {X, Z};
@@ -73,6 +82,25 @@ public class Camera {
 		return new Vec3(position);
 	}
 	
+	/**
+	 * Get the direction the camera is facing.
+	 * 
+	 * @return The (normalised) front vector of the camera.
+	 */
+	public Vec3 getFront() {
+		return new Vec3(front);
+	}
+
+	/**
+	 * Set the position of the camera and the direction it faces in one step.
+	 * 
+	 * @param p The new position in the world.
+	 * @param f The new direction the camera faces (need not be normalised).
+	 */
+	public void setView(Vec3 p, Vec3 f) {
+		setupCamera(p, Vec3.add(p, f), new Vec3(worldUp));
+	}
+
 	/**
 	 * Set the current position of the camera object in the world to a new position.
 	 * 
@@ -106,7 +134,7 @@ public class Camera {
 
 	/**
  	 * Calculate and store the yaw and pitch angles of the camera.
-	 *
+	 * 
 	 * @param v The direction of the camera as a vector.
  	 */
 	private void calculateYawPitch(Vec3 v) {
@@ -149,14 +177,24 @@ public class Camera {
 	 * @param movement The type of movement associated with the user's key press.
 	 */
 	public void keyboardInput(Movement movement) {
+		keyboardInput(movement, KEYBOARD_SPEED);
+	}
+
+	/**
+	 * Move the camera a given distance in the direction of a key's movement.
+	 * 
+	 * @param movement The type of movement associated with the user's key press.
+	 * @param distance The distance to move.
+	 */
+	public void keyboardInput(Movement movement, float distance) {
 		switch (movement) {
 			case NO_MOVEMENT: break;
-			case LEFT: position.add(Vec3.multiply(right, -KEYBOARD_SPEED)); break;
-			case RIGHT: position.add(Vec3.multiply(right, KEYBOARD_SPEED)); break;
-			case UP: position.add(Vec3.multiply(up, KEYBOARD_SPEED)); break;
-			case DOWN: position.add(Vec3.multiply(up, -KEYBOARD_SPEED)); break;
-			case FORWARD: position.add(Vec3.multiply(front, KEYBOARD_SPEED)); break;
-			case BACK: position.add(Vec3.multiply(front, -KEYBOARD_SPEED)); break;
+			case LEFT: position.add(Vec3.multiply(right, -distance)); break;
+			case RIGHT: position.add(Vec3.multiply(right, distance)); break;
+			case UP: position.add(Vec3.multiply(up, distance)); break;
+			case DOWN: position.add(Vec3.multiply(up, -distance)); break;
+			case FORWARD: position.add(Vec3.multiply(front, distance)); break;
+			case BACK: position.add(Vec3.multiply(front, -distance)); break;
 		}
 	}
 	
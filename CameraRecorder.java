@@ -0,0 +1,263 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class for recording the camera input applied by the UpdateLoop at each tick (the movement keys
+ * held and the mouse yaw/pitch changes), saving it to a CSV file and replaying it onto a camera
+ * through the same fixed-tick movement. Used to give benchmark runs the same camera path every
+ * time, matching what the user saw when recording.
+ * 
+ * File format (one event per line): tick (from the start of the recording, at
+ * UpdateLoop.TICK_RATE per second), then "keys" and the movements held from that tick on (joined
+ * by '+', NO_MOVEMENT when none are), or "mouse" and the yaw and pitch changes applied at that
+ * tick.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for recording and replaying camera paths
+ * - Keys held and mouse movement are recorded per UpdateLoop tick (not per key event, which
+ *   included key repeats and missed releases) and replayed with the UpdateLoop's movement
+ */
+public class CameraRecorder {
+	private List<Event> events = new ArrayList<>();
+	private long startTick = -1;
+	private int lastKeys = 0;
+
+	/**
+	 * A change of the camera input at one tick.
+	 */
+	public static class Event {
+		public final long tick;
+		public final boolean mouse;
+		public final int keys;
+		public final float yaw;
+		public final float pitch;
+
+		/**
+		 * Constructor for a change of the movement keys held.
+		 * 
+		 * @param tick The tick from which the keys are held (from the start of the recording).
+		 * @param keys The movements held (one bit per Camera.Movement ordinal).
+		 */
+		public Event(long tick, int keys) {
+			this.tick = tick;
+			this.mouse = false;
+			this.keys = keys;
+			this.yaw = 0;
+			this.pitch = 0;
+		}
+
+		/**
+		 * Constructor for a mouse yaw/pitch change.
+		 * 
+		 * @param tick The tick the change is applied at (from the start of the recording).
+		 * @param yaw The change in yaw.
+		 * @param pitch The change in pitch.
+		 */
+		public Event(long tick, float yaw, float pitch) {
+			this.tick = tick;
+			this.mouse = true;
+			this.keys = 0;
+			this.yaw = yaw;
+			this.pitch = pitch;
+		}
+	}
+
+	/**
+	 * Replays recorded events onto a camera, running the same ticks as the UpdateLoop did.
+	 */
+	public static class Replay {
+		private final List<Event> events;
+		private final Camera camera;
+		private int next = 0;
+		private long tick = 0;
+		private int keys = 0;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param events The events to replay, in tick order.
+		 * @param camera The camera to move.
+		 */
+		public Replay(List<Event> events, Camera camera) {
+			this.events = events;
+			this.camera = camera;
+		}
+
+		/**
+		 * Run every tick up to a point in time, applying the events of each tick.
+		 * 
+		 * @param time The time to advance to (seconds from the start of the recording).
+		 */
+		public void advanceTo(double time) {
+			long target = (long)Math.floor(time*UpdateLoop.TICK_RATE + 1e-6);
+			while (tick < target) {
+				tick++;
+				float yaw = 0;
+				float pitch = 0;
+				while (next < events.size() && events.get(next).tick <= tick) {
+					Event e = events.get(next++);
+					if (e.mouse) {
+						yaw += e.yaw;
+						pitch += e.pitch;
+					}
+					else {
+						keys = e.keys;
+					}
+				}
+				UpdateLoop.applyInput(camera, keys, yaw, pitch);
+			}
+		}
+	}
+
+	/**
+	 * Record the input applied by the UpdateLoop at one tick (only changes are stored).
+	 * 
+	 * @param tick The number of the UpdateLoop's tick.
+	 * @param keys The movements applied (one bit per Camera.Movement ordinal).
+	 * @param yaw The change in yaw applied.
+	 * @param pitch The change in pitch applied.
+	 */
+	public synchronized void recordTick(long tick, int keys, float yaw, float pitch) {
+		// The first tick recorded is tick 1 of the recording (a replay starts at tick 0)
+		if (startTick < 0) startTick = tick-1;
+		long t = tick-startTick;
+		if (keys != lastKeys) {
+			events.add(new Event(t, keys));
+			lastKeys = keys;
+		}
+		if (yaw != 0 || pitch != 0) events.add(new Event(t, yaw, pitch));
+	}
+
+	/**
+	 * Get the events recorded so far.
+	 * 
+	 * @return The events, in tick order.
+	 */
+	public synchronized List<Event> getEvents() {
+		return new ArrayList<>(events);
+	}
+
+	/**
+	 * Save the recorded events to a CSV file.
+	 * 
+	 * @param file The file to write to.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public synchronized void save(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			for (Event e : events) {
+				if (e.mouse) {
+					out.println(e.tick + ",mouse," + e.yaw + "," + e.pitch);
+				}
+				else {
+					out.println(e.tick + ",keys," + keyNames(e.keys));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Load events from a CSV file written by save().
+	 * 
+	 * @param file The file to read.
+	 * @return The events, in tick order.
+	 * @throws IOException If the file cannot be read or is malformed.
+	 */
+	public static List<Event> load(File file) throws IOException {
+		List<Event> loaded = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				String[] parts = line.split(",");
+				try {
+					long tick = Long.parseLong(parts[0]);
+					if (parts[1].equals("keys")) {
+						int keys = 0;
+						for (String name : parts[2].split("\\+")) {
+							Camera.Movement movement = Camera.Movement.valueOf(name);
+							if (movement != Camera.Movement.NO_MOVEMENT) {
+								keys |= 1 << movement.ordinal();
+							}
+						}
+						loaded.add(new Event(tick, keys));
+					}
+					else if (parts[1].equals("mouse")) {
+						loaded.add(new Event(tick, Float.parseFloat(parts[2]),
+											 Float.parseFloat(parts[3])));
+					}
+					else {
+						throw new IllegalArgumentException(parts[1]);
+					}
+				}
+				catch (RuntimeException e) {
+					throw new IOException("Malformed camera path line: " + line);
+				}
+			}
+		}
+		// Stable, so events of the same tick keep their order
+		loaded.sort((a, b) -> Long.compare(a.tick, b.tick));
+		return loaded;
+	}
+
+	/**
+	 * Get the length of a camera path.
+	 * 
+	 * @param events The events of the path, in tick order.
+	 * @return The time of the last event in seconds.
+	 */
+	public static double duration(List<Event> events) {
+		return events.isEmpty() ? 0 : (double)events.get(events.size()-1).tick/UpdateLoop.TICK_RATE;
+	}
+
+	/**
+	 * Create a scripted camera path (used when no recording is given): the camera turns a full
+	 * circle while moving towards and away from the spacecraft (switching every two seconds), then
+	 * stops and looks up and down.
+	 * 
+	 * @param duration The length of the path in seconds.
+	 * @return The events, in tick order.
+	 */
+	public static List<Event> scriptedPath(double duration) {
+		List<Event> path = new ArrayList<>();
+		int rate = UpdateLoop.TICK_RATE;
+		int count = (int)(duration*rate);
+		int turning = (int)(count*0.75);
+		float turn = (float)(2*Math.PI/turning);
+		int forward = 1 << Camera.Movement.FORWARD.ordinal();
+		int back = 1 << Camera.Movement.BACK.ordinal();
+		for (int t=1; t<=count; t++) {
+			if (t <= turning) {
+				int keys = (((t-1)/(rate*2))%2 == 0) ? forward : back;
+				if (t == 1 || (t-1)%(rate*2) == 0) path.add(new Event(t, keys));
+				path.add(new Event(t, turn, 0));
+			}
+			else {
+				if (t == turning+1) path.add(new Event(t, 0));
+				path.add(new Event(t, 0, ((t-1)%(rate*2) < rate) ? 0.005f : -0.005f));
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Write the movements held as a list of movement names.
+	 * 
+	 * @param keys The movements held (one bit per Camera.Movement ordinal).
+	 * @return The names joined by '+' (NO_MOVEMENT if none are held).
+	 */
+	private static String keyNames(int keys) {
+		StringBuilder names = new StringBuilder();
+		for (Camera.Movement movement : Camera.Movement.values()) {
+			if (movement == Camera.Movement.NO_MOVEMENT) continue;
+			if ((keys & (1 << movement.ordinal())) == 0) continue;
+			if (names.length() > 0) names.append('+');
+			names.append(movement.name());
+		}
+		return (names.length() > 0) ? names.toString() : Camera.Movement.NO_MOVEMENT.name();
+	}
+}
\ No newline at end of file
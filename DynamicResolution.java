@@ -0,0 +1,158 @@
+import com.jogamp.opengl.*;
+
+/**
+ * Class for choosing the resolution the scene is drawn at (see PostProcess.setScale()) so the GPU
+ * keeps to a target frame time. The GPU time of each frame is measured with a pair of timestamp
+ * queries (timestamps rather than a GL_TIME_ELAPSED query, which could not be nested inside
+ * Benchmark's), read a few frames later once available so the CPU never waits for them.
+ * 
+ * The work of the fill-rate bound fragment shaders grows with the number of pixels, i.e. the
+ * square of the scale, so the scale is moved towards scale * sqrt(target/measured). Changes within
+ * a small band around the target are ignored and the rest are damped, so the resolution does not
+ * oscillate from frame to frame.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for dynamic resolution scaling from GPU frame times
+ */
+public class DynamicResolution {
+	private static final boolean DISPLAY_SCALE = false;
+	public static final float MIN_SCALE = 0.5f;
+	public static final float MAX_SCALE = 1.0f;
+	// GPU time aimed for: 60 frames per second with some headroom for the CPU and presentation
+	private static final double DEFAULT_TARGET_MS = 1000.0/60*0.85;
+	// Measurements within this fraction of the target leave the scale unchanged
+	private static final double DEAD_BAND = 0.08;
+	// Fraction of the way to the ideal scale moved per measurement
+	private static final float DAMPING = 0.3f;
+	// Timestamps are read this many frames after they were issued
+	private static final int QUERY_COUNT = 4;
+
+	private int[] startQueries = new int[QUERY_COUNT];
+	private int[] endQueries = new int[QUERY_COUNT];
+	private boolean[] pending = new boolean[QUERY_COUNT];
+	// Scale each measured frame was drawn at
+	private float[] slotScale = new float[QUERY_COUNT];
+	private long frame = 0;
+	private long[] result = new long[1];
+	private int[] available = new int[1];
+	private double targetMs = DEFAULT_TARGET_MS;
+	private double lastGpuMs = 0;
+	private float scale = MAX_SCALE;
+
+	/**
+	 * Constructor. Create the timestamp queries.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public DynamicResolution(GL3 gl) {
+		gl.glGenQueries(QUERY_COUNT, startQueries, 0);
+		gl.glGenQueries(QUERY_COUNT, endQueries, 0);
+	}
+
+	/**
+	 * Set the GPU time per frame to aim for.
+	 * 
+	 * @param milliseconds The target GPU time of a frame in milliseconds.
+	 */
+	public void setTargetMs(double milliseconds) {
+		targetMs = milliseconds;
+	}
+
+	/**
+	 * Get the scale the scene should be drawn at this frame.
+	 * 
+	 * @return The fraction of the full width and height (MIN_SCALE to MAX_SCALE).
+	 */
+	public float getScale() {
+		return scale;
+	}
+
+	/**
+	 * Get the most recent GPU frame time measured.
+	 * 
+	 * @return The GPU time of the frame in milliseconds.
+	 */
+	public double getLastGpuMs() {
+		return lastGpuMs;
+	}
+
+	/**
+	 * Mark the start of the frame's GPU work.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void beginFrame(GL3 gl) {
+		int slot = (int)(frame % QUERY_COUNT);
+		// Only reused if the result never became available within QUERY_COUNT frames
+		if (pending[slot]) resolve(gl, slot, true);
+		gl.glQueryCounter(startQueries[slot], GL3.GL_TIMESTAMP);
+		slotScale[slot] = scale;
+	}
+
+	/**
+	 * Mark the end of the frame's GPU work and adjust the scale from any timings now available.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void endFrame(GL3 gl) {
+		int slot = (int)(frame % QUERY_COUNT);
+		gl.glQueryCounter(endQueries[slot], GL3.GL_TIMESTAMP);
+		pending[slot] = true;
+		frame++;
+		for (int i=1; i<QUERY_COUNT; i++) {
+			int older = (int)((frame+i) % QUERY_COUNT);
+			if (pending[older]) resolve(gl, older, false);
+		}
+	}
+
+	/**
+	 * Read a frame's timestamps (if available, or always if told to wait) and adjust the scale.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param slot The query slot.
+	 * @param wait Whether to wait for the result.
+	 */
+	private void resolve(GL3 gl, int slot, boolean wait) {
+		if (!wait) {
+			gl.glGetQueryObjectiv(endQueries[slot], GL3.GL_QUERY_RESULT_AVAILABLE, available, 0);
+			if (available[0] == 0) return;
+		}
+		gl.glGetQueryObjecti64v(startQueries[slot], GL3.GL_QUERY_RESULT, result, 0);
+		long start = result[0];
+		gl.glGetQueryObjecti64v(endQueries[slot], GL3.GL_QUERY_RESULT, result, 0);
+		pending[slot] = false;
+		lastGpuMs = (result[0]-start)/1e6;
+		adjust(lastGpuMs, slotScale[slot]);
+	}
+
+	/**
+	 * Move the scale towards the one expected to meet the target frame time.
+	 * 
+	 * @param gpuMs The measured GPU time of a frame in milliseconds.
+	 * @param measuredScale The scale the frame was drawn at.
+	 */
+	private void adjust(double gpuMs, float measuredScale) {
+		if (gpuMs <= 0 || Math.abs(gpuMs-targetMs) < targetMs*DEAD_BAND) return;
+		float ideal = measuredScale*(float)Math.sqrt(targetMs/gpuMs);
+		ideal = Math.min(Math.max(ideal, MIN_SCALE), MAX_SCALE);
+		float previous = scale;
+		scale += (ideal-scale)*DAMPING;
+		if (DISPLAY_SCALE && Math.abs(scale-previous) > 0.01f) {
+			System.out.printf("GPU %.2f ms, resolution scale %.2f%n", gpuMs, scale);
+		}
+	}
+
+	/**
+	 * Delete the queries.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		gl.glDeleteQueries(QUERY_COUNT, startQueries, 0);
+		gl.glDeleteQueries(QUERY_COUNT, endQueries, 0);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for capturing frames (screenshots and frame sequences) without stalling rendering. Each
+ * captured frame is copied by glReadPixels into one of a ring of 3 pixel-pack buffers, which the
+ * GPU fills asynchronously. A fence marks when the copy is done, and the buffer is only mapped a
+ * couple of frames later, by which time the copy has normally finished. The pixels are then
+ * encoded (PNG or raw BGRA) and written on a background thread pool.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for asynchronous frame capture through pixel buffer objects
+ */
+public class FrameCapture {
+	private static final boolean DISPLAY_CAPTURE = false;
+	private static final int RING_SIZE = 3;
+	// Frames between reading a frame into a buffer and mapping it
+	private static final int LATENCY = 2;
+	// Frames waiting to be encoded before the render thread helps encode (nothing is dropped)
+	private static final int MAX_QUEUED = 32;
+
+	private int[] buffers = new int[RING_SIZE];
+	private long[] fences = new long[RING_SIZE];
+	private long[] slotFrame = new long[RING_SIZE];
+	private int[] slotWidth = new int[RING_SIZE];
+	private int[] slotHeight = new int[RING_SIZE];
+	private int[] slotCapacity = new int[RING_SIZE];
+	private File[] slotFile = new File[RING_SIZE];
+	private long frame = 0;
+	private int next = 0;
+
+	private volatile File recordingDir = null;
+	private volatile File screenshotFile = null;
+	private volatile boolean raw = false;
+	private int recordedFrames = 0;
+	private ThreadPoolExecutor encoder;
+
+	/**
+	 * Constructor. Create the pixel-pack buffers and the encoding threads.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public FrameCapture(GL3 gl) {
+		gl.glGenBuffers(RING_SIZE, buffers, 0);
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+		encoder = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+										 new ArrayBlockingQueue<>(MAX_QUEUED),
+										 new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Start saving every frame into a directory (as frame_00000.png, etc.).
+	 * 
+	 * @param dir The directory to save frames into.
+	 * @param rawFormat Whether frames are saved as raw BGRA bytes (faster) rather than PNG.
+	 */
+	public void startRecording(File dir, boolean rawFormat) {
+		dir.mkdirs();
+		raw = rawFormat;
+		recordedFrames = 0;
+		recordingDir = dir;
+	}
+
+	/**
+	 * Stop saving frames (frames already read are still written).
+	 */
+	public void stopRecording() {
+		recordingDir = null;
+	}
+
+	/**
+	 * Check whether frames are currently being recorded.
+	 * 
+	 * @return Whether every frame is being saved.
+	 */
+	public boolean isRecording() {
+		return recordingDir != null;
+	}
+
+	/**
+	 * Save the next frame as a PNG file.
+	 * 
+	 * @param file The file to save the frame to.
+	 */
+	public void takeScreenshot(File file) {
+		screenshotFile = file;
+	}
+
+	/**
+	 * Capture the frame just drawn if recording or a screenshot was requested, and hand any
+	 * earlier frames whose copies have finished to the encoding threads. Called at the end of
+	 * each frame.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param width The width of the frame.
+	 * @param height The height of the frame.
+	 */
+	public void capture(GL3 gl, int width, int height) {
+		// Collect frames that have had time to be copied (frames not yet copied are left until
+		// their buffer is about to be reused)
+		for (int i=0; i<RING_SIZE; i++) {
+			if (fences[i] != 0 && frame-slotFrame[i] >= LATENCY) collect(gl, i, false);
+		}
+
+		File dir = recordingDir;
+		File screenshot = screenshotFile;
+		if (dir != null || screenshot != null) {
+			int slot = next;
+			if (fences[slot] != 0) collect(gl, slot, true);
+			int size = width*height*4;
+			gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+			if (slotCapacity[slot] < size) {
+				gl.glBufferData(GL3.GL_PIXEL_PACK_BUFFER, size, null, GL3.GL_STREAM_READ);
+				slotCapacity[slot] = size;
+			}
+			gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+			// With a pack buffer bound, the last argument is an offset into it and the call
+			// returns without waiting for the copy
+			gl.glReadPixels(0, 0, width, height, GL.GL_BGRA, GL.GL_UNSIGNED_BYTE, 0);
+			gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+			fences[slot] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+			slotFrame[slot] = frame;
+			slotWidth[slot] = width;
+			slotHeight[slot] = height;
+			if (screenshot != null) {
+				slotFile[slot] = screenshot;
+				screenshotFile = null;
+			}
+			else {
+				String name = String.format("frame_%05d.%s", recordedFrames++, raw ? "bgra" : "png");
+				slotFile[slot] = new File(dir, name);
+			}
+			next = (next+1) % RING_SIZE;
+		}
+		frame++;
+	}
+
+	/**
+	 * Map a buffer whose copy has finished and queue its pixels to be written.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param slot The buffer in the ring.
+	 * @param wait Whether to wait for the copy if it has not finished.
+	 */
+	private void collect(GL3 gl, int slot, boolean wait) {
+		long timeout = wait ? Long.MAX_VALUE : 0;
+		int flags = wait ? GL3.GL_SYNC_FLUSH_COMMANDS_BIT : 0;
+		int result = gl.glClientWaitSync(fences[slot], flags, timeout);
+		if (result == GL3.GL_TIMEOUT_EXPIRED) return;
+		if (DISPLAY_CAPTURE && result == GL3.GL_CONDITION_SATISFIED) {
+			System.out.println("Frame capture waited for frame " + slotFrame[slot]);
+		}
+		gl.glDeleteSync(fences[slot]);
+		fences[slot] = 0;
+
+		int width = slotWidth[slot];
+		int height = slotHeight[slot];
+		byte[] pixels = new byte[width*height*4];
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+		ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_PIXEL_PACK_BUFFER, 0, pixels.length,
+												GL3.GL_MAP_READ_BIT);
+		mapped.get(pixels);
+		gl.glUnmapBuffer(GL3.GL_PIXEL_PACK_BUFFER);
+		gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+
+		File file = slotFile[slot];
+		boolean rawFile = file.getName().endsWith(".bgra");
+		encoder.execute(() -> write(file, pixels, width, height, rawFile));
+	}
+
+	/**
+	 * Write a frame's pixels to a file (on an encoding thread).
+	 * 
+	 * @param file The file to write to.
+	 * @param pixels The pixels (BGRA, bottom row first).
+	 * @param width The width of the frame.
+	 * @param height The height of the frame.
+	 * @param rawFile Whether to write the bytes as they are rather than as a PNG.
+	 */
+	private static void write(File file, byte[] pixels, int width, int height, boolean rawFile) {
+		try {
+			if (rawFile) {
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+					out.write(pixels);
+				}
+				return;
+			}
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			int[] row = new int[width];
+			for (int j=0; j<height; j++) {
+				int offset = j*width*4;
+				for (int i=0; i<width; i++) {
+					int p = offset + i*4;
+					row[i] = ((pixels[p+2] & 0xFF) << 16) | ((pixels[p+1] & 0xFF) << 8)
+						   | (pixels[p] & 0xFF);
+				}
+				// OpenGL rows start at the bottom of the frame
+				image.setRGB(0, height-1-j, width, 1, row, 0, width);
+			}
+			ImageIO.write(image, "png", file);
+		}
+		catch (IOException e) {
+			System.err.println("Error writing captured frame " + file);
+		}
+	}
+
+	/**
+	 * Write any frames still in the ring, wait for the encoding threads to finish and delete the
+	 * buffers.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		for (int i=0; i<RING_SIZE; i++) {
+			if (fences[i] != 0) collect(gl, i, true);
+		}
+		gl.glDeleteBuffers(RING_SIZE, buffers, 0);
+		encoder.shutdown();
+		try {
+			encoder.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
\ No newline at end of file
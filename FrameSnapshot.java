@@ -0,0 +1,98 @@
+import gmaths.*;
+
+/**
+ * Class for an immutable copy of the simulated state at one update tick (see UpdateLoop): the
+ * simulation time and the camera's position and facing direction. Snapshots are handed from the
+ * update thread to the rendering thread, which never sees them change, and two consecutive
+ * snapshots can be blended so rendering is smooth at any frame rate.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for immutable snapshots of the simulated state
+ */
+public final class FrameSnapshot {
+	private final long tick;
+	private final double time;
+	private final Vec3 cameraPosition;
+	private final Vec3 cameraFront;
+
+	/**
+	 * Constructor. The vectors are copied, so the snapshot does not change with them.
+	 * 
+	 * @param tick The number of the update tick.
+	 * @param time The simulation time in seconds.
+	 * @param cameraPosition The position of the camera.
+	 * @param cameraFront The direction the camera faces.
+	 */
+	public FrameSnapshot(long tick, double time, Vec3 cameraPosition, Vec3 cameraFront) {
+		this.tick = tick;
+		this.time = time;
+		this.cameraPosition = new Vec3(cameraPosition);
+		this.cameraFront = new Vec3(cameraFront);
+	}
+
+	/**
+	 * Get the number of the update tick the snapshot was taken at.
+	 * 
+	 * @return The tick.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Get the simulation time of the snapshot.
+	 * 
+	 * @return The time in seconds.
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Get the position of the camera.
+	 * 
+	 * @return A copy of the position.
+	 */
+	public Vec3 getCameraPosition() {
+		return new Vec3(cameraPosition);
+	}
+
+	/**
+	 * Get the direction the camera faces.
+	 * 
+	 * @return A copy of the direction.
+	 */
+	public Vec3 getCameraFront() {
+		return new Vec3(cameraFront);
+	}
+
+	/**
+	 * Blend two snapshots: positions and times are interpolated linearly and the camera direction
+	 * is interpolated and renormalised.
+	 * 
+	 * @param a The earlier snapshot.
+	 * @param b The later snapshot.
+	 * @param t How far from a to b (0 gives a, 1 gives b).
+	 * @return The blended snapshot (with the tick of b).
+	 */
+	public static FrameSnapshot interpolate(FrameSnapshot a, FrameSnapshot b, float t) {
+		if (t <= 0) return a;
+		if (t >= 1) return b;
+		Vec3 front = lerp(a.cameraFront, b.cameraFront, t);
+		if (front.length() < 1e-6f) front = new Vec3(b.cameraFront);
+		front.normalize();
+		return new FrameSnapshot(b.tick, a.time + (b.time-a.time)*t,
+								 lerp(a.cameraPosition, b.cameraPosition, t), front);
+	}
+
+	/**
+	 * Interpolate linearly between two vectors.
+	 */
+	private static Vec3 lerp(Vec3 a, Vec3 b, float t) {
+		return new Vec3(a.x + (b.x-a.x)*t, a.y + (b.y-a.y)*t, a.z + (b.z-a.z)*t);
+	}
+}
\ No newline at end of file
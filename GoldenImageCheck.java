@@ -0,0 +1,272 @@
+import gmaths.*;
+import java.io.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for checking that changes to the renderer (shaders, models, optimisations) do not change
+ * the picture. The scene is rendered offscreen from a fixed set of camera poses and each frame is
+ * compared against a stored reference image with SSIM (structural similarity, computed on
+ * luminance over 7x7 windows). Poses scoring below the threshold fail, and a heatmap of where
+ * the frames differ is written for each of them.
+ * 
+ * Usage: java GoldenImageCheck [--update] [--threshold T] [--golden DIR] [--out DIR]
+ * (--update replaces the reference images with the current output)
+ * 
+ * The reference images are not generated automatically. Before the check can protect anything,
+ * run it once with --update on a build whose output is known to be right, look over the images
+ * written to assets/golden and commit them. They must be made again (and reviewed) whenever the
+ * picture is meant to change: references from before the HDR framebuffer and tonemapping pass
+ * (PostProcess) no longer match any frame and have to be replaced.
+ * 
+ * Exit status: 0 if every pose matches, 1 if any pose differs, 2 if a reference is missing.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for golden-image regression checks
+ * - Missing references fail with the instructions for creating them (--update)
+ */
+public class GoldenImageCheck {
+	private static final int WIDTH = 512;
+	private static final int HEIGHT = 384;
+	private static final double DEFAULT_THRESHOLD = 0.98;
+	// Frames drawn at each pose before capturing (occlusion query results and levels of detail
+	// depend on previous frames, so they are allowed to settle)
+	private static final int SETTLE_FRAMES = 4;
+	private static final int WINDOW_RADIUS = 3;
+	private static final double C1 = (0.01*255)*(0.01*255);
+	private static final double C2 = (0.03*255)*(0.03*255);
+
+	// Name, camera position and camera target of each pose
+	private static final String[] POSE_NAMES = {"top", "front", "side", "close"};
+	private static final Vec3[][] POSES = {
+		{new Vec3(0f,7.5f,0.01f), new Vec3(0f,-4f,0f)},
+		{new Vec3(0f,3f,12f), new Vec3(0f,0f,0f)},
+		{new Vec3(12f,3f,0f), new Vec3(0f,0f,0f)},
+		{new Vec3(2f,1f,2f), new Vec3(0f,0f,0f)}};
+
+	/**
+	 * Render every pose and compare (or update) the reference images.
+	 * 
+	 * @param args Command line options (see the class description).
+	 */
+	public static void main(String[] args) {
+		boolean update = false;
+		double threshold = DEFAULT_THRESHOLD;
+		File goldenDir = new File("assets/golden");
+		File outDir = new File("golden-diff");
+		for (int i=0; i<args.length; i++) {
+			switch (args[i]) {
+				case "--update": update = true; break;
+				case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+				case "--golden": goldenDir = new File(args[++i]); break;
+				case "--out": outDir = new File(args[++i]); break;
+				default: System.err.println("Unknown option " + args[i]);
+			}
+		}
+
+		Camera camera = new Camera(Camera.DEFAULT_POSITION, Camera.DEFAULT_TARGET, Camera.DEFAULT_UP);
+		Spacecraft_GLEventListener listener = new Spacecraft_GLEventListener(camera);
+		// A fixed exposure, so each pose always gives the same frame
+		listener.setAutoExposure(false);
+		GLOffscreenAutoDrawable drawable = SpacecraftHeadless.createDrawable(WIDTH, HEIGHT);
+		Capture capture = new Capture();
+		drawable.addGLEventListener(listener);
+		drawable.addGLEventListener(capture);
+
+		int status = 0;
+		boolean missing = false;
+		try {
+			for (int p=0; p<POSES.length; p++) {
+				camera.setPosition(POSES[p][0]);
+				camera.setTarget(POSES[p][1]);
+				for (int i=0; i<SETTLE_FRAMES; i++) {
+					drawable.display();
+				}
+				capture.requested = true;
+				drawable.display();
+				BufferedImage actual = capture.image;
+
+				File goldenFile = new File(goldenDir, POSE_NAMES[p] + ".png");
+				if (update) {
+					goldenDir.mkdirs();
+					ImageIO.write(actual, "png", goldenFile);
+					System.out.println("Updated " + goldenFile);
+					continue;
+				}
+				if (!goldenFile.exists()) {
+					System.out.println(POSE_NAMES[p] + ": missing reference " + goldenFile);
+					missing = true;
+					status = Math.max(status, 2);
+					continue;
+				}
+				BufferedImage expected = ImageIO.read(goldenFile);
+				if (expected.getWidth() != WIDTH || expected.getHeight() != HEIGHT) {
+					System.out.println(POSE_NAMES[p] + ": reference has the wrong size");
+					status = Math.max(status, 1);
+					continue;
+				}
+				double[] map = ssimMap(luminance(expected), luminance(actual), WIDTH, HEIGHT);
+				double score = mean(map);
+				boolean pass = score >= threshold;
+				System.out.println(String.format("%s: SSIM %.5f %s", POSE_NAMES[p], score,
+												 pass ? "ok" : "MISMATCH"));
+				if (!pass) {
+					status = Math.max(status, 1);
+					outDir.mkdirs();
+					ImageIO.write(actual, "png", new File(outDir, POSE_NAMES[p] + "_actual.png"));
+					ImageIO.write(heatmap(map, WIDTH, HEIGHT), "png",
+								  new File(outDir, POSE_NAMES[p] + "_diff.png"));
+				}
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Error reading/writing images: " + e.getMessage());
+			status = 2;
+		}
+		drawable.destroy();
+		if (missing) {
+			System.out.println("Reference images are missing from " + goldenDir + ". Create them "
+							   + "with 'java GoldenImageCheck --update' on a build known to render "
+							   + "correctly, check the images and commit them.");
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Convert an image to luminance values (0 to 255).
+	 * 
+	 * @param image The image.
+	 * @return The luminance of each pixel (row by row).
+	 */
+	public static double[] luminance(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		double[] y = new double[width*height];
+		for (int j=0; j<height; j++) {
+			for (int i=0; i<width; i++) {
+				int rgb = image.getRGB(i, j);
+				y[j*width+i] = 0.299*((rgb >> 16) & 0xFF) + 0.587*((rgb >> 8) & 0xFF)
+							 + 0.114*(rgb & 0xFF);
+			}
+		}
+		return y;
+	}
+
+	/**
+	 * Calculate the SSIM of the window around every pixel of two images. Window sums are taken
+	 * from summed-area tables, so the cost does not depend on the window size.
+	 * 
+	 * @param a The luminance of the first image.
+	 * @param b The luminance of the second image.
+	 * @param width The width of the images.
+	 * @param height The height of the images.
+	 * @return The SSIM around each pixel (1 where the images are identical).
+	 */
+	public static double[] ssimMap(double[] a, double[] b, int width, int height) {
+		double[][] tables = new double[5][(width+1)*(height+1)];
+		for (int j=0; j<height; j++) {
+			double[] row = new double[5];
+			for (int i=0; i<width; i++) {
+				double x = a[j*width+i];
+				double y = b[j*width+i];
+				row[0] += x;
+				row[1] += y;
+				row[2] += x*x;
+				row[3] += y*y;
+				row[4] += x*y;
+				int k = (j+1)*(width+1) + i+1;
+				for (int t=0; t<5; t++) {
+					tables[t][k] = tables[t][k-(width+1)] + row[t];
+				}
+			}
+		}
+		double[] map = new double[width*height];
+		double[] sums = new double[5];
+		for (int j=0; j<height; j++) {
+			int y0 = Math.max(0, j-WINDOW_RADIUS);
+			int y1 = Math.min(height, j+WINDOW_RADIUS+1);
+			for (int i=0; i<width; i++) {
+				int x0 = Math.max(0, i-WINDOW_RADIUS);
+				int x1 = Math.min(width, i+WINDOW_RADIUS+1);
+				double n = (x1-x0)*(y1-y0);
+				for (int t=0; t<5; t++) {
+					double[] s = tables[t];
+					sums[t] = s[y1*(width+1)+x1] - s[y0*(width+1)+x1]
+							- s[y1*(width+1)+x0] + s[y0*(width+1)+x0];
+				}
+				double meanA = sums[0]/n;
+				double meanB = sums[1]/n;
+				double varA = sums[2]/n - meanA*meanA;
+				double varB = sums[3]/n - meanB*meanB;
+				double cov = sums[4]/n - meanA*meanB;
+				map[j*width+i] = ((2*meanA*meanB + C1)*(2*cov + C2)) /
+								 ((meanA*meanA + meanB*meanB + C1)*(varA + varB + C2));
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Calculate the mean of a set of values.
+	 * 
+	 * @param values The values.
+	 * @return The mean.
+	 */
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double v : values) sum += v;
+		return sum/Math.max(1, values.length);
+	}
+
+	/**
+	 * Draw an SSIM map as a heatmap (black where the images match, through blue and green to red
+	 * where they differ most).
+	 * 
+	 * @param map The SSIM around each pixel.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @return The heatmap image.
+	 */
+	public static BufferedImage heatmap(double[] map, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int j=0; j<height; j++) {
+			for (int i=0; i<width; i++) {
+				// Differences of 0.25 or more in SSIM are shown at full strength
+				double t = Math.max(0, Math.min(1, (1-map[j*width+i])*4));
+				int r = (int)(255*Math.max(0, 2*t-1));
+				int g = (int)(255*(1-Math.abs(2*t-1)) * (t > 0 ? 1 : 0));
+				int b = (int)(255*Math.max(0, 1-2*t) * (t > 0 ? 1 : 0));
+				image.setRGB(i, j, (r << 16) | (g << 8) | b);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Listener added after the scene's listener to read back a frame when requested.
+	 */
+	private static class Capture implements GLEventListener {
+		private boolean requested = false;
+		private BufferedImage image;
+
+		public void init(GLAutoDrawable drawable) {
+		}
+
+		public void display(GLAutoDrawable drawable) {
+			if (!requested) return;
+			image = SpacecraftHeadless.readFrame(drawable);
+			requested = false;
+		}
+
+		public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+		}
+
+		public void dispose(GLAutoDrawable drawable) {
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,665 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.*;
+import java.util.stream.IntStream;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for precomputing image-based lighting from an environment cubemap (the six face images
+ * loaded by TextureLibrary.loadCubemap()). Three maps are baked on the CPU:
+ * - the diffuse irradiance cubemap (the cosine-weighted average of the environment around each
+ *   normal),
+ * - the specular cubemap prefiltered with the GGX distribution, one mip level per roughness,
+ * - the split-sum BRDF lookup table (scale and bias of F0 by view angle and roughness).
+ * PBR shaders then get their ambient light from three texture fetches.
+ * 
+ * Baking splits the texels of each map across cores with parallel streams (the fork-join common
+ * pool). The results are cached on disk under cache/ibl, named by a SHA-256 hash of the face
+ * images and the baking settings, so each environment is only baked once.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for baking and caching image-based lighting maps
+ * - The samplers are given their own units even when no environment is bound
+ */
+public class IblBaker {
+	private static final boolean DISPLAY_BAKING = false;
+	private static final File CACHE_DIR = new File("cache/ibl");
+	private static final int CACHE_VERSION = 1;
+	// Size of the environment's finest level (larger faces are averaged down to this)
+	private static final int SOURCE_SIZE = 128;
+	// Environment level integrated for the irradiance map (every texel is visited)
+	private static final int IRRADIANCE_SOURCE_SIZE = 16;
+	public static final int IRRADIANCE_SIZE = 32;
+	public static final int PREFILTER_SIZE = 64;
+	public static final int PREFILTER_LEVELS = 5;
+	public static final int BRDF_SIZE = 64;
+	private static final int PREFILTER_SAMPLES = 512;
+	private static final int BRDF_SAMPLES = 1024;
+	// Texture units used by bind() (after the 5 PBR material textures)
+	private static final int FIRST_UNIT = 5;
+
+	// Baked maps: [face][texel*3] for cubemaps, [level][face][texel*3] for the prefiltered map
+	private float[][] irradiance;
+	private float[][][] prefiltered;
+	private float[] brdf;
+	private int[] textureIds = new int[3];
+
+	/**
+	 * Bake (or load from the cache) the lighting maps of an environment.
+	 * 
+	 * @param faceFiles The paths of the six face images (+X, -X, +Y, -Y, +Z, -Z).
+	 * @return The baked maps, or null if the face images could not be read.
+	 */
+	public static IblBaker forEnvironment(String[] faceFiles) {
+		try {
+			String hash = hash(faceFiles);
+			File cacheFile = new File(CACHE_DIR, hash + ".bin");
+			IblBaker baker = new IblBaker();
+			if (cacheFile.exists()) {
+				try {
+					baker.read(cacheFile);
+					if (DISPLAY_BAKING) System.out.println("IBL maps loaded from " + cacheFile);
+					return baker;
+				}
+				catch (IOException e) {
+					System.out.println("Rebaking IBL maps (unreadable cache: " + e.getMessage() + ")");
+				}
+			}
+			long start = System.nanoTime();
+			baker.bake(faceFiles);
+			if (DISPLAY_BAKING) {
+				System.out.printf("IBL maps baked in %.2f s%n", (System.nanoTime()-start)/1e9);
+			}
+			CACHE_DIR.mkdirs();
+			baker.write(cacheFile);
+			return baker;
+		}
+		catch (IOException e) {
+			System.out.println("No image-based lighting: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Hash the face images and the baking settings (the name of the cache file).
+	 * 
+	 * @param faceFiles The paths of the six face images.
+	 * @return The SHA-256 hash as hexadecimal.
+	 * @throws IOException If a face image cannot be read.
+	 */
+	private static String hash(String[] faceFiles) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		for (String face : faceFiles) {
+			digest.update(Files.readAllBytes(Paths.get(face)));
+		}
+		String settings = CACHE_VERSION + "," + SOURCE_SIZE + "," + IRRADIANCE_SOURCE_SIZE + ","
+						  + IRRADIANCE_SIZE + "," + PREFILTER_SIZE + "," + PREFILTER_LEVELS + ","
+						  + BRDF_SIZE + "," + PREFILTER_SAMPLES + "," + BRDF_SAMPLES;
+		digest.update(settings.getBytes());
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	// ***************************************************
+	/* BAKING */
+
+	/**
+	 * Bake the three maps from the face images.
+	 * 
+	 * @param faceFiles The paths of the six face images.
+	 * @throws IOException If a face image cannot be read.
+	 */
+	private void bake(String[] faceFiles) throws IOException {
+		// Mip chain of the environment (linear colour), from SOURCE_SIZE down to 1
+		int levels = Integer.numberOfTrailingZeros(SOURCE_SIZE)+1;
+		float[][][] source = new float[levels][][];
+		source[0] = new float[6][];
+		for (int f=0; f<6; f++) {
+			BufferedImage image = ImageIO.read(new File(faceFiles[f]));
+			if (image == null) throw new IOException("Unreadable image " + faceFiles[f]);
+			source[0][f] = downsampleImage(image, SOURCE_SIZE);
+		}
+		for (int l=1; l<levels; l++) {
+			source[l] = new float[6][];
+			for (int f=0; f<6; f++) {
+				source[l][f] = halve(source[l-1][f], SOURCE_SIZE >> (l-1));
+			}
+		}
+
+		int irradianceLevel = Integer.numberOfTrailingZeros(SOURCE_SIZE/IRRADIANCE_SOURCE_SIZE);
+		irradiance = bakeIrradiance(source[irradianceLevel], IRRADIANCE_SOURCE_SIZE);
+		prefiltered = new float[PREFILTER_LEVELS][][];
+		for (int l=0; l<PREFILTER_LEVELS; l++) {
+			float roughness = (float)l/(PREFILTER_LEVELS-1);
+			prefiltered[l] = bakePrefiltered(source, PREFILTER_SIZE >> l, roughness);
+		}
+		brdf = bakeBrdf();
+	}
+
+	/**
+	 * Convert a face image to linear RGB floats at a given size (averaging blocks of pixels).
+	 * 
+	 * @param image The face image (sRGB).
+	 * @param size The size of the result.
+	 * @return The face (size*size*3 floats).
+	 */
+	private static float[] downsampleImage(BufferedImage image, int size) {
+		float[] face = new float[size*size*3];
+		int w = image.getWidth(), h = image.getHeight();
+		for (int y=0; y<size; y++) {
+			for (int x=0; x<size; x++) {
+				int x0 = x*w/size, x1 = Math.max((x+1)*w/size, x0+1);
+				int y0 = y*h/size, y1 = Math.max((y+1)*h/size, y0+1);
+				float r = 0, g = 0, b = 0;
+				for (int py=y0; py<y1; py++) {
+					for (int px=x0; px<x1; px++) {
+						int rgb = image.getRGB(px, py);
+						r += toLinear((rgb >> 16) & 0xFF);
+						g += toLinear((rgb >> 8) & 0xFF);
+						b += toLinear(rgb & 0xFF);
+					}
+				}
+				int n = (x1-x0)*(y1-y0);
+				int o = (y*size + x)*3;
+				face[o] = r/n;
+				face[o+1] = g/n;
+				face[o+2] = b/n;
+			}
+		}
+		return face;
+	}
+
+	/**
+	 * Convert an 8-bit sRGB channel to linear.
+	 */
+	private static float toLinear(int c) {
+		return (float)Math.pow(c/255.0, 2.2);
+	}
+
+	/**
+	 * Halve the size of a face by averaging 2x2 blocks.
+	 * 
+	 * @param face The face.
+	 * @param size The size of the face.
+	 * @return The face at half the size.
+	 */
+	private static float[] halve(float[] face, int size) {
+		int half = size/2;
+		float[] result = new float[half*half*3];
+		for (int y=0; y<half; y++) {
+			for (int x=0; x<half; x++) {
+				for (int c=0; c<3; c++) {
+					int a = ((2*y)*size + 2*x)*3 + c;
+					int b = ((2*y+1)*size + 2*x)*3 + c;
+					result[(y*half + x)*3 + c] = (face[a] + face[a+3] + face[b] + face[b+3])/4;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Bake the irradiance cubemap by integrating every texel of a small level of the environment,
+	 * weighted by its solid angle and cosine: E(N) = 1/pi * sum L(w) max(N.w, 0) dw.
+	 * 
+	 * @param source The environment level (6 faces).
+	 * @param sourceSize The size of the environment level.
+	 * @return The irradiance cubemap (6 faces of IRRADIANCE_SIZE).
+	 */
+	private static float[][] bakeIrradiance(float[][] source, int sourceSize) {
+		// Direction (normalised) and solid angle of every source texel
+		int texels = sourceSize*sourceSize;
+		float[] dirs = new float[6*texels*3];
+		float[] weights = new float[6*texels];
+		float[] d = new float[3];
+		for (int f=0; f<6; f++) {
+			for (int y=0; y<sourceSize; y++) {
+				for (int x=0; x<sourceSize; x++) {
+					int t = f*texels + y*sourceSize + x;
+					texelDirection(f, x, y, sourceSize, d);
+					System.arraycopy(d, 0, dirs, t*3, 3);
+					weights[t] = texelSolidAngle(x, y, sourceSize);
+				}
+			}
+		}
+
+		float[][] result = new float[6][IRRADIANCE_SIZE*IRRADIANCE_SIZE*3];
+		int outTexels = IRRADIANCE_SIZE*IRRADIANCE_SIZE;
+		IntStream.range(0, 6*outTexels).parallel().forEach(i -> {
+			int f = i/outTexels, y = (i%outTexels)/IRRADIANCE_SIZE, x = i%IRRADIANCE_SIZE;
+			float[] n = new float[3];
+			texelDirection(f, x, y, IRRADIANCE_SIZE, n);
+			float r = 0, g = 0, b = 0;
+			for (int t=0; t<6*texels; t++) {
+				float cos = n[0]*dirs[t*3] + n[1]*dirs[t*3+1] + n[2]*dirs[t*3+2];
+				if (cos <= 0) continue;
+				float w = cos*weights[t];
+				float[] face = source[t/texels];
+				int o = (t%texels)*3;
+				r += face[o]*w;
+				g += face[o+1]*w;
+				b += face[o+2]*w;
+			}
+			int o = (y*IRRADIANCE_SIZE + x)*3;
+			result[f][o] = r/(float)Math.PI;
+			result[f][o+1] = g/(float)Math.PI;
+			result[f][o+2] = b/(float)Math.PI;
+		});
+		return result;
+	}
+
+	/**
+	 * Bake one level of the prefiltered specular cubemap by importance sampling the GGX
+	 * distribution around each direction (taking N = V = R). Each sample reads the environment at
+	 * a mip level matching the solid angle it covers, so few samples are needed without noise.
+	 * 
+	 * @param source The environment mip chain.
+	 * @param size The size of the level.
+	 * @param roughness The roughness the level is filtered for.
+	 * @return The level (6 faces).
+	 */
+	private static float[][] bakePrefiltered(float[][][] source, int size, float roughness) {
+		float[][] result = new float[6][size*size*3];
+		int texels = size*size;
+		float saTexel = (float)(4*Math.PI/(6.0*SOURCE_SIZE*SOURCE_SIZE));
+		float a = roughness*roughness;
+		IntStream.range(0, 6*texels).parallel().forEach(i -> {
+			int f = i/texels, y = (i%texels)/size, x = i%size;
+			float[] n = new float[3];
+			float[] h = new float[3];
+			float[] colour = new float[3];
+			float[] sample = new float[3];
+			texelDirection(f, x, y, size, n);
+			int o = (y*size + x)*3;
+			if (roughness == 0) {
+				sampleCube(source, n, 0, colour);
+				System.arraycopy(colour, 0, result[f], o, 3);
+				return;
+			}
+			float totalWeight = 0;
+			for (int s=0; s<PREFILTER_SAMPLES; s++) {
+				importanceSampleGGX(s, PREFILTER_SAMPLES, n, a, h);
+				float nDotH = n[0]*h[0] + n[1]*h[1] + n[2]*h[2];
+				// Reflect the view (= normal) about H to get the light direction
+				float lx = 2*nDotH*h[0] - n[0], ly = 2*nDotH*h[1] - n[1], lz = 2*nDotH*h[2] - n[2];
+				float nDotL = n[0]*lx + n[1]*ly + n[2]*lz;
+				if (nDotL <= 0) continue;
+				float pdf = distributionGGX(nDotH, a)/4 + 0.0001f;
+				float saSample = 1f/(PREFILTER_SAMPLES*pdf);
+				float mip = Math.max(0.5f*(float)(Math.log(saSample/saTexel)/Math.log(2)), 0);
+				sampleCube(source, new float[]{lx, ly, lz}, mip, sample);
+				colour[0] += sample[0]*nDotL;
+				colour[1] += sample[1]*nDotL;
+				colour[2] += sample[2]*nDotL;
+				totalWeight += nDotL;
+			}
+			for (int c=0; c<3; c++) {
+				result[f][o+c] = colour[c]/Math.max(totalWeight, 0.0001f);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Bake the split-sum BRDF lookup table: for each view angle (x) and roughness (y), the scale
+	 * and bias applied to F0 for the specular term.
+	 * 
+	 * @return The table (BRDF_SIZE*BRDF_SIZE*2 floats).
+	 */
+	private static float[] bakeBrdf() {
+		float[] result = new float[BRDF_SIZE*BRDF_SIZE*2];
+		float[] n = {0, 0, 1};
+		IntStream.range(0, BRDF_SIZE*BRDF_SIZE).parallel().forEach(i -> {
+			int x = i%BRDF_SIZE, y = i/BRDF_SIZE;
+			float nDotV = Math.max((x+0.5f)/BRDF_SIZE, 0.001f);
+			float roughness = (y+0.5f)/BRDF_SIZE;
+			float a = roughness*roughness;
+			float vx = (float)Math.sqrt(1 - nDotV*nDotV), vz = nDotV;
+			float[] h = new float[3];
+			float scale = 0, bias = 0;
+			for (int s=0; s<BRDF_SAMPLES; s++) {
+				importanceSampleGGX(s, BRDF_SAMPLES, n, a, h);
+				float vDotH = vx*h[0] + vz*h[2];
+				float lz = 2*vDotH*h[2] - vz;
+				float nDotL = Math.max(lz, 0);
+				float nDotH = Math.max(h[2], 0);
+				vDotH = Math.max(vDotH, 0);
+				if (nDotL <= 0) continue;
+				// Smith geometry term with k = a/2 (the IBL remapping)
+				float k = a/2;
+				float g = (nDotV/(nDotV*(1-k) + k)) * (nDotL/(nDotL*(1-k) + k));
+				float gVis = g*vDotH/(nDotH*nDotV);
+				float fc = (float)Math.pow(1 - vDotH, 5);
+				scale += (1-fc)*gVis;
+				bias += fc*gVis;
+			}
+			result[i*2] = scale/BRDF_SAMPLES;
+			result[i*2+1] = bias/BRDF_SAMPLES;
+		});
+		return result;
+	}
+
+	/**
+	 * Generate the half vector of a GGX importance sample (Hammersley sequence) around a normal.
+	 * 
+	 * @param i The index of the sample.
+	 * @param count The number of samples.
+	 * @param n The normal.
+	 * @param a The squared roughness.
+	 * @param h The half vector (output).
+	 */
+	private static void importanceSampleGGX(int i, int count, float[] n, float a, float[] h) {
+		float u = (float)i/count;
+		// Radical inverse in base 2 (the bits of i mirrored about the binary point)
+		float v = (float)((Integer.reverse(i) & 0xFFFFFFFFL) * 2.3283064365386963e-10);
+		double phi = 2*Math.PI*u;
+		double cosTheta = Math.sqrt((1 - v)/(1 + (a*a - 1)*v));
+		double sinTheta = Math.sqrt(1 - cosTheta*cosTheta);
+		float tx = (float)(Math.cos(phi)*sinTheta);
+		float ty = (float)(Math.sin(phi)*sinTheta);
+		float tz = (float)cosTheta;
+		// Tangent space to world space around n
+		float ux = (Math.abs(n[2]) < 0.999f) ? 0 : 1, uy = 0, uz = (Math.abs(n[2]) < 0.999f) ? 1 : 0;
+		float txx = uy*n[2] - uz*n[1], txy = uz*n[0] - ux*n[2], txz = ux*n[1] - uy*n[0];
+		float length = (float)Math.sqrt(txx*txx + txy*txy + txz*txz);
+		txx /= length;
+		txy /= length;
+		txz /= length;
+		float bx = n[1]*txz - n[2]*txy, by = n[2]*txx - n[0]*txz, bz = n[0]*txy - n[1]*txx;
+		h[0] = txx*tx + bx*ty + n[0]*tz;
+		h[1] = txy*tx + by*ty + n[1]*tz;
+		h[2] = txz*tx + bz*ty + n[2]*tz;
+	}
+
+	/**
+	 * The GGX normal distribution function.
+	 */
+	private static float distributionGGX(float nDotH, float a) {
+		float a2 = a*a;
+		float denom = nDotH*nDotH*(a2 - 1) + 1;
+		return a2/((float)Math.PI*denom*denom);
+	}
+
+	/**
+	 * Get the direction through the centre of a cubemap texel (OpenGL face orientation).
+	 * 
+	 * @param face The face (0 to 5: +X, -X, +Y, -Y, +Z, -Z).
+	 * @param x The column of the texel.
+	 * @param y The row of the texel (0 at the top).
+	 * @param size The size of the face.
+	 * @param d The normalised direction (output).
+	 */
+	private static void texelDirection(int face, int x, int y, int size, float[] d) {
+		float u = 2*(x+0.5f)/size - 1;
+		float v = 2*(y+0.5f)/size - 1;
+		switch (face) {
+			case 0: d[0] = 1; d[1] = -v; d[2] = -u; break;
+			case 1: d[0] = -1; d[1] = -v; d[2] = u; break;
+			case 2: d[0] = u; d[1] = 1; d[2] = v; break;
+			case 3: d[0] = u; d[1] = -1; d[2] = -v; break;
+			case 4: d[0] = u; d[1] = -v; d[2] = 1; break;
+			default: d[0] = -u; d[1] = -v; d[2] = -1; break;
+		}
+		float length = (float)Math.sqrt(d[0]*d[0] + d[1]*d[1] + d[2]*d[2]);
+		d[0] /= length;
+		d[1] /= length;
+		d[2] /= length;
+	}
+
+	/**
+	 * Get the solid angle covered by a cubemap texel.
+	 */
+	private static float texelSolidAngle(int x, int y, int size) {
+		float u0 = 2f*x/size - 1, u1 = 2f*(x+1)/size - 1;
+		float v0 = 2f*y/size - 1, v1 = 2f*(y+1)/size - 1;
+		return (float)(areaElement(u0, v0) - areaElement(u0, v1) - areaElement(u1, v0)
+					   + areaElement(u1, v1));
+	}
+
+	private static double areaElement(double x, double y) {
+		return Math.atan2(x*y, Math.sqrt(x*x + y*y + 1));
+	}
+
+	/**
+	 * Sample the environment in a direction, blending bilinearly within a face and linearly
+	 * between the two nearest mip levels.
+	 * 
+	 * @param source The environment mip chain.
+	 * @param d The direction (need not be normalised).
+	 * @param mip The mip level (fractional).
+	 * @param colour The colour (output).
+	 */
+	private static void sampleCube(float[][][] source, float[] d, float mip, float[] colour) {
+		float ax = Math.abs(d[0]), ay = Math.abs(d[1]), az = Math.abs(d[2]);
+		int face;
+		float u, v;
+		if (ax >= ay && ax >= az) {
+			face = (d[0] > 0) ? 0 : 1;
+			u = (d[0] > 0) ? -d[2]/ax : d[2]/ax;
+			v = -d[1]/ax;
+		}
+		else if (ay >= az) {
+			face = (d[1] > 0) ? 2 : 3;
+			u = d[0]/ay;
+			v = (d[1] > 0) ? d[2]/ay : -d[2]/ay;
+		}
+		else {
+			face = (d[2] > 0) ? 4 : 5;
+			u = (d[2] > 0) ? d[0]/az : -d[0]/az;
+			v = -d[1]/az;
+		}
+		mip = Math.min(mip, source.length-1);
+		int l0 = (int)mip;
+		int l1 = Math.min(l0+1, source.length-1);
+		float t = mip-l0;
+		float r = 0, g = 0, b = 0;
+		for (int k=0; k<2; k++) {
+			int level = (k == 0) ? l0 : l1;
+			float weight = (k == 0) ? 1-t : t;
+			if (weight == 0) continue;
+			int size = SOURCE_SIZE >> level;
+			float[] texels = source[level][face];
+			float px = Math.min(Math.max((u+1)/2*size - 0.5f, 0), size-1);
+			float py = Math.min(Math.max((v+1)/2*size - 0.5f, 0), size-1);
+			int x0 = (int)px, y0 = (int)py;
+			int x1 = Math.min(x0+1, size-1), y1 = Math.min(y0+1, size-1);
+			float fx = px-x0, fy = py-y0;
+			for (int c=0; c<3; c++) {
+				float top = texels[(y0*size + x0)*3 + c]*(1-fx) + texels[(y0*size + x1)*3 + c]*fx;
+				float bottom = texels[(y1*size + x0)*3 + c]*(1-fx) + texels[(y1*size + x1)*3 + c]*fx;
+				float value = (top*(1-fy) + bottom*fy)*weight;
+				if (c == 0) r += value;
+				else if (c == 1) g += value;
+				else b += value;
+			}
+		}
+		colour[0] = r;
+		colour[1] = g;
+		colour[2] = b;
+	}
+
+	// ***************************************************
+	/* CACHE */
+
+	/**
+	 * Write the baked maps to a cache file.
+	 * 
+	 * @param file The cache file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private void write(File file) throws IOException {
+		int floats = floatCount();
+		ByteBuffer bytes = ByteBuffer.allocate(8 + floats*Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putInt(CACHE_VERSION);
+		bytes.putInt(floats);
+		FloatBuffer out = bytes.asFloatBuffer();
+		for (float[] face : irradiance) out.put(face);
+		for (float[][] level : prefiltered) {
+			for (float[] face : level) out.put(face);
+		}
+		out.put(brdf);
+		bytes.rewind();
+		// Written to a temporary file first so a cut-short write never leaves a bad cache file
+		File temp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+													StandardOpenOption.WRITE,
+													StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (bytes.hasRemaining()) channel.write(bytes);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Read the baked maps from a cache file.
+	 * 
+	 * @param file The cache file.
+	 * @throws IOException If the file cannot be read or does not match the current settings.
+	 */
+	private void read(File file) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+									 .order(ByteOrder.LITTLE_ENDIAN);
+		int floats = floatCount();
+		if (bytes.remaining() != 8 + floats*Float.BYTES || bytes.getInt() != CACHE_VERSION
+			|| bytes.getInt() != floats) {
+			throw new IOException("unexpected size or version");
+		}
+		FloatBuffer in = bytes.asFloatBuffer();
+		irradiance = new float[6][IRRADIANCE_SIZE*IRRADIANCE_SIZE*3];
+		for (float[] face : irradiance) in.get(face);
+		prefiltered = new float[PREFILTER_LEVELS][6][];
+		for (int l=0; l<PREFILTER_LEVELS; l++) {
+			int size = PREFILTER_SIZE >> l;
+			for (int f=0; f<6; f++) {
+				prefiltered[l][f] = new float[size*size*3];
+				in.get(prefiltered[l][f]);
+			}
+		}
+		brdf = new float[BRDF_SIZE*BRDF_SIZE*2];
+		in.get(brdf);
+	}
+
+	/**
+	 * Get the total number of floats in the three maps.
+	 */
+	private static int floatCount() {
+		int count = 6*IRRADIANCE_SIZE*IRRADIANCE_SIZE*3 + BRDF_SIZE*BRDF_SIZE*2;
+		for (int l=0; l<PREFILTER_LEVELS; l++) {
+			int size = PREFILTER_SIZE >> l;
+			count += 6*size*size*3;
+		}
+		return count;
+	}
+
+	// ***************************************************
+	/* RENDERING */
+
+	/**
+	 * Create the OpenGL textures for the baked maps (16-bit float).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void upload(GL3 gl) {
+		gl.glGenTextures(3, textureIds, 0);
+		gl.glEnable(GL3.GL_TEXTURE_CUBE_MAP_SEAMLESS);
+
+		gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, textureIds[0]);
+		for (int f=0; f<6; f++) {
+			gl.glTexImage2D(GL.GL_TEXTURE_CUBE_MAP_POSITIVE_X + f, 0, GL.GL_RGB16F, IRRADIANCE_SIZE,
+							IRRADIANCE_SIZE, 0, GL.GL_RGB, GL.GL_FLOAT,
+							Buffers.newDirectFloatBuffer(irradiance[f]));
+		}
+		setCubeParameters(gl, GL.GL_LINEAR, 0);
+
+		gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, textureIds[1]);
+		for (int l=0; l<PREFILTER_LEVELS; l++) {
+			int size = PREFILTER_SIZE >> l;
+			for (int f=0; f<6; f++) {
+				gl.glTexImage2D(GL.GL_TEXTURE_CUBE_MAP_POSITIVE_X + f, l, GL.GL_RGB16F, size, size, 0,
+								GL.GL_RGB, GL.GL_FLOAT, Buffers.newDirectFloatBuffer(prefiltered[l][f]));
+			}
+		}
+		setCubeParameters(gl, GL.GL_LINEAR_MIPMAP_LINEAR, PREFILTER_LEVELS-1);
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, textureIds[2]);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL3.GL_RG16F, BRDF_SIZE, BRDF_SIZE, 0, GL3.GL_RG,
+						GL.GL_FLOAT, Buffers.newDirectFloatBuffer(brdf));
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+	}
+
+	/**
+	 * Set the wrapping and filtering of the bound cubemap.
+	 */
+	private static void setCubeParameters(GL3 gl, int minFilter, int maxLevel) {
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_WRAP_R, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL.GL_TEXTURE_MIN_FILTER, minFilter);
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_MAX_LEVEL, maxLevel);
+	}
+
+	/**
+	 * Bind the maps to texture units 5 to 7 and point the PBR shader's samplers at them.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param shader The PBR shader (already in use).
+	 */
+	public void bind(GL3 gl, Shader shader) {
+		shader.setInt(gl, "useIbl", 1);
+		shader.setFloat(gl, "prefilterLevels", PREFILTER_LEVELS);
+		shader.setInt(gl, "irradiance_map", FIRST_UNIT);
+		gl.glActiveTexture(GL.GL_TEXTURE0 + FIRST_UNIT);
+		gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, textureIds[0]);
+		shader.setInt(gl, "prefilter_map", FIRST_UNIT+1);
+		gl.glActiveTexture(GL.GL_TEXTURE0 + FIRST_UNIT+1);
+		gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, textureIds[1]);
+		shader.setInt(gl, "brdf_lut", FIRST_UNIT+2);
+		gl.glActiveTexture(GL.GL_TEXTURE0 + FIRST_UNIT+2);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, textureIds[2]);
+	}
+
+	/**
+	 * Turn off image-based lighting in the PBR shader. The samplers still get units 5 to 7, as
+	 * otherwise the cubemap samplers would share unit 0 with albedo_texture (an invalid draw).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param shader The PBR shader (already in use).
+	 */
+	public static void unbind(GL3 gl, Shader shader) {
+		shader.setInt(gl, "useIbl", 0);
+		shader.setInt(gl, "irradiance_map", FIRST_UNIT);
+		shader.setInt(gl, "prefilter_map", FIRST_UNIT+1);
+		shader.setInt(gl, "brdf_lut", FIRST_UNIT+2);
+	}
+
+	/**
+	 * Delete the textures.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		gl.glDeleteTextures(3, textureIds, 0);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,437 @@
+import gmaths.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for drawing many static objects with GPU-driven rendering. The meshes of every object
+ * share one vertex buffer and one index buffer, and each object has a draw command (index count,
+ * first index and base vertex of its mesh) in an indirect buffer. The objects are split into
+ * groups that share a shader, textures and material, and each group is drawn by a single
+ * glMultiDrawElementsIndirect call, so the CPU cost of drawing does not grow with the number of
+ * objects.
+ * 
+ * Each command's base instance is the index of its object, which the vertex shader receives as a
+ * per-instance attribute (the draw ID) and uses to read the object's model matrix from a shader
+ * storage buffer (see vs_indirect.txt). Before drawing, a compute shader can test every object's
+ * bounding sphere against the view frustum and set the instance count of hidden objects' commands
+ * to 0 (see cs_cull.txt), so culling also happens without a loop on the CPU.
+ * 
+ * Needs OpenGL 4.3 (compute shaders, shader storage buffers and multi-draw indirect); use
+ * isSupported() first and draw the objects individually otherwise.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for GPU-driven (multi-draw indirect) rendering of static objects
+ */
+public class IndirectScene {
+	private static final String CULL_SHADER = "assets/shaders/cs_cull.txt";
+	// Storage buffer binding points (must match vs_indirect.txt and cs_cull.txt)
+	private static final int OBJECTS_BINDING = 0;
+	private static final int COMMANDS_BINDING = 1;
+	private static final int BOUNDS_BINDING = 2;
+	private static final int DRAW_ID_LOCATION = 3;
+	// Integers in a draw command: count, instance count, first index, base vertex, base instance
+	private static final int COMMAND_INTS = 5;
+	private static final int CULL_GROUP_SIZE = 64;
+	private static final VertexLayout LAYOUT = VertexLayout.FLOAT32;
+	private static final int STRIDE = 8;
+
+	// Meshes (gathered before finish())
+	private List<float[]> meshVertices = new ArrayList<>();
+	private List<int[]> meshIndices = new ArrayList<>();
+	private List<float[]> meshSpheres = new ArrayList<>();
+
+	// Objects (gathered before finish())
+	private List<Integer> objectMesh = new ArrayList<>();
+	private List<Integer> objectGroup = new ArrayList<>();
+	private List<Mat4> objectMatrices = new ArrayList<>();
+
+	private int groupCount = 0;
+	private int objectCount;
+	private float[] models;
+	private float[] spheres;
+	private boolean transformsChanged = false;
+	private boolean culling = true;
+	private boolean finished = false;
+
+	private int[] vertexArrayId = new int[1];
+	// Vertex, index, draw ID, object matrix and bounding sphere buffers
+	private int[] buffers = new int[5];
+	private int[] commandBuffers;
+	private int[] groupCommandCount;
+	private int[] groupIndexCount;
+	private int cullProgram;
+
+	/**
+	 * Whether the context supports GPU-driven rendering (OpenGL 4.3 or the equivalent extensions).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @return True if IndirectScene can be used.
+	 */
+	public static boolean isSupported(GL3 gl) {
+		if (gl.isExtensionAvailable("GL_VERSION_4_3")) return true;
+		return gl.isExtensionAvailable("GL_ARB_multi_draw_indirect")
+			   && gl.isExtensionAvailable("GL_ARB_base_instance")
+			   && gl.isExtensionAvailable("GL_ARB_compute_shader")
+			   && gl.isExtensionAvailable("GL_ARB_shader_storage_buffer_object");
+	}
+
+	/**
+	 * Add a mesh to the shared buffers.
+	 * 
+	 * @param vertices The vertices of the mesh (8 floats each: position, normal, texture
+	 * 				   coordinates).
+	 * @param indices The indices of the mesh's triangles.
+	 * @return The index of the mesh (used by addObject()).
+	 */
+	public int addMesh(float[] vertices, int[] indices) {
+		meshVertices.add(vertices);
+		meshIndices.add(indices);
+		meshSpheres.add(boundingSphere(vertices));
+		return meshVertices.size()-1;
+	}
+
+	/**
+	 * Add an object (a mesh drawn with a model matrix) to a group.
+	 * 
+	 * @param mesh The index of the mesh (from addMesh()).
+	 * @param group The group the object is drawn with (0 to the number of groups - 1).
+	 * @param modelMatrix The model matrix of the object.
+	 * @return The index of the object (used by setTransform()).
+	 */
+	public int addObject(int mesh, int group, Mat4 modelMatrix) {
+		if (finished) {
+			throw new IllegalStateException("Objects must be added before finish()");
+		}
+		objectMesh.add(mesh);
+		objectGroup.add(group);
+		objectMatrices.add(new Mat4(modelMatrix));
+		groupCount = Math.max(groupCount, group+1);
+		return objectMesh.size()-1;
+	}
+
+	/**
+	 * Get the number of objects.
+	 * 
+	 * @return The number of objects.
+	 */
+	public int getObjectCount() {
+		return finished ? objectCount : objectMesh.size();
+	}
+
+	/**
+	 * Choose whether hidden objects are culled by the compute shader before drawing.
+	 * 
+	 * @param culling Whether objects outside the view frustum are skipped.
+	 */
+	public void setCulling(boolean culling) {
+		this.culling = culling;
+	}
+
+	/**
+	 * Create the buffers and the culling program once every mesh and object has been added.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void finish(GL3 gl) {
+		finished = true;
+		objectCount = objectMesh.size();
+
+		// Concatenate the meshes (indices stay relative to each mesh; the base vertex offsets them)
+		int vertexFloats = 0;
+		int indexCount = 0;
+		for (int m=0; m<meshVertices.size(); m++) {
+			vertexFloats += meshVertices.get(m).length;
+			indexCount += meshIndices.get(m).length;
+		}
+		float[] allVertices = new float[vertexFloats];
+		int[] allIndices = new int[indexCount];
+		int[] firstIndex = new int[meshVertices.size()];
+		int[] baseVertex = new int[meshVertices.size()];
+		int v = 0;
+		int i = 0;
+		for (int m=0; m<meshVertices.size(); m++) {
+			float[] vertices = meshVertices.get(m);
+			int[] indices = meshIndices.get(m);
+			firstIndex[m] = i;
+			baseVertex[m] = v/STRIDE;
+			System.arraycopy(vertices, 0, allVertices, v, vertices.length);
+			System.arraycopy(indices, 0, allIndices, i, indices.length);
+			v += vertices.length;
+			i += indices.length;
+		}
+
+		models = new float[objectCount*16];
+		spheres = new float[objectCount*4];
+		for (int o=0; o<objectCount; o++) {
+			writeObject(o, objectMatrices.get(o));
+		}
+
+		gl.glGenVertexArrays(1, vertexArrayId, 0);
+		gl.glBindVertexArray(vertexArrayId[0]);
+		gl.glGenBuffers(buffers.length, buffers, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[0]);
+		ByteBuffer vb = LAYOUT.pack(allVertices);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vb.capacity(), vb, GL.GL_STATIC_DRAW);
+		LAYOUT.setUpAttributes(gl);
+
+		// The draw ID of each instance: its base instance, i.e. the object index
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[2]);
+		IntBuffer ids = Buffers.newDirectIntBuffer(Math.max(objectCount, 1));
+		for (int o=0; o<objectCount; o++) ids.put(o);
+		ids.rewind();
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long)ids.capacity()*Integer.BYTES, ids,
+						GL.GL_STATIC_DRAW);
+		gl.glVertexAttribIPointer(DRAW_ID_LOCATION, 1, GL.GL_UNSIGNED_INT, 0, 0);
+		gl.glEnableVertexAttribArray(DRAW_ID_LOCATION);
+		gl.glVertexAttribDivisor(DRAW_ID_LOCATION, 1);
+
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+		IntBuffer ib = Buffers.newDirectIntBuffer(allIndices);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long)allIndices.length*Integer.BYTES, ib,
+						GL.GL_STATIC_DRAW);
+		gl.glBindVertexArray(0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, buffers[3]);
+		gl.glBufferData(GL3.GL_SHADER_STORAGE_BUFFER, (long)models.length*Float.BYTES,
+						Buffers.newDirectFloatBuffer(models), GL.GL_DYNAMIC_DRAW);
+		gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, buffers[4]);
+		gl.glBufferData(GL3.GL_SHADER_STORAGE_BUFFER, (long)spheres.length*Float.BYTES,
+						Buffers.newDirectFloatBuffer(spheres), GL.GL_DYNAMIC_DRAW);
+		gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, 0);
+
+		// One command buffer per group, each command drawing one object
+		groupCommandCount = new int[groupCount];
+		groupIndexCount = new int[groupCount];
+		for (int o=0; o<objectCount; o++) {
+			groupCommandCount[objectGroup.get(o)]++;
+		}
+		commandBuffers = new int[groupCount];
+		gl.glGenBuffers(groupCount, commandBuffers, 0);
+		for (int g=0; g<groupCount; g++) {
+			int capacity = Math.max(groupCommandCount[g], 1)*COMMAND_INTS;
+			IntBuffer commands = Buffers.newDirectIntBuffer(capacity);
+			for (int o=0; o<objectCount; o++) {
+				if (objectGroup.get(o) != g) continue;
+				int m = objectMesh.get(o);
+				commands.put(meshIndices.get(m).length);
+				commands.put(1);
+				commands.put(firstIndex[m]);
+				commands.put(baseVertex[m]);
+				commands.put(o);
+				groupIndexCount[g] += meshIndices.get(m).length;
+			}
+			commands.rewind();
+			gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, commandBuffers[g]);
+			gl.glBufferData(GL3.GL_DRAW_INDIRECT_BUFFER, (long)commands.capacity()*Integer.BYTES,
+							commands, GL.GL_DYNAMIC_DRAW);
+		}
+		gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, 0);
+
+		cullProgram = createComputeProgram(gl, CULL_SHADER);
+
+		meshVertices = null;
+		meshIndices = null;
+		objectMatrices = null;
+	}
+
+	/**
+	 * Change the model matrix of an object (uploaded before the next cull/draw).
+	 * 
+	 * @param object The index of the object.
+	 * @param modelMatrix The new model matrix.
+	 */
+	public void setTransform(int object, Mat4 modelMatrix) {
+		writeObject(object, modelMatrix);
+		transformsChanged = true;
+	}
+
+	/**
+	 * Store an object's model matrix (column-major) and world-space bounding sphere.
+	 * 
+	 * @param o The index of the object.
+	 * @param m The model matrix.
+	 */
+	private void writeObject(int o, Mat4 m) {
+		System.arraycopy(m.toFloatArrayForGLSL(), 0, models, o*16, 16);
+		float[] s = meshSpheres.get(objectMesh.get(o));
+		float scale = 0;
+		for (int c=0; c<3; c++) {
+			float x = m.get(0,c), y = m.get(1,c), z = m.get(2,c);
+			scale = Math.max(scale, (float)Math.sqrt(x*x + y*y + z*z));
+		}
+		for (int r=0; r<3; r++) {
+			spheres[o*4+r] = m.get(r,0)*s[0] + m.get(r,1)*s[1] + m.get(r,2)*s[2] + m.get(r,3);
+		}
+		spheres[o*4+3] = s[3]*scale;
+	}
+
+	/**
+	 * Upload changed transforms and, if culling is on, run the culling compute shader for every
+	 * group. Called once per frame before the groups are drawn.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera the objects are viewed from.
+	 */
+	public void cull(GL3 gl, Camera camera) {
+		if (transformsChanged) {
+			gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, buffers[3]);
+			gl.glBufferSubData(GL3.GL_SHADER_STORAGE_BUFFER, 0, (long)models.length*Float.BYTES,
+							   Buffers.newDirectFloatBuffer(models));
+			gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, buffers[4]);
+			gl.glBufferSubData(GL3.GL_SHADER_STORAGE_BUFFER, 0, (long)spheres.length*Float.BYTES,
+							   Buffers.newDirectFloatBuffer(spheres));
+			gl.glBindBuffer(GL3.GL_SHADER_STORAGE_BUFFER, 0);
+			transformsChanged = false;
+		}
+
+		gl.glUseProgram(cullProgram);
+		float[] planes = culling ? frustumPlanes(camera) : null;
+		if (planes != null) {
+			gl.glUniform4fv(gl.glGetUniformLocation(cullProgram, "planes"), 6, planes, 0);
+		}
+		gl.glUniform1i(gl.glGetUniformLocation(cullProgram, "cullingOn"), culling ? 1 : 0);
+		gl.glBindBufferBase(GL3.GL_SHADER_STORAGE_BUFFER, BOUNDS_BINDING, buffers[4]);
+		int location = gl.glGetUniformLocation(cullProgram, "commandCount");
+		for (int g=0; g<groupCount; g++) {
+			if (groupCommandCount[g] == 0) continue;
+			gl.glUniform1i(location, groupCommandCount[g]);
+			gl.glBindBufferBase(GL3.GL_SHADER_STORAGE_BUFFER, COMMANDS_BINDING, commandBuffers[g]);
+			gl.glDispatchCompute((groupCommandCount[g] + CULL_GROUP_SIZE-1)/CULL_GROUP_SIZE, 1, 1);
+		}
+		// The commands written by the compute shader are read by the following draws
+		gl.glMemoryBarrier(GL3.GL_COMMAND_BARRIER_BIT);
+		gl.glUseProgram(0);
+	}
+
+	/**
+	 * Compute the 6 planes of the camera's view frustum (ax + by + cz + d >= 0 inside), normalised
+	 * so the distance of a point from each plane can be compared with a radius.
+	 * 
+	 * @param camera The camera.
+	 * @return The planes (4 floats each).
+	 */
+	private static float[] frustumPlanes(Camera camera) {
+		Mat4 vp = Mat4.multiply(camera.getPerspectiveMatrix(), camera.getViewMatrix());
+		float[] planes = new float[24];
+		for (int p=0; p<6; p++) {
+			// Left/right, bottom/top and near/far: row 3 plus or minus rows 0, 1 and 2
+			int row = p/2;
+			float sign = (p%2 == 0) ? 1 : -1;
+			float length = 0;
+			for (int c=0; c<4; c++) {
+				planes[p*4+c] = vp.get(3,c) + sign*vp.get(row,c);
+			}
+			for (int c=0; c<3; c++) {
+				length += planes[p*4+c]*planes[p*4+c];
+			}
+			length = (float)Math.sqrt(length);
+			for (int c=0; c<4; c++) {
+				planes[p*4+c] /= length;
+			}
+		}
+		return planes;
+	}
+
+	/**
+	 * Draw every (visible) object of a group with one multi-draw indirect call. The shader (using
+	 * vs_indirect.txt) and its uniforms must already be set up.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param group The group to draw.
+	 */
+	public void drawGroup(GL3 gl, int group) {
+		if (group >= groupCount || groupCommandCount[group] == 0) return;
+		gl.glBindVertexArray(vertexArrayId[0]);
+		gl.glBindBufferBase(GL3.GL_SHADER_STORAGE_BUFFER, OBJECTS_BINDING, buffers[3]);
+		gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, commandBuffers[group]);
+		// With an indirect buffer bound, the (null) pointer is an offset of 0 into it
+		gl.glMultiDrawElementsIndirect(GL.GL_TRIANGLES, GL.GL_UNSIGNED_INT, null,
+									   groupCommandCount[group], 0);
+		gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, 0);
+		gl.glBindVertexArray(0);
+		// Counted before culling (the culled counts stay on the GPU)
+		RenderStats.recordDraw(groupIndexCount[group]);
+	}
+
+	/**
+	 * Compute a bounding sphere of a mesh (the centre of its bounding box and the furthest vertex
+	 * from it).
+	 * 
+	 * @param vertices The vertices of the mesh.
+	 * @return The sphere (centre x, y, z and radius).
+	 */
+	private static float[] boundingSphere(float[] vertices) {
+		float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int v=0; v<vertices.length; v+=STRIDE) {
+			for (int k=0; k<3; k++) {
+				min[k] = Math.min(min[k], vertices[v+k]);
+				max[k] = Math.max(max[k], vertices[v+k]);
+			}
+		}
+		float[] sphere = new float[4];
+		for (int k=0; k<3; k++) sphere[k] = (min[k]+max[k])/2;
+		for (int v=0; v<vertices.length; v+=STRIDE) {
+			float dx = vertices[v]-sphere[0];
+			float dy = vertices[v+1]-sphere[1];
+			float dz = vertices[v+2]-sphere[2];
+			sphere[3] = Math.max(sphere[3], (float)Math.sqrt(dx*dx + dy*dy + dz*dz));
+		}
+		return sphere;
+	}
+
+	/**
+	 * Compile and link a compute shader program.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param path The file path of the compute shader.
+	 * @return The OpenGL ID of the program.
+	 */
+	private static int createComputeProgram(GL3 gl, String path) {
+		String source;
+		try {
+			source = new String(Files.readAllBytes(Paths.get(path)));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			source = "";
+		}
+		int shader = gl.glCreateShader(GL3.GL_COMPUTE_SHADER);
+		gl.glShaderSource(shader, 1, new String[]{source}, null);
+		gl.glCompileShader(shader);
+		int[] status = new int[1];
+		gl.glGetShaderiv(shader, GL3.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == 0)
+			System.err.println("[error] Unable to compile compute shader: " + path);
+		int program = gl.glCreateProgram();
+		gl.glAttachShader(program, shader);
+		gl.glLinkProgram(program);
+		gl.glGetProgramiv(program, GL3.GL_LINK_STATUS, status, 0);
+		if (status[0] == 0)
+			System.err.println("[error] Unable to link compute program: " + path);
+		gl.glDeleteShader(shader);
+		return program;
+	}
+
+	/**
+	 * Free the buffers and the culling program.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		if (!finished) return;
+		gl.glDeleteBuffers(buffers.length, buffers, 0);
+		gl.glDeleteBuffers(commandBuffers.length, commandBuffers, 0);
+		gl.glDeleteVertexArrays(1, vertexArrayId, 0);
+		gl.glDeleteProgram(cullProgram);
+	}
+}
\ No newline at end of file
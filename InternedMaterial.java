@@ -0,0 +1,163 @@
+import gmaths.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Class for an immutable material with an integer ID (its index in the material table, see
+ * MaterialTable). Materials are interned: the same values always give the same instance and ID,
+ * however many Material objects hold them, so a scene only has as many entries in the table as it
+ * has distinct materials. A model then only needs the ID of its material per draw, instead of
+ * copying the material's values into the per-draw data every time it is drawn.
+ * 
+ * IDs are given out in the order materials are first interned and never reused, so the material
+ * table only ever has to upload the entries added since it was last updated.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for immutable, interned materials with integer IDs
+ */
+public final class InternedMaterial {
+	// Floats per material in the table: ambient and shininess, diffuse, specular (3 RGBA texels)
+	public static final int FLOATS = 12;
+
+	private static final Map<InternedMaterial, InternedMaterial> interned = new HashMap<>();
+	private static final List<InternedMaterial> byId = new ArrayList<>();
+
+	private final float[] values;
+	private final int hash;
+	private int id;
+
+	/**
+	 * Constructor (use of() to get the interned instance).
+	 * 
+	 * @param values The values in the layout of the table.
+	 */
+	private InternedMaterial(float[] values) {
+		this.values = values;
+		hash = Arrays.hashCode(values);
+	}
+
+	/**
+	 * Get the interned material with the current values of a material.
+	 * 
+	 * @param material The material.
+	 * @return The interned material.
+	 */
+	public static InternedMaterial of(Material material) {
+		return of(material.getAmbient(), material.getDiffuse(), material.getSpecular(),
+				  material.getShininess());
+	}
+
+	/**
+	 * Get the interned material with the given values, adding it (with the next ID) if no
+	 * material with them has been interned before.
+	 * 
+	 * @param ambient The ambient colour.
+	 * @param diffuse The diffuse colour.
+	 * @param specular The specular colour.
+	 * @param shininess The shininess.
+	 * @return The interned material.
+	 */
+	public static synchronized InternedMaterial of(Vec3 ambient, Vec3 diffuse, Vec3 specular,
+												   float shininess) {
+		float[] values = {ambient.x, ambient.y, ambient.z, shininess,
+						  diffuse.x, diffuse.y, diffuse.z, 0,
+						  specular.x, specular.y, specular.z, 0};
+		InternedMaterial candidate = new InternedMaterial(values);
+		InternedMaterial existing = interned.get(candidate);
+		if (existing != null) return existing;
+		candidate.id = byId.size();
+		byId.add(candidate);
+		interned.put(candidate, candidate);
+		return candidate;
+	}
+
+	/**
+	 * Get the number of materials interned so far (the IDs given out are 0 to count-1).
+	 * 
+	 * @return The number of materials.
+	 */
+	public static synchronized int count() {
+		return byId.size();
+	}
+
+	/**
+	 * Write the values of a range of materials, in the layout of the table.
+	 * 
+	 * @param target The buffer to write into.
+	 * @param first The ID of the first material written.
+	 * @param last The ID after the last material written.
+	 */
+	static synchronized void write(FloatBuffer target, int first, int last) {
+		for (int id=first; id<last; id++) {
+			target.put(byId.get(id).values);
+		}
+	}
+
+	/**
+	 * Get the ID of the material (its index in the material table).
+	 * 
+	 * @return The ID.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Get the ambient colour of the material.
+	 * 
+	 * @return A copy of the ambient colour.
+	 */
+	public Vec3 getAmbient() {
+		return new Vec3(values[0], values[1], values[2]);
+	}
+
+	/**
+	 * Get the diffuse colour of the material.
+	 * 
+	 * @return A copy of the diffuse colour.
+	 */
+	public Vec3 getDiffuse() {
+		return new Vec3(values[4], values[5], values[6]);
+	}
+
+	/**
+	 * Get the specular colour of the material.
+	 * 
+	 * @return A copy of the specular colour.
+	 */
+	public Vec3 getSpecular() {
+		return new Vec3(values[8], values[9], values[10]);
+	}
+
+	/**
+	 * Get the shininess of the material.
+	 * 
+	 * @return The shininess.
+	 */
+	public float getShininess() {
+		return values[3];
+	}
+
+	/**
+	 * Whether another object is a material with the same values.
+	 * 
+	 * @param o The other object.
+	 * @return True if the values are equal.
+	 */
+	public boolean equals(Object o) {
+		return (o instanceof InternedMaterial) && Arrays.equals(values, ((InternedMaterial)o).values);
+	}
+
+	/**
+	 * Get the hash code of the material's values.
+	 * 
+	 * @return The hash code.
+	 */
+	public int hashCode() {
+		return hash;
+	}
+}
\ No newline at end of file
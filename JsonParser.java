@@ -0,0 +1,227 @@
+import java.util.*;
+
+/**
+ * Class for reading JSON text (e.g. a glTF file's scene description) into plain Java values:
+ * objects become Maps (keeping the order of their members), arrays become Lists, numbers become
+ * Doubles, and strings, booleans and null become String, Boolean and null.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for parsing JSON (used by ModelImporter for glTF files)
+ */
+public final class JsonParser {
+	private final String text;
+	private int pos = 0;
+
+	/**
+	 * Constructor (use parse()).
+	 * 
+	 * @param text The JSON text.
+	 */
+	private JsonParser(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Parse a JSON document.
+	 * 
+	 * @param text The JSON text.
+	 * @return The value of the document.
+	 * @throws IllegalArgumentException If the text is not valid JSON.
+	 */
+	public static Object parse(String text) {
+		JsonParser parser = new JsonParser(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.pos != text.length()) throw parser.error("unexpected text after the document");
+		return value;
+	}
+
+	/**
+	 * Read the value starting at the current position.
+	 * 
+	 * @return The value.
+	 */
+	private Object readValue() {
+		skipWhitespace();
+		if (pos >= text.length()) throw error("unexpected end of text");
+		char c = text.charAt(pos);
+		switch (c) {
+			case '{': return readObject();
+			case '[': return readArray();
+			case '"': return readString();
+			case 't': return readLiteral("true", Boolean.TRUE);
+			case 'f': return readLiteral("false", Boolean.FALSE);
+			case 'n': return readLiteral("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+				throw error("unexpected character '" + c + "'");
+		}
+	}
+
+	/**
+	 * Read an object (the current character is its opening brace).
+	 * 
+	 * @return The members of the object.
+	 */
+	private Map<String,Object> readObject() {
+		Map<String,Object> members = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return members;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') throw error("expected a member name");
+			String name = readString();
+			skipWhitespace();
+			expect(':');
+			members.put(name, readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+				continue;
+			}
+			expect('}');
+			return members;
+		}
+	}
+
+	/**
+	 * Read an array (the current character is its opening bracket).
+	 * 
+	 * @return The elements of the array.
+	 */
+	private List<Object> readArray() {
+		List<Object> elements = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return elements;
+		}
+		while (true) {
+			elements.add(readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+				continue;
+			}
+			expect(']');
+			return elements;
+		}
+	}
+
+	/**
+	 * Read a string (the current character is its opening quote), replacing escape sequences.
+	 * 
+	 * @return The string.
+	 */
+	private String readString() {
+		pos++;
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) throw error("unterminated string");
+			char c = text.charAt(pos++);
+			if (c == '"') return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= text.length()) throw error("unterminated string");
+			char e = text.charAt(pos++);
+			switch (e) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (pos+4 > text.length()) throw error("bad unicode escape");
+					try {
+						sb.append((char)Integer.parseInt(text.substring(pos, pos+4), 16));
+					}
+					catch (NumberFormatException ex) {
+						throw error("bad unicode escape");
+					}
+					pos += 4;
+					break;
+				default: sb.append(e);
+			}
+		}
+	}
+
+	/**
+	 * Read a number.
+	 * 
+	 * @return The number.
+	 */
+	private Double readNumber() {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+			pos++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		}
+		catch (NumberFormatException e) {
+			throw error("bad number");
+		}
+	}
+
+	/**
+	 * Read one of the literals true, false or null.
+	 * 
+	 * @param word The literal expected.
+	 * @param value The value of the literal.
+	 * @return The value.
+	 */
+	private Object readLiteral(String word, Object value) {
+		if (!text.startsWith(word, pos)) throw error("unexpected character '" + peek() + "'");
+		pos += word.length();
+		return value;
+	}
+
+	/**
+	 * Move past any whitespace.
+	 */
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	/**
+	 * Get the current character without moving past it.
+	 * 
+	 * @return The character (0 at the end of the text).
+	 */
+	private char peek() {
+		return (pos < text.length()) ? text.charAt(pos) : 0;
+	}
+
+	/**
+	 * Move past a character that must come next.
+	 * 
+	 * @param c The character.
+	 */
+	private void expect(char c) {
+		if (peek() != c) throw error("expected '" + c + "'");
+		pos++;
+	}
+
+	/**
+	 * Create the exception for a syntax error at the current position.
+	 * 
+	 * @param message What is wrong.
+	 * @return The exception.
+	 */
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("JSON error at character " + pos + ": " + message);
+	}
+}
\ No newline at end of file
@@ -13,6 +13,11 @@ import com.jogamp.opengl.*;
  * Changes made:
  * - 'shape' parameter in the constructor for determining the light's shape
  * - getDirection(): used for spotlight functionality
+ * - Sphere-shaped lights are drawn at a level of detail chosen from their size on screen
+ * - Lights can share the buffers and shader of another light (for scenes with many lights)
+ * - getVersion(): counts changes to the light (and its material), so models only upload lights
+ *   that have changed; getPosition()/getDirection() return copies so every change goes through
+ *   a setter
  */
 public class Light {
 	private Material material;
@@ -21,6 +26,10 @@ public class Light {
 	private Mat4 model;
 	private Shader shader;
 	private Camera camera;
+	private boolean ownsBuffers = true;
+	// Changes made through the setters, and the material version last seen by getVersion()
+	private int version = 0;
+	private int materialVersion;
 		
 	/**
 	 * Constructor. Create a light object and set its default material values, position and 
@@ -38,15 +47,56 @@ public class Light {
 		direction = new Vec3(-0.6f, -1.0f, -0.6f);
 		model = new Mat4(1);
 		if (shape == "sphere") {
-			this.vertices = Sphere.verticesPosOnly.clone();
-			this.indices = Sphere.indices.clone();
+			int levels = Sphere.LOD_RESOLUTIONS.length;
+			lodVertices = new float[levels][];
+			lodIndices = new int[levels][];
+			for (int i=0; i<levels; i++) {
+				int resolution = Sphere.LOD_RESOLUTIONS[i];
+				lodVertices[i] = Sphere.createVerticesPosOnly(resolution, resolution);
+				lodIndices[i] = Sphere.createIndices(resolution, resolution);
+			}
+		}
+		else {
+			lodVertices = new float[][] {vertices};
+			lodIndices = new int[][] {indices};
 		}
 		
-		fillBuffers(gl);
+		int levels = lodVertices.length;
+		vertexBufferId = new int[levels];
+		vertexArrayId = new int[levels];
+		elementBufferId = new int[levels];
+		for (int i=0; i<levels; i++) {
+			fillBuffers(gl, i);
+		}
 		shader = new Shader(
 			gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
 	}
 	
+	/**
+	 * Constructor. Create a light drawn with the same shape (buffers) and shader as another light,
+	 * so many lights do not each need their own GPU resources. The other light keeps ownership of
+	 * the resources and must be disposed of last.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param shared The light whose shape and shader are reused.
+	 */
+	public Light(GL3 gl, Light shared) {
+		material = new Material();
+		material.setAmbient(0.4f, 0.4f, 0.4f);
+		material.setDiffuse(0.7f, 0.7f, 0.7f);
+		material.setSpecular(0.7f, 0.7f, 0.7f);
+		position = new Vec3(3f,2f,1f);
+		direction = new Vec3(-0.6f, -1.0f, -0.6f);
+		model = new Mat4(1);
+		lodVertices = shared.lodVertices;
+		lodIndices = shared.lodIndices;
+		vertexBufferId = shared.vertexBufferId;
+		vertexArrayId = shared.vertexArrayId;
+		elementBufferId = shared.elementBufferId;
+		shader = shared.shader;
+		ownsBuffers = false;
+	}
+
 	/**
 	 * Set the position of the light in the world.
 	 * 
@@ -56,6 +106,7 @@ public class Light {
 		position.x = v.x;
 		position.y = v.y;
 		position.z = v.z;
+		version++;
 	}
 	
 	/** 
@@ -69,15 +120,16 @@ public class Light {
 		position.x = x;
 		position.y = y;
 		position.z = z;
+		version++;
 	}
 	
 	/**
 	 * Get the current position of the light in the world.
 	 * 
-	 * @return The position of the light in vector format.
+	 * @return A copy of the position of the light in vector format.
 	 */
 	public Vec3 getPosition() {
-		return position;
+		return new Vec3(position);
 	}
 
 	/** 
@@ -86,16 +138,17 @@ public class Light {
 	 * @param v The new direction of the light in vector format.
 	 */
 	public void setDirection(Vec3 v) {
-		direction = v;
+		direction = new Vec3(v);
+		version++;
 	}
 
 	/**
 	 * Get the current direction of the light in the world.
 	 * 
-	 * @return The direction of the light in vector format.
+	 * @return A copy of the direction of the light in vector format.
 	 */
 	public Vec3 getDirection() {
-		return direction;
+		return new Vec3(direction);
 	}
 	
 	/**
@@ -105,6 +158,8 @@ public class Light {
 	 */
 	public void setMaterial(Material m) {
 		material = m;
+		materialVersion = m.getVersion();
+		version++;
 	}
 	
 	/**
@@ -116,6 +171,20 @@ public class Light {
 		return material;
 	}
 	
+	/**
+	 * Get the number of changes made to the light: its position, direction or material, including
+	 * changes made to the material itself since it was set.
+	 * 
+	 * @return The version of the light.
+	 */
+	public int getVersion() {
+		if (material.getVersion() != materialVersion) {
+			materialVersion = material.getVersion();
+			version++;
+		}
+		return version;
+	}
+
 	/**
 	 * Set the camera object associated with the light.
 	 * 
@@ -139,10 +208,15 @@ public class Light {
 		
 		shader.use(gl);
 		shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+
+		float coverage = LodMesh.screenCoverage(model, LOD_CENTRE, LOD_RADIUS, camera);
+		lodLevel = LodMesh.selectLevel(lodLevel, coverage, LodMesh.SCREEN_THRESHOLDS, 
+									   lodIndices.length);
 	
-		gl.glBindVertexArray(vertexArrayId[0]);
+		gl.glBindVertexArray(vertexArrayId[lodLevel]);
 		
-		gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
+		gl.glDrawElements(GL.GL_TRIANGLES, lodIndices[lodLevel].length, GL.GL_UNSIGNED_INT, 0);
+		RenderStats.recordDraw(lodIndices[lodLevel].length);
 		gl.glBindVertexArray(0);
 	}
 
@@ -152,9 +226,10 @@ public class Light {
 	 * @param gl The OpenGL context used for rendering.
 	 */
 	public void dispose(GL3 gl) {
-		gl.glDeleteBuffers(1, vertexBufferId, 0);
-		gl.glDeleteVertexArrays(1, vertexArrayId, 0);
-		gl.glDeleteBuffers(1, elementBufferId, 0);
+		if (!ownsBuffers) return;
+		gl.glDeleteBuffers(vertexBufferId.length, vertexBufferId, 0);
+		gl.glDeleteVertexArrays(vertexArrayId.length, vertexArrayId, 0);
+		gl.glDeleteBuffers(elementBufferId.length, elementBufferId, 0);
 	}
 
 	// ***************************************************
@@ -188,23 +263,35 @@ public class Light {
 		
 	private int vertexStride = 3;
 	private int vertexXYZFloats = 3;
+
+	// Levels of detail of the light's shape (only spheres have more than one level); unit shapes
+	// have a bounding radius of sqrt(3)/2 around the origin
+	private static final float[] LOD_CENTRE = {0f, 0f, 0f};
+	private static final float LOD_RADIUS = 0.87f;
+	private float[][] lodVertices;
+	private int[][] lodIndices;
+	private int lodLevel = 0;
 	
 	// ***************************************************
 	/* THE LIGHT BUFFERS */
-	private int[] vertexBufferId = new int[1];
-	private int[] vertexArrayId = new int[1];
-	private int[] elementBufferId = new int[1];
+	private int[] vertexBufferId;
+	private int[] vertexArrayId;
+	private int[] elementBufferId;
 		
 	/**
-	 * Initialises and fills the OpenGL buffers for the light's vertices and indices.
+	 * Initialises and fills the OpenGL buffers for the vertices and indices of one level of
+	 * detail of the light's shape.
 	 * 
 	 * @param gl The OpenGL context used for rendering.
+	 * @param level The level of detail to create buffers for.
 	 */
-	private void fillBuffers(GL3 gl) {
-		gl.glGenVertexArrays(1, vertexArrayId, 0);
-		gl.glBindVertexArray(vertexArrayId[0]);
-		gl.glGenBuffers(1, vertexBufferId, 0);
-		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
+	private void fillBuffers(GL3 gl, int level) {
+		float[] vertices = lodVertices[level];
+		int[] indices = lodIndices[level];
+		gl.glGenVertexArrays(1, vertexArrayId, level);
+		gl.glBindVertexArray(vertexArrayId[level]);
+		gl.glGenBuffers(1, vertexBufferId, level);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[level]);
 		FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
 		
 		gl.glBufferData(GL.GL_ARRAY_BUFFER, Float.BYTES * vertices.length, fb, GL.GL_STATIC_DRAW);
@@ -215,9 +302,9 @@ public class Light {
 		gl.glVertexAttribPointer(0, numXYZFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
 		gl.glEnableVertexAttribArray(0);
 		
-		gl.glGenBuffers(1, elementBufferId, 0);
+		gl.glGenBuffers(1, elementBufferId, level);
 		IntBuffer ib = Buffers.newDirectIntBuffer(indices);
-		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[level]);
 		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, Integer.BYTES * indices.length, ib, GL.GL_STATIC_DRAW);
 	} 
 }
\ No newline at end of file
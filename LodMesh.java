@@ -0,0 +1,156 @@
+import gmaths.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for holding several levels of detail of one shape and choosing which one to draw based on
+ * how large the shape appears on screen. Level 0 is the full-detail mesh.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for level of detail selection (parametric spheres and simplified meshes)
+ * - The current level is kept by each model (so models sharing levels keep their own hysteresis)
+ */
+public class LodMesh {
+	// Screen coverage (projected radius / half the screen height) below which each coarser level
+	// is used, i.e. level i+1 is used below SCREEN_THRESHOLDS[i]
+	public static final float[] SCREEN_THRESHOLDS = {0.3f, 0.12f, 0.05f};
+	// Fraction of triangles kept by each simplified level of an arbitrary mesh (see MeshSimplifier)
+	public static final float[] SIMPLIFY_RATIOS = {1f, 0.5f, 0.25f, 0.1f};
+	// Relative margin around each threshold so the level does not flicker at the boundary
+	public static final float HYSTERESIS = 0.15f;
+
+	private Mesh[] levels;
+	private float[] thresholds;
+	private float[] centre = new float[3];
+	private float radius;
+
+	/**
+	 * Constructor. Set the meshes of each level (finest first) and the coverage thresholds between
+	 * them.
+	 * 
+	 * @param levels The meshes of each level of detail.
+	 * @param thresholds The screen coverage below which level i+1 replaces level i.
+	 */
+	public LodMesh(Mesh[] levels, float[] thresholds) {
+		this.levels = levels;
+		this.thresholds = thresholds;
+		float[] min = levels[0].getBoundsMin();
+		float[] max = levels[0].getBoundsMax();
+		float r2 = 0;
+		for (int j=0; j<3; j++) {
+			centre[j] = (min[j]+max[j])/2;
+			r2 += (max[j]-min[j])*(max[j]-min[j])/4;
+		}
+		radius = (float)Math.sqrt(r2);
+	}
+
+	/**
+	 * Create the levels of detail of the sphere by generating it at lower resolutions.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param layout The format the vertices are stored in on the GPU.
+	 * @return The sphere's levels of detail.
+	 */
+	public static LodMesh forSphere(GL3 gl, VertexLayout layout) {
+		Mesh[] levels = new Mesh[Sphere.LOD_RESOLUTIONS.length];
+		for (int i=0; i<levels.length; i++) {
+			int resolution = Sphere.LOD_RESOLUTIONS[i];
+			levels[i] = new Mesh(gl, Sphere.createVertices(resolution, resolution),
+								 Sphere.createIndices(resolution, resolution), true, layout);
+		}
+		return new LodMesh(levels, SCREEN_THRESHOLDS);
+	}
+
+	/**
+	 * Get the mesh of a specific level of detail.
+	 * 
+	 * @param level The level (0 is the most detailed).
+	 * @return The mesh of that level.
+	 */
+	public Mesh getLevel(int level) {
+		return levels[level];
+	}
+
+	/**
+	 * Choose the level of detail to draw for the mesh placed with a model matrix. The level in
+	 * use is kept by the caller, as the same levels may be shared by many models.
+	 * 
+	 * @param current The level the model currently uses.
+	 * @param modelMatrix The transformation matrix associated with the model.
+	 * @param camera The camera in the scene.
+	 * @return The level to draw (see getLevel()).
+	 */
+	public int select(int current, Mat4 modelMatrix, Camera camera) {
+		float coverage = screenCoverage(modelMatrix, centre, radius, camera);
+		return selectLevel(current, coverage, thresholds, levels.length);
+	}
+
+	/**
+	 * Estimate how much of the screen a bounding sphere covers (its projected radius as a fraction
+	 * of half the screen height).
+	 * 
+	 * @param modelMatrix The transformation matrix placing the sphere in the world.
+	 * @param centre The centre of the sphere in model space.
+	 * @param radius The radius of the sphere in model space.
+	 * @param camera The camera in the scene.
+	 * @return The screen coverage (1 or more fills the screen height).
+	 */
+	public static float screenCoverage(Mat4 modelMatrix, float[] centre, float radius,
+									   Camera camera) {
+		float[] world = new float[3];
+		float maxScale = 0;
+		for (int j=0; j<3; j++) {
+			world[j] = modelMatrix.get(j,0)*centre[0] + modelMatrix.get(j,1)*centre[1]
+					 + modelMatrix.get(j,2)*centre[2] + modelMatrix.get(j,3);
+			float column = modelMatrix.get(0,j)*modelMatrix.get(0,j)
+						 + modelMatrix.get(1,j)*modelMatrix.get(1,j)
+						 + modelMatrix.get(2,j)*modelMatrix.get(2,j);
+			maxScale = Math.max(maxScale, column);
+		}
+		Vec3 eye = camera.getPosition();
+		float dx = world[0]-eye.x;
+		float dy = world[1]-eye.y;
+		float dz = world[2]-eye.z;
+		float distance = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+		float worldRadius = radius*(float)Math.sqrt(maxScale);
+		if (distance <= worldRadius) return Float.MAX_VALUE;
+		// Element (1,1) of the perspective matrix is 1/tan(fov/2)
+		return worldRadius*camera.getPerspectiveMatrix().get(1,1)/distance;
+	}
+
+	/**
+	 * Pick a level of detail from a screen coverage, only moving away from the current level once
+	 * the coverage is clearly past a threshold.
+	 * 
+	 * @param current The level currently in use.
+	 * @param coverage The screen coverage of the object.
+	 * @param thresholds The screen coverage below which level i+1 replaces level i.
+	 * @param levelCount The number of levels available.
+	 * @return The level to use.
+	 */
+	public static int selectLevel(int current, float coverage, float[] thresholds, int levelCount) {
+		int level = Math.min(current, levelCount-1);
+		while (level < levelCount-1 && level < thresholds.length &&
+			   coverage < thresholds[level]*(1-HYSTERESIS)) {
+			level++;
+		}
+		while (level > 0 && coverage > thresholds[level-1]*(1+HYSTERESIS)) {
+			level--;
+		}
+		return level;
+	}
+
+	/**
+	 * Discard the meshes of every level to free resources.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		for (Mesh level : levels) {
+			level.dispose(gl);
+		}
+	}
+}
@@ -19,6 +19,7 @@ public class Material {
     private Vec3 specular;
     private Vec3 emission;
     private float shininess;
+    private int version = 0;
     
     /**
      * Constructor. Sets attributes to default initial values.
@@ -60,6 +61,7 @@ public class Material {
 		ambient.x = red;
 		ambient.y = green;
 		ambient.z = blue;
+		version++;
     }  
     
     /**
@@ -92,6 +94,7 @@ public class Material {
 		diffuse.x = red;
 		diffuse.y = green;
 		diffuse.z = blue;
+		version++;
     }
     
     /**
@@ -124,6 +127,7 @@ public class Material {
 		specular.x = red;
 		specular.y = green;
 		specular.z = blue;
+		version++;
     }
 
     /**
@@ -156,6 +160,7 @@ public class Material {
 		emission.x = red;
 		emission.y = green;
 		emission.z = blue;
+		version++;
     }
     
     /**
@@ -184,6 +189,7 @@ public class Material {
      */   
     public void setShininess(float shininess) {
 		this.shininess = shininess;
+		version++;
     }
     
     /**
@@ -195,6 +201,15 @@ public class Material {
 		return shininess;
     }
 
+	/**
+	 * Get the number of changes made to the material (increased by every setter).
+	 * 
+	 * @return The version of the material.
+	 */
+    public int getVersion() {
+		return version;
+    }
+
 	/**
 	 * Gets the material's properties and returns them as a concatenated string.
 	 * 
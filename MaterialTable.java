@@ -0,0 +1,105 @@
+import java.nio.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for the GPU copy of every interned material (see InternedMaterial), held in a texture
+ * buffer that the fragment shaders read with the material ID of each draw. Materials are
+ * immutable, so an entry only has to be uploaded once, when its material is first interned:
+ * update() uploads just the entries added since the last frame, which is nothing at all once the
+ * scene has been built.
+ * 
+ * A texture buffer is used rather than a uniform block because uniform blocks are only guaranteed
+ * to hold 16 KB (about 340 materials), while a generated stress-test scene can have a material for
+ * every object. A shader storage buffer is not used because the table is read by every fragment
+ * shader, including those of the OpenGL 3.3 paths, which must keep working on GL 3.3 hardware
+ * (only the optional indirect path, IndirectScene, needs 4.3).
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for a material table uploaded only when materials are added
+ */
+public class MaterialTable {
+	private static final boolean DISPLAY_TABLE = false;
+	// Texture unit the table is bound to (0-4 are the models' textures, 5-7 the IBL maps)
+	public static final int TEXTURE_UNIT = 8;
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int[] bufferId = new int[1];
+	private int[] textureId = new int[1];
+	private int capacity = 0;
+	private int uploaded = 0;
+
+	/**
+	 * Constructor. Create the buffer (with room for INITIAL_CAPACITY materials) and the texture
+	 * reading it.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public MaterialTable(GL3 gl) {
+		gl.glGenBuffers(1, bufferId, 0);
+		gl.glGenTextures(1, textureId, 0);
+		allocate(gl, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * (Re)create the buffer's storage with room for a number of materials. Its contents are lost,
+	 * so every entry is uploaded again at the next update.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param materials The number of materials.
+	 */
+	private void allocate(GL3 gl, int materials) {
+		capacity = materials;
+		uploaded = 0;
+		gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, bufferId[0]);
+		gl.glBufferData(GL3.GL_TEXTURE_BUFFER, (long)capacity*InternedMaterial.FLOATS*Float.BYTES,
+						null, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, 0);
+		gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, textureId[0]);
+		gl.glTexBuffer(GL3.GL_TEXTURE_BUFFER, GL.GL_RGBA32F, bufferId[0]);
+		gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, 0);
+		if (DISPLAY_TABLE) System.out.println("Material table: room for " + capacity + " materials");
+	}
+
+	/**
+	 * Upload the materials interned since the last update (growing the table if needed) and bind
+	 * the table to its texture unit. Called once per frame before anything is drawn.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void update(GL3 gl) {
+		int count = InternedMaterial.count();
+		if (count > capacity) allocate(gl, Math.max(count, capacity*2));
+		if (count > uploaded) {
+			int added = count-uploaded;
+			FloatBuffer values = Buffers.newDirectFloatBuffer(added*InternedMaterial.FLOATS);
+			InternedMaterial.write(values, uploaded, count);
+			values.flip();
+			gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, bufferId[0]);
+			gl.glBufferSubData(GL3.GL_TEXTURE_BUFFER,
+							   (long)uploaded*InternedMaterial.FLOATS*Float.BYTES,
+							   (long)values.remaining()*Float.BYTES, values);
+			gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, 0);
+			if (DISPLAY_TABLE) System.out.println("Material table: uploaded " + added
+												  + " materials (" + count + " in total)");
+			uploaded = count;
+		}
+		gl.glActiveTexture(GL.GL_TEXTURE0 + TEXTURE_UNIT);
+		gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, textureId[0]);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+	}
+
+	/**
+	 * Delete the buffer and texture.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		gl.glDeleteTextures(1, textureId, 0);
+		gl.glDeleteBuffers(1, bufferId, 0);
+	}
+}
\ No newline at end of file
@@ -8,15 +8,24 @@ import com.jogamp.opengl.*;
  * with them.
  */
 public class Mesh {
+	private static final boolean DISPLAY_OPTIMISATION = false;
+	// First of the four attribute locations holding a per-instance model matrix
+	private static final int INSTANCE_LOCATION = 3;
+
 	private float[] vertices;
 	private int[] indices;
+	private int indexCount;
 	private int vertexStride = 8;
-	private int vertexXYZFloats = 3;
-	private int vertexNormalFloats = 3;
-	private int vertexTexFloats = 2;
+	private VertexLayout layout;
+	private int indexType;
 	private int[] vertexBufferId = new int[1];
 	private int[] vertexArrayId = new int[1];
 	private int[] elementBufferId = new int[1];
+	private float[] boundsMin = new float[3];
+	private float[] boundsMax = new float[3];
+	private float acmrBefore;
+	private float acmrAfter;
+	private int instanceBufferId = 0;
 	
 	/**
 	 * Constructor. Set the vertices and indices and fill the associated buffers.
@@ -26,10 +35,141 @@ public class Mesh {
 	 * @param indices The indices of the shape.
 	 */
 	public Mesh(GL3 gl, float[] vertices, int[] indices) {
+		this(gl, vertices, indices, false);
+	}
+
+	/**
+	 * Constructor. Set the vertices and indices, optionally reorder them so they are drawn more
+	 * efficiently, and fill the associated buffers.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param vertices The vertices of the shape.
+	 * @param indices The indices of the shape.
+	 * @param optimise Whether to reorder triangles/vertices for vertex cache and fetch locality.
+	 */
+	public Mesh(GL3 gl, float[] vertices, int[] indices, boolean optimise) {
+		this(gl, vertices, indices, optimise, VertexLayout.FLOAT32);
+	}
+
+	/**
+	 * Constructor. Set the vertices and indices, optionally reorder them, and fill the associated
+	 * buffers using a specific vertex format (e.g. packed normals and half-float texture 
+	 * coordinates). Indices are stored as 16 bits when there are fewer than 65,536 vertices.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param vertices The vertices of the shape (8 floats per vertex).
+	 * @param indices The indices of the shape.
+	 * @param optimise Whether to reorder triangles/vertices for vertex cache and fetch locality.
+	 * @param layout The format the vertices are stored in on the GPU.
+	 */
+	public Mesh(GL3 gl, float[] vertices, int[] indices, boolean optimise, VertexLayout layout) {
 		this.vertices = vertices;
 		this.indices = indices;
+		this.layout = layout;
+		acmrBefore = MeshOptimizer.calculateACMR(indices, vertices.length/vertexStride,
+												 MeshOptimizer.FIFO_CACHE_SIZE);
+		acmrAfter = acmrBefore;
+		if (optimise) optimise();
+		calculateBounds();
 		fillBuffers(gl);
 	}
+
+	/**
+	 * Constructor. Fill the buffers with vertices already packed in a layout's format and indices
+	 * already in their GPU format (e.g. straight from ModelImporter's memory-mapped cache), so
+	 * nothing is converted on the CPU. The mesh keeps no copy of the data, and its ACMR is not
+	 * measured (both are 0).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param vertexData The packed vertices (from position to limit).
+	 * @param indexData The indices (from position to limit).
+	 * @param indexType The type of the indices (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT).
+	 * @param layout The format the vertices are packed in.
+	 * @param boundsMin The minimum corner of the vertex positions' bounding box.
+	 * @param boundsMax The maximum corner of the vertex positions' bounding box.
+	 */
+	public Mesh(GL3 gl, ByteBuffer vertexData, ByteBuffer indexData, int indexType,
+				VertexLayout layout, float[] boundsMin, float[] boundsMax) {
+		this.layout = layout;
+		this.indexType = indexType;
+		this.boundsMin = boundsMin.clone();
+		this.boundsMax = boundsMax.clone();
+		int indexBytes = (indexType == GL.GL_UNSIGNED_SHORT) ? Short.BYTES : Integer.BYTES;
+		uploadBuffers(gl, vertexData, vertexData.remaining(), indexData,
+					  indexData.remaining()/indexBytes, indexData.remaining());
+	}
+
+	/**
+	 * Reorder the triangles for the post-transform vertex cache (and, if enabled in
+	 * MeshOptimizer, to reduce overdraw), then reorder the vertices into the order they are first
+	 * used.
+	 */
+	private void optimise() {
+		int vertexCount = vertices.length/vertexStride;
+		indices = MeshOptimizer.optimiseVertexCache(indices, vertexCount);
+		if (MeshOptimizer.OPTIMISE_OVERDRAW) {
+			indices = MeshOptimizer.optimiseOverdraw(vertices, vertexStride, indices, vertexCount);
+		}
+		vertices = MeshOptimizer.optimiseVertexFetch(vertices, vertexStride, indices);
+		acmrAfter = MeshOptimizer.calculateACMR(indices, vertices.length/vertexStride,
+												MeshOptimizer.FIFO_CACHE_SIZE);
+		if (DISPLAY_OPTIMISATION)
+			System.out.println("Mesh ACMR before: " + acmrBefore + ", after: " + acmrAfter);
+	}
+
+	/**
+	 * Get the average cache miss ratio (vertex shader invocations per triangle) of the indices
+	 * as they were given to the mesh.
+	 * 
+	 * @return The ACMR before optimisation.
+	 */
+	public float getACMRBefore() {
+		return acmrBefore;
+	}
+
+	/**
+	 * Get the average cache miss ratio (vertex shader invocations per triangle) of the indices
+	 * as they are drawn.
+	 * 
+	 * @return The ACMR after optimisation (equal to the original if not optimised).
+	 */
+	public float getACMRAfter() {
+		return acmrAfter;
+	}
+
+	/**
+	 * Get the minimum corner of the mesh's axis-aligned bounding box (in model space).
+	 * 
+	 * @return The x, y and z minimums of the vertex positions.
+	 */
+	public float[] getBoundsMin() {
+		return boundsMin;
+	}
+
+	/**
+	 * Get the maximum corner of the mesh's axis-aligned bounding box (in model space).
+	 * 
+	 * @return The x, y and z maximums of the vertex positions.
+	 */
+	public float[] getBoundsMax() {
+		return boundsMax;
+	}
+
+	/**
+	 * Find the axis-aligned bounding box enclosing every vertex position of the mesh.
+	 */
+	private void calculateBounds() {
+		for (int j=0; j<3; j++) {
+			boundsMin[j] = Float.MAX_VALUE;
+			boundsMax[j] = -Float.MAX_VALUE;
+		}
+		for (int i=0; i<vertices.length; i+=vertexStride) {
+			for (int j=0; j<3; j++) {
+				boundsMin[j] = Math.min(boundsMin[j], vertices[i+j]);
+				boundsMax[j] = Math.max(boundsMax[j], vertices[i+j]);
+			}
+		}
+	}
 	
 	/**
 	 * Draw the mesh by binding its vertex array and drawing.
@@ -38,49 +178,91 @@ public class Mesh {
 	 */
 	public void render(GL3 gl) {
 		gl.glBindVertexArray(vertexArrayId[0]);
-		gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
+		gl.glDrawElements(GL.GL_TRIANGLES, indexCount, indexType, 0);
+		RenderStats.recordDraw(indexCount);
+		gl.glBindVertexArray(0);
+	}
+
+	/**
+	 * Draw many copies of the mesh with one draw call, each placed by its own model matrix from an
+	 * instance buffer (16 floats per instance, column-major, e.g. from TransformStore). The matrix
+	 * is read at attribute locations 3 to 6 (see vs_standard_instanced.txt).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param instanceBuffer The buffer holding the model matrices.
+	 * @param instanceCount The number of copies to draw.
+	 */
+	public void renderInstanced(GL3 gl, int instanceBuffer, int instanceCount) {
+		gl.glBindVertexArray(vertexArrayId[0]);
+		if (instanceBuffer != instanceBufferId) {
+			// Attach the instance buffer to the vertex array (once per buffer)
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+			for (int c=0; c<4; c++) {
+				gl.glVertexAttribPointer(INSTANCE_LOCATION+c, 4, GL.GL_FLOAT, false, 16*Float.BYTES,
+										 c*4*Float.BYTES);
+				gl.glEnableVertexAttribArray(INSTANCE_LOCATION+c);
+				gl.glVertexAttribDivisor(INSTANCE_LOCATION+c, 1);
+			}
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+			instanceBufferId = instanceBuffer;
+		}
+		gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indexCount, indexType, 0, instanceCount);
+		RenderStats.recordDraw(indexCount, instanceCount);
 		gl.glBindVertexArray(0);
 	}
 
 	/**
-	 * Initialise and fill the OpenGL buffers with position, normal and texture data.
+	 * Pack the position, normal and texture data (in the mesh's vertex layout) and the indices
+	 * (16 or 32 bits each) and fill the OpenGL buffers with them.
 	 * 
 	 * @param gl The OpenGL context used for rendering.
 	 */
 	private void fillBuffers(GL3 gl) {
+		ByteBuffer vb = layout.pack(vertices);
+		if (vertices.length/vertexStride <= 0xFFFF) {
+			indexType = GL.GL_UNSIGNED_SHORT;
+			ShortBuffer sb = Buffers.newDirectShortBuffer(indices.length);
+			for (int index : indices) {
+				sb.put((short)index);
+			}
+			sb.rewind();
+			uploadBuffers(gl, vb, vb.capacity(), sb, indices.length, Short.BYTES * indices.length);
+		}
+		else {
+			indexType = GL.GL_UNSIGNED_INT;
+			IntBuffer ib = Buffers.newDirectIntBuffer(indices);
+			uploadBuffers(gl, vb, vb.capacity(), ib, indices.length,
+						  Integer.BYTES * indices.length);
+		}
+	}
+
+	/**
+	 * Create the vertex array and the OpenGL buffers and fill them with the vertices (in the
+	 * mesh's vertex layout) and the indices (of the mesh's index type).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param vertexData The packed vertices.
+	 * @param vertexBytes The size of the vertices in bytes.
+	 * @param indexData The indices.
+	 * @param indexCount The number of indices.
+	 * @param indexBytes The size of the indices in bytes.
+	 */
+	private void uploadBuffers(GL3 gl, Buffer vertexData, long vertexBytes, Buffer indexData,
+							   int indexCount, long indexBytes) {
+		this.indexCount = indexCount;
 		gl.glGenVertexArrays(1, vertexArrayId, 0);
 		gl.glBindVertexArray(vertexArrayId[0]);
 		gl.glGenBuffers(1, vertexBufferId, 0);
 		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
-		FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
-		
-		gl.glBufferData(GL.GL_ARRAY_BUFFER, Float.BYTES * vertices.length, fb, GL.GL_STATIC_DRAW);
-		
-		int stride = vertexStride;
-		int numXYZFloats = vertexXYZFloats;
-		int offset = 0;
-		gl.glVertexAttribPointer(0, numXYZFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-		gl.glEnableVertexAttribArray(0);
-	
-		// x, y, z for each vertex
-		int numNormalFloats = vertexNormalFloats;
-		// Normal values are the three floats after the x,y,z values, so offset needs to be changed
-		offset = numXYZFloats*Float.BYTES;
-		// Vertex shader uses location 1 for normal information
-		gl.glVertexAttribPointer(1, numNormalFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-		// Enable vertex attribute array at location 1
-		gl.glEnableVertexAttribArray(1);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexBytes, vertexData, GL.GL_STATIC_DRAW);
 
-		// Only 2 values stored for each texture coordinate
-		int numTexFloats = vertexTexFloats;
-		offset = (numXYZFloats+numNormalFloats)*Float.BYTES;
-		gl.glVertexAttribPointer(2, numTexFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-		gl.glEnableVertexAttribArray(2);
+		// Position (location 0), normal (location 1) and texture coordinates (location 2)
+		layout.setUpAttributes(gl);
 		
 		gl.glGenBuffers(1, elementBufferId, 0);
-		IntBuffer ib = Buffers.newDirectIntBuffer(indices);
 		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
-		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, Integer.BYTES * indices.length, ib, GL.GL_STATIC_DRAW);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexBytes, indexData, GL.GL_STATIC_DRAW);
+		gl.glBindVertexArray(0);
 	}
 	
 	/**
@@ -0,0 +1,343 @@
+import java.util.*;
+
+/**
+ * Class for reordering mesh data so the GPU does less work drawing it: triangles are reordered for
+ * post-transform vertex cache hits (Forsyth's algorithm), clusters of triangles are sorted to
+ * reduce overdraw and vertices are reordered so they are fetched in memory order.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for optimising index/vertex order before buffers are filled (used by Mesh)
+ * - The overdraw sort is optional (OPTIMISE_OVERDRAW, off by default)
+ */
+public final class MeshOptimizer {
+	// Size of the FIFO cache used to measure the average cache miss ratio (ACMR)
+	public static final int FIFO_CACHE_SIZE = 16;
+	// Whether meshes also have their triangle clusters sorted for overdraw after the vertex cache
+	// pass. Off by default: it only pays off for large closed meshes drawn front to back, and on
+	// small meshes the clusters are so short that it mostly shuffles the cache-ordered triangles
+	public static final boolean OPTIMISE_OVERDRAW = false;
+
+	// Constants of Forsyth's vertex scoring function (LRU cache of 32 entries)
+	private static final int LRU_CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/**
+	 * Calculate the average number of vertex shader invocations per triangle (average cache miss
+	 * ratio) when drawing with a FIFO post-transform cache. Lower is better; 0.5 is ideal for
+	 * large closed meshes and 3 means no reuse at all.
+	 * 
+	 * @param indices The triangle indices.
+	 * @param vertexCount The number of vertices the indices refer to.
+	 * @param cacheSize The number of entries in the simulated cache.
+	 * @return The average cache miss ratio.
+	 */
+	public static float calculateACMR(int[] indices, int vertexCount, int cacheSize) {
+		if (indices.length == 0) return 0;
+		// A vertex is in the cache if it entered less than cacheSize misses ago
+		int[] entered = new int[vertexCount];
+		Arrays.fill(entered, Integer.MIN_VALUE/2);
+		int misses = 0;
+		for (int index : indices) {
+			if (misses - entered[index] >= cacheSize) {
+				entered[index] = misses;
+				misses++;
+			}
+		}
+		return (float)misses/(indices.length/3);
+	}
+
+	/**
+	 * Reorder triangles for vertex cache locality using Forsyth's linear-speed algorithm: the
+	 * triangle whose vertices score highest (recently used vertices, vertices with few remaining
+	 * triangles) is always emitted next.
+	 * 
+	 * @param indices The triangle indices.
+	 * @param vertexCount The number of vertices the indices refer to.
+	 * @return The reordered triangle indices.
+	 */
+	public static int[] optimiseVertexCache(int[] indices, int vertexCount) {
+		int triangleCount = indices.length/3;
+
+		// Triangles using each vertex (compressed adjacency lists)
+		int[] remaining = new int[vertexCount];
+		for (int index : indices) remaining[index]++;
+		int[] offsets = new int[vertexCount+1];
+		for (int v=0; v<vertexCount; v++) offsets[v+1] = offsets[v] + remaining[v];
+		int[] adjacency = new int[indices.length];
+		int[] filled = new int[vertexCount];
+		for (int t=0; t<triangleCount; t++) {
+			for (int k=0; k<3; k++) {
+				int v = indices[t*3+k];
+				adjacency[offsets[v] + filled[v]++] = t;
+			}
+		}
+
+		float[] vertexScore = new float[vertexCount];
+		for (int v=0; v<vertexCount; v++) vertexScore[v] = score(-1, remaining[v]);
+		float[] triangleScore = new float[triangleCount];
+		boolean[] emitted = new boolean[triangleCount];
+		for (int t=0; t<triangleCount; t++) {
+			triangleScore[t] = vertexScore[indices[t*3]] + vertexScore[indices[t*3+1]] +
+							   vertexScore[indices[t*3+2]];
+		}
+
+		int[] result = new int[indices.length];
+		int[] cache = new int[LRU_CACHE_SIZE+3];
+		int cacheCount = 0;
+		int[] newCache = new int[LRU_CACHE_SIZE+3];
+		int nextScan = 0;
+		int best = -1;
+		for (int n=0; n<triangleCount; n++) {
+			// Fall back to a scan for the best unemitted triangle when the cache gave nothing
+			if (best < 0) {
+				float bestScore = -1;
+				for (int t=nextScan; t<triangleCount; t++) {
+					if (emitted[t]) {
+						if (t == nextScan) nextScan++;
+						continue;
+					}
+					if (triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+			emitted[best] = true;
+			System.arraycopy(indices, best*3, result, n*3, 3);
+
+			// Move the triangle's vertices to the front of the cache (LRU order)
+			int newCount = 0;
+			for (int k=0; k<3; k++) {
+				int v = indices[best*3+k];
+				newCache[newCount++] = v;
+				// Remove the triangle from the vertex's list of remaining triangles
+				for (int a=offsets[v]; a<offsets[v]+remaining[v]; a++) {
+					if (adjacency[a] == best) {
+						adjacency[a] = adjacency[offsets[v]+remaining[v]-1];
+						break;
+					}
+				}
+				remaining[v]--;
+			}
+			for (int c=0; c<cacheCount; c++) {
+				int v = cache[c];
+				if (v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+					newCache[newCount++] = v;
+				}
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = newCount;
+
+			// Rescore vertices in (and just pushed out of) the cache and their triangles
+			for (int c=0; c<cacheCount; c++) {
+				int v = cache[c];
+				int position = (c < LRU_CACHE_SIZE) ? c : -1;
+				float newScore = score(position, remaining[v]);
+				float delta = newScore - vertexScore[v];
+				vertexScore[v] = newScore;
+				for (int a=offsets[v]; a<offsets[v]+remaining[v]; a++) {
+					triangleScore[adjacency[a]] += delta;
+				}
+			}
+			if (cacheCount > LRU_CACHE_SIZE) cacheCount = LRU_CACHE_SIZE;
+
+			// The next triangle is the best one touching a cached vertex
+			best = -1;
+			float bestScore = -1;
+			for (int c=0; c<cacheCount; c++) {
+				int v = cache[c];
+				for (int a=offsets[v]; a<offsets[v]+remaining[v]; a++) {
+					int t = adjacency[a];
+					if (triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reorder clusters of triangles so that clusters facing away from the centre of the mesh
+	 * (likely to hide the rest of the mesh) are drawn first, reducing overdraw. Clusters are split
+	 * where the vertex cache would have been flushed anyway (a triangle with three misses), so
+	 * cache locality within each cluster is kept.
+	 * 
+	 * @param vertices The interleaved vertices.
+	 * @param stride The number of floats per vertex (position first).
+	 * @param indices The triangle indices (ideally already cache optimised).
+	 * @param vertexCount The number of vertices the indices refer to.
+	 * @return The reordered triangle indices.
+	 */
+	public static int[] optimiseOverdraw(float[] vertices, int stride, int[] indices,
+										 int vertexCount) {
+		int triangleCount = indices.length/3;
+		if (triangleCount == 0) return indices.clone();
+
+		// Find the cluster boundaries
+		List<Integer> starts = new ArrayList<>();
+		int[] entered = new int[vertexCount];
+		Arrays.fill(entered, Integer.MIN_VALUE/2);
+		int misses = 0;
+		for (int t=0; t<triangleCount; t++) {
+			int triangleMisses = 0;
+			for (int k=0; k<3; k++) {
+				int v = indices[t*3+k];
+				if (misses - entered[v] >= FIFO_CACHE_SIZE) {
+					entered[v] = misses;
+					misses++;
+					triangleMisses++;
+				}
+			}
+			if (t == 0 || triangleMisses == 3) starts.add(t);
+		}
+		starts.add(triangleCount);
+
+		// Mesh centroid (area weighted)
+		double[] meshCentre = new double[3];
+		double totalArea = 0;
+		double[][] triangleData = new double[triangleCount][];
+		for (int t=0; t<triangleCount; t++) {
+			double[] data = triangleCentreNormal(vertices, stride, indices, t);
+			triangleData[t] = data;
+			for (int j=0; j<3; j++) meshCentre[j] += data[j]*data[6];
+			totalArea += data[6];
+		}
+		if (totalArea > 0) {
+			for (int j=0; j<3; j++) meshCentre[j] /= totalArea;
+		}
+
+		// Sort key of each cluster: how far its centre lies along its average normal
+		int clusterCount = starts.size()-1;
+		Integer[] order = new Integer[clusterCount];
+		double[] keys = new double[clusterCount];
+		for (int c=0; c<clusterCount; c++) {
+			order[c] = c;
+			double[] centre = new double[3];
+			double[] normal = new double[3];
+			double area = 0;
+			for (int t=starts.get(c); t<starts.get(c+1); t++) {
+				double[] data = triangleData[t];
+				for (int j=0; j<3; j++) {
+					centre[j] += data[j]*data[6];
+					normal[j] += data[3+j]*data[6];
+				}
+				area += data[6];
+			}
+			if (area > 0) {
+				for (int j=0; j<3; j++) centre[j] /= area;
+			}
+			double length = Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]);
+			if (length > 0) {
+				for (int j=0; j<3; j++) normal[j] /= length;
+			}
+			keys[c] = (centre[0]-meshCentre[0])*normal[0] + (centre[1]-meshCentre[1])*normal[1]
+					+ (centre[2]-meshCentre[2])*normal[2];
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(keys[b], keys[a]));
+
+		int[] result = new int[indices.length];
+		int n = 0;
+		for (int c : order) {
+			int length = (starts.get(c+1) - starts.get(c))*3;
+			System.arraycopy(indices, starts.get(c)*3, result, n, length);
+			n += length;
+		}
+		return result;
+	}
+
+	/**
+	 * Reorder vertices into the order they are first used by the indices (so vertex fetches
+	 * walk through memory), dropping unused vertices. The indices are remapped in place.
+	 * 
+	 * @param vertices The interleaved vertices.
+	 * @param stride The number of floats per vertex.
+	 * @param indices The triangle indices (remapped to the new vertex order).
+	 * @return The reordered vertices.
+	 */
+	public static float[] optimiseVertexFetch(float[] vertices, int stride, int[] indices) {
+		int vertexCount = vertices.length/stride;
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		float[] result = new float[vertices.length];
+		int next = 0;
+		for (int i=0; i<indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) {
+				remap[v] = next;
+				System.arraycopy(vertices, v*stride, result, next*stride, stride);
+				next++;
+			}
+			indices[i] = remap[v];
+		}
+		return Arrays.copyOf(result, next*stride);
+	}
+
+	/**
+	 * Forsyth's score of a vertex from its position in the LRU cache and its number of remaining
+	 * triangles.
+	 * 
+	 * @param cachePosition The position in the cache (-1 if not cached).
+	 * @param remaining The number of triangles still to be emitted that use the vertex.
+	 * @return The score of the vertex.
+	 */
+	private static float score(int cachePosition, int remaining) {
+		if (remaining == 0) return -1;
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3) {
+				// The vertices of the last triangle are deliberately scored lower
+				score = LAST_TRIANGLE_SCORE;
+			}
+			else {
+				float scaler = 1.0f/(LRU_CACHE_SIZE-3);
+				score = (float)Math.pow(1.0f - (cachePosition-3)*scaler, CACHE_DECAY_POWER);
+			}
+		}
+		// Vertices with few triangles left are boosted so they are finished off
+		score += VALENCE_BOOST_SCALE*(float)Math.pow(remaining, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	/**
+	 * Calculate the centre, unit normal and area of a triangle.
+	 * 
+	 * @param vertices The interleaved vertices.
+	 * @param stride The number of floats per vertex.
+	 * @param indices The triangle indices.
+	 * @param t The index of the triangle.
+	 * @return The centre (3 values), normal (3 values) and area of the triangle.
+	 */
+	private static double[] triangleCentreNormal(float[] vertices, int stride, int[] indices, int t) {
+		int a = indices[t*3]*stride;
+		int b = indices[t*3+1]*stride;
+		int c = indices[t*3+2]*stride;
+		double ux = vertices[b]-vertices[a], uy = vertices[b+1]-vertices[a+1], uz = vertices[b+2]-vertices[a+2];
+		double vx = vertices[c]-vertices[a], vy = vertices[c+1]-vertices[a+1], vz = vertices[c+2]-vertices[a+2];
+		double nx = uy*vz - uz*vy;
+		double ny = uz*vx - ux*vz;
+		double nz = ux*vy - uy*vx;
+		double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		double[] data = new double[7];
+		for (int j=0; j<3; j++) {
+			data[j] = (vertices[a+j] + vertices[b+j] + vertices[c+j])/3.0;
+		}
+		if (length > 0) {
+			data[3] = nx/length;
+			data[4] = ny/length;
+			data[5] = nz/length;
+		}
+		data[6] = length/2;
+		return data;
+	}
+}
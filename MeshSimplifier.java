@@ -0,0 +1,364 @@
+import java.util.*;
+
+/**
+ * Class for reducing the number of triangles in a mesh using quadric error metric edge collapses
+ * (Garland and Heckbert). Works on the interleaved vertex format used by Mesh (x,y,z, nx,ny,nz,
+ * s,t) so any mesh data can be given simpler levels of detail.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for generating simplified levels of detail of arbitrary meshes
+ */
+public final class MeshSimplifier {
+	private static final int STRIDE = 8;
+	// Weight of the planes keeping open edges (and texture seams) in place
+	private static final double BOUNDARY_WEIGHT = 1000.0;
+
+	private float[] vertices;
+	private int[] triangles;
+	private boolean[] triangleRemoved;
+	private boolean[] vertexRemoved;
+	private int[] vertexVersion;
+	private double[][] quadrics;
+	private List<List<Integer>> vertexTriangles;
+	private int liveTriangles;
+
+	/**
+	 * The vertices and indices of a simplified mesh.
+	 */
+	public static class Result {
+		public final float[] vertices;
+		public final int[] indices;
+
+		Result(float[] vertices, int[] indices) {
+			this.vertices = vertices;
+			this.indices = indices;
+		}
+	}
+
+	/**
+	 * Record of a possible collapse of one vertex onto a neighbouring vertex.
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		final int from;
+		final int to;
+		final double cost;
+		final int fromVersion;
+		final int toVersion;
+
+		Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+			this.from = from;
+			this.to = to;
+			this.cost = cost;
+			this.fromVersion = fromVersion;
+			this.toVersion = toVersion;
+		}
+
+		public int compareTo(Collapse c) {
+			return Double.compare(cost, c.cost);
+		}
+	}
+
+	/**
+	 * Simplify a mesh until it has (at most) a target fraction of its original triangles. Vertices
+	 * are collapsed onto existing vertices so their normals and texture coordinates stay valid.
+	 * 
+	 * @param vertices The interleaved vertices of the mesh (8 floats per vertex).
+	 * @param indices The triangle indices of the mesh.
+	 * @param ratio The fraction of triangles to keep (0 to 1).
+	 * @return The compacted vertices and the new indices.
+	 */
+	public static Result simplify(float[] vertices, int[] indices, float ratio) {
+		MeshSimplifier simplifier = new MeshSimplifier(vertices, indices);
+		int target = Math.max(1, (int)(indices.length/3 * ratio));
+		simplifier.collapseUntil(target);
+		return simplifier.compact();
+	}
+
+	/**
+	 * Constructor. Build the adjacency and error quadrics of every vertex.
+	 * 
+	 * @param vertices The interleaved vertices of the mesh.
+	 * @param indices The triangle indices of the mesh.
+	 */
+	private MeshSimplifier(float[] vertices, int[] indices) {
+		this.vertices = vertices;
+		this.triangles = indices.clone();
+		int vertexCount = vertices.length/STRIDE;
+		int triangleCount = indices.length/3;
+		triangleRemoved = new boolean[triangleCount];
+		vertexRemoved = new boolean[vertexCount];
+		vertexVersion = new int[vertexCount];
+		quadrics = new double[vertexCount][10];
+		vertexTriangles = new ArrayList<>(vertexCount);
+		for (int i=0; i<vertexCount; i++) {
+			vertexTriangles.add(new ArrayList<>());
+		}
+		liveTriangles = triangleCount;
+
+		Map<Long,Integer> edgeUse = new HashMap<>();
+		for (int t=0; t<triangleCount; t++) {
+			for (int k=0; k<3; k++) {
+				vertexTriangles.get(triangles[t*3+k]).add(t);
+				edgeUse.merge(edgeKey(triangles[t*3+k], triangles[t*3+(k+1)%3]), 1, Integer::sum);
+			}
+			double[] plane = trianglePlane(t);
+			if (plane == null) continue;
+			for (int k=0; k<3; k++) {
+				addPlane(quadrics[triangles[t*3+k]], plane, 1.0);
+			}
+		}
+
+		// Edges used by a single triangle get a perpendicular plane so the outline is preserved
+		for (int t=0; t<triangleCount; t++) {
+			double[] plane = trianglePlane(t);
+			if (plane == null) continue;
+			for (int k=0; k<3; k++) {
+				int a = triangles[t*3+k];
+				int b = triangles[t*3+(k+1)%3];
+				if (edgeUse.get(edgeKey(a, b)) != 1) continue;
+				double[] edgePlane = boundaryPlane(a, b, plane);
+				if (edgePlane == null) continue;
+				addPlane(quadrics[a], edgePlane, BOUNDARY_WEIGHT);
+				addPlane(quadrics[b], edgePlane, BOUNDARY_WEIGHT);
+			}
+		}
+	}
+
+	/**
+	 * Greedily apply the cheapest valid collapse until the triangle count reaches the target.
+	 * 
+	 * @param target The number of triangles to stop at.
+	 */
+	private void collapseUntil(int target) {
+		PriorityQueue<Collapse> queue = new PriorityQueue<>();
+		for (int t=0; t<triangleRemoved.length; t++) {
+			for (int k=0; k<3; k++) {
+				addCandidates(queue, triangles[t*3+k], triangles[t*3+(k+1)%3]);
+			}
+		}
+		while (liveTriangles > target && !queue.isEmpty()) {
+			Collapse c = queue.poll();
+			if (vertexRemoved[c.from] || vertexRemoved[c.to] ||
+				vertexVersion[c.from] != c.fromVersion || vertexVersion[c.to] != c.toVersion) {
+				continue;
+			}
+			if (flipsTriangle(c.from, c.to)) continue;
+			collapse(c.from, c.to);
+			for (int t : vertexTriangles.get(c.to)) {
+				if (triangleRemoved[t]) continue;
+				for (int k=0; k<3; k++) {
+					int v = triangles[t*3+k];
+					if (v != c.to) addCandidates(queue, c.to, v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue both directions of collapse along an edge.
+	 * 
+	 * @param queue The queue of candidate collapses.
+	 * @param a The first vertex of the edge.
+	 * @param b The second vertex of the edge.
+	 */
+	private void addCandidates(PriorityQueue<Collapse> queue, int a, int b) {
+		queue.add(new Collapse(a, b, collapseCost(a, b), vertexVersion[a], vertexVersion[b]));
+		queue.add(new Collapse(b, a, collapseCost(b, a), vertexVersion[b], vertexVersion[a]));
+	}
+
+	/**
+	 * The error of moving a vertex onto another (combined quadric evaluated at the destination).
+	 * 
+	 * @param from The vertex being removed.
+	 * @param to The vertex that is kept.
+	 * @return The quadric error of the collapse.
+	 */
+	private double collapseCost(int from, int to) {
+		double[] qa = quadrics[from];
+		double[] qb = quadrics[to];
+		double[] q = new double[10];
+		for (int i=0; i<10; i++) q[i] = qa[i]+qb[i];
+		double x = vertices[to*STRIDE];
+		double y = vertices[to*STRIDE+1];
+		double z = vertices[to*STRIDE+2];
+		return q[0]*x*x + 2*q[1]*x*y + 2*q[2]*x*z + 2*q[3]*x
+			 + q[4]*y*y + 2*q[5]*y*z + 2*q[6]*y
+			 + q[7]*z*z + 2*q[8]*z
+			 + q[9];
+	}
+
+	/**
+	 * Check whether collapsing a vertex would turn any remaining triangle around it inside out.
+	 * 
+	 * @param from The vertex being removed.
+	 * @param to The vertex that is kept.
+	 * @return True if the collapse would flip a triangle.
+	 */
+	private boolean flipsTriangle(int from, int to) {
+		for (int t : vertexTriangles.get(from)) {
+			if (triangleRemoved[t]) continue;
+			int a = triangles[t*3];
+			int b = triangles[t*3+1];
+			int c = triangles[t*3+2];
+			if (a == to || b == to || c == to) continue;
+			double[] before = normal(a, b, c);
+			double[] after = normal(a == from ? to : a, b == from ? to : b, c == from ? to : c);
+			if (before[0]*after[0] + before[1]*after[1] + before[2]*after[2] <= 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move one vertex onto another, removing triangles that become degenerate.
+	 * 
+	 * @param from The vertex being removed.
+	 * @param to The vertex that is kept.
+	 */
+	private void collapse(int from, int to) {
+		for (int i=0; i<10; i++) quadrics[to][i] += quadrics[from][i];
+		List<Integer> kept = vertexTriangles.get(to);
+		for (int t : vertexTriangles.get(from)) {
+			if (triangleRemoved[t]) continue;
+			boolean degenerate = false;
+			for (int k=0; k<3; k++) {
+				if (triangles[t*3+k] == to) degenerate = true;
+			}
+			if (degenerate) {
+				triangleRemoved[t] = true;
+				liveTriangles--;
+				continue;
+			}
+			for (int k=0; k<3; k++) {
+				if (triangles[t*3+k] == from) triangles[t*3+k] = to;
+			}
+			kept.add(t);
+		}
+		kept.removeIf(t -> triangleRemoved[t]);
+		vertexTriangles.get(from).clear();
+		vertexRemoved[from] = true;
+		vertexVersion[to]++;
+	}
+
+	/**
+	 * Build new vertex/index arrays that only contain the vertices still in use.
+	 * 
+	 * @return The compacted vertices and indices.
+	 */
+	private Result compact() {
+		int[] remap = new int[vertexRemoved.length];
+		Arrays.fill(remap, -1);
+		int[] newIndices = new int[liveTriangles*3];
+		float[] newVertices = new float[vertices.length];
+		int vertexCount = 0;
+		int n = 0;
+		for (int t=0; t<triangleRemoved.length; t++) {
+			if (triangleRemoved[t]) continue;
+			for (int k=0; k<3; k++) {
+				int v = triangles[t*3+k];
+				if (remap[v] < 0) {
+					remap[v] = vertexCount;
+					System.arraycopy(vertices, v*STRIDE, newVertices, vertexCount*STRIDE, STRIDE);
+					vertexCount++;
+				}
+				newIndices[n++] = remap[v];
+			}
+		}
+		return new Result(Arrays.copyOf(newVertices, vertexCount*STRIDE), newIndices);
+	}
+
+	/**
+	 * Calculate the plane (a,b,c,d with unit normal) of a triangle.
+	 * 
+	 * @param t The index of the triangle.
+	 * @return The plane equation, or null for a degenerate triangle.
+	 */
+	private double[] trianglePlane(int t) {
+		int a = triangles[t*3];
+		double[] n = normal(a, triangles[t*3+1], triangles[t*3+2]);
+		double length = Math.sqrt(n[0]*n[0] + n[1]*n[1] + n[2]*n[2]);
+		if (length < 1e-12) return null;
+		n[0] /= length;
+		n[1] /= length;
+		n[2] /= length;
+		double d = -(n[0]*vertices[a*STRIDE] + n[1]*vertices[a*STRIDE+1] + n[2]*vertices[a*STRIDE+2]);
+		return new double[] {n[0], n[1], n[2], d};
+	}
+
+	/**
+	 * Calculate the plane containing an open edge and perpendicular to its triangle.
+	 * 
+	 * @param a The first vertex of the edge.
+	 * @param b The second vertex of the edge.
+	 * @param face The plane of the triangle the edge belongs to.
+	 * @return The plane equation, or null for a zero-length edge.
+	 */
+	private double[] boundaryPlane(int a, int b, double[] face) {
+		double ex = vertices[b*STRIDE] - vertices[a*STRIDE];
+		double ey = vertices[b*STRIDE+1] - vertices[a*STRIDE+1];
+		double ez = vertices[b*STRIDE+2] - vertices[a*STRIDE+2];
+		double nx = ey*face[2] - ez*face[1];
+		double ny = ez*face[0] - ex*face[2];
+		double nz = ex*face[1] - ey*face[0];
+		double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if (length < 1e-12) return null;
+		nx /= length;
+		ny /= length;
+		nz /= length;
+		double d = -(nx*vertices[a*STRIDE] + ny*vertices[a*STRIDE+1] + nz*vertices[a*STRIDE+2]);
+		return new double[] {nx, ny, nz, d};
+	}
+
+	/**
+	 * Calculate the (unnormalised) normal of the triangle formed by three vertices.
+	 * 
+	 * @param a The first vertex.
+	 * @param b The second vertex.
+	 * @param c The third vertex.
+	 * @return The cross product of the triangle's edges.
+	 */
+	private double[] normal(int a, int b, int c) {
+		double ux = vertices[b*STRIDE] - vertices[a*STRIDE];
+		double uy = vertices[b*STRIDE+1] - vertices[a*STRIDE+1];
+		double uz = vertices[b*STRIDE+2] - vertices[a*STRIDE+2];
+		double vx = vertices[c*STRIDE] - vertices[a*STRIDE];
+		double vy = vertices[c*STRIDE+1] - vertices[a*STRIDE+1];
+		double vz = vertices[c*STRIDE+2] - vertices[a*STRIDE+2];
+		return new double[] {uy*vz - uz*vy, uz*vx - ux*vz, ux*vy - uy*vx};
+	}
+
+	/**
+	 * Add the (weighted) fundamental error quadric of a plane to a vertex's quadric. The symmetric
+	 * 4x4 matrix is stored as its upper triangle: a2 ab ac ad b2 bc bd c2 cd d2.
+	 * 
+	 * @param q The quadric to add to.
+	 * @param p The plane equation.
+	 * @param weight The weight of the plane.
+	 */
+	private static void addPlane(double[] q, double[] p, double weight) {
+		q[0] += weight*p[0]*p[0];
+		q[1] += weight*p[0]*p[1];
+		q[2] += weight*p[0]*p[2];
+		q[3] += weight*p[0]*p[3];
+		q[4] += weight*p[1]*p[1];
+		q[5] += weight*p[1]*p[2];
+		q[6] += weight*p[1]*p[3];
+		q[7] += weight*p[2]*p[2];
+		q[8] += weight*p[2]*p[3];
+		q[9] += weight*p[3]*p[3];
+	}
+
+	/**
+	 * Create an order-independent key for the edge between two vertices.
+	 * 
+	 * @param a The first vertex.
+	 * @param b The second vertex.
+	 * @return A key identifying the edge.
+	 */
+	private static long edgeKey(int a, int b) {
+		return ((long)Math.min(a, b) << 32) | Math.max(a, b);
+	}
+}
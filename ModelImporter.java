@@ -0,0 +1,1764 @@
+import gmaths.*;
+import gmaths.batch.*;
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Class for loading models made in other tools as meshes and models (ModelMultipleLights):
+ * - Wavefront OBJ files with their MTL materials (Phong: diffuse and specular colours or maps,
+ *   shininess),
+ * - glTF 2.0 files (.gltf with embedded or separate .bin buffers, or binary .glb) with PBR
+ *   metallic-roughness materials, mapped onto the albedo, normal, metallic, roughness and ao
+ *   textures of the PBR shader. The metallic-roughness texture is split into a metallic (blue)
+ *   and a roughness (green) texture, as the shader reads each from the red channel of its own.
+ * Slots without a texture get a 1x1 texture of the material's colour or factor. The geometry is
+ * gathered into one mesh per material (placed by the glTF node transforms) and optimised for the
+ * vertex cache and vertex fetch (see MeshOptimizer). Meshes with many triangles are
+ * also given simplified levels of detail (see MeshSimplifier and LodMesh).
+ * 
+ * Importing is only done once per file: the packed vertices and indices, the materials and any
+ * derived textures are written to a cache under cache/models (named by a SHA-256 hash of the
+ * file's path and the vertex layout). Later runs memory-map the cache file with FileChannel.map
+ * and upload slices of it straight into the OpenGL buffers, with no parsing or conversion. The
+ * cache is rebuilt when the size or modification time of any source file (model, MTL, buffers,
+ * images) has changed.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for importing OBJ and glTF models through a memory-mapped mesh cache
+ * - Parts with many triangles are given simplified levels of detail (cached with the part)
+ * - Vertices are stored with octahedral-encoded normals (VertexLayout.OCTAHEDRAL)
+ */
+public class ModelImporter {
+	private static final boolean DISPLAY_LOADING = false;
+	private static final File CACHE_DIR = new File("cache/models");
+	private static final int CACHE_MAGIC = 0x4C444F4D;
+	private static final int CACHE_VERSION = 2;
+	// Vertex and index data in the cache file start on multiples of this many bytes
+	private static final int ALIGNMENT = 16;
+	// Octahedral normals (2 x 16 bits) shade detailed curved surfaces more smoothly than the
+	// 10-bit normals of the built-in shapes, in the same 20 bytes per vertex
+	private static final VertexLayout LAYOUT = VertexLayout.OCTAHEDRAL;
+	private static final int STRIDE = 8;
+	// Parts with fewer triangles than this are only drawn at full detail
+	private static final int MIN_LOD_TRIANGLES = 512;
+
+	private static final String VERTEX_SHADER = "assets/shaders/vs_standard_oct.txt";
+	private static final String PHONG_SHADER = "assets/shaders/fs_standard_m_phong.txt";
+	private static final String PBR_SHADER = "assets/shaders/fs_standard_m_pbr.txt";
+	// Material kinds: Phong (diffuse and specular textures) or PBR (albedo, normal, metallic,
+	// roughness and ao textures)
+	private static final int PHONG = 0;
+	private static final int PBR = 1;
+
+	private static final int GLB_MAGIC = 0x46546C67;
+	private static final int GLB_JSON = 0x4E4F534A;
+	private static final int GLB_BIN = 0x004E4942;
+
+	private ModelMultipleLights[] parts;
+	private final List<Texture> textures = new ArrayList<>();
+	private float[] boundsMin = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+	private float[] boundsMax = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+
+	/**
+	 * A material as imported: its kind, its Phong values and, for each texture slot, an image
+	 * file or (if the slot has no image) the colour of a 1x1 texture.
+	 */
+	private static final class MaterialData {
+		final int kind;
+		float[] ambient = toArray(Material.DEFAULT_AMBIENT);
+		float[] diffuse = toArray(Material.DEFAULT_DIFFUSE);
+		float[] specular = toArray(Material.DEFAULT_SPECULAR);
+		float shininess = Material.DEFAULT_SHININESS;
+		final String[] images;
+		// RGB as stored in the texture (sRGB-encoded for the colour slots)
+		final float[][] colours;
+
+		MaterialData(int kind) {
+			this.kind = kind;
+			int slots = (kind == PHONG) ? 2 : 5;
+			images = new String[slots];
+			colours = new float[slots][];
+		}
+	}
+
+	/**
+	 * The geometry drawn with one material, ready to upload: vertices packed in LAYOUT and 16 or
+	 * 32-bit indices (both in native byte order). Simplified levels of detail of a part follow
+	 * it in the list of parts.
+	 */
+	private static final class PartData {
+		int material;
+		int level;
+		int indexType;
+		ByteBuffer vertexData;
+		ByteBuffer indexData;
+		float[] boundsMin = new float[3];
+		float[] boundsMax = new float[3];
+	}
+
+	/**
+	 * Everything imported from a model file (and everything stored in its cache file).
+	 */
+	private static final class ImportData {
+		final List<File> dependencies = new ArrayList<>();
+		final List<MaterialData> materials = new ArrayList<>();
+		final List<PartData> parts = new ArrayList<>();
+	}
+
+	/**
+	 * Load a model file, from its cache if the cache is up to date, otherwise importing it (and
+	 * writing the cache).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param path The path of the model (.obj, .gltf or .glb).
+	 * @param lights The lights in the scene.
+	 * @param camera The camera in the scene.
+	 * @return The loaded model, or null if the file could not be read.
+	 */
+	public static ModelImporter load(GL3 gl, String path, Light[] lights, Camera camera) {
+		long start = System.nanoTime();
+		File file = new File(path);
+		try {
+			String key = cacheKey(file);
+			File cacheFile = new File(CACHE_DIR, key + ".bin");
+			ImportData data = null;
+			if (cacheFile.exists()) {
+				try {
+					data = readCache(cacheFile);
+				}
+				catch (IOException e) {
+					System.out.println("Reimporting " + path + " (" + e.getMessage() + ")");
+				}
+			}
+			boolean cached = (data != null);
+			if (!cached) {
+				data = importFile(file, key);
+				try {
+					writeCache(cacheFile, data);
+				}
+				catch (IOException e) {
+					System.out.println("Model cache not written: " + e.getMessage());
+				}
+			}
+			ModelImporter model = new ModelImporter(gl, file.getName(), data, lights, camera);
+			if (DISPLAY_LOADING) {
+				System.out.printf("%s %s in %.1f ms (%d parts)%n", cached ? "Loaded" : "Imported",
+								  path, (System.nanoTime()-start)/1e6, model.parts.length);
+			}
+			return model;
+		}
+		catch (IOException | RuntimeException e) {
+			// Runtime exceptions come from malformed files (bad numbers, indices or JSON)
+			System.out.println("Model " + path + " not loaded: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Constructor. Create the meshes, textures and models of imported (or cached) data.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param name The name of the model.
+	 * @param data The imported data.
+	 * @param lights The lights in the scene.
+	 * @param camera The camera in the scene.
+	 */
+	private ModelImporter(GL3 gl, String name, ImportData data, Light[] lights, Camera camera) {
+		Shader[] shaders = new Shader[2];
+		Map<String,Texture> loaded = new HashMap<>();
+		Texture[][] materialTextures = new Texture[data.materials.size()][];
+		Material[] materials = new Material[data.materials.size()];
+		Mat4 modelMatrix = new Mat4(1);
+		List<ModelMultipleLights> models = new ArrayList<>();
+		int i = 0;
+		while (i < data.parts.size()) {
+			PartData part = data.parts.get(i);
+			MaterialData m = data.materials.get(part.material);
+			if (shaders[m.kind] == null) {
+				shaders[m.kind] = new Shader(gl, VERTEX_SHADER,
+											 (m.kind == PHONG) ? PHONG_SHADER : PBR_SHADER);
+			}
+			if (materials[part.material] == null) {
+				materials[part.material] = new Material(toVec3(m.ambient), toVec3(m.diffuse),
+														toVec3(m.specular), m.shininess);
+				materialTextures[part.material] = loadTextures(gl, m, loaded);
+			}
+			int levelCount = 1;
+			while (i+levelCount < data.parts.size() && data.parts.get(i+levelCount).level > 0) {
+				levelCount++;
+			}
+			Mesh[] levels = new Mesh[levelCount];
+			for (int l=0; l<levelCount; l++) {
+				PartData level = data.parts.get(i+l);
+				levels[l] = new Mesh(gl, level.vertexData, level.indexData, level.indexType, LAYOUT,
+									 level.boundsMin, level.boundsMax);
+			}
+			ModelMultipleLights model = ModelMaker.makePart(
+				gl, name + " " + models.size(), materials[part.material], modelMatrix,
+				shaders[m.kind], materialTextures[part.material], lights, camera, levels[0]);
+			if (levelCount > 1) model.setLod(new LodMesh(levels, LodMesh.SCREEN_THRESHOLDS));
+			models.add(model);
+			for (int j=0; j<3; j++) {
+				boundsMin[j] = Math.min(boundsMin[j], part.boundsMin[j]);
+				boundsMax[j] = Math.max(boundsMax[j], part.boundsMax[j]);
+			}
+			i += levelCount;
+		}
+		parts = models.toArray(new ModelMultipleLights[0]);
+	}
+
+	/**
+	 * Load the textures of a material (images shared between materials are only loaded once).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param material The material.
+	 * @param loaded The textures loaded so far, by image path or colour.
+	 * @return The textures, one per slot.
+	 */
+	private Texture[] loadTextures(GL3 gl, MaterialData material, Map<String,Texture> loaded) {
+		Texture[] result = new Texture[material.images.length];
+		for (int s=0; s<result.length; s++) {
+			String image = material.images[s];
+			if (image != null) {
+				result[s] = loaded.get(image);
+				if (result[s] == null) {
+					result[s] = TextureLibrary.loadTexture(gl, image);
+					if (result[s] != null) {
+						loaded.put(image, result[s]);
+						textures.add(result[s]);
+					}
+				}
+			}
+			// No image (or it could not be loaded): a texture of the slot's colour
+			if (result[s] == null) {
+				float[] colour = material.colours[s];
+				String colourKey = "#" + colour[0] + "," + colour[1] + "," + colour[2];
+				result[s] = loaded.get(colourKey);
+				if (result[s] == null) {
+					result[s] = solidTexture(gl, colour);
+					loaded.put(colourKey, result[s]);
+					textures.add(result[s]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Create a 1x1 texture of a colour.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param colour The RGB colour (as stored in the texture, 0 to 1).
+	 * @return The texture.
+	 */
+	private static Texture solidTexture(GL3 gl, float[] colour) {
+		ByteBuffer texel = Buffers.newDirectByteBuffer(4);
+		for (int c=0; c<3; c++) {
+			texel.put((byte)Math.round(Math.min(Math.max(colour[c], 0), 1)*255));
+		}
+		texel.put((byte)255);
+		texel.rewind();
+		TextureData data = new TextureData(gl.getGLProfile(), GL.GL_RGBA8, 1, 1, 0, GL.GL_RGBA,
+										   GL.GL_UNSIGNED_BYTE, false, false, false, texel, null);
+		Texture t = TextureIO.newTexture(data);
+		t.bind(gl);
+		t.setTexParameteri(gl, GL3.GL_TEXTURE_WRAP_S, GL3.GL_REPEAT);
+		t.setTexParameteri(gl, GL3.GL_TEXTURE_WRAP_T, GL3.GL_REPEAT);
+		t.setTexParameteri(gl, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR);
+		t.setTexParameteri(gl, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
+		return t;
+	}
+
+	/**
+	 * Get the models of the imported file (one per material).
+	 * 
+	 * @return The models.
+	 */
+	public ModelMultipleLights[] getParts() {
+		return parts;
+	}
+
+	/**
+	 * Get the minimum corner of the model's axis-aligned bounding box (in model space).
+	 * 
+	 * @return The x, y and z minimums of the vertex positions.
+	 */
+	public float[] getBoundsMin() {
+		return boundsMin;
+	}
+
+	/**
+	 * Get the maximum corner of the model's axis-aligned bounding box (in model space).
+	 * 
+	 * @return The x, y and z maximums of the vertex positions.
+	 */
+	public float[] getBoundsMax() {
+		return boundsMax;
+	}
+
+	/**
+	 * Set the model matrix of every part of the model.
+	 * 
+	 * @param m The model matrix.
+	 */
+	public void setModelMatrix(Mat4 m) {
+		for (ModelMultipleLights part : parts) {
+			part.setModelMatrix(m);
+		}
+	}
+
+	/**
+	 * Scale the model uniformly so its longest side is a given size, and stand it on a point
+	 * (the centre of the bottom of its bounding box is placed on the point).
+	 * 
+	 * @param size The length of the model's longest side.
+	 * @param position The point the model stands on.
+	 */
+	public void fitInto(float size, Vec3 position) {
+		float extent = 0;
+		for (int j=0; j<3; j++) {
+			extent = Math.max(extent, boundsMax[j]-boundsMin[j]);
+		}
+		if (extent <= 0) return;
+		float scale = size/extent;
+		float x = position.x - scale*(boundsMin[0]+boundsMax[0])/2;
+		float y = position.y - scale*boundsMin[1];
+		float z = position.z - scale*(boundsMin[2]+boundsMax[2])/2;
+		setModelMatrix(Mat4.multiply(Mat4Transform.translate(x, y, z),
+									 Mat4Transform.scale(scale, scale, scale)));
+	}
+
+	/**
+	 * Draw every part of the model.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void render(GL3 gl) {
+		for (ModelMultipleLights part : parts) {
+			part.render(gl);
+		}
+	}
+
+	/**
+	 * Discard the model, freeing its meshes and textures.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		for (ModelMultipleLights part : parts) {
+			part.dispose(gl);
+		}
+		for (Texture t : textures) {
+			t.destroy(gl);
+		}
+	}
+
+	// ***************************************************
+	/* IMPORTING */
+
+	/**
+	 * Import a model file (by its extension).
+	 * 
+	 * @param file The model file.
+	 * @param key The name of the model's cache file (derived textures are named after it).
+	 * @return The imported data.
+	 * @throws IOException If the file cannot be read or is not a supported format.
+	 */
+	private static ImportData importFile(File file, String key) throws IOException {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".obj")) return importObj(file);
+		if (name.endsWith(".gltf") || name.endsWith(".glb")) {
+			return new GltfReader(file, key).read();
+		}
+		throw new IOException("unsupported format (expected .obj, .gltf or .glb)");
+	}
+
+	/**
+	 * Import a Wavefront OBJ file: positions, texture coordinates and normals (computed if
+	 * missing), faces (triangulated as fans) and MTL materials. Faces are gathered into one part
+	 * per material.
+	 * 
+	 * @param file The OBJ file.
+	 * @return The imported data.
+	 * @throws IOException If the file (or a material library) cannot be read or is malformed.
+	 */
+	private static ImportData importObj(File file) throws IOException {
+		ImportData data = new ImportData();
+		data.dependencies.add(file);
+		FloatList positions = new FloatList();
+		FloatList uvs = new FloatList();
+		FloatList normals = new FloatList();
+		Map<String,MaterialData> library = new HashMap<>();
+		Map<MaterialData,PartBuilder> builders = new LinkedHashMap<>();
+		MaterialData current = null;
+		int lineNumber = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+															 StandardCharsets.ISO_8859_1)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				int comment = line.indexOf('#');
+				if (comment >= 0) line = line.substring(0, comment);
+				String[] tokens = line.trim().split("\\s+");
+				switch (tokens[0]) {
+					case "v":
+						for (int c=1; c<=3; c++) positions.add(Float.parseFloat(tokens[c]));
+						break;
+					case "vt":
+						uvs.add(Float.parseFloat(tokens[1]));
+						uvs.add((tokens.length > 2) ? Float.parseFloat(tokens[2]) : 0);
+						break;
+					case "vn":
+						for (int c=1; c<=3; c++) normals.add(Float.parseFloat(tokens[c]));
+						break;
+					case "mtllib":
+						for (int t=1; t<tokens.length; t++) {
+							readMtl(new File(file.getParentFile(), tokens[t]), library, data);
+						}
+						break;
+					case "usemtl":
+						current = library.get((tokens.length > 1) ? tokens[1] : "");
+						if (current == null) System.out.println("Unknown OBJ material on line "
+																+ lineNumber + " of " + file);
+						break;
+					case "f":
+						if (current == null) {
+							current = library.computeIfAbsent("", n -> defaultObjMaterial());
+						}
+						PartBuilder builder = builders.computeIfAbsent(current,
+																	   m -> new PartBuilder());
+						int[] corners = new int[tokens.length-1];
+						for (int c=0; c<corners.length; c++) {
+							corners[c] = objCorner(tokens[c+1], builder, positions, uvs, normals);
+						}
+						for (int c=2; c<corners.length; c++) {
+							builder.addTriangle(corners[0], corners[c-1], corners[c]);
+						}
+						break;
+					default:
+						// Objects, groups, smoothing groups, lines and points are ignored
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			throw new IOException("malformed line " + lineNumber + " of " + file.getName(), e);
+		}
+		for (Map.Entry<MaterialData,PartBuilder> entry : builders.entrySet()) {
+			List<PartData> levels = entry.getValue().build(data.materials.size());
+			if (levels.isEmpty()) continue;
+			data.materials.add(entry.getKey());
+			data.parts.addAll(levels);
+		}
+		return data;
+	}
+
+	/**
+	 * Get the vertex of a corner of an OBJ face (v, v/vt, v//vn or v/vt/vn), adding it to a part
+	 * if the part does not have it yet.
+	 * 
+	 * @param token The corner as written in the face.
+	 * @param builder The part the face belongs to.
+	 * @param positions The positions read so far.
+	 * @param uvs The texture coordinates read so far.
+	 * @param normals The normals read so far.
+	 * @return The index of the vertex in the part.
+	 */
+	private static int objCorner(String token, PartBuilder builder, FloatList positions,
+								 FloatList uvs, FloatList normals) {
+		String[] fields = token.split("/", -1);
+		int v = objIndex(fields[0], positions.size/3);
+		int t = (fields.length > 1 && !fields[1].isEmpty())
+				? objIndex(fields[1], uvs.size/2) : -1;
+		int n = (fields.length > 2 && !fields[2].isEmpty())
+				? objIndex(fields[2], normals.size/3) : -1;
+		Corner corner = new Corner(v, t, n);
+		Integer existing = builder.corners.get(corner);
+		if (existing != null) return existing;
+		float[] vertex = new float[STRIDE];
+		for (int c=0; c<3; c++) vertex[c] = positions.values[v*3+c];
+		if (n >= 0) {
+			for (int c=0; c<3; c++) vertex[3+c] = normals.values[n*3+c];
+		}
+		if (t >= 0) {
+			vertex[6] = uvs.values[t*2];
+			vertex[7] = uvs.values[t*2+1];
+		}
+		int index = builder.addVertex(vertex, n >= 0);
+		builder.corners.put(corner, index);
+		return index;
+	}
+
+	/**
+	 * Turn an OBJ index (1-based, or negative to count back from the latest) into a 0-based one.
+	 * 
+	 * @param field The index as written.
+	 * @param count The number of elements read so far.
+	 * @return The 0-based index.
+	 */
+	private static int objIndex(String field, int count) {
+		int index = Integer.parseInt(field);
+		index = (index < 0) ? count+index : index-1;
+		if (index < 0 || index >= count) {
+			throw new IllegalArgumentException("index " + field + " out of range");
+		}
+		return index;
+	}
+
+	/**
+	 * The material of OBJ faces without a (known) material.
+	 * 
+	 * @return The material (Material's defaults).
+	 */
+	private static MaterialData defaultObjMaterial() {
+		MaterialData m = new MaterialData(PHONG);
+		m.colours[0] = toSrgb(m.diffuse);
+		m.colours[1] = m.specular.clone();
+		return m;
+	}
+
+	/**
+	 * Read the materials of an MTL library (Ka, Kd, Ks, Ns, map_Kd and map_Ks). A diffuse or
+	 * specular map replaces the colour in its slot; the colours are kept in the Material.
+	 * 
+	 * @param file The MTL file.
+	 * @param library The materials read so far, by name.
+	 * @param data The data being imported (the file is added to its dependencies).
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static void readMtl(File file, Map<String,MaterialData> library, ImportData data)
+			throws IOException {
+		if (!file.isFile()) {
+			System.out.println("Material library " + file + " not found");
+			return;
+		}
+		data.dependencies.add(file);
+		List<MaterialData> read = new ArrayList<>();
+		MaterialData current = null;
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1)) {
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			String[] tokens = line.trim().split("\\s+");
+			if (tokens[0].equals("newmtl")) {
+				current = new MaterialData(PHONG);
+				library.put((tokens.length > 1) ? tokens[1] : "", current);
+				read.add(current);
+				continue;
+			}
+			if (current == null) continue;
+			switch (tokens[0]) {
+				case "Ka": current.ambient = mtlColour(tokens); break;
+				case "Kd": current.diffuse = mtlColour(tokens); break;
+				case "Ks": current.specular = mtlColour(tokens); break;
+				case "Ns": current.shininess = Float.parseFloat(tokens[1]); break;
+				case "map_Kd": current.images[0] = mtlMap(file, tokens, data); break;
+				case "map_Ks": current.images[1] = mtlMap(file, tokens, data); break;
+				default:
+			}
+		}
+		for (MaterialData m : read) {
+			m.colours[0] = toSrgb(m.diffuse);
+			m.colours[1] = m.specular.clone();
+		}
+	}
+
+	/**
+	 * Read the RGB colour of an MTL statement (a single value is used for all three).
+	 * 
+	 * @param tokens The statement.
+	 * @return The colour.
+	 */
+	private static float[] mtlColour(String[] tokens) {
+		float r = Float.parseFloat(tokens[1]);
+		if (tokens.length < 4) return new float[] {r, r, r};
+		return new float[] {r, Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])};
+	}
+
+	/**
+	 * Find the image of an MTL texture map statement (the last token; options are ignored).
+	 * 
+	 * @param mtl The MTL file (map paths are relative to it).
+	 * @param tokens The statement.
+	 * @param data The data being imported (the image is added to its dependencies).
+	 * @return The path of the image, or null if it does not exist.
+	 */
+	private static String mtlMap(File mtl, String[] tokens, ImportData data) {
+		File image = new File(mtl.getParentFile(), tokens[tokens.length-1].replace('\\', '/'));
+		if (!image.isFile()) {
+			System.out.println("Texture " + image + " not found");
+			return null;
+		}
+		data.dependencies.add(image);
+		return image.getPath();
+	}
+
+	/**
+	 * Encode linear colour values as sRGB (the shaders decode colour textures with a power of
+	 * 2.2).
+	 * 
+	 * @param linear The linear values.
+	 * @return The encoded values.
+	 */
+	private static float[] toSrgb(float[] linear) {
+		float[] encoded = new float[linear.length];
+		for (int c=0; c<linear.length; c++) {
+			encoded[c] = (float)Math.pow(Math.min(Math.max(linear[c], 0), 1), 1/2.2);
+		}
+		return encoded;
+	}
+
+	/**
+	 * Copy a vector into an array.
+	 * 
+	 * @param v The vector.
+	 * @return The x, y and z components.
+	 */
+	private static float[] toArray(Vec3 v) {
+		return new float[] {v.x, v.y, v.z};
+	}
+
+	/**
+	 * Make a vector from an array.
+	 * 
+	 * @param v The x, y and z components.
+	 * @return The vector.
+	 */
+	private static Vec3 toVec3(float[] v) {
+		return new Vec3(v[0], v[1], v[2]);
+	}
+
+	/**
+	 * Reader for one glTF 2.0 file (.gltf or .glb) and the buffers and images it refers to.
+	 */
+	private static final class GltfReader {
+		private final File file;
+		private final String key;
+		private final ImportData data = new ImportData();
+		private Map<String,Object> root;
+		private List<ByteBuffer> buffers = new ArrayList<>();
+		private ByteBuffer glbBinary;
+		// Image files by glTF image index, and material data indices by glTF material index
+		private final Map<Integer,String> imageFiles = new HashMap<>();
+		private final Map<Integer,Integer> materialIndices = new HashMap<>();
+		private final Map<Integer,PartBuilder> builders = new LinkedHashMap<>();
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param file The glTF file.
+		 * @param key The name of the model's cache file (derived textures are named after it).
+		 */
+		GltfReader(File file, String key) {
+			this.file = file;
+			this.key = key;
+		}
+
+		/**
+		 * Read the file: the meshes of the default scene (or of every root node if there are no
+		 * scenes), placed by their nodes' transforms and gathered into one part per material.
+		 * 
+		 * @return The imported data.
+		 * @throws IOException If the file or its buffers cannot be read.
+		 */
+		ImportData read() throws IOException {
+			data.dependencies.add(file);
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			ByteBuffer glb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			String json;
+			if (bytes.length >= 12 && glb.getInt(0) == GLB_MAGIC) {
+				json = null;
+				int length = Math.min(glb.getInt(8), bytes.length);
+				int pos = 12;
+				while (pos+8 <= length) {
+					int chunkLength = glb.getInt(pos);
+					int chunkType = glb.getInt(pos+4);
+					if (chunkType == GLB_JSON && json == null) {
+						json = new String(bytes, pos+8, chunkLength, StandardCharsets.UTF_8);
+					}
+					else if (chunkType == GLB_BIN && glbBinary == null) {
+						glbBinary = slice(glb, pos+8, chunkLength).order(ByteOrder.LITTLE_ENDIAN);
+					}
+					pos += 8+chunkLength;
+				}
+				if (json == null) throw new IOException("no JSON chunk in " + file.getName());
+			}
+			else {
+				json = new String(bytes, StandardCharsets.UTF_8);
+			}
+			root = object(JsonParser.parse(json));
+			for (Object buffer : array(root.get("buffers"))) {
+				buffers.add(readBuffer(object(buffer)));
+			}
+
+			float[] identity = new Mat4(1).toFloatArrayForGLSL();
+			List<Object> nodes = array(root.get("nodes"));
+			List<Object> scenes = array(root.get("scenes"));
+			if (!scenes.isEmpty()) {
+				int scene = integer(root, "scene", 0);
+				for (Object node : array(object(scenes.get(scene)).get("nodes"))) {
+					addNode(toInt(node), identity, 0);
+				}
+			}
+			else {
+				// No scenes: every node that is not a child of another
+				boolean[] child = new boolean[nodes.size()];
+				for (Object node : nodes) {
+					for (Object c : array(object(node).get("children"))) child[toInt(c)] = true;
+				}
+				for (int n=0; n<nodes.size(); n++) {
+					if (!child[n]) addNode(n, identity, 0);
+				}
+			}
+
+			for (Map.Entry<Integer,PartBuilder> entry : builders.entrySet()) {
+				data.parts.addAll(entry.getValue().build(entry.getKey()));
+			}
+			return data;
+		}
+
+		/**
+		 * Read a buffer: embedded (a base64 data URI), a separate file, or the binary chunk of a
+		 * .glb file.
+		 * 
+		 * @param buffer The buffer's description.
+		 * @return The buffer's bytes.
+		 * @throws IOException If the buffer cannot be read.
+		 */
+		private ByteBuffer readBuffer(Map<String,Object> buffer) throws IOException {
+			Object uri = buffer.get("uri");
+			if (uri == null) {
+				if (glbBinary == null) throw new IOException("buffer without a URI or .glb chunk");
+				return glbBinary;
+			}
+			return ByteBuffer.wrap(readUri((String)uri)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Read the bytes a URI refers to (a data URI or a path relative to the glTF file).
+		 * 
+		 * @param uri The URI.
+		 * @return The bytes.
+		 * @throws IOException If a file cannot be read.
+		 */
+		private byte[] readUri(String uri) throws IOException {
+			if (uri.startsWith("data:")) {
+				return Base64.getDecoder().decode(uri.substring(uri.indexOf(',')+1));
+			}
+			File f = resolve(uri);
+			data.dependencies.add(f);
+			return Files.readAllBytes(f.toPath());
+		}
+
+		/**
+		 * Find the file of a relative URI.
+		 * 
+		 * @param uri The URI (percent-encoded).
+		 * @return The file.
+		 */
+		private File resolve(String uri) {
+			String path = URLDecoder.decode(uri.replace("+", "%2B"), StandardCharsets.UTF_8);
+			return new File(file.getParentFile(), path);
+		}
+
+		/**
+		 * Add the meshes of a node and its children.
+		 * 
+		 * @param index The index of the node.
+		 * @param parent The world transform of the node's parent (column-major).
+		 * @param depth The depth of the node (to stop at cycles in a malformed file).
+		 */
+		private void addNode(int index, float[] parent, int depth) {
+			if (depth > 256) throw new IllegalArgumentException("node hierarchy too deep");
+			Map<String,Object> node = object(array(root.get("nodes")).get(index));
+			float[] world = new float[16];
+			BatchMath.multiply(parent, nodeMatrix(node), world, 1);
+			if (node.containsKey("mesh")) {
+				int meshIndex = integer(node, "mesh", 0);
+				Map<String,Object> mesh = object(array(root.get("meshes")).get(meshIndex));
+				for (Object primitive : array(mesh.get("primitives"))) {
+					addPrimitive(object(primitive), world);
+				}
+			}
+			for (Object c : array(node.get("children"))) {
+				addNode(toInt(c), world, depth+1);
+			}
+		}
+
+		/**
+		 * Get the local transform of a node (its matrix, or translation * rotation * scale).
+		 * 
+		 * @param node The node.
+		 * @return The transform (column-major).
+		 */
+		private float[] nodeMatrix(Map<String,Object> node) {
+			if (node.containsKey("matrix")) return numbers(node.get("matrix"), null);
+			float[] t = numbers(node.get("translation"), new float[] {0, 0, 0});
+			float[] r = numbers(node.get("rotation"), new float[] {0, 0, 0, 1});
+			float[] s = numbers(node.get("scale"), new float[] {1, 1, 1});
+			float x = r[0], y = r[1], z = r[2], w = r[3];
+			return new float[] {
+				(1-2*(y*y+z*z))*s[0], 2*(x*y+z*w)*s[0], 2*(x*z-y*w)*s[0], 0,
+				2*(x*y-z*w)*s[1], (1-2*(x*x+z*z))*s[1], 2*(y*z+x*w)*s[1], 0,
+				2*(x*z+y*w)*s[2], 2*(y*z-x*w)*s[2], (1-2*(x*x+y*y))*s[2], 0,
+				t[0], t[1], t[2], 1};
+		}
+
+		/**
+		 * Add a mesh primitive (triangles only) to the part of its material.
+		 * 
+		 * @param primitive The primitive.
+		 * @param world The world transform of its node (column-major).
+		 */
+		private void addPrimitive(Map<String,Object> primitive, float[] world) {
+			if (integer(primitive, "mode", 4) != 4) {
+				System.out.println("Skipping a glTF primitive that is not triangles");
+				return;
+			}
+			Map<String,Object> attributes = object(primitive.get("attributes"));
+			if (!attributes.containsKey("POSITION")) return;
+			float[] positions = readFloats(integer(attributes, "POSITION", 0));
+			int count = positions.length/3;
+			float[] normals = attributes.containsKey("NORMAL")
+							  ? readFloats(integer(attributes, "NORMAL", 0)) : null;
+			float[] uvs = attributes.containsKey("TEXCOORD_0")
+						  ? readFloats(integer(attributes, "TEXCOORD_0", 0)) : null;
+			float[] vertices = new float[count*STRIDE];
+			for (int i=0; i<count; i++) {
+				int v = i*STRIDE;
+				System.arraycopy(positions, i*3, vertices, v, 3);
+				if (normals != null) System.arraycopy(normals, i*3, vertices, v+3, 3);
+				if (uvs != null) {
+					// glTF's texture coordinates start at the top of the image
+					vertices[v+6] = uvs[i*2];
+					vertices[v+7] = 1-uvs[i*2+1];
+				}
+			}
+			BatchMath.transformPoints(world, vertices, vertices, 0, STRIDE, count);
+			if (normals != null) {
+				BatchMath.transformNormals(world, vertices, vertices, 3, STRIDE, count);
+			}
+
+			int material = materialIndex(integer(primitive, "material", -1));
+			PartBuilder builder = builders.computeIfAbsent(material, m -> new PartBuilder());
+			int first = builder.vertices.size/STRIDE;
+			for (int i=0; i<count; i++) {
+				builder.addVertex(Arrays.copyOfRange(vertices, i*STRIDE, (i+1)*STRIDE),
+								  normals != null);
+			}
+			int[] indices;
+			if (primitive.containsKey("indices")) {
+				indices = readInts(integer(primitive, "indices", 0));
+			}
+			else {
+				indices = new int[count];
+				for (int i=0; i<count; i++) indices[i] = i;
+			}
+			for (int i=0; i+2<indices.length; i+=3) {
+				for (int j=0; j<3; j++) {
+					if (indices[i+j] < 0 || indices[i+j] >= count) {
+						throw new IllegalArgumentException("vertex index out of range");
+					}
+				}
+				builder.addTriangle(first+indices[i], first+indices[i+1], first+indices[i+2]);
+			}
+		}
+
+		/**
+		 * Read an accessor as floats (normalised integers are scaled to 0-1 or -1-1).
+		 * 
+		 * @param index The index of the accessor.
+		 * @return The values (count * components).
+		 */
+		private float[] readFloats(int index) {
+			Map<String,Object> accessor = object(array(root.get("accessors")).get(index));
+			int components = components((String)accessor.get("type"));
+			int count = integer(accessor, "count", 0);
+			float[] values = new float[count*components];
+			if (!accessor.containsKey("bufferView")) return values;
+			if (accessor.containsKey("sparse")) {
+				throw new IllegalArgumentException("sparse accessors are not supported");
+			}
+			int type = integer(accessor, "componentType", 5126);
+			boolean normalized = Boolean.TRUE.equals(accessor.get("normalized"));
+			int size = componentSize(type);
+			int stride = accessorStride(accessor, components*size);
+			ByteBuffer bytes = accessorBytes(accessor);
+			for (int i=0; i<count; i++) {
+				for (int c=0; c<components; c++) {
+					int at = i*stride + c*size;
+					float value;
+					switch (type) {
+						case 5120: value = bytes.get(at); break;
+						case 5121: value = bytes.get(at) & 0xFF; break;
+						case 5122: value = bytes.getShort(at); break;
+						case 5123: value = bytes.getShort(at) & 0xFFFF; break;
+						case 5125: value = bytes.getInt(at) & 0xFFFFFFFFL; break;
+						default: value = bytes.getFloat(at);
+					}
+					if (normalized) {
+						switch (type) {
+							case 5120: value = Math.max(value/127f, -1); break;
+							case 5121: value /= 255f; break;
+							case 5122: value = Math.max(value/32767f, -1); break;
+							case 5123: value /= 65535f; break;
+							default:
+						}
+					}
+					values[i*components+c] = value;
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * Read an accessor of unsigned integers (indices).
+		 * 
+		 * @param index The index of the accessor.
+		 * @return The values.
+		 */
+		private int[] readInts(int index) {
+			Map<String,Object> accessor = object(array(root.get("accessors")).get(index));
+			int count = integer(accessor, "count", 0);
+			int[] values = new int[count];
+			if (!accessor.containsKey("bufferView")) return values;
+			int type = integer(accessor, "componentType", 5125);
+			int size = componentSize(type);
+			int stride = accessorStride(accessor, size);
+			ByteBuffer bytes = accessorBytes(accessor);
+			for (int i=0; i<count; i++) {
+				int at = i*stride;
+				switch (type) {
+					case 5121: values[i] = bytes.get(at) & 0xFF; break;
+					case 5123: values[i] = bytes.getShort(at) & 0xFFFF; break;
+					default: values[i] = bytes.getInt(at);
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * Get the bytes of an accessor, from its first element to the end of its buffer view.
+		 * 
+		 * @param accessor The accessor.
+		 * @return The bytes (little-endian).
+		 */
+		private ByteBuffer accessorBytes(Map<String,Object> accessor) {
+			Map<String,Object> view = accessorView(accessor);
+			int offset = integer(accessor, "byteOffset", 0);
+			ByteBuffer buffer = buffers.get(integer(view, "buffer", 0));
+			return slice(buffer, integer(view, "byteOffset", 0)+offset,
+						 integer(view, "byteLength", 0)-offset).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Get the number of bytes from one element of an accessor to the next.
+		 * 
+		 * @param accessor The accessor.
+		 * @param elementSize The size of one element (the stride if its buffer view has none).
+		 * @return The stride.
+		 */
+		private int accessorStride(Map<String,Object> accessor, int elementSize) {
+			return integer(accessorView(accessor), "byteStride", elementSize);
+		}
+
+		/**
+		 * Get the buffer view of an accessor.
+		 * 
+		 * @param accessor The accessor.
+		 * @return The buffer view.
+		 */
+		private Map<String,Object> accessorView(Map<String,Object> accessor) {
+			return object(array(root.get("bufferViews")).get(integer(accessor, "bufferView", 0)));
+		}
+
+		/**
+		 * Get the bytes of a buffer view.
+		 * 
+		 * @param index The index of the buffer view.
+		 * @return The bytes.
+		 */
+		private byte[] bufferViewBytes(int index) {
+			Map<String,Object> view = object(array(root.get("bufferViews")).get(index));
+			ByteBuffer bytes = slice(buffers.get(integer(view, "buffer", 0)),
+									 integer(view, "byteOffset", 0),
+									 integer(view, "byteLength", 0));
+			byte[] result = new byte[bytes.remaining()];
+			bytes.get(result);
+			return result;
+		}
+
+		/**
+		 * Get the index in the imported materials of a glTF material, importing it the first
+		 * time it is used.
+		 * 
+		 * @param index The index of the glTF material (-1 for the default material).
+		 * @return The index of the imported material.
+		 */
+		private int materialIndex(int index) {
+			Integer existing = materialIndices.get(index);
+			if (existing != null) return existing;
+			Map<String,Object> material = (index >= 0)
+										  ? object(array(root.get("materials")).get(index))
+										  : Collections.emptyMap();
+			try {
+				data.materials.add(readMaterial(material, index));
+			}
+			catch (IOException e) {
+				System.out.println("Textures of glTF material " + index + " not read: "
+								   + e.getMessage());
+				data.materials.add(readFactors(material));
+			}
+			materialIndices.put(index, data.materials.size()-1);
+			return data.materials.size()-1;
+		}
+
+		/**
+		 * Read the factors of a PBR metallic-roughness material (the colours of its slots).
+		 * 
+		 * @param material The glTF material.
+		 * @return The material, without textures.
+		 */
+		private MaterialData readFactors(Map<String,Object> material) {
+			MaterialData m = new MaterialData(PBR);
+			Map<String,Object> pbr = object(material.get("pbrMetallicRoughness"));
+			float[] base = numbers(pbr.get("baseColorFactor"), new float[] {1, 1, 1, 1});
+			float metallic = (float)number(pbr, "metallicFactor", 1);
+			float roughness = (float)number(pbr, "roughnessFactor", 1);
+			m.colours[0] = toSrgb(new float[] {base[0], base[1], base[2]});
+			m.colours[1] = new float[] {0.5f, 0.5f, 1};
+			m.colours[2] = new float[] {metallic, metallic, metallic};
+			m.colours[3] = new float[] {roughness, roughness, roughness};
+			m.colours[4] = new float[] {1, 1, 1};
+			return m;
+		}
+
+		/**
+		 * Read a PBR metallic-roughness material: the base colour, metallic and roughness factors
+		 * multiply their textures (into derived images) or give the colour of their slots, the
+		 * metallic-roughness texture is split into its blue (metallic) and green (roughness)
+		 * channels, and the occlusion strength is applied to the occlusion texture.
+		 * 
+		 * @param material The glTF material.
+		 * @param index The index of the material (derived textures are named after it).
+		 * @return The material.
+		 * @throws IOException If an image cannot be read or written.
+		 */
+		private MaterialData readMaterial(Map<String,Object> material, int index)
+				throws IOException {
+			MaterialData m = readFactors(material);
+			Map<String,Object> pbr = object(material.get("pbrMetallicRoughness"));
+			float[] tint = m.colours[0];
+			float metallic = m.colours[2][0];
+			float roughness = m.colours[3][0];
+
+			int albedo = textureSource(pbr.get("baseColorTexture"));
+			if (albedo >= 0) {
+				if (tint[0] == 1 && tint[1] == 1 && tint[2] == 1) {
+					m.images[0] = imageFile(albedo);
+				}
+				else {
+					m.images[0] = derive(albedo, "albedo" + index, argb -> (argb & 0xFF000000)
+										 | scale(argb >> 16, tint[0]) << 16
+										 | scale(argb >> 8, tint[1]) << 8 | scale(argb, tint[2]));
+				}
+			}
+			int normal = textureSource(material.get("normalTexture"));
+			if (normal >= 0) m.images[1] = imageFile(normal);
+			int metallicRoughness = textureSource(pbr.get("metallicRoughnessTexture"));
+			if (metallicRoughness >= 0) {
+				m.images[2] = derive(metallicRoughness, "metallic" + index,
+									 argb -> grey(scale(argb, metallic)));
+				m.images[3] = derive(metallicRoughness, "roughness" + index,
+									 argb -> grey(scale(argb >> 8, roughness)));
+			}
+			Map<String,Object> occlusionInfo = object(material.get("occlusionTexture"));
+			int occlusion = textureSource(occlusionInfo);
+			if (occlusion >= 0) {
+				float strength = (float)number(occlusionInfo, "strength", 1);
+				if (strength == 1) {
+					m.images[4] = imageFile(occlusion);
+				}
+				else {
+					// ao = 1 + strength * (texture - 1)
+					m.images[4] = derive(occlusion, "ao" + index, argb -> grey(
+						Math.round(255 - strength*(255 - (argb >> 16 & 0xFF)))));
+				}
+			}
+			return m;
+		}
+
+		/**
+		 * Get the image index of a texture reference (a textureInfo object).
+		 * 
+		 * @param textureInfo The reference (may be null).
+		 * @return The index of the image, or -1 if there is none.
+		 */
+		private int textureSource(Object textureInfo) {
+			Map<String,Object> info = object(textureInfo);
+			if (!info.containsKey("index")) return -1;
+			int index = integer(info, "index", 0);
+			Map<String,Object> texture = object(array(root.get("textures")).get(index));
+			return integer(texture, "source", -1);
+		}
+
+		/**
+		 * Get a file holding an image: its own file if it has one, otherwise (embedded in a data
+		 * URI or a buffer view) a copy written to the cache directory.
+		 * 
+		 * @param index The index of the image.
+		 * @return The path of the file.
+		 * @throws IOException If the image cannot be read or written.
+		 */
+		private String imageFile(int index) throws IOException {
+			String existing = imageFiles.get(index);
+			if (existing != null) return existing;
+			Map<String,Object> image = object(array(root.get("images")).get(index));
+			String uri = (String)image.get("uri");
+			String path;
+			if (uri != null && !uri.startsWith("data:")) {
+				File f = resolve(uri);
+				if (!f.isFile()) throw new IOException("image " + f + " not found");
+				data.dependencies.add(f);
+				path = f.getPath();
+			}
+			else {
+				String mimeType = (uri != null) ? uri.substring(5, Math.max(5, uri.indexOf(';')))
+												: (String)image.get("mimeType");
+				byte[] bytes = (uri != null) ? readUri(uri)
+											 : bufferViewBytes(integer(image, "bufferView", 0));
+				String extension = "image/jpeg".equals(mimeType) ? ".jpg" : ".png";
+				File f = new File(CACHE_DIR, key + "_image" + index + extension);
+				CACHE_DIR.mkdirs();
+				Files.write(f.toPath(), bytes);
+				path = f.getPath();
+			}
+			imageFiles.put(index, path);
+			return path;
+		}
+
+		/**
+		 * Write an image made from another pixel by pixel to the cache directory.
+		 * 
+		 * @param source The index of the source image.
+		 * @param name The name of the derived image.
+		 * @param pixel The function making each pixel (ARGB) from the source's pixel.
+		 * @return The path of the derived image.
+		 * @throws IOException If the source cannot be read or the result written.
+		 */
+		private String derive(int source, String name, IntUnaryOperator pixel) throws IOException {
+			BufferedImage image = ImageIO.read(new File(imageFile(source)));
+			if (image == null) throw new IOException("unsupported image format");
+			int width = image.getWidth();
+			int height = image.getHeight();
+			int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			for (int i=0; i<pixels.length; i++) {
+				pixels[i] = pixel.applyAsInt(pixels[i]);
+			}
+			BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			result.setRGB(0, 0, width, height, pixels, 0, width);
+			File f = new File(CACHE_DIR, key + "_" + name + ".png");
+			CACHE_DIR.mkdirs();
+			ImageIO.write(result, "png", f);
+			return f.getPath();
+		}
+	}
+
+	/**
+	 * Scale the lowest 8 bits of a pixel value.
+	 * 
+	 * @param value The value (bits above the lowest 8 are ignored).
+	 * @param factor The factor.
+	 * @return The scaled 8-bit value.
+	 */
+	private static int scale(int value, float factor) {
+		return Math.min(Math.round((value & 0xFF)*factor), 255);
+	}
+
+	/**
+	 * Make an opaque grey pixel.
+	 * 
+	 * @param value The 8-bit value of the red, green and blue channels.
+	 * @return The ARGB pixel.
+	 */
+	private static int grey(int value) {
+		return 0xFF000000 | value << 16 | value << 8 | value;
+	}
+
+	/**
+	 * Get the number of components of a glTF accessor type.
+	 * 
+	 * @param type The type (SCALAR, VEC2, VEC3, VEC4 or MAT4).
+	 * @return The number of components.
+	 */
+	private static int components(String type) {
+		switch (type) {
+			case "SCALAR": return 1;
+			case "VEC2": return 2;
+			case "VEC3": return 3;
+			case "VEC4": return 4;
+			case "MAT4": return 16;
+			default: throw new IllegalArgumentException("unsupported accessor type " + type);
+		}
+	}
+
+	/**
+	 * Get the size in bytes of a glTF component type.
+	 * 
+	 * @param type The component type (5120 to 5126).
+	 * @return The size.
+	 */
+	private static int componentSize(int type) {
+		switch (type) {
+			case 5120: case 5121: return 1;
+			case 5122: case 5123: return 2;
+			case 5125: case 5126: return 4;
+			default: throw new IllegalArgumentException("unsupported component type " + type);
+		}
+	}
+
+	// ***************************************************
+	/* JSON VALUES */
+
+	/**
+	 * Get a JSON value as an object.
+	 * 
+	 * @param value The value.
+	 * @return The object's members (empty if the value is not an object).
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String,Object> object(Object value) {
+		return (value instanceof Map) ? (Map<String,Object>)value : Collections.emptyMap();
+	}
+
+	/**
+	 * Get a JSON value as an array.
+	 * 
+	 * @param value The value.
+	 * @return The array's elements (empty if the value is not an array).
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> array(Object value) {
+		return (value instanceof List) ? (List<Object>)value : Collections.emptyList();
+	}
+
+	/**
+	 * Get a number member of a JSON object.
+	 * 
+	 * @param object The object.
+	 * @param name The name of the member.
+	 * @param fallback The value if the member is missing (or not a number).
+	 * @return The number.
+	 */
+	private static double number(Map<String,Object> object, String name, double fallback) {
+		Object value = object.get(name);
+		return (value instanceof Double) ? (Double)value : fallback;
+	}
+
+	/**
+	 * Get an integer member of a JSON object.
+	 * 
+	 * @param object The object.
+	 * @param name The name of the member.
+	 * @param fallback The value if the member is missing (or not a number).
+	 * @return The integer.
+	 */
+	private static int integer(Map<String,Object> object, String name, int fallback) {
+		return (int)number(object, name, fallback);
+	}
+
+	/**
+	 * Get a JSON number (an index) as an integer.
+	 * 
+	 * @param value The number.
+	 * @return The integer.
+	 */
+	private static int toInt(Object value) {
+		return ((Double)value).intValue();
+	}
+
+	/**
+	 * Get a JSON array of numbers as floats.
+	 * 
+	 * @param value The array.
+	 * @param fallback The values if there is no array.
+	 * @return The floats.
+	 */
+	private static float[] numbers(Object value, float[] fallback) {
+		if (!(value instanceof List)) return fallback;
+		List<Object> list = array(value);
+		float[] result = new float[list.size()];
+		for (int i=0; i<result.length; i++) {
+			result[i] = ((Double)list.get(i)).floatValue();
+		}
+		return result;
+	}
+
+	// ***************************************************
+	/* GEOMETRY */
+
+	/**
+	 * Growable array of floats.
+	 */
+	private static final class FloatList {
+		float[] values = new float[1024];
+		int size = 0;
+
+		/**
+		 * Add a value to the end of the array.
+		 * 
+		 * @param value The value.
+		 */
+		void add(float value) {
+			if (size == values.length) values = Arrays.copyOf(values, size*2);
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * A corner of an OBJ face: the indices of its position, texture coordinates and normal (-1
+	 * if missing).
+	 */
+	private static final class Corner {
+		final int v;
+		final int t;
+		final int n;
+
+		Corner(int v, int t, int n) {
+			this.v = v;
+			this.t = t;
+			this.n = n;
+		}
+
+		/**
+		 * Whether another object is a corner with the same indices.
+		 * 
+		 * @param o The other object.
+		 * @return True if the indices are equal.
+		 */
+		public boolean equals(Object o) {
+			if (!(o instanceof Corner)) return false;
+			Corner c = (Corner)o;
+			return v == c.v && t == c.t && n == c.n;
+		}
+
+		/**
+		 * Get the hash code of the corner's indices.
+		 * 
+		 * @return The hash code.
+		 */
+		public int hashCode() {
+			return (v*31 + t)*31 + n;
+		}
+	}
+
+	/**
+	 * Geometry gathered for one material while a file is imported.
+	 */
+	private static final class PartBuilder {
+		final FloatList vertices = new FloatList();
+		int[] indices = new int[1024];
+		int indexCount = 0;
+		// Vertices whose normals are computed from their triangles
+		final BitSet missingNormals = new BitSet();
+		// OBJ corners already added, and their vertices
+		final Map<Corner,Integer> corners = new HashMap<>();
+
+		/**
+		 * Add a vertex.
+		 * 
+		 * @param vertex The vertex (8 floats).
+		 * @param hasNormal False if the normal is to be computed from the vertex's triangles.
+		 * @return The index of the vertex.
+		 */
+		int addVertex(float[] vertex, boolean hasNormal) {
+			int index = vertices.size/STRIDE;
+			for (float f : vertex) vertices.add(f);
+			if (!hasNormal) missingNormals.set(index);
+			return index;
+		}
+
+		/**
+		 * Add a triangle.
+		 * 
+		 * @param a The index of the first vertex.
+		 * @param b The index of the second vertex.
+		 * @param c The index of the third vertex.
+		 */
+		void addTriangle(int a, int b, int c) {
+			if (indexCount+3 > indices.length) indices = Arrays.copyOf(indices, indices.length*2);
+			indices[indexCount++] = a;
+			indices[indexCount++] = b;
+			indices[indexCount++] = c;
+		}
+
+		/**
+		 * Finish the part: compute missing normals (area-weighted averages of the triangles'
+		 * normals), simplify it into levels of detail if it has enough triangles, then optimise,
+		 * find the bounds of and pack each level.
+		 * 
+		 * @param material The index of the part's material.
+		 * @return The part followed by its simplified levels (empty if it has no triangles).
+		 */
+		List<PartData> build(int material) {
+			List<PartData> levels = new ArrayList<>();
+			if (indexCount == 0) return levels;
+			float[] v = Arrays.copyOf(vertices.values, vertices.size);
+			int[] idx = Arrays.copyOf(indices, indexCount);
+			if (!missingNormals.isEmpty()) {
+				for (int i=0; i<idx.length; i+=3) {
+					int a = idx[i]*STRIDE, b = idx[i+1]*STRIDE, c = idx[i+2]*STRIDE;
+					float ux = v[b]-v[a], uy = v[b+1]-v[a+1], uz = v[b+2]-v[a+2];
+					float wx = v[c]-v[a], wy = v[c+1]-v[a+1], wz = v[c+2]-v[a+2];
+					float nx = uy*wz - uz*wy, ny = uz*wx - ux*wz, nz = ux*wy - uy*wx;
+					for (int j=0; j<3; j++) {
+						if (!missingNormals.get(idx[i+j])) continue;
+						int n = idx[i+j]*STRIDE + 3;
+						v[n] += nx;
+						v[n+1] += ny;
+						v[n+2] += nz;
+					}
+				}
+				for (int i=missingNormals.nextSetBit(0); i>=0; i=missingNormals.nextSetBit(i+1)) {
+					BatchMath.normalize(v, i*STRIDE+3, STRIDE, 1);
+				}
+			}
+			levels.add(pack(v, idx, material, 0));
+			if (idx.length/3 < MIN_LOD_TRIANGLES) return levels;
+			int triangles = idx.length/3;
+			for (int l=1; l<LodMesh.SIMPLIFY_RATIOS.length; l++) {
+				MeshSimplifier.Result simplified =
+					MeshSimplifier.simplify(v, idx, LodMesh.SIMPLIFY_RATIOS[l]);
+				// Stop once collapses are blocked (e.g. a mesh made mostly of open edges)
+				if (simplified.indices.length/3 >= triangles) break;
+				triangles = simplified.indices.length/3;
+				levels.add(pack(simplified.vertices, simplified.indices, material, l));
+			}
+			return levels;
+		}
+
+		/**
+		 * Optimise one level of a part, find its bounds and pack its vertices and indices.
+		 * 
+		 * @param v The vertices of the level.
+		 * @param idx The indices of the level.
+		 * @param material The index of the part's material.
+		 * @param level The level of detail (0 is the full-detail part).
+		 * @return The packed level.
+		 */
+		private static PartData pack(float[] v, int[] idx, int material, int level) {
+			int vertexCount = v.length/STRIDE;
+			idx = MeshOptimizer.optimiseVertexCache(idx, vertexCount);
+			if (MeshOptimizer.OPTIMISE_OVERDRAW) {
+				idx = MeshOptimizer.optimiseOverdraw(v, STRIDE, idx, vertexCount);
+			}
+			v = MeshOptimizer.optimiseVertexFetch(v, STRIDE, idx);
+			vertexCount = v.length/STRIDE;
+
+			PartData part = new PartData();
+			part.material = material;
+			part.level = level;
+			for (int j=0; j<3; j++) {
+				part.boundsMin[j] = Float.MAX_VALUE;
+				part.boundsMax[j] = -Float.MAX_VALUE;
+			}
+			for (int i=0; i<v.length; i+=STRIDE) {
+				for (int j=0; j<3; j++) {
+					part.boundsMin[j] = Math.min(part.boundsMin[j], v[i+j]);
+					part.boundsMax[j] = Math.max(part.boundsMax[j], v[i+j]);
+				}
+			}
+			part.vertexData = LAYOUT.pack(v);
+			if (vertexCount <= 0xFFFF) {
+				part.indexType = GL.GL_UNSIGNED_SHORT;
+				part.indexData = Buffers.newDirectByteBuffer(idx.length*Short.BYTES);
+				for (int index : idx) part.indexData.putShort((short)index);
+			}
+			else {
+				part.indexType = GL.GL_UNSIGNED_INT;
+				part.indexData = Buffers.newDirectByteBuffer(idx.length*Integer.BYTES);
+				for (int index : idx) part.indexData.putInt(index);
+			}
+			part.indexData.rewind();
+			return part;
+		}
+	}
+
+	// ***************************************************
+	/* CACHE */
+
+	/**
+	 * Hash a model file's path and the format of the cached data (the name of the cache file).
+	 * 
+	 * @param file The model file.
+	 * @return The SHA-256 hash as hexadecimal.
+	 * @throws IOException If the file does not exist.
+	 */
+	private static String cacheKey(File file) throws IOException {
+		if (!file.isFile()) throw new IOException("file not found");
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		String settings = file.getCanonicalPath() + "," + CACHE_VERSION + "," + LAYOUT.getFormat()
+						  + "," + ByteOrder.nativeOrder();
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Write imported data to a cache file, in native byte order so it can be uploaded as it is:
+	 * a header (the source files with their sizes and modification times, the materials, and the
+	 * offsets of each part's data) followed by the vertices and indices of each part.
+	 * 
+	 * @param file The cache file.
+	 * @param data The imported data.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private static void writeCache(File file, ImportData data) throws IOException {
+		List<byte[]> strings = new ArrayList<>();
+		int headerSize = 4*4;
+		for (File f : data.dependencies) {
+			strings.add(f.getPath().getBytes(StandardCharsets.UTF_8));
+			headerSize += 4 + strings.get(strings.size()-1).length + 2*Long.BYTES;
+		}
+		headerSize += 4;
+		for (MaterialData m : data.materials) {
+			headerSize += 4 + 10*Float.BYTES + 4;
+			for (int s=0; s<m.images.length; s++) {
+				String image = (m.images[s] != null) ? m.images[s] : "";
+				strings.add(image.getBytes(StandardCharsets.UTF_8));
+				headerSize += 4 + strings.get(strings.size()-1).length + 3*Float.BYTES;
+			}
+		}
+		headerSize += 4 + data.parts.size()*(3*4 + 6*Float.BYTES + 4*Long.BYTES);
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.nativeOrder());
+		header.putInt(CACHE_MAGIC);
+		header.putInt(CACHE_VERSION);
+		header.putInt(LAYOUT.getFormat().ordinal());
+		header.putInt(data.dependencies.size());
+		int string = 0;
+		for (File f : data.dependencies) {
+			putString(header, strings.get(string++));
+			header.putLong(f.length());
+			header.putLong(f.lastModified());
+		}
+		header.putInt(data.materials.size());
+		for (MaterialData m : data.materials) {
+			header.putInt(m.kind);
+			for (float[] colour : new float[][] {m.ambient, m.diffuse, m.specular}) {
+				for (int c=0; c<3; c++) header.putFloat(colour[c]);
+			}
+			header.putFloat(m.shininess);
+			header.putInt(m.images.length);
+			for (int s=0; s<m.images.length; s++) {
+				putString(header, strings.get(string++));
+				for (int c=0; c<3; c++) header.putFloat(m.colours[s][c]);
+			}
+		}
+		header.putInt(data.parts.size());
+		long[] offsets = new long[data.parts.size()*2];
+		long offset = align(headerSize);
+		for (int i=0; i<data.parts.size(); i++) {
+			PartData part = data.parts.get(i);
+			offsets[i*2] = offset;
+			offset = align(offset + part.vertexData.remaining());
+			offsets[i*2+1] = offset;
+			offset = align(offset + part.indexData.remaining());
+			header.putInt(part.material);
+			header.putInt(part.level);
+			header.putInt(part.indexType);
+			for (int j=0; j<3; j++) header.putFloat(part.boundsMin[j]);
+			for (int j=0; j<3; j++) header.putFloat(part.boundsMax[j]);
+			header.putLong(offsets[i*2]);
+			header.putLong(part.vertexData.remaining());
+			header.putLong(offsets[i*2+1]);
+			header.putLong(part.indexData.remaining());
+		}
+		header.rewind();
+
+		CACHE_DIR.mkdirs();
+		// Written to a temporary file first so a cut-short write never leaves a bad cache file
+		File temp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+													StandardOpenOption.WRITE,
+													StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, header, 0);
+			for (int i=0; i<data.parts.size(); i++) {
+				PartData part = data.parts.get(i);
+				writeFully(channel, part.vertexData.duplicate(), offsets[i*2]);
+				writeFully(channel, part.indexData.duplicate(), offsets[i*2+1]);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Read imported data from a cache file by memory-mapping it: the vertices and indices of
+	 * each part are slices of the mapping (uploaded without being copied onto the Java heap).
+	 * 
+	 * @param file The cache file.
+	 * @return The cached data.
+	 * @throws IOException If the file cannot be read, does not match the current format, or a
+	 *                     source file has changed since it was written.
+	 */
+	private static ImportData readCache(File file) throws IOException {
+		ByteBuffer bytes;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+						   .order(ByteOrder.nativeOrder());
+		}
+		ImportData data = new ImportData();
+		try {
+			if (bytes.getInt() != CACHE_MAGIC || bytes.getInt() != CACHE_VERSION
+				|| bytes.getInt() != LAYOUT.getFormat().ordinal()) {
+				throw new IOException("unexpected version");
+			}
+			int dependencies = bytes.getInt();
+			for (int i=0; i<dependencies; i++) {
+				File f = new File(getString(bytes));
+				long size = bytes.getLong();
+				long modified = bytes.getLong();
+				if (!f.isFile() || f.length() != size || f.lastModified() != modified) {
+					throw new IOException(f + " has changed");
+				}
+				data.dependencies.add(f);
+			}
+			int materials = bytes.getInt();
+			for (int i=0; i<materials; i++) {
+				MaterialData m = new MaterialData(bytes.getInt());
+				for (float[] colour : new float[][] {m.ambient, m.diffuse, m.specular}) {
+					for (int c=0; c<3; c++) colour[c] = bytes.getFloat();
+				}
+				m.shininess = bytes.getFloat();
+				if (bytes.getInt() != m.images.length) throw new IOException("bad material");
+				for (int s=0; s<m.images.length; s++) {
+					String image = getString(bytes);
+					// Derived textures are kept next to the cache file and may have been deleted
+					if (!image.isEmpty() && !new File(image).isFile()) {
+						throw new IOException(image + " is missing");
+					}
+					m.images[s] = image.isEmpty() ? null : image;
+					m.colours[s] = new float[3];
+					for (int c=0; c<3; c++) m.colours[s][c] = bytes.getFloat();
+				}
+				data.materials.add(m);
+			}
+			int parts = bytes.getInt();
+			for (int i=0; i<parts; i++) {
+				PartData part = new PartData();
+				part.material = bytes.getInt();
+				part.level = bytes.getInt();
+				part.indexType = bytes.getInt();
+				for (int j=0; j<3; j++) part.boundsMin[j] = bytes.getFloat();
+				for (int j=0; j<3; j++) part.boundsMax[j] = bytes.getFloat();
+				part.vertexData = slice(bytes, Math.toIntExact(bytes.getLong()),
+										Math.toIntExact(bytes.getLong()));
+				part.indexData = slice(bytes, Math.toIntExact(bytes.getLong()),
+									   Math.toIntExact(bytes.getLong()));
+				// A simplified level must follow the level above it
+				int previous = (i > 0) ? data.parts.get(i-1).level : -1;
+				if (part.material < 0 || part.material >= materials || part.level < 0
+					|| (part.level > 0 && part.level != previous+1)
+					|| part.level >= LodMesh.SIMPLIFY_RATIOS.length) {
+					throw new IOException("bad part");
+				}
+				data.parts.add(part);
+			}
+		}
+		catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException
+			   | NegativeArraySizeException e) {
+			// A negative string length also comes from a corrupt or cut-short file
+			throw new IOException("truncated cache file");
+		}
+		return data;
+	}
+
+	/**
+	 * Get a slice of a buffer (in the buffer's byte order).
+	 * 
+	 * @param bytes The buffer.
+	 * @param offset The start of the slice.
+	 * @param length The length of the slice.
+	 * @return The slice.
+	 */
+	private static ByteBuffer slice(ByteBuffer bytes, int offset, int length) {
+		ByteBuffer view = bytes.duplicate();
+		view.limit(offset+length);
+		view.position(offset);
+		return view.slice().order(bytes.order());
+	}
+
+	/**
+	 * Round an offset in the cache file up to the alignment of the data sections.
+	 * 
+	 * @param offset The offset.
+	 * @return The aligned offset.
+	 */
+	private static long align(long offset) {
+		return (offset + ALIGNMENT-1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * Write the rest of a buffer at a position in a file.
+	 * 
+	 * @param channel The file.
+	 * @param bytes The buffer.
+	 * @param position The position in the file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer bytes, long position)
+			throws IOException {
+		while (bytes.hasRemaining()) {
+			position += channel.write(bytes, position);
+		}
+	}
+
+	/**
+	 * Write a string (its length, then its UTF-8 bytes).
+	 * 
+	 * @param bytes The buffer written to.
+	 * @param string The UTF-8 bytes of the string.
+	 */
+	private static void putString(ByteBuffer bytes, byte[] string) {
+		bytes.putInt(string.length);
+		bytes.put(string);
+	}
+
+	/**
+	 * Read a string written by putString().
+	 * 
+	 * @param bytes The buffer read from.
+	 * @return The string.
+	 */
+	private static String getString(ByteBuffer bytes) {
+		int length = bytes.getInt();
+		// A corrupt length must not allocate a huge array before the read fails
+		if (length > bytes.remaining()) throw new BufferUnderflowException();
+		byte[] string = new byte[length];
+		bytes.get(string);
+		return new String(string, StandardCharsets.UTF_8);
+	}
+}
\ No newline at end of file
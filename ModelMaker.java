@@ -17,8 +17,14 @@ import com.jogamp.opengl.util.texture.*;
  * 
  * Changes made:
  * - A new class for preparing model matrices and models to be put into scene graphs
+ * - Spheres are given levels of detail so distant spheres are drawn with fewer vertices
+ * - Meshes use the compact vertex layout (packed normals, half-float texture coordinates)
+ * - prepareModelMatrix(): builds scale/rotate/translate matrices directly (one allocation)
  */
 public final class ModelMaker {
+	// Vertex format used for every part (works with the standard vertex shader)
+	public static final VertexLayout VERTEX_LAYOUT = VertexLayout.PACKED;
+
 	/**
 	 * Model creation function with many parameters to fit different shape types and texture 
 	 * selections.
@@ -39,18 +45,41 @@ public final class ModelMaker {
 	                                           Mat4 modelMatrix, Shader shader, Texture[] textures, 
 											   Light[] lights, Camera camera, String modelOption) {
 		Mesh mesh = null;
-        if (modelOption == "sphere")
-            mesh = new Mesh(gl, Sphere.vertices.clone(), Sphere.indices.clone());
-        else if (modelOption == "cube")
-            mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-        else if (modelOption == "triangle")
-            mesh = new Mesh(gl, Triangle.vertices.clone(), Triangle.indices.clone());
-        else if (modelOption == "two triangles")
-            mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-		// Used for the right wall to loop one texture across the whole surface
-        else if (modelOption == "two triangles (loop texture)")
-			mesh = new Mesh(gl, TwoTriangles.vertices_mipmap.clone(), TwoTriangles.indices.clone());
+		LodMesh lod = null;
+        if (modelOption == "sphere") {
+            lod = LodMesh.forSphere(gl, VERTEX_LAYOUT);
+            mesh = lod.getLevel(0);
+        }
+        else if (getVertices(modelOption) != null) {
+            mesh = new Mesh(gl, getVertices(modelOption), getIndices(modelOption),
+                            false, VERTEX_LAYOUT);
+        }
+		ModelMultipleLights model = makePart(gl, name, material, modelMatrix, shader, textures,
+											 lights, camera, mesh);
+		if (lod != null)
+			model.setLod(lod);
+		return model;
+	}
 
+	/**
+	 * Model creation function for a mesh that has already been made (e.g. a mesh shared between
+	 * many models, or geometry merged by StaticBatcher).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param name The name of the model.
+	 * @param material The material of the model.
+	 * @param modelMatrix The transformation matrix associated with the model.
+	 * @param shader The shader to use (whether it accounts for specular/diffuse, etc.).
+	 * @param textures The array of textures for the model (used to determine which model 
+	 				    constructor to use)
+	 * @param lights The lights in the scene.
+	 * @param camera The camera in the scene.
+	 * @param mesh The mesh of the model.
+	 * @return Fully prepared model for rendering.
+	 */
+    public static ModelMultipleLights makePart(GL3 gl, String name, Material material, 
+	                                           Mat4 modelMatrix, Shader shader, Texture[] textures, 
+											   Light[] lights, Camera camera, Mesh mesh) {
 		ModelMultipleLights model;
 		switch (textures.length) {
 			// Case for single textures
@@ -75,4 +104,98 @@ public final class ModelMaker {
 		}
 		return model;
 	}
+
+	/**
+	 * Place a model in a scene graph: a transform node (holding the model's transform) with the
+	 * model node as its child.
+	 * 
+	 * @param name The name of the nodes.
+	 * @param model The model to draw.
+	 * @param transform The transform of the model relative to the parent node.
+	 * @return The transform node to add to the scene graph.
+	 */
+	public static TransformNode makeNode(String name, ModelMultipleLights model, Mat4 transform) {
+		TransformNode transformNode = new TransformNode(name + " transform", transform);
+		transformNode.addChild(new ModelNode(name, model));
+		return transformNode;
+	}
+
+	/**
+	 * Build the matrix that scales, then rotates around x, y and z (in that order), then
+	 * translates a model. Equivalent to multiplying the five separate matrices, but computed
+	 * directly into a single matrix.
+	 * 
+	 * @param scaleX The scale factor for the model (x-direction)
+	 * @param scaleY The scale factor for the model (y-direction)
+	 * @param scaleZ The scale factor for the model (z-direction)
+	 * @param rotateX The angle at which to rotate the model (around the x-axis, in degrees)
+	 * @param rotateY The angle at which to rotate the model (around the y-axis, in degrees)
+	 * @param rotateZ The angle at which to rotate the model (around the z-axis, in degrees)
+	 * @param translateX The distance with which to translate the model (x-direction)
+	 * @param translateY The distance with which to translate the model (y-direction)
+	 * @param translateZ The distance with which to translate the model (z-direction)
+	 * @return The transformation matrix of one model.
+	 */
+	public static Mat4 prepareModelMatrix(float scaleX, float scaleY, float scaleZ,
+										  float rotateX, float rotateY, float rotateZ,
+										  float translateX, float translateY, float translateZ) {
+		double ax = Math.toRadians(rotateX), ay = Math.toRadians(rotateY), az = Math.toRadians(rotateZ);
+		float cx = (float)Math.cos(ax), sx = (float)Math.sin(ax);
+		float cy = (float)Math.cos(ay), sy = (float)Math.sin(ay);
+		float cz = (float)Math.cos(az), sz = (float)Math.sin(az);
+		// Rz*Ry*Rx, with each column multiplied by its scale factor
+		Mat4 m = new Mat4(1);
+		m.set(0,0, cz*cy*scaleX);
+		m.set(0,1, (cz*sy*sx - sz*cx)*scaleY);
+		m.set(0,2, (cz*sy*cx + sz*sx)*scaleZ);
+		m.set(1,0, sz*cy*scaleX);
+		m.set(1,1, (sz*sy*sx + cz*cx)*scaleY);
+		m.set(1,2, (sz*sy*cx - cz*sx)*scaleZ);
+		m.set(2,0, -sy*scaleX);
+		m.set(2,1, cy*sx*scaleY);
+		m.set(2,2, cy*cx*scaleZ);
+		m.set(0,3, translateX);
+		m.set(1,3, translateY);
+		m.set(2,3, translateZ);
+		return m;
+	}
+
+	/**
+	 * Get a copy of the vertices (8 floats each) of one of the shape types.
+	 * 
+	 * @param modelOption The shape type (sphere, cube, triangle, etc.).
+	 * @return The vertices of the shape (null for an unknown shape type).
+	 */
+	public static float[] getVertices(String modelOption) {
+		if (modelOption == "sphere")
+			return Sphere.vertices.clone();
+		else if (modelOption == "cube")
+			return Cube.vertices.clone();
+		else if (modelOption == "triangle")
+			return Triangle.vertices.clone();
+		// Used for the right wall to loop one texture across the whole surface
+		else if (modelOption == "two triangles (loop texture)")
+			return TwoTriangles.vertices_mipmap.clone();
+		else if (modelOption == "two triangles")
+			return TwoTriangles.vertices.clone();
+		return null;
+	}
+
+	/**
+	 * Get a copy of the indices of one of the shape types.
+	 * 
+	 * @param modelOption The shape type (sphere, cube, triangle, etc.).
+	 * @return The indices of the shape (null for an unknown shape type).
+	 */
+	public static int[] getIndices(String modelOption) {
+		if (modelOption == "sphere")
+			return Sphere.indices.clone();
+		else if (modelOption == "cube")
+			return Cube.indices.clone();
+		else if (modelOption == "triangle")
+			return Triangle.indices.clone();
+		else if (modelOption == "two triangles" || modelOption == "two triangles (loop texture)")
+			return TwoTriangles.indices.clone();
+		return null;
+	}
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 import gmaths.*;
 import java.nio.*;
+import java.util.*;
 import com.jogamp.common.nio.*;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.util.texture.*;
@@ -17,13 +18,53 @@ import com.jogamp.opengl.util.texture.spi.JPEGImage;
  * 
  * Changes made:
  * - Shaders are now updated with uniform variables for spotlight functionality (cutoff, direction)
+ * - Optional levels of detail (LodMesh) chosen per draw from the model's size on screen (the
+ *   level in use is kept per model, so models sharing levels each have their own hysteresis)
+ * - Only the first MAX_LIGHTS lights are uploaded (the size of the shaders' light arrays)
+ * - renderInstanced(): draws many copies with per-instance model matrices in one call
+ * - renderIndirect(): draws a group of an IndirectScene with one multi-draw indirect call
+ * - Model matrix, MVP matrix and material are streamed through a UniformRing (one buffer range
+ *   bind per draw instead of a glUniform call per field)
+ * - PBR models take their ambient light from the environment maps baked by IblBaker
+ * - Lights are only uploaded to a shader program when they have changed since it was last given
+ *   them (tracked per program with Light.getVersion())
+ * - Each draw passes the ID of its interned material (an index into the MaterialTable) instead of
+ *   the material's values
  */
 public class ModelMultipleLights {
+	// Must match MAX_POINT_LIGHTS in the fragment shaders
+	public static final int MAX_LIGHTS = 10;
+	private static final Mat4 IDENTITY = new Mat4(1);
+	// Shared by every model drawn in the context (see setUniformRing())
+	private static UniformRing uniformRing;
+	// Baked environment lighting for PBR models, or null (see setEnvironment())
+	private static IblBaker environment;
+	// The scene uniforms last uploaded to each shader program, by program ID
+	private static final Map<Integer, ProgramUniforms> programUniforms = new HashMap<>();
+
+	/**
+	 * The scene uniforms a shader program currently holds (uniforms are kept by the program, so
+	 * they stay set for every model drawn with it): the lights (and their versions) and whether
+	 * its material table sampler has been set.
+	 */
+	private static class ProgramUniforms {
+		int numLights = -1;
+		Light[] lights = new Light[MAX_LIGHTS];
+		int[] versions = new int[MAX_LIGHTS];
+		boolean materialTable = false;
+	}
+
 	private String name;
 	private Mesh mesh;
+	private LodMesh lod;
+	private int lodLevel = 0;
 	private Mat4 modelMatrix;
 	private Shader shader;
 	private Material material;
+	// The material (and its version) the interned material ID was taken from
+	private Material internedFrom;
+	private int internedVersion;
+	private int materialId;
 	private Camera camera;
 	private Light[] lights;
 
@@ -152,6 +193,35 @@ public class ModelMultipleLights {
 		modelMatrix = m;
 	}
 
+	/**
+	 * Set the levels of detail of the model (the mesh drawn is then chosen each frame from the
+	 * model's size on screen).
+	 * 
+	 * @param lod The levels of detail to be assigned to the model.
+	 */
+	public void setLod(LodMesh lod) {
+		this.lod = lod;
+		this.mesh = lod.getLevel(0);
+	}
+
+	/**
+	 * Get the mesh of the model.
+	 * 
+	 * @return The mesh assigned to the model.
+	 */
+	public Mesh getMesh() {
+		return mesh;
+	}
+
+	/**
+	 * Get the model matrix of the model.
+	 * 
+	 * @return The model matrix assigned to the model.
+	 */
+	public Mat4 getModelMatrix() {
+		return modelMatrix;
+	}
+
 	/**
 	 * Set the material of the model.
 	 * 
@@ -215,6 +285,28 @@ public class ModelMultipleLights {
 		System.out.println("Name = " + name);
 	}
 
+	/**
+	 * Set the ring that every model streams its per-draw uniforms through (the model matrix, MVP
+	 * matrix and material of the shaders' PerDraw block). Must be set before any model is drawn.
+	 * 
+	 * @param ring The uniform ring of the OpenGL context.
+	 */
+	public static void setUniformRing(UniformRing ring) {
+		uniformRing = ring;
+		// A new context has new programs (whose IDs may match those of an old context)
+		programUniforms.clear();
+	}
+
+	/**
+	 * Set the baked environment that PBR models take their ambient light from. Without one (null),
+	 * PBR models use a small constant ambient term.
+	 * 
+	 * @param baked The uploaded environment maps, or null.
+	 */
+	public static void setEnvironment(IblBaker baked) {
+		environment = baked;
+	}
+
 	/**
 	 * Version of render that is used to display the model if modelMatrix is not overriden with
 	 * a new parameter.
@@ -238,15 +330,103 @@ public class ModelMultipleLights {
 		}
 		Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), Mat4.multiply(camera.getViewMatrix(), modelMatrix));
 		shader.use(gl);
-		shader.setFloatArray(gl, "model", modelMatrix.toFloatArrayForGLSL());
-		shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+		uniformRing.bindDraw(gl, modelMatrix, mvpMatrix, materialId());
+		setSceneUniforms(gl);
+
+		// Finally, the mesh (or the level of detail suited to its size on screen) is rendered.
+		if (lod != null) {
+			lodLevel = lod.select(lodLevel, modelMatrix, camera);
+			lod.getLevel(lodLevel).render(gl);
+		}
+		else {
+			mesh.render(gl);
+		}
+	}
+
+	/**
+	 * Draw many copies of the model with one draw call, each placed by its own model matrix from
+	 * an instance buffer (see Mesh.renderInstanced()). The model's shader must use
+	 * vs_standard_instanced.txt, and levels of detail are not used.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param instanceBuffer The buffer holding the model matrices (16 floats each).
+	 * @param instanceCount The number of copies to draw.
+	 */
+	public void renderInstanced(GL3 gl, int instanceBuffer, int instanceCount) {
+		if (mesh_null()) {
+			System.out.println("Error: null in model render");
+			return;
+		}
+		Mat4 vpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), camera.getViewMatrix());
+		shader.use(gl);
+		shader.setFloatArray(gl, "vpMatrix", vpMatrix.toFloatArrayForGLSL());
+		uniformRing.bindDraw(gl, IDENTITY, vpMatrix, materialId());
+		setSceneUniforms(gl);
+		mesh.renderInstanced(gl, instanceBuffer, instanceCount);
+	}
 
+	/**
+	 * Draw a group of an IndirectScene with this model's shader, textures and material (one
+	 * multi-draw indirect call for every object in the group). The model's shader must use
+	 * vs_indirect.txt, and its own mesh is not drawn.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param scene The scene holding the objects.
+	 * @param group The group of objects to draw.
+	 */
+	public void renderIndirect(GL3 gl, IndirectScene scene, int group) {
+		Mat4 vpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), camera.getViewMatrix());
+		shader.use(gl);
+		shader.setFloatArray(gl, "vpMatrix", vpMatrix.toFloatArrayForGLSL());
+		uniformRing.bindDraw(gl, IDENTITY, vpMatrix, materialId());
+		setSceneUniforms(gl);
+		scene.drawGroup(gl, group);
+	}
+
+	/**
+	 * Get the ID of the model's material in the material table, interning the material again only
+	 * if it has been replaced or changed since it was last interned.
+	 * 
+	 * @return The material ID.
+	 */
+	private int materialId() {
+		if (material != internedFrom || material.getVersion() != internedVersion) {
+			materialId = InternedMaterial.of(material).getId();
+			internedFrom = material;
+			internedVersion = material.getVersion();
+		}
+		return materialId;
+	}
+
+	/**
+	 * Set the uniforms shared by every draw of the model (camera position and lights) and bind its
+	 * textures. The shader must already be in use.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	private void setSceneUniforms(GL3 gl) {
 		shader.setVec3(gl, "viewPos", camera.getPosition());
 
-		shader.setInt(gl, "numLights", lights.length);
+		int numLights = Math.min(lights.length, MAX_LIGHTS);
+		ProgramUniforms uploaded = programUniforms.computeIfAbsent(shader.getID(),
+																   id -> new ProgramUniforms());
+		if (!uploaded.materialTable) {
+			shader.setInt(gl, "material_table", MaterialTable.TEXTURE_UNIT);
+			uploaded.materialTable = true;
+		}
+		if (uploaded.numLights != numLights) {
+			shader.setInt(gl, "numLights", numLights);
+			uploaded.numLights = numLights;
+		}
 
-		// Update global light/spotlight shaders
-		for (int i=0; i<lights.length; i++) {
+		// Update global light/spotlight shaders (only the lights changed since the last upload)
+		for (int i=0; i<numLights; i++) {
+			int version = lights[i].getVersion();
+			boolean changed = uploaded.lights[i] != lights[i] || uploaded.versions[i] != version;
+			RenderStats.recordLightUpload(changed);
+			if (!changed) continue;
+			uploaded.lights[i] = lights[i];
+			uploaded.versions[i] = version;
 			shader.setVec3(gl, "lights["+i+"].position", lights[i].getPosition());
 			shader.setVec3(gl, "lights["+i+"].ambient", lights[i].getMaterial().getAmbient());
 			shader.setVec3(gl, "lights["+i+"].diffuse", lights[i].getMaterial().getDiffuse());
@@ -259,11 +439,6 @@ public class ModelMultipleLights {
 			shader.setFloat(gl, "lights["+i+"].quadratic", 0.032f);
 		}
 
-		shader.setVec3(gl, "material.ambient", material.getAmbient());
-		shader.setVec3(gl, "material.diffuse", material.getDiffuse());
-		shader.setVec3(gl, "material.specular", material.getSpecular());
-		shader.setFloat(gl, "material.shininess", material.getShininess());
-
 		// Extra uniforms for textures (diffuse/specular textures are provided for the model).
 		if (diffuse!=null) {
 			shader.setInt(gl, "first_texture", 0);
@@ -291,10 +466,13 @@ public class ModelMultipleLights {
 			shader.setInt(gl, "ao_texture", 4);
 			gl.glActiveTexture(GL.GL_TEXTURE4);
 			ao.bind(gl);
+			if (environment != null) {
+				environment.bind(gl, shader);
+			}
+			else {
+				IblBaker.unbind(gl, shader);
+			}
 		}
-
-		// Finally, the mesh is rendered.
-		mesh.render(gl);
 	}
 
 	/**
@@ -310,6 +488,9 @@ public class ModelMultipleLights {
 	 * @param gl The OpenGL context used for rendering.
 	 */
 	public void dispose(GL3 gl) {
-		mesh.dispose(gl);
+		if (lod != null)
+			lod.dispose(gl);
+		else
+			mesh.dispose(gl);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+import com.jogamp.opengl.*;
+
+/**
+ * Class for a model within a scene graph, drawn at the world transform of the node.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - Drawn with the cached world transform (through ModelMultipleLights)
+ */
+public class ModelNode extends SGNode {
+	protected ModelMultipleLights model;
+
+	/**
+	 * Constructor. Create a node holding a model.
+	 * 
+	 * @param name The name of the node.
+	 * @param m The model drawn by the node.
+	 */
+	public ModelNode(String name, ModelMultipleLights m) {
+		super(name);
+		model = m;
+	}
+
+	/**
+	 * Get the model drawn by the node.
+	 * 
+	 * @return The model.
+	 */
+	public ModelMultipleLights getModel() {
+		return model;
+	}
+
+	/**
+	 * Draw the model at the node's world transform, then the node's children.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void draw(GL3 gl) {
+		model.render(gl, worldTransform);
+		for (int i=0; i<children.size(); i++) {
+			children.get(i).draw(gl);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+/**
+ * Class for a name within a scene graph (a node used only to group and label its children).
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - No changes beyond the cached world transform inherited from SGNode
+ */
+public class NameNode extends SGNode {
+
+	/**
+	 * Constructor. Create a named node with no children.
+	 * 
+	 * @param name The name of the node.
+	 */
+	public NameNode(String name) {
+		super(name);
+	}
+}
\ No newline at end of file
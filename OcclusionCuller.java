@@ -0,0 +1,253 @@
+import gmaths.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for skipping models hidden behind previously drawn geometry. Each model's bounding box is
+ * drawn (without writing colour or depth) inside a GL_ANY_SAMPLES_PASSED query, and the model
+ * itself is then drawn with conditional rendering so that the GPU discards it if no sample of
+ * the box passed the depth test.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for occlusion culling models with bounding box queries and conditional rendering
+ * - Models covering a large part of the screen are drawn without a query (rarely hidden)
+ */
+public class OcclusionCuller {
+	// Bounding boxes are kept slightly thicker than flat meshes (e.g. the floor) so they rasterise
+	private static final float MIN_EXTENT = 0.01f;
+	// Camera distance from a box below which the box is assumed visible (near plane clipping)
+	private static final float NEAR_MARGIN = 0.2f;
+	// Screen coverage (projected bounding radius / half the screen height) above which a model is
+	// drawn without a query: large models are rarely hidden completely, and rasterising their box
+	// costs about as much as drawing them
+	private static final float MAX_QUERY_COVERAGE = 0.25f;
+
+	private Camera camera;
+	private Shader shader;
+	private Mesh box;
+	private int capacity;
+	private int[][] queryIds;
+	private boolean[][] queryIssued;
+	private int frame = 0;
+	private boolean enabled = true;
+
+	private int testedCount = 0;
+	private int culledCount = 0;
+	private float culledRatio = 0f;
+	private float[] min = new float[3];
+	private float[] max = new float[3];
+
+	/**
+	 * Constructor. Create the query objects and the box used to represent model bounds.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera in the scene.
+	 * @param capacity The maximum number of models tested per frame.
+	 */
+	public OcclusionCuller(GL3 gl, Camera camera, int capacity) {
+		this.camera = camera;
+		this.capacity = capacity;
+		shader = new Shader(gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
+		box = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
+
+		// Two sets of queries so last frame's results can be read while this frame's are issued
+		queryIds = new int[2][capacity];
+		queryIssued = new boolean[2][capacity];
+		gl.glGenQueries(capacity, queryIds[0], 0);
+		gl.glGenQueries(capacity, queryIds[1], 0);
+	}
+
+	/**
+	 * Enable or disable culling (disabled culling draws every model directly, allowing the query
+	 * overhead to be compared against the savings).
+	 * 
+	 * @param enabled Whether occlusion culling should be used.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Get whether occlusion culling is currently used.
+	 * 
+	 * @return True if models are tested before being drawn.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Get the fraction of tested models that were hidden in the most recently resolved frame.
+	 * 
+	 * @return The ratio of culled models to tested models (0 to 1).
+	 */
+	public float getCulledRatio() {
+		return culledRatio;
+	}
+
+	/**
+	 * Get the number of models tested in the most recently resolved frame.
+	 * 
+	 * @return The number of bounding box queries whose results were read back.
+	 */
+	public int getTestedCount() {
+		return testedCount;
+	}
+
+	/**
+	 * Get the number of models hidden in the most recently resolved frame.
+	 * 
+	 * @return The number of models whose bounding boxes had no visible samples.
+	 */
+	public int getCulledCount() {
+		return culledCount;
+	}
+
+	/**
+	 * Prepare for a new frame by collecting the (already finished) results of the queries issued
+	 * two frames ago, whose query objects are about to be reused.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void beginFrame(GL3 gl) {
+		frame++;
+		int set = frame % 2;
+		int tested = 0;
+		int culled = 0;
+		int[] result = new int[1];
+		for (int i=0; i<capacity; i++) {
+			if (!queryIssued[set][i]) continue;
+			queryIssued[set][i] = false;
+			gl.glGetQueryObjectiv(queryIds[set][i], GL3.GL_QUERY_RESULT_AVAILABLE, result, 0);
+			// Never wait on results; unfinished queries are left out of the statistics
+			if (result[0] == GL.GL_FALSE) continue;
+			gl.glGetQueryObjectiv(queryIds[set][i], GL3.GL_QUERY_RESULT, result, 0);
+			tested++;
+			if (result[0] == GL.GL_FALSE) culled++;
+		}
+		if (tested > 0) {
+			testedCount = tested;
+			culledCount = culled;
+			culledRatio = (float)culled/tested;
+		}
+	}
+
+	/**
+	 * Draw a model only if its bounding box is not hidden by what has been drawn so far.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param slot The index of the model within this frame (less than the capacity).
+	 * @param model The model to test and draw.
+	 */
+	public void render(GL3 gl, int slot, ModelMultipleLights model) {
+		if (!enabled || slot >= capacity) {
+			model.render(gl);
+			return;
+		}
+
+		worldBounds(model.getMesh(), model.getModelMatrix(), min, max);
+		if (cameraInside(min, max) || screenCoverage(min, max) > MAX_QUERY_COVERAGE) {
+			model.render(gl);
+			return;
+		}
+
+		int set = frame % 2;
+		int query = queryIds[set][slot];
+		queryIssued[set][slot] = true;
+
+		// Rasterise the box against the current depth buffer without changing any pixels
+		gl.glColorMask(false, false, false, false);
+		gl.glDepthMask(false);
+		gl.glBeginQuery(GL3.GL_ANY_SAMPLES_PASSED, query);
+		Mat4 boxMatrix = Mat4.multiply(
+			Mat4Transform.translate((min[0]+max[0])/2, (min[1]+max[1])/2, (min[2]+max[2])/2),
+			Mat4Transform.scale(Math.max(max[0]-min[0], MIN_EXTENT),
+								Math.max(max[1]-min[1], MIN_EXTENT),
+								Math.max(max[2]-min[2], MIN_EXTENT)));
+		Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(),
+									   Mat4.multiply(camera.getViewMatrix(), boxMatrix));
+		shader.use(gl);
+		shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+		box.render(gl);
+		gl.glEndQuery(GL3.GL_ANY_SAMPLES_PASSED);
+		gl.glColorMask(true, true, true, true);
+		gl.glDepthMask(true);
+
+		// The wait happens on the GPU only; the CPU carries on submitting commands
+		gl.glBeginConditionalRender(query, GL3.GL_QUERY_WAIT);
+		model.render(gl);
+		gl.glEndConditionalRender();
+	}
+
+	/**
+	 * Find the world-space axis-aligned box enclosing a mesh's bounds after transformation.
+	 * 
+	 * @param mesh The mesh whose model-space bounds are used.
+	 * @param m The model matrix of the mesh.
+	 * @param min The array to fill with the minimum corner of the box.
+	 * @param max The array to fill with the maximum corner of the box.
+	 */
+	private void worldBounds(Mesh mesh, Mat4 m, float[] min, float[] max) {
+		float[] localMin = mesh.getBoundsMin();
+		float[] localMax = mesh.getBoundsMax();
+		for (int j=0; j<3; j++) {
+			min[j] = Float.MAX_VALUE;
+			max[j] = -Float.MAX_VALUE;
+		}
+		for (int corner=0; corner<8; corner++) {
+			float x = ((corner & 1) == 0) ? localMin[0] : localMax[0];
+			float y = ((corner & 2) == 0) ? localMin[1] : localMax[1];
+			float z = ((corner & 4) == 0) ? localMin[2] : localMax[2];
+			for (int j=0; j<3; j++) {
+				float v = m.get(j,0)*x + m.get(j,1)*y + m.get(j,2)*z + m.get(j,3);
+				min[j] = Math.min(min[j], v);
+				max[j] = Math.max(max[j], v);
+			}
+		}
+	}
+
+	/**
+	 * Check whether the camera is inside (or very close to) a box, in which case the box's faces
+	 * may be clipped by the near plane and the query result cannot be trusted.
+	 * 
+	 * @param min The minimum corner of the box.
+	 * @param max The maximum corner of the box.
+	 * @return True if the camera is within the box (plus a small margin).
+	 */
+	private boolean cameraInside(float[] min, float[] max) {
+		Vec3 p = camera.getPosition();
+		return p.x > min[0]-NEAR_MARGIN && p.x < max[0]+NEAR_MARGIN &&
+			   p.y > min[1]-NEAR_MARGIN && p.y < max[1]+NEAR_MARGIN &&
+			   p.z > min[2]-NEAR_MARGIN && p.z < max[2]+NEAR_MARGIN;
+	}
+
+	/**
+	 * Estimate how much of the screen a box covers (the projected radius of its bounding sphere as
+	 * a fraction of half the screen height).
+	 * 
+	 * @param min The minimum corner of the box.
+	 * @param max The maximum corner of the box.
+	 * @return The screen coverage (1 or more fills the screen height).
+	 */
+	private float screenCoverage(float[] min, float[] max) {
+		float[] centre = {(min[0]+max[0])/2, (min[1]+max[1])/2, (min[2]+max[2])/2};
+		float radius = (float)Math.sqrt((max[0]-min[0])*(max[0]-min[0])
+										+ (max[1]-min[1])*(max[1]-min[1])
+										+ (max[2]-min[2])*(max[2]-min[2]))/2;
+		return LodMesh.screenCoverage(new Mat4(1), centre, radius, camera);
+	}
+
+	/**
+	 * Discard the query objects and bounding box mesh to free resources.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		gl.glDeleteQueries(capacity, queryIds[0], 0);
+		gl.glDeleteQueries(capacity, queryIds[1], 0);
+		box.dispose(gl);
+	}
+}
@@ -0,0 +1,196 @@
+import com.jogamp.opengl.*;
+
+/**
+ * Class for rendering the scene in high dynamic range and converting it for display in one
+ * full-screen pass. Between begin() and end() everything is drawn into an RGBA16F framebuffer, so
+ * the model shaders output linear radiance (values above 1 are kept). end() then draws a single
+ * triangle covering the screen that applies the exposure, tonemapping and gamma correction once
+ * per pixel, instead of once per fragment of every model and light. Shaders that already output a
+ * display colour (the Phong models and the lights) write an alpha of 0, and the pass leaves those
+ * pixels unchanged, so only the PBR models are tonemapped.
+ * 
+ * The result is drawn into whichever framebuffer was bound when begin() was called (the window,
+ * or the offscreen drawable of SpacecraftHeadless), so frame capture is unaffected.
+ * 
+ * The scene can be drawn at a lower resolution (setScale()) into the bottom-left corner of the
+ * framebuffer, which the tonemapping pass stretches over the frame with bilinear filtering. The
+ * framebuffer keeps its full size, so changing the scale each frame costs nothing.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for rendering into an HDR framebuffer with a single tonemapping pass
+ * - Scene resolution scale (dynamic resolution)
+ * - Pixels with an alpha of 0 are not tonemapped
+ */
+public class PostProcess {
+	private static final boolean DISPLAY_POST_PROCESS = false;
+
+	private Shader shader;
+	private int[] framebuffer = new int[1];
+	private int[] colourTexture = new int[1];
+	private int[] depthBuffer = new int[1];
+	// The full-screen triangle has no vertex data, but core profiles need a vertex array bound
+	private int[] vertexArray = new int[1];
+	private int width = 0;
+	private int height = 0;
+	private int[] target = new int[1];
+	private float exposure = 1.0f;
+	private float scale = 1.0f;
+	private int sceneWidth = 0;
+	private int sceneHeight = 0;
+
+	/**
+	 * Constructor. Create the tonemapping shader and the (empty) HDR framebuffer; its attachments
+	 * are created at the first begin().
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public PostProcess(GL3 gl) {
+		shader = new Shader(gl, "assets/shaders/vs_fullscreen.txt", "assets/shaders/fs_tonemap.txt");
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glGenTextures(1, colourTexture, 0);
+		gl.glGenRenderbuffers(1, depthBuffer, 0);
+		gl.glGenVertexArrays(1, vertexArray, 0);
+	}
+
+	/**
+	 * Set the exposure the scene is scaled by before tonemapping.
+	 * 
+	 * @param exposure The exposure (1 leaves the scene unscaled).
+	 */
+	public void setExposure(float exposure) {
+		this.exposure = exposure;
+	}
+
+	/**
+	 * Get the exposure the scene is scaled by before tonemapping.
+	 * 
+	 * @return The exposure.
+	 */
+	public float getExposure() {
+		return exposure;
+	}
+
+	/**
+	 * Set the resolution the scene is drawn at, relative to the frame.
+	 * 
+	 * @param scale The fraction of the frame's width and height (0 to 1).
+	 */
+	public void setScale(float scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * Get the resolution the scene is drawn at, relative to the frame.
+	 * 
+	 * @return The fraction of the frame's width and height.
+	 */
+	public float getScale() {
+		return scale;
+	}
+
+	/**
+	 * Bind the texture holding the scene's linear HDR colour (valid after end()) to texture unit 0
+	 * for a full-screen shader, with the part of it the scene was drawn into (the hdr_texture,
+	 * uvScale and uvClamp uniforms).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param shader The full-screen shader (already in use).
+	 */
+	public void bindScene(GL3 gl, Shader shader) {
+		shader.setInt(gl, "hdr_texture", 0);
+		shader.setFloat(gl, "uvScale", (float)sceneWidth/width, (float)sceneHeight/height);
+		// Half a texel inside the drawn area, so bilinear filtering never reads outside it
+		shader.setFloat(gl, "uvClamp", (sceneWidth-0.5f)/width, (sceneHeight-0.5f)/height);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, colourTexture[0]);
+	}
+
+	/**
+	 * Start drawing the scene into the HDR framebuffer (at the current scale), resizing it first
+	 * if the frame has changed size.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param width The width of the frame.
+	 * @param height The height of the frame.
+	 */
+	public void begin(GL3 gl, int width, int height) {
+		gl.glGetIntegerv(GL3.GL_DRAW_FRAMEBUFFER_BINDING, target, 0);
+		if (width != this.width || height != this.height) resize(gl, width, height);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		sceneWidth = Math.max(1, Math.round(width*scale));
+		sceneHeight = Math.max(1, Math.round(height*scale));
+		gl.glViewport(0, 0, sceneWidth, sceneHeight);
+	}
+
+	/**
+	 * (Re)create the attachments of the HDR framebuffer.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param width The width of the frame.
+	 * @param height The height of the frame.
+	 */
+	private void resize(GL3 gl, int width, int height) {
+		this.width = width;
+		this.height = height;
+		gl.glBindTexture(GL.GL_TEXTURE_2D, colourTexture[0]);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA16F, width, height, 0, GL.GL_RGBA,
+						GL.GL_FLOAT, null);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, depthBuffer[0]);
+		gl.glRenderbufferStorage(GL.GL_RENDERBUFFER, GL.GL_DEPTH_COMPONENT24, width, height);
+		gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, 0);
+
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D,
+								  colourTexture[0], 0);
+		gl.glFramebufferRenderbuffer(GL.GL_FRAMEBUFFER, GL.GL_DEPTH_ATTACHMENT, GL.GL_RENDERBUFFER,
+									 depthBuffer[0]);
+		int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+		if (status != GL.GL_FRAMEBUFFER_COMPLETE) {
+			System.out.println("HDR framebuffer incomplete: 0x" + Integer.toHexString(status));
+		}
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, target[0]);
+		if (DISPLAY_POST_PROCESS) System.out.println("HDR framebuffer: " + width + "x" + height);
+	}
+
+	/**
+	 * Finish drawing the scene and draw it, tonemapped and gamma corrected, into the framebuffer
+	 * that was bound at begin().
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void end(GL3 gl) {
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, target[0]);
+		gl.glViewport(0, 0, width, height);
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		shader.use(gl);
+		shader.setFloat(gl, "exposure", exposure);
+		bindScene(gl, shader);
+		gl.glBindVertexArray(vertexArray[0]);
+		gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3);
+		gl.glBindVertexArray(0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glEnable(GL.GL_DEPTH_TEST);
+	}
+
+	/**
+	 * Delete the framebuffer, its attachments and the shader.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		gl.glDeleteFramebuffers(1, framebuffer, 0);
+		gl.glDeleteTextures(1, colourTexture, 0);
+		gl.glDeleteRenderbuffers(1, depthBuffer, 0);
+		gl.glDeleteVertexArrays(1, vertexArray, 0);
+		gl.glDeleteProgram(shader.getID());
+	}
+}
\ No newline at end of file
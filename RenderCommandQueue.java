@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for handing changes to the scene from other threads (e.g. Swing's event dispatch thread)
+ * to the rendering thread, so lights and materials are only changed between frames and never
+ * while a frame is reading them. Any number of threads can submit commands; only the rendering
+ * thread runs them, all at once at the start of a frame (drain()). Neither side ever takes a lock:
+ * - Producers claim a slot of a fixed-size ring by advancing its tail with a compare-and-set,
+ *   then publish the command into the slot.
+ * - The consumer runs commands from the head until it reaches a slot that has not been published
+ *   yet (it is run at the next drain), and clears each slot before moving the head past it, which
+ *   frees it for producers.
+ * 
+ * A submitted command with a coalescing key replaces any command with the same key still waiting
+ * to run, so a slider dragged quickly across its range only applies its latest value once, in the
+ * place in the queue of the first value submitted since the last drain.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for a lock-free queue of commands run on the rendering thread
+ */
+public class RenderCommandQueue {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * A change to the scene, run on the rendering thread with its OpenGL context current.
+	 */
+	public interface Command {
+		/**
+		 * Apply the change.
+		 * 
+		 * @param gl The OpenGL context used for rendering.
+		 */
+		void run(GL3 gl);
+	}
+
+	private final AtomicReferenceArray<Command> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	// Only written by the consumer, read by producers to check for space
+	private volatile long head = 0;
+	// The latest command for each coalescing key, waiting to run
+	private final AtomicReferenceArray<Command> latest;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param keys The number of coalescing keys (0 to keys-1) used with submitLatest().
+	 */
+	public RenderCommandQueue(int keys) {
+		this(DEFAULT_CAPACITY, keys);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity The most commands that can wait at once (rounded up to a power of 2).
+	 * @param keys The number of coalescing keys (0 to keys-1) used with submitLatest().
+	 */
+	public RenderCommandQueue(int capacity, int keys) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2)-1) << 1;
+		slots = new AtomicReferenceArray<>(size);
+		mask = size-1;
+		latest = new AtomicReferenceArray<>(keys);
+	}
+
+	/**
+	 * Submit a command to run at the start of the next frame (from any thread).
+	 * 
+	 * @param command The command.
+	 * @return False if the queue was full and the command was dropped.
+	 */
+	public boolean submit(Command command) {
+		while (true) {
+			long t = tail.get();
+			if (t-head >= slots.length()) {
+				System.err.println("Render command queue full, command dropped");
+				return false;
+			}
+			if (tail.compareAndSet(t, t+1)) {
+				slots.set((int)(t & mask), command);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Submit a command that replaces any command with the same key not yet run (from any thread).
+	 * 
+	 * @param key The coalescing key.
+	 * @param command The command.
+	 * @return False if the queue was full and the command was dropped.
+	 */
+	public boolean submitLatest(int key, Command command) {
+		// Only the first command since the key was last run needs a place in the queue
+		if (latest.getAndSet(key, command) != null) return true;
+		boolean queued = submit(gl -> {
+			Command current = latest.getAndSet(key, null);
+			if (current != null) current.run(gl);
+		});
+		// Cleared even if another producer has replaced the command meanwhile: with no wrapper
+		// queued, a key left set would make every later command for it coalesce into nothing
+		if (!queued) latest.set(key, null);
+		return queued;
+	}
+
+	/**
+	 * Run every command published so far, in the order they were submitted. Must only be called
+	 * on the rendering thread.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @return The number of commands run.
+	 */
+	public int drain(GL3 gl) {
+		int count = 0;
+		long h = head;
+		while (true) {
+			int slot = (int)(h & mask);
+			Command command = slots.get(slot);
+			// Empty, or claimed by a producer that has not published the command yet
+			if (command == null) break;
+			slots.set(slot, null);
+			head = ++h;
+			command.run(gl);
+			count++;
+		}
+		return count;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,226 @@
+import java.util.function.BooleanSupplier;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for deciding when the canvas is redrawn, on a thread of its own (replacing FPSAnimator,
+ * which redrew 60 times a second whether or not anything had changed).
+ * - ON_DEMAND: frames are only drawn after requestRedraw() (camera, light and UI changes) or while
+ *   an animation is active, at most 60 per second. Otherwise the thread sleeps, so an untouched
+ *   window uses next to no CPU or GPU time. A few extra frames are drawn after each request so
+ *   results read back a frame or two late (occlusion queries, auto-exposure) can settle.
+ * - UNCAPPED: frames are drawn back to back with no vsync (for benchmarking).
+ * - DISPLAY_SYNCED: frames are drawn continuously with a swap interval of 1, so the buffer swap
+ *   paces them to the display's refresh rate.
+ * 
+ * Each mode measures its jitter: the spread (standard deviation) of the intervals between the
+ * starts of consecutive frames drawn while rendering continuously, and the worst deviation from
+ * the mean interval. A summary is printed when the scheduler stops.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for scheduling redraws (on demand, uncapped or synced to the display)
+ */
+public class RenderScheduler {
+	private static final boolean DISPLAY_JITTER = false;
+	// Frames between printed jitter reports (if DISPLAY_JITTER)
+	private static final int REPORT_INTERVAL = 300;
+	// Shortest time between frames in ON_DEMAND mode (60 frames per second)
+	private static final long FRAME_INTERVAL_NS = 1_000_000_000L/60;
+	// Frames drawn after the last request in ON_DEMAND mode
+	private static final int SETTLE_FRAMES = 3;
+	// Longest wait for the current frame when stopping (a canvas may need the AWT thread to draw,
+	// and stop() is normally called on it)
+	private static final long STOP_TIMEOUT_MS = 1000;
+
+	public enum Mode {ON_DEMAND, UNCAPPED, DISPLAY_SYNCED}
+
+	private final GLAutoDrawable drawable;
+	private final Mode mode;
+	private BooleanSupplier animating = () -> false;
+	private Thread thread;
+	private volatile boolean running = false;
+	private final Object lock = new Object();
+	private int pendingFrames = 0;
+
+	// Jitter measurement (intervals between frame starts within continuous runs)
+	private long lastFrameStart = 0;
+	private long frames = 0;
+	private long intervals = 0;
+	private double sum = 0;
+	private double sumSquares = 0;
+	private double minInterval = Double.MAX_VALUE;
+	private double maxInterval = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param drawable The canvas to draw.
+	 * @param mode When frames are drawn.
+	 */
+	public RenderScheduler(GLAutoDrawable drawable, Mode mode) {
+		this.drawable = drawable;
+		this.mode = mode;
+	}
+
+	/**
+	 * Set what reports whether an animation is active (ON_DEMAND mode keeps drawing while it is).
+	 * 
+	 * @param animating Returns true while the scene is animating.
+	 */
+	public void setAnimating(BooleanSupplier animating) {
+		this.animating = animating;
+	}
+
+	/**
+	 * Get the mode of the scheduler.
+	 * 
+	 * @return The mode.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Ask for the canvas to be redrawn because something in the scene has changed (only needed in
+	 * ON_DEMAND mode; other modes draw continuously). Can be called from any thread.
+	 */
+	public void requestRedraw() {
+		synchronized (lock) {
+			pendingFrames = SETTLE_FRAMES+1;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Start drawing frames on the scheduler's thread.
+	 */
+	public void start() {
+		if (running) return;
+		final int swapInterval = (mode == Mode.UNCAPPED) ? 0 : 1;
+		// Run on the OpenGL thread at the next frame
+		drawable.invoke(false, d -> {
+			d.getGL().setSwapInterval(swapInterval);
+			return true;
+		});
+		running = true;
+		thread = new Thread(this::run, "RenderScheduler");
+		thread.setDaemon(true);
+		thread.start();
+		requestRedraw();
+	}
+
+	/**
+	 * Stop drawing frames (waiting briefly for the current frame to finish) and print the jitter
+	 * summary.
+	 */
+	public void stop() {
+		if (!running) return;
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(STOP_TIMEOUT_MS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println(report());
+	}
+
+	/**
+	 * The loop of the scheduler's thread.
+	 */
+	private void run() {
+		long nextFrame = 0;
+		while (running) {
+			if (mode == Mode.ON_DEMAND) {
+				try {
+					if (!waitForWork()) continue;
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				// Pace the frames of an animation or a burst of requests to at most 60 per second
+				long wait = nextFrame-System.nanoTime();
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait/1_000_000, (int)(wait%1_000_000));
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+				nextFrame = Math.max(nextFrame, System.nanoTime()) + FRAME_INTERVAL_NS;
+			}
+			recordFrameStart(System.nanoTime());
+			drawable.display();
+		}
+	}
+
+	/**
+	 * Wait (in ON_DEMAND mode) until a frame is requested or an animation is active.
+	 * 
+	 * @return True if a frame should be drawn, false if the scheduler is stopping.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	private boolean waitForWork() throws InterruptedException {
+		synchronized (lock) {
+			while (running && pendingFrames == 0 && !animating.getAsBoolean()) {
+				// Going idle ends the continuous run, so the idle time is not counted as jitter
+				lastFrameStart = 0;
+				lock.wait();
+			}
+			if (!running) return false;
+			if (pendingFrames > 0) pendingFrames--;
+			return true;
+		}
+	}
+
+	/**
+	 * Record the start of a frame for the jitter measurement.
+	 * 
+	 * @param now The time the frame starts (from System.nanoTime()).
+	 */
+	private void recordFrameStart(long now) {
+		frames++;
+		if (lastFrameStart != 0) {
+			double interval = (now-lastFrameStart)/1e6;
+			intervals++;
+			sum += interval;
+			sumSquares += interval*interval;
+			minInterval = Math.min(minInterval, interval);
+			maxInterval = Math.max(maxInterval, interval);
+			if (DISPLAY_JITTER && intervals % REPORT_INTERVAL == 0) System.out.println(report());
+		}
+		lastFrameStart = now;
+	}
+
+	/**
+	 * Get the standard deviation of the intervals between frames drawn continuously.
+	 * 
+	 * @return The jitter in milliseconds (0 before two consecutive frames have been drawn).
+	 */
+	public double getJitterMs() {
+		if (intervals < 2) return 0;
+		double mean = sum/intervals;
+		return Math.sqrt(Math.max(sumSquares/intervals - mean*mean, 0));
+	}
+
+	/**
+	 * Get a summary of the frames drawn and their timing.
+	 * 
+	 * @return The summary.
+	 */
+	public String report() {
+		if (intervals == 0) return "Render scheduler (" + mode + "): " + frames + " frames";
+		double mean = sum/intervals;
+		double worst = Math.max(maxInterval-mean, mean-minInterval);
+		return String.format("Render scheduler (%s): %d frames, mean interval %.2f ms, "
+							 + "jitter %.2f ms (std dev), worst deviation %.2f ms", mode, frames,
+							 mean, getJitterMs(), worst);
+	}
+}
\ No newline at end of file
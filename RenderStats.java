@@ -0,0 +1,119 @@
+/**
+ * Class for counting the work done each frame (draw calls, triangles, scene graph transform
+ * updates and light uploads), so benchmark runs can report it alongside frame times.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for per-frame draw call statistics
+ * - Lights uploaded to (and left unchanged in) shader programs
+ */
+public final class RenderStats {
+	private static int drawCalls = 0;
+	private static long triangles = 0;
+	private static int transformUpdates = 0;
+	private static int lightUploads = 0;
+	private static int lightUploadsSkipped = 0;
+
+	private RenderStats() {
+	}
+
+	/**
+	 * Record a draw call (called wherever glDrawElements/glDrawArrays is issued).
+	 * 
+	 * @param indexCount The number of indices drawn as triangles.
+	 */
+	public static void recordDraw(int indexCount) {
+		drawCalls++;
+		triangles += indexCount/3;
+	}
+
+	/**
+	 * Record an instanced draw call.
+	 * 
+	 * @param indexCount The number of indices drawn as triangles for each instance.
+	 * @param instanceCount The number of instances drawn.
+	 */
+	public static void recordDraw(int indexCount, int instanceCount) {
+		drawCalls++;
+		triangles += (long)(indexCount/3)*instanceCount;
+	}
+
+	/**
+	 * Record the world transform of a scene graph node being recomputed.
+	 */
+	public static void recordTransformUpdate() {
+		transformUpdates++;
+	}
+
+	/**
+	 * Record whether a light's uniforms were uploaded to a shader program or skipped because the
+	 * program already held the light's current version.
+	 * 
+	 * @param uploaded True if the light was uploaded.
+	 */
+	public static void recordLightUpload(boolean uploaded) {
+		if (uploaded) lightUploads++;
+		else lightUploadsSkipped++;
+	}
+
+	/**
+	 * Get the number of draw calls since the last reset.
+	 * 
+	 * @return The number of draw calls.
+	 */
+	public static int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * Get the number of triangles drawn since the last reset.
+	 * 
+	 * @return The number of triangles.
+	 */
+	public static long getTriangles() {
+		return triangles;
+	}
+
+	/**
+	 * Get the number of scene graph world transforms recomputed since the last reset.
+	 * 
+	 * @return The number of transform updates.
+	 */
+	public static int getTransformUpdates() {
+		return transformUpdates;
+	}
+
+	/**
+	 * Get the number of lights uploaded to shader programs since the last reset (none in a frame
+	 * where no light has changed, once every program has been drawn with).
+	 * 
+	 * @return The number of light uploads.
+	 */
+	public static int getLightUploads() {
+		return lightUploads;
+	}
+
+	/**
+	 * Get the number of light uploads skipped since the last reset because the light had not
+	 * changed.
+	 * 
+	 * @return The number of light uploads skipped.
+	 */
+	public static int getLightUploadsSkipped() {
+		return lightUploadsSkipped;
+	}
+
+	/**
+	 * Reset the counters (at the start of a frame).
+	 */
+	public static void reset() {
+		drawCalls = 0;
+		triangles = 0;
+		transformUpdates = 0;
+		lightUploads = 0;
+		lightUploadsSkipped = 0;
+	}
+}
\ No newline at end of file
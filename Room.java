@@ -17,6 +17,8 @@ import com.jogamp.opengl.util.texture.*;
  * 
  * Changes made:
  * - A new class for creating the room and its individual components
+ * - Parts of the room are drawn through an occlusion culler (hidden parts are skipped)
+ * - Static parts are merged by a StaticBatcher (one draw per shader/texture/material group)
  */
 public class Room {
 	private ModelMultipleLights[] wall;
@@ -25,7 +27,8 @@ public class Room {
 	private Texture diffuse, specular,
 					albedo, normal, metallic, roughness, ao;
 	private float size = 6f;
-	private int noObjects = 1;
+	private int noObjects;
+	private OcclusionCuller culler;
 
 	/**
 	 * Constructor. Initialise the models comprising the room.
@@ -45,7 +48,6 @@ public class Room {
 		this.metallic = t[4];
 		this.roughness = t[5];
 		this.ao = t[6];
-		wall = new ModelMultipleLights[noObjects];
 		Shader shaderPhong = new Shader(
 			gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_phong.txt");
 		Shader shaderPBR = new Shader(
@@ -56,19 +58,23 @@ public class Room {
 			new Vec3(0.3f, 0.3f, 0.3f), 
 			4.0f);
 
+		// Static parts are gathered and merged into one mesh per shader/texture/material group
+		StaticBatcher batcher = new StaticBatcher();
+
 		// Floor
 		Mat4 modelMatrix = prepareModelMatrix(size, 1f, size, 0, 0, 0, 0, 0, 0);
-		wall[0] = ModelMaker.makePart(gl,
-						   			  "floor", 
-						   			  material,
-						   			  modelMatrix,
-						   			  //shaderPhong,
-						   			  //new Texture[] {diffuse, specular},
-									  shaderPBR,
-									  new Texture[] {albedo, normal, metallic, roughness, ao},
-						   			  lights,
-						   			  camera,
-						   			  "two triangles");
+		batcher.add("floor", 
+					"two triangles",
+					material,
+					modelMatrix,
+					//shaderPhong,
+					//new Texture[] {diffuse, specular});
+					shaderPBR,
+					new Texture[] {albedo, normal, metallic, roughness, ao});
+
+		wall = batcher.build(gl, lights, camera);
+		noObjects = wall.length;
+		culler = new OcclusionCuller(gl, camera, noObjects);
 	}
 
 	/**
@@ -89,15 +95,8 @@ public class Room {
 	private Mat4 prepareModelMatrix(float scaleX, float scaleY, float scaleZ,
 									int rotateX, int rotateY, int rotateZ,
 									float translateX, float translateY, float translateZ) {
-		Mat4 modelMatrix = new Mat4(1);
-		modelMatrix = Mat4.multiply(Mat4Transform.scale(scaleX, scaleY, scaleZ), modelMatrix);
-		modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundX(rotateX), modelMatrix);
-		modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundY(rotateY), modelMatrix);
-		modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundZ(rotateZ), modelMatrix);
-		modelMatrix = Mat4.multiply(
-			Mat4Transform.translate(translateX, translateY, translateZ), 
-			modelMatrix);
-		return modelMatrix;
+		return ModelMaker.prepareModelMatrix(scaleX, scaleY, scaleZ, rotateX, rotateY, rotateZ,
+											 translateX, translateY, translateZ);
 	}
 
 	/**
@@ -106,11 +105,22 @@ public class Room {
 	 * @param gl The OpenGL context used for rendering.
 	 */
 	public void render(GL3 gl) {
+		culler.beginFrame(gl);
 		for (int i=0; i<noObjects; i++) {
-			wall[i].render(gl);
+			culler.render(gl, i, wall[i]);
 		}
 	}
 
+	/**
+	 * Get the occlusion culler used when drawing the room (e.g. to read its culled ratio or to
+	 * turn culling off for comparison).
+	 * 
+	 * @return The room's occlusion culler.
+	 */
+	public OcclusionCuller getCuller() {
+		return culler;
+	}
+
 	/**
 	 * Dispose of each individual part of the room and the resources they use.
 	 * 
@@ -120,5 +130,6 @@ public class Room {
 		for (int i=0; i<noObjects; i++) {
 			wall[i].dispose(gl);
 		}
+		culler.dispose(gl);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+import gmaths.*;
+import java.util.ArrayList;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for a node within a scene graph. Each node caches its world transform, which is only
+ * recomputed when the node (or one of its ancestors) has changed since the last update. Nodes
+ * also record whether anything below them has changed, so update() only visits the parts of the
+ * graph that moved and the cost of updating an animated hierarchy depends on what moved rather
+ * than on the total number of nodes.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - World transforms are cached and only recomputed under changed transforms (dirty flags)
+ */
+public class SGNode {
+	protected String name;
+	protected ArrayList<SGNode> children;
+	protected SGNode parent;
+	protected Mat4 worldTransform;
+	// This node's world transform must be recomputed
+	protected boolean dirty = true;
+	// A node somewhere below this one has its dirty flag set
+	protected boolean childDirty = false;
+
+	/**
+	 * Constructor. Create a node with no children.
+	 * 
+	 * @param name The name of the node.
+	 */
+	public SGNode(String name) {
+		children = new ArrayList<SGNode>();
+		this.name = name;
+		worldTransform = new Mat4(1);
+	}
+
+	/**
+	 * Add a child node (whose world transform is then computed from this node's).
+	 * 
+	 * @param child The node to add as a child.
+	 */
+	public void addChild(SGNode child) {
+		children.add(child);
+		child.parent = this;
+		child.markDirty();
+	}
+
+	/**
+	 * Get the name of the node.
+	 * 
+	 * @return The name of the node.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the world transform of the node as of the last update.
+	 * 
+	 * @return The world transform (not to be modified).
+	 */
+	public Mat4 getWorldTransform() {
+		return worldTransform;
+	}
+
+	/**
+	 * Mark the node's world transform (and so the transforms of its descendants) as needing to be
+	 * recomputed, and tell its ancestors that something below them has changed.
+	 */
+	protected void markDirty() {
+		dirty = true;
+		for (SGNode p = parent; p != null && !p.childDirty; p = p.parent) {
+			p.childDirty = true;
+		}
+	}
+
+	/**
+	 * Bring the world transforms of this node and its descendants up to date. Called on the root
+	 * of the graph once per frame (before drawing).
+	 */
+	public void update() {
+		update(parent == null ? null : parent.worldTransform, false);
+	}
+
+	/**
+	 * Bring the world transforms of this node and its descendants up to date, skipping subtrees
+	 * where nothing has changed.
+	 * 
+	 * @param parentWorld The world transform of the parent (null for the root).
+	 * @param parentChanged Whether the parent's world transform changed in this update.
+	 */
+	protected void update(Mat4 parentWorld, boolean parentChanged) {
+		boolean changed = parentChanged || dirty;
+		if (changed) {
+			computeWorldTransform(parentWorld);
+			dirty = false;
+			RenderStats.recordTransformUpdate();
+		}
+		if (changed || childDirty) {
+			childDirty = false;
+			for (int i=0; i<children.size(); i++) {
+				children.get(i).update(worldTransform, changed);
+			}
+		}
+	}
+
+	/**
+	 * Compute the node's world transform from its parent's (a plain node has the same transform
+	 * as its parent).
+	 * 
+	 * @param parentWorld The world transform of the parent (null for the root).
+	 */
+	protected void computeWorldTransform(Mat4 parentWorld) {
+		if (parentWorld == null)
+			worldTransform = new Mat4(1);
+		else
+			worldTransform = parentWorld;
+	}
+
+	/**
+	 * Print the node and its descendants (for debugging).
+	 * 
+	 * @param indent The level of indentation of this node.
+	 * @param inFull Whether to print the world transform of each node.
+	 */
+	public void print(int indent, boolean inFull) {
+		System.out.println(getIndentString(indent) + "Name: " + name);
+		if (inFull) {
+			System.out.println("worldTransform");
+			System.out.println(worldTransform);
+		}
+		for (int i=0; i<children.size(); i++) {
+			children.get(i).print(indent+1, inFull);
+		}
+	}
+
+	/**
+	 * Create a string of spaces for indenting printed nodes.
+	 * 
+	 * @param indent The level of indentation.
+	 * @return The indentation string.
+	 */
+	protected String getIndentString(int indent) {
+		String s = "" + indent + " ";
+		for (int i=0; i<indent; ++i) {
+			s += "  ";
+		}
+		return s;
+	}
+
+	/**
+	 * Draw every model in this node's subtree at its cached world transform.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void draw(GL3 gl) {
+		for (int i=0; i<children.size(); i++) {
+			children.get(i).draw(gl);
+		}
+	}
+}
\ No newline at end of file
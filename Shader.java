@@ -34,6 +34,10 @@ public class Shader {
 		}
 		if (DISPLAY_SHADERS) display();
 			ID = compileAndLink(gl);
+		// Per-draw data (model matrix, MVP and material) is read from a slice of the UniformRing
+		int block = gl.glGetUniformBlockIndex(ID, UniformRing.PER_DRAW_BLOCK);
+		if (block != GL3.GL_INVALID_INDEX)
+			gl.glUniformBlockBinding(ID, block, UniformRing.PER_DRAW_BINDING);
     }
     
 	/**
@@ -6,7 +6,6 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.ChangeEvent;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.awt.GLCanvas;
-import com.jogamp.opengl.util.FPSAnimator;
 
 /**
  * Class for creating a GUI window and allowing interaction between the user and elements of the 
@@ -19,6 +18,14 @@ import com.jogamp.opengl.util.FPSAnimator;
  * Changes made:
  * - setUpInteraction(): new function for all UI elements under the canvas
  * - stateChanged(): new function for handling slider elements
+ * - '--record FILE' option for recording the camera path (for replaying with Benchmark)
+ * - 'Screenshot' and 'Start/Stop Recording' menu items for capturing frames
+ * - '--dynamic-resolution' option for scaling the scene's resolution to hold 60 FPS
+ * - Frames are drawn by a RenderScheduler ('--scheduler on_demand|uncapped|display_synced')
+ *   instead of a fixed 60 FPS animator, redrawing on input when on demand
+ * - Keyboard and mouse input moves the camera through an UpdateLoop (a fixed-timestep thread),
+ *   so movement speed no longer depends on the frame rate or key repeat rate
+ * - '--model FILE' option for showing an OBJ or glTF model in the room (see ModelImporter)
  */
 public class Spacecraft extends JFrame implements ActionListener, ChangeListener {	
 	private static final int WIDTH = 1024;
@@ -27,15 +34,38 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 	private GLCanvas canvas;
 	private JPanel interaction;
 	private Spacecraft_GLEventListener glEventListener;
-	private final FPSAnimator animator; 
+	private final RenderScheduler scheduler;
+	private UpdateLoop updateLoop;
+	private CameraRecorder recorder;
+	private java.io.File recordFile;
 
 	/**
 	 * Creates the main window for seeing the newly-made Spacecraft object.
 	 * 
-	 * @param args Command line arguments (unused; solely here for compiling purposes).
+	 * @param args Command line arguments ('--record FILE' saves the camera path to FILE on exit,
+	 * 			   '--dynamic-resolution' lowers the scene's resolution when the GPU is too slow,
+	 * 			   '--scheduler MODE' sets when frames are drawn: on_demand (the default),
+	 * 			   uncapped or display_synced, '--model FILE' shows an OBJ or glTF model in the
+	 * 			   middle of the room).
 	 */
 	public static void main(String[] args) {
-		Spacecraft b1 = new Spacecraft("Phong & PBR Comparison");
+		java.io.File recordFile = null;
+		boolean dynamicResolution = false;
+		String modelFile = null;
+		RenderScheduler.Mode mode = RenderScheduler.Mode.ON_DEMAND;
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("--record") && i+1 < args.length) {
+				recordFile = new java.io.File(args[++i]);
+			}
+			else if (args[i].equals("--scheduler") && i+1 < args.length) {
+				mode = RenderScheduler.Mode.valueOf(args[++i].toUpperCase());
+			}
+			else if (args[i].equals("--model") && i+1 < args.length) modelFile = args[++i];
+			else if (args[i].equals("--dynamic-resolution")) dynamicResolution = true;
+		}
+		Spacecraft b1 = new Spacecraft("Phong & PBR Comparison", recordFile, mode);
+		b1.glEventListener.setDynamicResolution(dynamicResolution);
+		if (modelFile != null) b1.glEventListener.setImportedModel(modelFile);
 		b1.getContentPane().setPreferredSize(dimension);
 		b1.pack();
 		b1.setVisible(true);
@@ -49,7 +79,20 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 	 * @param textForTitleBar The name used for the title of the main window.
 	 */
 	public Spacecraft(String textForTitleBar) {
+		this(textForTitleBar, null, RenderScheduler.Mode.ON_DEMAND);
+	}
+
+	/**
+	 * Constructor. Sets up the GUI, recording the user's camera movements if a file is given.
+	 * 
+	 * @param textForTitleBar The name used for the title of the main window.
+	 * @param recordFile The file the camera path is saved to on exit (null to not record).
+	 * @param mode When frames are drawn (see RenderScheduler).
+	 */
+	public Spacecraft(String textForTitleBar, java.io.File recordFile, RenderScheduler.Mode mode) {
 		super(textForTitleBar);
+		this.recordFile = recordFile;
+		if (recordFile != null) recorder = new CameraRecorder();
 
 		// Create the display area of the window
 		setUpCanvas();
@@ -59,6 +102,12 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 		JMenuBar menuBar = new JMenuBar();
 		this.setJMenuBar(menuBar);
 		JMenu fileMenu = new JMenu("File");
+		JMenuItem screenshotItem = new JMenuItem("Screenshot");
+		screenshotItem.addActionListener(this);
+		fileMenu.add(screenshotItem);
+		JMenuItem recordItem = new JMenuItem("Start Recording");
+		recordItem.addActionListener(this);
+		fileMenu.add(recordItem);
 		JMenuItem quitItem = new JMenuItem("Quit");
 		quitItem.addActionListener(this);
 		fileMenu.add(quitItem);
@@ -69,8 +118,10 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 		getContentPane().add(interaction, BorderLayout.SOUTH);
 
 		addWindowListener(new windowHandler());
-		animator = new FPSAnimator(canvas, 60);
-		animator.start();
+		scheduler = new RenderScheduler(canvas, mode);
+		scheduler.setAnimating(glEventListener::isAnimating);
+		updateLoop.start();
+		scheduler.start();
 	}
 
 	/**
@@ -82,9 +133,30 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 		Camera camera = new Camera(Camera.DEFAULT_POSITION,
 			Camera.DEFAULT_TARGET, Camera.DEFAULT_UP);
 		glEventListener = new Spacecraft_GLEventListener(camera);
+		// Input is applied on the update thread, starting from the camera's initial view
+		updateLoop = new UpdateLoop(camera);
+		glEventListener.setUpdateLoop(updateLoop);
 		canvas.addGLEventListener(glEventListener);
-		canvas.addMouseMotionListener(new MyMouseInput(camera));
-		canvas.addKeyListener(new MyKeyboardInput(camera));
+		// The input applied at each tick is recorded (not the key events, which include repeats)
+		updateLoop.setRecorder(recorder);
+		canvas.addMouseMotionListener(new MyMouseInput(updateLoop));
+		canvas.addKeyListener(new MyKeyboardInput(updateLoop));
+		// Camera movement redraws the scene (when frames are drawn on demand)
+		canvas.addMouseMotionListener(new MouseMotionAdapter() {
+			public void mouseDragged(MouseEvent e) {
+				scheduler.requestRedraw();
+			}
+		});
+		canvas.addKeyListener(new KeyAdapter() {
+			public void keyPressed(KeyEvent e) {
+				scheduler.requestRedraw();
+			}
+		});
+		canvas.addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				scheduler.requestRedraw();
+			}
+		});
 	}
 
 	/**
@@ -155,8 +227,27 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 			e.getActionCommand().equalsIgnoreCase("Right")) {
 			glEventListener.changeGlobalLightPosition(e.getActionCommand().toLowerCase());
 		}
-		else if(e.getActionCommand().equalsIgnoreCase("Quit"))
+		else if (e.getActionCommand().equalsIgnoreCase("Screenshot")) {
+			new java.io.File("captures").mkdirs();
+			glEventListener.takeScreenshot(
+				new java.io.File("captures", "screenshot_" + System.currentTimeMillis() + ".png"));
+		}
+		else if (e.getActionCommand().equalsIgnoreCase("Start Recording")) {
+			glEventListener.startRecording(
+				new java.io.File("captures", "recording_" + System.currentTimeMillis()), false);
+			((JMenuItem)e.getSource()).setText("Stop Recording");
+		}
+		else if (e.getActionCommand().equalsIgnoreCase("Stop Recording")) {
+			glEventListener.stopRecording();
+			((JMenuItem)e.getSource()).setText("Start Recording");
+		}
+		else if(e.getActionCommand().equalsIgnoreCase("Quit")) {
+			scheduler.stop();
+			updateLoop.stop();
+			saveRecording();
 			System.exit(0);
+		}
+		scheduler.requestRedraw();
 	}
 
 	/**
@@ -176,19 +267,46 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 			float lightIntensity = ((float)source.getValue())/100;
 			glEventListener.changeSpotlightIntensity(lightIntensity);
 		}
+		scheduler.requestRedraw();
+	}
+
+	/**
+	 * Save the recorded camera path (if recording).
+	 */
+	private void saveRecording() {
+		if (recorder == null) return;
+		try {
+			recorder.save(recordFile);
+			System.out.println("Camera path saved to " + recordFile);
+		}
+		catch (java.io.IOException e) {
+			System.err.println("Error saving camera path to " + recordFile);
+		}
 	}
 
 	/**
-	 * Class that handles events that take place when the window is closed (resource management).
+	 * Class that handles events that take place when the window is opened or closed (resource
+	 * management).
 	 */
 	private class windowHandler extends WindowAdapter {
+		/**
+		 * Draws the first frames once the window is shown (when frames are drawn on demand).
+		 * 
+		 * @param e The window event itself (unused).
+		 */
+		public void windowOpened(WindowEvent e) {
+			scheduler.requestRedraw();
+		}
+
 		/**
 		 * Stops the program and frees resources upon closing the main window.
 		 * 
 		 * @param e The window event itself (unused).
 		 */
 		public void windowClosing(WindowEvent e) {
-			animator.stop();
+			scheduler.stop();
+			updateLoop.stop();
+			saveRecording();
 			remove(canvas);
 			dispose();
 			System.exit(0);
@@ -198,36 +316,57 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
 
 /**
  * Class to process keyboard inputs and have the associated outputs be shown in the camera's 
- * movement.
+ * movement. A key moves the camera for as long as it is held (see UpdateLoop).
  */
 class MyKeyboardInput extends KeyAdapter  {
-	private Camera camera;
+	private UpdateLoop updateLoop;
 	
 	/**
-	 * Constructor. Set the camera object that will affected upon keyboard input.
+	 * Constructor. Set the update loop whose camera will be affected upon keyboard input.
 	 * 
-	 * @param camera The camera to control.
+	 * @param updateLoop The update loop moving the camera.
 	 */
-	public MyKeyboardInput(Camera camera) {
-		this.camera = camera;
+	public MyKeyboardInput(UpdateLoop updateLoop) {
+		this.updateLoop = updateLoop;
 	}
 	
 	/**
 	 * Associate the specific keyboard inputs with the direction of movement for the camera.
 	 * 
-	 * @param e The keyboard button pressed.
+	 * @param e The keyboard event.
+	 * @return The movement of the key (NO_MOVEMENT if it is not a movement key).
 	 */
-	public void keyPressed(KeyEvent e) {
-		Camera.Movement m = Camera.Movement.NO_MOVEMENT;
+	private Camera.Movement movement(KeyEvent e) {
 		switch (e.getKeyCode()) {
-			case KeyEvent.VK_LEFT:  m = Camera.Movement.LEFT;  break;
-			case KeyEvent.VK_RIGHT: m = Camera.Movement.RIGHT; break;
-			case KeyEvent.VK_UP:    m = Camera.Movement.UP;    break;
-			case KeyEvent.VK_DOWN:  m = Camera.Movement.DOWN;  break;
-			case KeyEvent.VK_A:  m = Camera.Movement.FORWARD;  break;
-			case KeyEvent.VK_Z:  m = Camera.Movement.BACK;  break;
+			case KeyEvent.VK_LEFT:  return Camera.Movement.LEFT;
+			case KeyEvent.VK_RIGHT: return Camera.Movement.RIGHT;
+			case KeyEvent.VK_UP:    return Camera.Movement.UP;
+			case KeyEvent.VK_DOWN:  return Camera.Movement.DOWN;
+			case KeyEvent.VK_A:  return Camera.Movement.FORWARD;
+			case KeyEvent.VK_Z:  return Camera.Movement.BACK;
+			default: return Camera.Movement.NO_MOVEMENT;
 		}
-		camera.keyboardInput(m);
+	}
+
+	/**
+	 * Start moving the camera in the direction of the key pressed.
+	 * 
+	 * @param e The keyboard button pressed.
+	 */
+	public void keyPressed(KeyEvent e) {
+		Camera.Movement m = movement(e);
+		if (m == Camera.Movement.NO_MOVEMENT) return;
+		updateLoop.keyPressed(m);
+	}
+
+	/**
+	 * Stop moving the camera in the direction of the key released.
+	 * 
+	 * @param e The keyboard button released.
+	 */
+	public void keyReleased(KeyEvent e) {
+		Camera.Movement m = movement(e);
+		if (m != Camera.Movement.NO_MOVEMENT) updateLoop.keyReleased(m);
 	}
 }
 
@@ -236,20 +375,20 @@ class MyKeyboardInput extends KeyAdapter  {
  */
 class MyMouseInput extends MouseMotionAdapter {
 	private Point lastpoint;
-	private Camera camera;
+	private UpdateLoop updateLoop;
 	
 	/**
-	 * Constructor. Set the camera object that will be affected when using the mouse.
+	 * Constructor. Set the update loop whose camera will be affected when using the mouse.
 	 * 
-	 * @param camera The camera to control.
+	 * @param updateLoop The update loop turning the camera.
 	 */
-	public MyMouseInput(Camera camera) {
-		this.camera = camera;
+	public MyMouseInput(UpdateLoop updateLoop) {
+		this.updateLoop = updateLoop;
 	}
 	
 	/**
 	 * Mouse is used to control camera position when clicked in and dragged.
-	 *
+	 * 
 	 * @param e  Instance of MouseEvent
 	 */    
 	public void mouseDragged(MouseEvent e) {
@@ -258,14 +397,15 @@ class MyMouseInput extends MouseMotionAdapter {
 		float dx=(float) (ms.x-lastpoint.x)*sensitivity;
 		float dy=(float) (ms.y-lastpoint.y)*sensitivity;
 		//System.out.println("dy,dy: "+dx+","+dy);
-		if (e.getModifiersEx()==MouseEvent.BUTTON1_DOWN_MASK)
-			camera.updateYawPitch(dx, -dy);
+		if (e.getModifiersEx()==MouseEvent.BUTTON1_DOWN_MASK) {
+			updateLoop.addYawPitch(dx, -dy);
+		}
 		lastpoint = ms;
 	}
 
 	/**
 	 * Mouse is used to control camera position.
-	 *
+	 * 
 	 * @param e  Instance of MouseEvent
 	 */  
 	public void mouseMoved(MouseEvent e) {   
@@ -0,0 +1,216 @@
+import java.io.*;
+import java.util.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.awt.AWTGLReadBufferUtil;
+
+/**
+ * Class for rendering the spacecraft scene without a window or display (e.g. on a server using
+ * Mesa's llvmpipe). The scene is drawn into an offscreen drawable (FBO or pbuffer) for a fixed
+ * number of frames as fast as possible, optionally writing frames to PNG files, and a timing
+ * report is printed (and written to a CSV file if an output directory is given).
+ * 
+ * Usage: java SpacecraftHeadless [--frames N] [--width W] [--height H] [--out DIR] [--every K]
+ *                                [--objects N --lights M --seed S
+ *                                [--mode nodes|instanced|indirect]]
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for headless offscreen rendering (batch rendering, benchmarking and testing)
+ */
+public class SpacecraftHeadless {
+	private static final int DEFAULT_WIDTH = 1024;
+	private static final int DEFAULT_HEIGHT = 768;
+	private static final int DEFAULT_FRAMES = 300;
+
+	/**
+	 * Render the scene offscreen according to the command line options.
+	 * 
+	 * @param args Command line options (see the class description).
+	 */
+	public static void main(String[] args) {
+		int frames = DEFAULT_FRAMES;
+		int width = DEFAULT_WIDTH;
+		int height = DEFAULT_HEIGHT;
+		int every = 0;
+		File outDir = null;
+		int objects = 0;
+		int extraLights = 0;
+		long seed = 1;
+		StressScene.Mode mode = StressScene.Mode.NODES;
+		for (int i=0; i<args.length-1; i+=2) {
+			switch (args[i]) {
+				case "--frames": frames = Integer.parseInt(args[i+1]); break;
+				case "--objects": objects = Integer.parseInt(args[i+1]); break;
+				case "--lights": extraLights = Integer.parseInt(args[i+1]); break;
+				case "--seed": seed = Long.parseLong(args[i+1]); break;
+				case "--mode": mode = StressScene.Mode.valueOf(args[i+1].toUpperCase()); break;
+				case "--width": width = Integer.parseInt(args[i+1]); break;
+				case "--height": height = Integer.parseInt(args[i+1]); break;
+				case "--every": every = Integer.parseInt(args[i+1]); break;
+				case "--out": outDir = new File(args[i+1]); break;
+				default: System.err.println("Unknown option " + args[i]);
+			}
+		}
+		if (outDir != null) outDir.mkdirs();
+
+		Camera camera = new Camera(Camera.DEFAULT_POSITION, Camera.DEFAULT_TARGET, Camera.DEFAULT_UP);
+		Spacecraft_GLEventListener listener = new Spacecraft_GLEventListener(camera);
+		listener.setStressScene(objects, extraLights, seed, mode);
+		GLOffscreenAutoDrawable drawable = createDrawable(width, height);
+		drawable.addGLEventListener(listener);
+		FrameHook hook = new FrameHook(outDir, every);
+		drawable.addGLEventListener(hook);
+
+		// The first display initialises the scene; it is not part of the timings
+		drawable.display();
+		hook.frameTimes.clear();
+
+		long start = System.nanoTime();
+		for (int i=0; i<frames; i++) {
+			drawable.display();
+		}
+		double totalSeconds = (System.nanoTime()-start)/1e9;
+		drawable.destroy();
+
+		double[] times = new double[hook.frameTimes.size()];
+		for (int i=0; i<times.length; i++) times[i] = hook.frameTimes.get(i);
+		printReport(times, totalSeconds);
+		if (outDir != null) writeTimings(new File(outDir, "timings.csv"), times);
+		System.exit(0);
+	}
+
+	/**
+	 * Create an offscreen drawable (FBO, or pbuffer where FBOs are unavailable) with the same
+	 * profile as the on-screen canvas, with swapping disabled so frames are not paced.
+	 * 
+	 * @param width The width of the drawable in pixels.
+	 * @param height The height of the drawable in pixels.
+	 * @return The offscreen drawable (not yet initialised).
+	 */
+	public static GLOffscreenAutoDrawable createDrawable(int width, int height) {
+		GLProfile profile = GLProfile.get(GLProfile.GL3);
+		GLCapabilities capabilities = new GLCapabilities(profile);
+		capabilities.setOnscreen(false);
+		capabilities.setFBO(true);
+		GLDrawableFactory factory = GLDrawableFactory.getFactory(profile);
+		GLOffscreenAutoDrawable drawable =
+			factory.createOffscreenAutoDrawable(null, capabilities, null, width, height);
+		drawable.setAutoSwapBufferMode(false);
+		return drawable;
+	}
+
+	/**
+	 * Read the current frame (the colour buffer of the drawable) into an image.
+	 * 
+	 * @param drawable The drawable whose frame is read (its context must be current).
+	 * @return The frame as an image (top row first).
+	 */
+	public static BufferedImage readFrame(GLAutoDrawable drawable) {
+		AWTGLReadBufferUtil reader = new AWTGLReadBufferUtil(drawable.getGLProfile(), false);
+		return reader.readPixelsToBufferedImage(drawable.getGL(), true);
+	}
+
+	/**
+	 * Calculate a percentile of a set of values (nearest rank).
+	 * 
+	 * @param sorted The values, sorted in ascending order.
+	 * @param p The percentile (0 to 100).
+	 * @return The value at that percentile.
+	 */
+	public static double percentile(double[] sorted, double p) {
+		if (sorted.length == 0) return 0;
+		int rank = (int)Math.ceil(p/100.0*sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length-1, rank))];
+	}
+
+	/**
+	 * Print the frame count, throughput and frame time statistics.
+	 * 
+	 * @param times The time taken by each frame (milliseconds).
+	 * @param totalSeconds The wall-clock time taken by all frames.
+	 */
+	private static void printReport(double[] times, double totalSeconds) {
+		double[] sorted = times.clone();
+		Arrays.sort(sorted);
+		double sum = 0;
+		for (double t : times) sum += t;
+		System.out.println("Frames: " + times.length);
+		System.out.println(String.format("Throughput: %.1f frames/s", times.length/totalSeconds));
+		System.out.println(String.format("Frame time (ms): mean %.3f, min %.3f, p50 %.3f, " +
+										 "p95 %.3f, p99 %.3f, max %.3f",
+										 sum/Math.max(1, times.length),
+										 percentile(sorted, 0), percentile(sorted, 50),
+										 percentile(sorted, 95), percentile(sorted, 99),
+										 percentile(sorted, 100)));
+	}
+
+	/**
+	 * Write the time taken by each frame to a CSV file.
+	 * 
+	 * @param file The file to write to.
+	 * @param times The time taken by each frame (milliseconds).
+	 */
+	private static void writeTimings(File file, double[] times) {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.println("frame,ms");
+			for (int i=0; i<times.length; i++) {
+				out.println(i + "," + times[i]);
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Error writing " + file);
+		}
+	}
+
+	/**
+	 * Listener added after the scene's listener: waits for each frame to finish (so frame times
+	 * include GPU work), records the frame time and writes every K-th frame to a PNG file.
+	 */
+	private static class FrameHook implements GLEventListener {
+		private File outDir;
+		private int every;
+		private int frame = 0;
+		private long lastEnd = 0;
+		private List<Double> frameTimes = new ArrayList<>();
+
+		FrameHook(File outDir, int every) {
+			this.outDir = outDir;
+			this.every = every;
+		}
+
+		public void init(GLAutoDrawable drawable) {
+			// No vsync: frames are produced as fast as the renderer allows
+			drawable.getGL().setSwapInterval(0);
+		}
+
+		public void display(GLAutoDrawable drawable) {
+			drawable.getGL().glFinish();
+			long now = System.nanoTime();
+			if (lastEnd != 0) frameTimes.add((now-lastEnd)/1e6);
+			if (outDir != null && every > 0 && frame % every == 0) {
+				try {
+					File file = new File(outDir, String.format("frame_%05d.png", frame));
+					ImageIO.write(readFrame(drawable), "png", file);
+				}
+				catch (IOException e) {
+					System.err.println("Error writing frame " + frame);
+				}
+			}
+			// Taken after the frame is saved, so reading back and encoding it are not counted in
+			// the next frame's time
+			lastEnd = System.nanoTime();
+			frame++;
+		}
+
+		public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+		}
+
+		public void dispose(GLAutoDrawable drawable) {
+		}
+	}
+}
\ No newline at end of file
@@ -23,10 +23,28 @@ import com.jogamp.opengl.util.texture.spi.JPEGImage;
  * - changeDistanceThreshold(): process UI interaction for robot 1's dancing proximity distance
  * - startStopRobot1Movement(): process UI interaction for manually setting robot 1's dancing state
  * - startStopRobot2Movement(): process UI interaction for manually setting robot 2's movement
+ * - setStressScene(): optionally fill the room with a generated stress-test scene
+ * - takeScreenshot()/startRecording()/stopRecording(): asynchronous frame capture
+ * - Per-draw uniforms are streamed through a UniformRing (one frame region per display())
+ * - Image-based lighting is baked (or loaded from the cache) from the skybox faces if present
+ * - The scene is drawn into an HDR framebuffer and tonemapped in one pass (PostProcess)
+ * - setAutoExposure(): the exposure adapts to the scene's average luminance (AutoExposure)
+ * - setDynamicResolution(): the scene's resolution adapts to the GPU frame time
+ * - isAnimating(): whether the scene must be redrawn without input (for RenderScheduler)
+ * - setUpdateLoop(): the camera is posed each frame from the snapshots of an UpdateLoop
+ * - Light changes from the UI are queued (RenderCommandQueue) and applied at the start of a frame
+ * - Materials are read by the shaders from a MaterialTable updated once per frame
+ * - setImportedModel(): optionally show an OBJ or glTF model in the room (ModelImporter)
+ * - The room is drawn after the other objects, which can then hide its parts (OcclusionCuller)
  */
 public class Spacecraft_GLEventListener implements GLEventListener {
 	private static final boolean DISPLAY_SHADERS = false;
 	private Camera camera;
+	private volatile UpdateLoop updateLoop;
+	// Coalescing keys of the commands submitted by the light intensity sliders
+	private static final int GLOBAL_LIGHT_INTENSITY = 0;
+	private static final int SPOTLIGHT_INTENSITY = 1;
+	private final RenderCommandQueue commands = new RenderCommandQueue(2);
 	
 	/**
 	 * Constructor. Set the camera for the scene and its position/target.
@@ -55,7 +73,14 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 		gl.glEnable(GL.GL_DEPTH_TEST);
 		gl.glDepthFunc(GL.GL_LESS);
 		gl.glFrontFace(GL.GL_CCW);
+		uniformRing = new UniformRing(gl);
+		ModelMultipleLights.setUniformRing(uniformRing);
+		materialTable = new MaterialTable(gl);
 		initialise(gl);
+		postProcess = new PostProcess(gl);
+		if (autoExposureEnabled) autoExposure = new AutoExposure(gl);
+		if (dynamicResolutionEnabled) dynamicResolution = new DynamicResolution(gl);
+		frameCapture = new FrameCapture(gl);
 		startTime = getSeconds();
 	}
 	
@@ -71,6 +96,8 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
 		GL3 gl = drawable.getGL().getGL3();
 		gl.glViewport(x, y, width, height);
+		this.width = width;
+		this.height = height;
 		float aspect = (float)width/(float)height;
 		camera.setPerspectiveMatrix(Mat4Transform.perspective(45, aspect));
 	}
@@ -82,7 +109,26 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 	 */
 	public void display(GLAutoDrawable drawable) {
 		GL3 gl = drawable.getGL().getGL3();
+		commands.drain(gl);
+		if (updateLoop != null) {
+			FrameSnapshot snapshot = updateLoop.interpolate(System.nanoTime());
+			camera.setView(snapshot.getCameraPosition(), snapshot.getCameraFront());
+		}
+		uniformRing.beginFrame(gl);
+		materialTable.update(gl);
+		if (dynamicResolution != null) {
+			dynamicResolution.beginFrame(gl);
+			postProcess.setScale(dynamicResolution.getScale());
+		}
+		postProcess.begin(gl, width, height);
 		render(gl);
+		if (autoExposure != null) {
+			postProcess.setExposure(autoExposure.update(gl, postProcess));
+		}
+		postProcess.end(gl);
+		if (dynamicResolution != null) dynamicResolution.endFrame(gl);
+		uniformRing.endFrame(gl);
+		frameCapture.capture(gl, width, height);
 	}
 
 	/**
@@ -92,32 +138,69 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 	 */
 	public void dispose(GLAutoDrawable drawable) {
 		GL3 gl = drawable.getGL().getGL3();
+		frameCapture.dispose(gl);
+		postProcess.dispose(gl);
+		if (autoExposure != null) autoExposure.dispose(gl);
+		if (dynamicResolution != null) dynamicResolution.dispose(gl);
 		room.dispose(gl);
+		if (stressScene != null) stressScene.dispose(gl);
+		if (importedModel != null) importedModel.dispose(gl);
 		lights[0].dispose(gl);
 		lights[1].dispose(gl);
 		textures.destroy(gl);
+		if (environment != null) environment.dispose(gl);
+		uniformRing.dispose(gl);
+		materialTable.dispose(gl);
 	}
 
 	// ***************************************************
 	/* ACTIONS PERFORMED ACHIEVED BY USER INTERACTION */
+	/* (Called from the UI thread: the changes are queued and made at the start of the next frame) */
 
 	/**
-	 * Edit the light intensity of the general light by altering its material.
+	 * Edit the light intensity of the general light by altering its material. Only the latest
+	 * intensity submitted before a frame is applied.
 	 * 
 	 * @param intensity The level of light intensity desired by user interaction.
 	 */
 	public void changeGlobalLightIntensity(float intensity) {
-		Material material = new Material();
-		Vec3 ambient = defaultGlobalLightIntensity.getAmbient();
-		Vec3 diffuse = defaultGlobalLightIntensity.getDiffuse();
-		Vec3 specular = defaultGlobalLightIntensity.getSpecular();
-		material.setAmbient(ambient.x*intensity, ambient.y*intensity, ambient.z*intensity);
-		material.setDiffuse(diffuse.x*intensity, diffuse.y*intensity, diffuse.z*intensity);
-		material.setSpecular(specular.x*intensity, specular.y*intensity, specular.z*intensity);
-		lights[0].setMaterial(material);
+		commands.submitLatest(GLOBAL_LIGHT_INTENSITY, gl -> applyGlobalLightIntensity(intensity));
 	}
 
+	/**
+	 * Move the general light to one of its preset positions.
+	 * 
+	 * @param position The preset ("top", "bottom", "left", "right" or "default").
+	 */
 	public void changeGlobalLightPosition(String position) {
+		commands.submit(gl -> applyGlobalLightPosition(position));
+	}
+
+	/**
+	 * Edit the light intensity of the spotlight by altering its material. Only the latest
+	 * intensity submitted before a frame is applied.
+	 * 
+	 * @param intensity The level of light intensity desired by user interaction.
+	 */
+	public void changeSpotlightIntensity(float intensity) {
+		commands.submitLatest(SPOTLIGHT_INTENSITY, gl -> applySpotlightIntensity(intensity));
+	}
+
+	/**
+	 * Set the material of the general light for an intensity (on the rendering thread).
+	 * 
+	 * @param intensity The level of light intensity.
+	 */
+	private void applyGlobalLightIntensity(float intensity) {
+		scaleMaterial(globalLightMaterial, defaultGlobalLightIntensity, intensity);
+	}
+
+	/**
+	 * Set the position of the general light to a preset (on the rendering thread).
+	 * 
+	 * @param position The preset position.
+	 */
+	private void applyGlobalLightPosition(String position) {
 		switch (position) {
 			case "top":
 				lights[0].setPosition(new Vec3(0,1,-3));
@@ -140,19 +223,158 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 	}
 	
 	/**
-	 * Edit the light intensity of the spotlight by altering its material.
+	 * Set the material of the spotlight for an intensity (on the rendering thread).
 	 * 
-	 * @param intensity The level of light intensity desired by user interaction.
+	 * @param intensity The level of light intensity.
 	 */
-	public void changeSpotlightIntensity(float intensity) {
-		Material material = new Material();
-		Vec3 ambient = defaultSpotLightIntensity.getAmbient();
-		Vec3 diffuse = defaultSpotLightIntensity.getDiffuse();
-		Vec3 specular = defaultSpotLightIntensity.getSpecular();
+	private void applySpotlightIntensity(float intensity) {
+		scaleMaterial(spotlightMaterial, defaultSpotLightIntensity, intensity);
+	}
+
+	/**
+	 * Set a light's material to its default material scaled by an intensity (changing it in place,
+	 * so the light's version changes and it is uploaded again).
+	 * 
+	 * @param material The light's material.
+	 * @param defaults The light's default material.
+	 * @param intensity The level of light intensity.
+	 */
+	private void scaleMaterial(Material material, Material defaults, float intensity) {
+		Vec3 ambient = defaults.getAmbient();
+		Vec3 diffuse = defaults.getDiffuse();
+		Vec3 specular = defaults.getSpecular();
 		material.setAmbient(ambient.x*intensity, ambient.y*intensity, ambient.z*intensity);
 		material.setDiffuse(diffuse.x*intensity, diffuse.y*intensity, diffuse.z*intensity);
 		material.setSpecular(specular.x*intensity, specular.y*intensity, specular.z*intensity);
-		lights[1].setMaterial(material);
+	}
+
+	/**
+	 * Take the camera's pose each frame from the snapshots of an update loop (interpolated to the
+	 * time of the frame), rather than from input applied to the camera directly.
+	 * 
+	 * @param updateLoop The update loop (null to leave the camera as it is set).
+	 */
+	public void setUpdateLoop(UpdateLoop updateLoop) {
+		this.updateLoop = updateLoop;
+	}
+
+	/**
+	 * Whether the scene needs redrawing every frame even without any input: an animated
+	 * stress-test scene, a moving camera, a recording in progress or an exposure still adapting.
+	 * 
+	 * @return True while the scene is animating.
+	 */
+	public boolean isAnimating() {
+		return (stressScene != null && stressScene.isAnimated())
+			   || (updateLoop != null && updateLoop.isMoving())
+			   || (frameCapture != null && frameCapture.isRecording())
+			   || (autoExposure != null && autoExposure.isAdapting());
+	}
+
+	/**
+	 * Get the fraction of room parts hidden by occlusion culling in the last resolved frame.
+	 * 
+	 * @return The culled ratio (0 to 1).
+	 */
+	public float getCulledRatio() {
+		return (room != null) ? room.getCuller().getCulledRatio() : 0f;
+	}
+
+	/**
+	 * Turn occlusion culling of the room on or off (for comparing against the query overhead).
+	 * May be called before or after the listener is initialised.
+	 * 
+	 * @param enabled Whether occlusion culling should be used.
+	 */
+	public void setOcclusionCulling(boolean enabled) {
+		occlusionCulling = enabled;
+		if (room != null) room.getCuller().setEnabled(enabled);
+	}
+
+	/**
+	 * Set whether the exposure adapts to the brightness of the scene (must be called before the
+	 * listener is initialised). Without it the scene is tonemapped at a fixed exposure of 1, so
+	 * the same view always gives the same frame.
+	 * 
+	 * @param enabled True to adapt the exposure to the scene.
+	 */
+	public void setAutoExposure(boolean enabled) {
+		autoExposureEnabled = enabled;
+	}
+
+	/**
+	 * Set whether the scene is drawn at a resolution that adapts to the GPU frame time (must be
+	 * called before the listener is initialised). The scene is then drawn at 50-100% of the
+	 * window's width and height and stretched to fill it.
+	 * 
+	 * @param enabled True to adapt the resolution to the GPU frame time.
+	 */
+	public void setDynamicResolution(boolean enabled) {
+		dynamicResolutionEnabled = enabled;
+	}
+
+	/**
+	 * Fill the room with a generated stress-test scene (must be called before the listener is
+	 * initialised).
+	 * 
+	 * @param objectCount The number of models to generate.
+	 * @param lightCount The number of extra lights to generate.
+	 * @param seed The seed used to generate the scene (the same seed gives the same scene).
+	 */
+	public void setStressScene(int objectCount, int lightCount, long seed) {
+		setStressScene(objectCount, lightCount, seed, StressScene.Mode.NODES);
+	}
+
+	/**
+	 * Fill the room with a generated stress-test scene drawn in a given way (must be called before
+	 * the listener is initialised).
+	 * 
+	 * @param objectCount The number of objects to generate.
+	 * @param lightCount The number of extra lights to generate.
+	 * @param seed The seed used to generate the scene (the same seed gives the same scene).
+	 * @param mode How the objects are drawn (see StressScene).
+	 */
+	public void setStressScene(int objectCount, int lightCount, long seed, StressScene.Mode mode) {
+		stressObjects = objectCount;
+		stressLights = lightCount;
+		stressSeed = seed;
+		stressMode = mode;
+	}
+
+	/**
+	 * Show a model loaded from an OBJ or glTF file in the middle of the room (must be called
+	 * before the listener is initialised). The model is scaled to fit IMPORTED_MODEL_SIZE.
+	 * 
+	 * @param path The path of the model file.
+	 */
+	public void setImportedModel(String path) {
+		importedModelPath = path;
+	}
+
+	/**
+	 * Save the next frame drawn as a PNG file (without waiting for it to be read back).
+	 * 
+	 * @param file The file to save the frame to.
+	 */
+	public void takeScreenshot(java.io.File file) {
+		if (frameCapture != null) frameCapture.takeScreenshot(file);
+	}
+
+	/**
+	 * Start saving every frame drawn into a directory.
+	 * 
+	 * @param dir The directory to save frames into.
+	 * @param raw Whether frames are saved as raw BGRA bytes rather than PNG files.
+	 */
+	public void startRecording(java.io.File dir, boolean raw) {
+		if (frameCapture != null) frameCapture.startRecording(dir, raw);
+	}
+
+	/**
+	 * Stop saving frames.
+	 */
+	public void stopRecording() {
+		if (frameCapture != null) frameCapture.stopRecording();
 	}
 
 	// ***************************************************
@@ -162,11 +384,52 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 
 	// The environment
 	private Room room;
+	private boolean occlusionCulling = true;
+
+	// Image-based lighting for PBR models, baked from the skybox faces (+X, -X, +Y, -Y, +Z, -Z)
+	private static final String[] SKYBOX_FACES = {"assets/textures/skybox/right.jpg",
+												  "assets/textures/skybox/left.jpg",
+												  "assets/textures/skybox/top.jpg",
+												  "assets/textures/skybox/bottom.jpg",
+												  "assets/textures/skybox/front.jpg",
+												  "assets/textures/skybox/back.jpg"};
+	private IblBaker environment;
+
+	// Frame capture (screenshots/recordings) and the current size of the frame
+	private FrameCapture frameCapture;
+	private UniformRing uniformRing;
+	// GPU copy of every interned material, read by the model shaders
+	private MaterialTable materialTable;
+	// HDR scene buffer, tonemapped into the frame at the end of each display()
+	private PostProcess postProcess;
+	// Exposure adapted to the scene's average luminance (off for reproducible frames)
+	private AutoExposure autoExposure;
+	private boolean autoExposureEnabled = true;
+	// Scene resolution adapted to keep the GPU frame time on target (off by default)
+	private DynamicResolution dynamicResolution;
+	private boolean dynamicResolutionEnabled = false;
+	private int width;
+	private int height;
+
+	// Optional stress-test scene
+	private StressScene stressScene;
+	private int stressObjects = 0;
+	private int stressLights = 0;
+	private long stressSeed = 0;
+	private StressScene.Mode stressMode = StressScene.Mode.NODES;
+
+	// Optional model loaded from a file
+	private static final float IMPORTED_MODEL_SIZE = 3f;
+	private ModelImporter importedModel;
+	private String importedModelPath;
 
 	// Light-related variables
 	private Light[] lights = new Light[2];
 	private Material defaultGlobalLightIntensity;
 	private Material defaultSpotLightIntensity;
+	// The lights' materials, changed in place by the intensity sliders (rather than replaced)
+	private Material globalLightMaterial;
+	private Material spotlightMaterial;
 
 	/**
 	 * Load textures given their file paths and associate them with certain identifying names.
@@ -216,16 +479,26 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 	 */
 	public void initialise(GL3 gl) {
 		loadTextures(gl);
+		environment = IblBaker.forEnvironment(SKYBOX_FACES);
+		if (environment != null) environment.upload(gl);
+		ModelMultipleLights.setEnvironment(environment);
 
 		lights[0] = new Light(gl, "cube");
 		lights[0].setCamera(camera);
 		lights[0].setPosition(new Vec3(0,1,0));
 		defaultGlobalLightIntensity = lights[0].getMaterial();
+		globalLightMaterial = new Material();
+		// Start from the light's own colours (full intensity), not Material's defaults
+		scaleMaterial(globalLightMaterial, defaultGlobalLightIntensity, 1f);
+		lights[0].setMaterial(globalLightMaterial);
 		lights[1] = new Light(gl, "sphere");
 		lights[1].setCamera(camera);
 		lights[1].setPosition(new Vec3(0,20,0));
 		lights[1].setDirection(new Vec3(0,-4,0));
 		defaultSpotLightIntensity = lights[1].getMaterial();
+		spotlightMaterial = new Material();
+		scaleMaterial(spotlightMaterial, defaultSpotLightIntensity, 1f);
+		lights[1].setMaterial(spotlightMaterial);
 
 		/*Texture[] roomTextures = {textures.get("example_diffuse"),
 								  textures.get("example_specular"),
@@ -242,6 +515,17 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 								  textures.get("pbr_roughness"),
 								  textures.get("pbr_ao")};
 		room = new Room(gl, camera, lights, roomTextures);
+		room.getCuller().setEnabled(occlusionCulling);
+		if (stressObjects > 0 || stressLights > 0) {
+			stressScene = new StressScene(gl, camera, lights, roomTextures, stressObjects,
+										  stressLights, stressSeed, stressMode);
+		}
+		if (importedModelPath != null) {
+			importedModel = ModelImporter.load(gl, importedModelPath, lights, camera);
+			if (importedModel != null) {
+				importedModel.fitInto(IMPORTED_MODEL_SIZE, new Vec3(0, 0, 0));
+			}
+		}
 	}
 	
 	/**
@@ -254,6 +538,10 @@ public class Spacecraft_GLEventListener implements GLEventListener {
 
 		lights[0].render(gl);
 		lights[1].render(gl);
+		if (stressScene != null) stressScene.render(gl);
+		if (importedModel != null) importedModel.render(gl);
+		// The room is drawn last so the objects above are already in the depth buffer when its
+		// parts are occlusion tested
 		room.render(gl);
 	}
 
@@ -7,6 +7,7 @@
  * 
  * Changes made:
  * - createVerticesPosOnly(): generate array of vertices with only position (for the spotlight)
+ * - Vertex/index generation takes a resolution so lower levels of detail can be made (LodMesh)
  */
 public final class Sphere {  
     // ***************************************************
@@ -14,35 +15,39 @@ public final class Sphere {
     // anticlockwise/counterclockwise ordering
     private static final int XLONG = 30;
     private static final int YLAT = 30;
+    // Longitude/latitude resolutions of each level of detail (level 0 matches the default data)
+    public static final int[] LOD_RESOLUTIONS = {XLONG, 20, 12, 8};
     
-    public static final float[] vertices = createVertices();
-    public static final int[] indices = createIndices();
+    public static final float[] vertices = createVertices(XLONG, YLAT);
+    public static final int[] indices = createIndices(XLONG, YLAT);
 
 	/**
 	 * Generate the vertices of the sphere (position, normals and texture).
 	 * 
+	 * @param xLong The number of vertices around each line of latitude.
+	 * @param yLat The number of lines of latitude.
 	 * @return An array of vertices.
 	 */
-    private static float[] createVertices() {
+    public static float[] createVertices(int xLong, int yLat) {
 		double r = 0.5;
 		int step = 8;
-		float[] vertices = new float[XLONG*YLAT*step];
-		for (int j = 0; j<YLAT; ++j) {
-			double b = Math.toRadians(-90+180*(double)(j)/(YLAT-1));
-			for (int i = 0; i<XLONG; ++i) {
-				double a = Math.toRadians(360*(double)(i)/(XLONG-1));
+		float[] vertices = new float[xLong*yLat*step];
+		for (int j = 0; j<yLat; ++j) {
+			double b = Math.toRadians(-90+180*(double)(j)/(yLat-1));
+			for (int i = 0; i<xLong; ++i) {
+				double a = Math.toRadians(360*(double)(i)/(xLong-1));
 				double z = Math.cos(b) * Math.cos(a);
 				double x = Math.cos(b) * Math.sin(a);
 				double y = Math.sin(b);
-				int base = j*XLONG*step;
+				int base = j*xLong*step;
 				vertices[base + i*step+0] = (float)(r*x);
 				vertices[base + i*step+1] = (float)(r*y);
 				vertices[base + i*step+2] = (float)(r*z); 
 				vertices[base + i*step+3] = (float)x;
 				vertices[base + i*step+4] = (float)y;
 				vertices[base + i*step+5] = (float)z;
-				vertices[base + i*step+6] = (float)(i)/(float)(XLONG-1);
-				vertices[base + i*step+7] = (float)(j)/(float)(YLAT-1);
+				vertices[base + i*step+6] = (float)(i)/(float)(xLong-1);
+				vertices[base + i*step+7] = (float)(j)/(float)(yLat-1);
 			}
 		}
 		return vertices;
@@ -51,43 +56,47 @@ public final class Sphere {
 	/**
 	 * Generate the indices of the sphere.
 	 * 
+	 * @param xLong The number of vertices around each line of latitude.
+	 * @param yLat The number of lines of latitude.
 	 * @return An array of indices.
 	 */
-    private static int[] createIndices() {
-		int[] indices = new int[(XLONG-1)*(YLAT-1)*6];
-		for (int j = 0; j<YLAT-1; ++j) {
-			for (int i = 0; i<XLONG-1; ++i) {
-				int base = j*(XLONG-1)*6;
-				indices[base + i*6+0] = j*XLONG+i;
-				indices[base + i*6+1] = j*XLONG+i+1;
-				indices[base + i*6+2] = (j+1)*XLONG+i+1;
-				indices[base + i*6+3] = j*XLONG+i;
-				indices[base + i*6+4] = (j+1)*XLONG+i+1;
-				indices[base + i*6+5] = (j+1)*XLONG+i;
+    public static int[] createIndices(int xLong, int yLat) {
+		int[] indices = new int[(xLong-1)*(yLat-1)*6];
+		for (int j = 0; j<yLat-1; ++j) {
+			for (int i = 0; i<xLong-1; ++i) {
+				int base = j*(xLong-1)*6;
+				indices[base + i*6+0] = j*xLong+i;
+				indices[base + i*6+1] = j*xLong+i+1;
+				indices[base + i*6+2] = (j+1)*xLong+i+1;
+				indices[base + i*6+3] = j*xLong+i;
+				indices[base + i*6+4] = (j+1)*xLong+i+1;
+				indices[base + i*6+5] = (j+1)*xLong+i;
 			}
 		}
 		return indices;
     }
     
-    public static final float[] verticesPosOnly = createVerticesPosOnly();
+    public static final float[] verticesPosOnly = createVerticesPosOnly(XLONG, YLAT);
 
 	/**
 	 * Generate the vertices of a sphere (position only; used for the spotlight).
 	 * 
+	 * @param xLong The number of vertices around each line of latitude.
+	 * @param yLat The number of lines of latitude.
 	 * @return An array of vertices.
 	 */
-    private static float[] createVerticesPosOnly() {
+    public static float[] createVerticesPosOnly(int xLong, int yLat) {
 		double r = 0.5;
 		int step = 3;
-		float[] vertices = new float[XLONG*YLAT*step];
-		for (int j = 0; j<YLAT; ++j) {
-			double b = Math.toRadians(-90+180*(double)(j)/(YLAT-1));
-			for (int i = 0; i<XLONG; ++i) {
-				double a = Math.toRadians(360*(double)(i)/(XLONG-1));
+		float[] vertices = new float[xLong*yLat*step];
+		for (int j = 0; j<yLat; ++j) {
+			double b = Math.toRadians(-90+180*(double)(j)/(yLat-1));
+			for (int i = 0; i<xLong; ++i) {
+				double a = Math.toRadians(360*(double)(i)/(xLong-1));
 				double z = Math.cos(b) * Math.cos(a);
 				double x = Math.cos(b) * Math.sin(a);
 				double y = Math.sin(b);
-				int base = j*XLONG*step;
+				int base = j*xLong*step;
 				vertices[base + i*step+0] = (float)(r*x);
 				vertices[base + i*step+1] = (float)(r*y);
 				vertices[base + i*step+2] = (float)(r*z); 
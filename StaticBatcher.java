@@ -0,0 +1,160 @@
+import gmaths.*;
+import gmaths.batch.*;
+import java.util.*;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Class for merging static parts that never move (e.g. the panels of the room) into as few meshes
+ * as possible. Parts sharing a shader, textures and material have their vertices transformed into
+ * world space and concatenated into a single mesh, so each group is drawn with one glDrawElements
+ * call instead of one call per part.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for batching static geometry into shared vertex/index buffers
+ */
+public class StaticBatcher {
+	private static final int STRIDE = 8;
+
+	private Map<List<Object>,Batch> batches = new LinkedHashMap<>();
+	private int partCount = 0;
+
+	/**
+	 * The parts gathered for one combination of shader, textures and material.
+	 */
+	private static class Batch {
+		String name;
+		Shader shader;
+		Texture[] textures;
+		Material material;
+		List<float[]> vertices = new ArrayList<>();
+		List<int[]> indices = new ArrayList<>();
+		int vertexCount = 0;
+		int indexCount = 0;
+	}
+
+	/**
+	 * Add a part made from one of the standard shapes (see ModelMaker.getVertices()).
+	 * 
+	 * @param name The name of the part.
+	 * @param modelOption The shape type of the part (cube, triangle, two triangles, etc.).
+	 * @param material The material of the part.
+	 * @param modelMatrix The transformation matrix placing the part in the world.
+	 * @param shader The shader to use.
+	 * @param textures The textures of the part.
+	 */
+	public void add(String name, String modelOption, Material material, Mat4 modelMatrix,
+					Shader shader, Texture[] textures) {
+		add(name, ModelMaker.getVertices(modelOption), ModelMaker.getIndices(modelOption),
+			material, modelMatrix, shader, textures);
+	}
+
+	/**
+	 * Add a part from its vertices (8 floats each) and indices.
+	 * 
+	 * @param name The name of the part.
+	 * @param vertices The vertices of the part (in model space).
+	 * @param indices The indices of the part.
+	 * @param material The material of the part.
+	 * @param modelMatrix The transformation matrix placing the part in the world.
+	 * @param shader The shader to use.
+	 * @param textures The textures of the part.
+	 */
+	public void add(String name, float[] vertices, int[] indices, Material material,
+					Mat4 modelMatrix, Shader shader, Texture[] textures) {
+		// Shaders/textures are compared by identity, materials by value
+		List<Object> key = Arrays.asList(shader, Arrays.asList(textures), material.toString());
+		Batch batch = batches.get(key);
+		if (batch == null) {
+			batch = new Batch();
+			batch.name = name;
+			batch.shader = shader;
+			batch.textures = textures;
+			batch.material = material;
+			batches.put(key, batch);
+		}
+		else {
+			batch.name += "+" + name;
+		}
+
+		batch.vertices.add(transform(vertices, modelMatrix));
+		int[] offsetIndices = new int[indices.length];
+		for (int i=0; i<indices.length; i++) {
+			offsetIndices[i] = indices[i] + batch.vertexCount;
+		}
+		batch.indices.add(offsetIndices);
+		batch.vertexCount += vertices.length/STRIDE;
+		batch.indexCount += indices.length;
+		partCount++;
+	}
+
+	/**
+	 * Get the number of parts added so far.
+	 * 
+	 * @return The number of parts.
+	 */
+	public int getPartCount() {
+		return partCount;
+	}
+
+	/**
+	 * Get the number of batches (and so draw calls) the parts have been merged into.
+	 * 
+	 * @return The number of batches.
+	 */
+	public int getBatchCount() {
+		return batches.size();
+	}
+
+	/**
+	 * Create one model per batch. The merged vertices are already in world space, so each model
+	 * uses the identity model matrix.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param lights The lights in the scene.
+	 * @param camera The camera in the scene.
+	 * @return The models to draw (one draw call each).
+	 */
+	public ModelMultipleLights[] build(GL3 gl, Light[] lights, Camera camera) {
+		ModelMultipleLights[] models = new ModelMultipleLights[batches.size()];
+		int n = 0;
+		for (Batch batch : batches.values()) {
+			float[] vertices = new float[batch.vertexCount*STRIDE];
+			int[] indices = new int[batch.indexCount];
+			int vertexOffset = 0;
+			int indexOffset = 0;
+			for (int i=0; i<batch.vertices.size(); i++) {
+				float[] v = batch.vertices.get(i);
+				int[] ix = batch.indices.get(i);
+				System.arraycopy(v, 0, vertices, vertexOffset, v.length);
+				System.arraycopy(ix, 0, indices, indexOffset, ix.length);
+				vertexOffset += v.length;
+				indexOffset += ix.length;
+			}
+			Mesh mesh = new Mesh(gl, vertices, indices, true, ModelMaker.VERTEX_LAYOUT);
+			models[n++] = ModelMaker.makePart(gl, batch.name, batch.material, new Mat4(1),
+											  batch.shader, batch.textures, lights, camera, mesh);
+		}
+		return models;
+	}
+
+	/**
+	 * Transform a part's positions and normals into world space (texture coordinates are kept).
+	 * 
+	 * @param vertices The vertices of the part (in model space).
+	 * @param m The model matrix of the part.
+	 * @return The transformed vertices.
+	 */
+	private static float[] transform(float[] vertices, Mat4 m) {
+		float[] matrix = m.toFloatArrayForGLSL();
+		float[] result = vertices.clone();
+		int count = vertices.length/STRIDE;
+		BatchMath.transformPoints(matrix, vertices, result, 0, STRIDE, count);
+		BatchMath.transformNormals(matrix, vertices, result, 3, STRIDE, count);
+		return result;
+	}
+}
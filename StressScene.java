@@ -0,0 +1,423 @@
+import gmaths.*;
+import java.util.*;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Class for generating a large, reproducible scene for scaling tests: N models (spheres, cubes and
+ * squares with random transforms and a mix of Phong and PBR materials) and M extra lights spread
+ * through a volume around the room. The same seed always gives the same scene.
+ * 
+ * The models share one mesh per shape type (spheres share their levels of detail) and the lights
+ * share one set of buffers, so the GPU memory used does not grow with N and M. Only the first
+ * ModelMultipleLights.MAX_LIGHTS lights are applied to each model. Each model sits under its own
+ * transform node in a scene graph, so moving some of them only recomputes their transforms.
+ * 
+ * In instanced mode the objects are instead grouped by shape and shader (one material per group),
+ * their transforms are kept in a TransformStore and every object spins a little each frame. The
+ * world matrices are recomputed in parallel and each group is drawn with one instanced draw call,
+ * so very large counts (100k+) can be used.
+ * 
+ * In indirect mode the objects are static and drawn through an IndirectScene: one
+ * multi-draw indirect call per shader (one material each), with frustum culling in a compute
+ * shader, so drawing costs the CPU the same whatever the number of objects. It needs OpenGL 4.3;
+ * without it the scene graph is used instead.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for generating stress-test scenes
+ * - Optional instanced mode with transforms in a TransformStore
+ * - Optional GPU-driven (multi-draw indirect) mode
+ */
+public class StressScene {
+	public enum Mode {NODES, INSTANCED, INDIRECT};
+
+	private static final String[] SHAPES = {"sphere", "cube", "two triangles"};
+	private static final float MIN_SCALE = 0.2f;
+	private static final float MAX_SCALE = 1.0f;
+	// Side length of the volume holding the objects (grows with the object count)
+	private static final float MIN_EXTENT = 12f;
+	private static final float SPACING = 1.5f;
+	// Degrees each object turns per frame in instanced mode
+	private static final float SPIN_STEP = 1.0f;
+
+	private ModelMultipleLights[] models;
+	private TransformNode[] transforms;
+	private SGNode root;
+	private Light[] extraLights;
+	private Light[] allLights;
+	private LodMesh sphere;
+	private Mesh cube;
+	private Mesh square;
+	private Shader shaderPhong;
+	private Shader shaderPBR;
+	private float extent;
+
+	private Mode mode;
+
+	// Instanced mode (one group per shape and shader)
+	private ModelMultipleLights[] groupModels;
+	private TransformStore[] groupTransforms;
+	private int[] instanceBuffers;
+	private int[] objectGroup;
+	private int[] objectIndex;
+	private float[] baseTilt;
+	private float[] baseRotation;
+	private long frame = 0;
+
+	// Indirect mode (one group per shader)
+	private IndirectScene indirect;
+	private Camera camera;
+	private ModelMultipleLights[] indirectModels;
+
+	/**
+	 * Constructor. Generate the models and lights of the scene.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera in the scene.
+	 * @param sceneLights The lights already in the scene (applied to the models before the extra
+	 * 					  lights).
+	 * @param t The array of all textures (Phong diffuse/specular then the 5 PBR maps).
+	 * @param objectCount The number of models to create.
+	 * @param lightCount The number of extra lights to create.
+	 * @param seed The seed of the random number generator.
+	 */
+	public StressScene(GL3 gl, Camera camera, Light[] sceneLights, Texture[] t, int objectCount,
+					   int lightCount, long seed) {
+		this(gl, camera, sceneLights, t, objectCount, lightCount, seed, Mode.NODES);
+	}
+
+	/**
+	 * Constructor. Generate the models and lights of the scene, drawn in the given mode.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera in the scene.
+	 * @param sceneLights The lights already in the scene (applied to the models before the extra
+	 * 					  lights).
+	 * @param t The array of all textures (Phong diffuse/specular then the 5 PBR maps).
+	 * @param objectCount The number of models to create.
+	 * @param lightCount The number of extra lights to create.
+	 * @param seed The seed of the random number generator.
+	 * @param mode How the objects are drawn (scene graph, instanced and animated, or indirect).
+	 */
+	public StressScene(GL3 gl, Camera camera, Light[] sceneLights, Texture[] t, int objectCount,
+					   int lightCount, long seed, Mode mode) {
+		Random random = new Random(seed);
+		if (mode == Mode.INDIRECT && !IndirectScene.isSupported(gl)) {
+			System.out.println("Indirect drawing needs OpenGL 4.3; using the scene graph instead");
+			mode = Mode.NODES;
+		}
+		this.mode = mode;
+		this.camera = camera;
+		extent = Math.max(MIN_EXTENT, (float)Math.cbrt(objectCount)*SPACING);
+
+		sphere = LodMesh.forSphere(gl, ModelMaker.VERTEX_LAYOUT);
+		cube = new Mesh(gl, ModelMaker.getVertices("cube"), ModelMaker.getIndices("cube"),
+						true, ModelMaker.VERTEX_LAYOUT);
+		square = new Mesh(gl, ModelMaker.getVertices("two triangles"),
+						  ModelMaker.getIndices("two triangles"), true, ModelMaker.VERTEX_LAYOUT);
+		shaderPhong = new Shader(
+			gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_phong.txt");
+		shaderPBR = new Shader(
+			gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_pbr.txt");
+		Texture[] phongTextures = {t[0], t[1]};
+		Texture[] pbrTextures = {t[2], t[3], t[4], t[5], t[6]};
+
+		// Extra lights (the first owns the buffers the others share)
+		extraLights = new Light[lightCount];
+		for (int i=0; i<lightCount; i++) {
+			extraLights[i] = (i == 0) ? new Light(gl, "sphere") : new Light(gl, extraLights[0]);
+			extraLights[i].setCamera(camera);
+			extraLights[i].setPosition(randomPosition(random));
+			Vec3 colour = new Vec3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			Material material = new Material();
+			material.setAmbient(Vec3.multiply(colour, 0.05f));
+			material.setDiffuse(Vec3.multiply(colour, 0.3f));
+			material.setSpecular(Vec3.multiply(colour, 0.3f));
+			extraLights[i].setMaterial(material);
+		}
+		allLights = new Light[sceneLights.length + lightCount];
+		System.arraycopy(sceneLights, 0, allLights, 0, sceneLights.length);
+		System.arraycopy(extraLights, 0, allLights, sceneLights.length, lightCount);
+
+		if (mode == Mode.INSTANCED) {
+			makeInstancedObjects(gl, camera, phongTextures, pbrTextures, objectCount, random);
+			return;
+		}
+		if (mode == Mode.INDIRECT) {
+			makeIndirectObjects(gl, camera, phongTextures, pbrTextures, objectCount, random);
+			return;
+		}
+
+		models = new ModelMultipleLights[objectCount];
+		transforms = new TransformNode[objectCount];
+		root = new NameNode("stress scene");
+		for (int i=0; i<objectCount; i++) {
+			String shape = SHAPES[random.nextInt(SHAPES.length)];
+			Vec3 position = randomPosition(random);
+			float scale = MIN_SCALE + random.nextFloat()*(MAX_SCALE-MIN_SCALE);
+			Mat4 modelMatrix = ModelMaker.prepareModelMatrix(
+				scale, scale, scale, random.nextFloat()*360, random.nextFloat()*360, 0,
+				position.x, position.y, position.z);
+
+			Vec3 colour = new Vec3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			Material material = new Material(Vec3.multiply(colour, 0.3f), colour,
+											 new Vec3(0.5f, 0.5f, 0.5f), 4 + random.nextInt(60));
+			boolean pbr = random.nextBoolean();
+
+			Mesh mesh = (shape == "sphere") ? sphere.getLevel(0) :
+						(shape == "cube") ? cube : square;
+			models[i] = ModelMaker.makePart(gl, shape + i, material, new Mat4(1),
+											pbr ? shaderPBR : shaderPhong,
+											pbr ? pbrTextures : phongTextures,
+											allLights, camera, mesh);
+			if (shape == "sphere")
+				models[i].setLod(sphere);
+			transforms[i] = ModelMaker.makeNode(shape + i, models[i], modelMatrix);
+			root.addChild(transforms[i]);
+		}
+		root.update();
+	}
+
+	/**
+	 * Generate the objects for indirect mode: the same objects as the scene graph gives for the
+	 * seed, added to an IndirectScene, with one model (shader, textures and material) per group.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera in the scene.
+	 * @param phongTextures The textures of the Phong group.
+	 * @param pbrTextures The textures of the PBR group.
+	 * @param objectCount The number of objects to create.
+	 * @param random The random number generator.
+	 */
+	private void makeIndirectObjects(GL3 gl, Camera camera, Texture[] phongTextures,
+									 Texture[] pbrTextures, int objectCount, Random random) {
+		indirect = new IndirectScene();
+		int[] meshes = new int[SHAPES.length];
+		for (int s=0; s<SHAPES.length; s++) {
+			meshes[s] = indirect.addMesh(ModelMaker.getVertices(SHAPES[s]),
+										 ModelMaker.getIndices(SHAPES[s]));
+		}
+		for (int i=0; i<objectCount; i++) {
+			// Same sequence of random numbers as the scene graph (the colours are not used)
+			int shape = random.nextInt(SHAPES.length);
+			Vec3 position = randomPosition(random);
+			float scale = MIN_SCALE + random.nextFloat()*(MAX_SCALE-MIN_SCALE);
+			Mat4 modelMatrix = ModelMaker.prepareModelMatrix(
+				scale, scale, scale, random.nextFloat()*360, random.nextFloat()*360, 0,
+				position.x, position.y, position.z);
+			random.nextFloat();
+			random.nextFloat();
+			random.nextFloat();
+			random.nextInt(60);
+			boolean pbr = random.nextBoolean();
+			indirect.addObject(meshes[shape], pbr ? 1 : 0, modelMatrix);
+		}
+		indirect.finish(gl);
+
+		Shader indirectPhong = new Shader(
+			gl, "assets/shaders/vs_indirect.txt", "assets/shaders/fs_standard_m_phong.txt");
+		Shader indirectPBR = new Shader(
+			gl, "assets/shaders/vs_indirect.txt", "assets/shaders/fs_standard_m_pbr.txt");
+		indirectModels = new ModelMultipleLights[2];
+		for (int g=0; g<2; g++) {
+			Vec3 colour = new Vec3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			Material material = new Material(Vec3.multiply(colour, 0.3f), colour,
+											 new Vec3(0.5f, 0.5f, 0.5f), 32);
+			// The model's own mesh is not drawn (the IndirectScene holds every mesh)
+			indirectModels[g] = ModelMaker.makePart(gl, "indirect group " + g, material,
+													new Mat4(1),
+													(g == 1) ? indirectPBR : indirectPhong,
+													(g == 1) ? pbrTextures : phongTextures,
+													allLights, camera, cube);
+		}
+	}
+
+	/**
+	 * Generate the objects for instanced mode: one model per group (shape and shader) and the
+	 * transform of every object in its group's TransformStore.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param camera The camera in the scene.
+	 * @param phongTextures The textures of the Phong groups.
+	 * @param pbrTextures The textures of the PBR groups.
+	 * @param objectCount The number of objects to create.
+	 * @param random The random number generator.
+	 */
+	private void makeInstancedObjects(GL3 gl, Camera camera, Texture[] phongTextures,
+									  Texture[] pbrTextures, int objectCount, Random random) {
+		Shader instancedPhong = new Shader(
+			gl, "assets/shaders/vs_standard_instanced.txt", "assets/shaders/fs_standard_m_phong.txt");
+		Shader instancedPBR = new Shader(
+			gl, "assets/shaders/vs_standard_instanced.txt", "assets/shaders/fs_standard_m_pbr.txt");
+		int groups = SHAPES.length*2;
+
+		// Same sequence of random numbers as the scene graph (the colours are not used, as each
+		// group has one material). Every object is assigned to a group before the stores are
+		// filled, so each store can be sized exactly.
+		objectGroup = new int[objectCount];
+		objectIndex = new int[objectCount];
+		baseTilt = new float[objectCount];
+		baseRotation = new float[objectCount];
+		Vec3[] positions = new Vec3[objectCount];
+		float[] scales = new float[objectCount];
+		int[] groupSizes = new int[groups];
+		for (int i=0; i<objectCount; i++) {
+			int shape = random.nextInt(SHAPES.length);
+			positions[i] = randomPosition(random);
+			scales[i] = MIN_SCALE + random.nextFloat()*(MAX_SCALE-MIN_SCALE);
+			baseTilt[i] = random.nextFloat()*360;
+			baseRotation[i] = random.nextFloat()*360;
+			random.nextFloat();
+			random.nextFloat();
+			random.nextFloat();
+			random.nextInt(60);
+			boolean pbr = random.nextBoolean();
+			objectGroup[i] = shape*2 + (pbr ? 1 : 0);
+			objectIndex[i] = groupSizes[objectGroup[i]]++;
+		}
+
+		groupModels = new ModelMultipleLights[groups];
+		groupTransforms = new TransformStore[groups];
+		instanceBuffers = new int[groups];
+		gl.glGenBuffers(groups, instanceBuffers, 0);
+		for (int g=0; g<groups; g++) {
+			String shape = SHAPES[g/2];
+			boolean pbr = (g%2 == 1);
+			Vec3 colour = new Vec3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			Material material = new Material(Vec3.multiply(colour, 0.3f), colour,
+											 new Vec3(0.5f, 0.5f, 0.5f), 4 + random.nextInt(60));
+			Mesh mesh = (shape == "sphere") ? sphere.getLevel(0) :
+						(shape == "cube") ? cube : square;
+			groupModels[g] = ModelMaker.makePart(gl, shape + " instances", material, new Mat4(1),
+												 pbr ? instancedPBR : instancedPhong,
+												 pbr ? pbrTextures : phongTextures,
+												 allLights, camera, mesh);
+			groupTransforms[g] = new TransformStore(groupSizes[g]);
+			for (int k=0; k<groupSizes[g]; k++) {
+				groupTransforms[g].add(-1);
+			}
+		}
+
+		for (int i=0; i<objectCount; i++) {
+			TransformStore store = groupTransforms[objectGroup[i]];
+			int k = objectIndex[i];
+			store.setTranslation(k, positions[i].x, positions[i].y, positions[i].z);
+			store.setRotation(k, baseTilt[i], baseRotation[i], 0);
+			store.setScale(k, scales[i], scales[i], scales[i]);
+		}
+	}
+
+	/**
+	 * Pick a random position inside the scene's volume (above the floor).
+	 * 
+	 * @param random The random number generator.
+	 * @return The position.
+	 */
+	private Vec3 randomPosition(Random random) {
+		return new Vec3((random.nextFloat()-0.5f)*extent,
+						random.nextFloat()*extent/2,
+						(random.nextFloat()-0.5f)*extent);
+	}
+
+	/**
+	 * Whether the scene changes every frame (the objects of the instanced mode spin).
+	 * 
+	 * @return True if the scene is animated.
+	 */
+	public boolean isAnimated() {
+		return mode == Mode.INSTANCED;
+	}
+
+	/**
+	 * Get the number of models in the scene.
+	 * 
+	 * @return The number of models.
+	 */
+	public int getObjectCount() {
+		if (mode == Mode.INSTANCED) return objectGroup.length;
+		if (mode == Mode.INDIRECT) return indirect.getObjectCount();
+		return models.length;
+	}
+
+	/**
+	 * Get the transform node of one of the models (e.g. to move it).
+	 * 
+	 * @param i The index of the model.
+	 * @return The transform node placing the model (null in instanced and indirect modes).
+	 */
+	public TransformNode getTransform(int i) {
+		return (mode == Mode.NODES) ? transforms[i] : null;
+	}
+
+	/**
+	 * Get every light applied to the models (the scene's lights followed by the extra lights).
+	 * 
+	 * @return The lights.
+	 */
+	public Light[] getLights() {
+		return allLights;
+	}
+
+	/**
+	 * Draw the extra lights and every model (after updating the transforms that changed). In
+	 * instanced mode every object is first turned by the next step of its spin.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void render(GL3 gl) {
+		for (Light light : extraLights) {
+			light.render(gl);
+		}
+		if (mode == Mode.NODES) {
+			root.update();
+			root.draw(gl);
+			return;
+		}
+		if (mode == Mode.INDIRECT) {
+			indirect.cull(gl, camera);
+			for (int g=0; g<indirectModels.length; g++) {
+				indirectModels[g].renderIndirect(gl, indirect, g);
+			}
+			return;
+		}
+
+		// The spin depends only on the frame number so runs stay deterministic
+		frame++;
+		float spin = (frame*SPIN_STEP) % 360;
+		for (int i=0; i<objectGroup.length; i++) {
+			groupTransforms[objectGroup[i]].setRotation(objectIndex[i], baseTilt[i],
+														 baseRotation[i]+spin, 0);
+		}
+		for (int g=0; g<groupModels.length; g++) {
+			TransformStore store = groupTransforms[g];
+			if (store.size() == 0) continue;
+			store.update();
+			store.upload(gl, instanceBuffers[g]);
+			groupModels[g].renderInstanced(gl, instanceBuffers[g], store.size());
+		}
+	}
+
+	/**
+	 * Dispose of the shared meshes and light buffers (the models themselves own nothing).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		sphere.dispose(gl);
+		cube.dispose(gl);
+		square.dispose(gl);
+		if (mode == Mode.INSTANCED) {
+			gl.glDeleteBuffers(instanceBuffers.length, instanceBuffers, 0);
+		}
+		if (mode == Mode.INDIRECT) {
+			indirect.dispose(gl);
+		}
+		for (int i=extraLights.length-1; i>=0; i--) {
+			extraLights[i].dispose(gl);
+		}
+	}
+}
\ No newline at end of file
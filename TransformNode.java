@@ -0,0 +1,78 @@
+import gmaths.*;
+
+/**
+ * Class for a transform within a scene graph. Its world transform is its parent's world
+ * transform multiplied by its own (local) transform, and changing the local transform marks only
+ * this node's subtree for recomputation.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - The world transform is cached and multiplied into in place (no allocation per update)
+ */
+public class TransformNode extends SGNode {
+	private Mat4 transform;
+
+	/**
+	 * Constructor. Create a transform node with its local transform.
+	 * 
+	 * @param name The name of the node.
+	 * @param t The local transform of the node.
+	 */
+	public TransformNode(String name, Mat4 t) {
+		super(name);
+		transform = new Mat4(t);
+	}
+
+	/**
+	 * Set the local transform of the node (e.g. each frame of an animation).
+	 * 
+	 * @param m The new local transform.
+	 */
+	public void setTransform(Mat4 m) {
+		transform.set(m);
+		markDirty();
+	}
+
+	/**
+	 * Get the local transform of the node.
+	 * 
+	 * @return The local transform (not to be modified; use setTransform()).
+	 */
+	public Mat4 getTransform() {
+		return transform;
+	}
+
+	/**
+	 * Compute the node's world transform as the parent's world transform times the local one.
+	 * 
+	 * @param parentWorld The world transform of the parent (null for the root).
+	 */
+	protected void computeWorldTransform(Mat4 parentWorld) {
+		if (parentWorld == null)
+			worldTransform.set(transform);
+		else
+			Mat4.multiply(parentWorld, transform, worldTransform);
+	}
+
+	/**
+	 * Print the node and its descendants (for debugging).
+	 * 
+	 * @param indent The level of indentation of this node.
+	 * @param inFull Whether to print the transforms of each node.
+	 */
+	public void print(int indent, boolean inFull) {
+		System.out.println(getIndentString(indent) + "Name: " + name);
+		if (inFull) {
+			System.out.println("transform");
+			System.out.println(transform);
+			System.out.println("worldTransform");
+			System.out.println(worldTransform);
+		}
+		for (int i=0; i<children.size(); i++) {
+			children.get(i).print(indent+1, inFull);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,266 @@
+import java.nio.*;
+import java.util.stream.IntStream;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for storing the transforms of many objects in a data-oriented way. Rather than one Mat4
+ * (an array of arrays) per object, each component of the local transforms (translation, rotation
+ * and scale) is kept in its own contiguous float array, and the world matrices of every object
+ * are kept in one float array, 16 floats per object in column-major order (the layout OpenGL
+ * expects). The world matrices can therefore be uploaded directly as a per-instance vertex
+ * buffer.
+ * 
+ * Objects may have a parent (which must be added before them). World matrices are computed one
+ * level of the hierarchy at a time, so every parent is finished before its children, and large
+ * levels are split across cores with a parallel stream. Only objects that changed (or whose
+ * parent changed) are recomputed.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for structure-of-arrays transforms updated in parallel
+ */
+public class TransformStore {
+	// Levels with fewer objects than this are updated on the calling thread
+	private static final int PARALLEL_THRESHOLD = 4096;
+	private static final int MATRIX_FLOATS = 16;
+
+	private int count = 0;
+	private int[] parent;
+	private int[] depth;
+	private float[] tx, ty, tz;
+	private float[] rx, ry, rz;
+	private float[] sx, sy, sz;
+	private float[] world;
+	private boolean[] dirty;
+	private boolean[] changed;
+	private boolean anyDirty = false;
+	private int[][] levels = null;
+	private FloatBuffer uploadBuffer;
+
+	/**
+	 * Constructor. Allocate storage for a number of objects.
+	 * 
+	 * @param capacity The maximum number of objects.
+	 */
+	public TransformStore(int capacity) {
+		parent = new int[capacity];
+		depth = new int[capacity];
+		tx = new float[capacity];
+		ty = new float[capacity];
+		tz = new float[capacity];
+		rx = new float[capacity];
+		ry = new float[capacity];
+		rz = new float[capacity];
+		sx = new float[capacity];
+		sy = new float[capacity];
+		sz = new float[capacity];
+		world = new float[capacity*MATRIX_FLOATS];
+		dirty = new boolean[capacity];
+		changed = new boolean[capacity];
+	}
+
+	/**
+	 * Add an object with the identity transform.
+	 * 
+	 * @param parentIndex The index of the parent object (-1 for none; must already be added).
+	 * @return The index of the new object.
+	 */
+	public int add(int parentIndex) {
+		if (count == parent.length) {
+			throw new IllegalStateException("TransformStore is full (" + count + " objects)");
+		}
+		if (parentIndex >= count) {
+			throw new IllegalArgumentException("Parent " + parentIndex + " has not been added");
+		}
+		int i = count++;
+		parent[i] = parentIndex;
+		depth[i] = (parentIndex < 0) ? 0 : depth[parentIndex]+1;
+		sx[i] = sy[i] = sz[i] = 1;
+		dirty[i] = true;
+		anyDirty = true;
+		levels = null;
+		return i;
+	}
+
+	/**
+	 * Get the number of objects.
+	 * 
+	 * @return The number of objects.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Set the translation of an object (relative to its parent).
+	 * 
+	 * @param i The index of the object.
+	 * @param x The translation in the x-direction.
+	 * @param y The translation in the y-direction.
+	 * @param z The translation in the z-direction.
+	 */
+	public void setTranslation(int i, float x, float y, float z) {
+		tx[i] = x;
+		ty[i] = y;
+		tz[i] = z;
+		markDirty(i);
+	}
+
+	/**
+	 * Set the rotation of an object (applied around x, then y, then z).
+	 * 
+	 * @param i The index of the object.
+	 * @param x The angle around the x-axis (in degrees).
+	 * @param y The angle around the y-axis (in degrees).
+	 * @param z The angle around the z-axis (in degrees).
+	 */
+	public void setRotation(int i, float x, float y, float z) {
+		rx[i] = x;
+		ry[i] = y;
+		rz[i] = z;
+		markDirty(i);
+	}
+
+	/**
+	 * Set the scale of an object.
+	 * 
+	 * @param i The index of the object.
+	 * @param x The scale factor in the x-direction.
+	 * @param y The scale factor in the y-direction.
+	 * @param z The scale factor in the z-direction.
+	 */
+	public void setScale(int i, float x, float y, float z) {
+		sx[i] = x;
+		sy[i] = y;
+		sz[i] = z;
+		markDirty(i);
+	}
+
+	/**
+	 * Mark an object's world matrix as needing to be recomputed.
+	 * 
+	 * @param i The index of the object.
+	 */
+	private void markDirty(int i) {
+		dirty[i] = true;
+		anyDirty = true;
+	}
+
+	/**
+	 * Recompute the world matrices of every object that changed (or whose ancestors changed) since
+	 * the last update, one hierarchy level at a time.
+	 */
+	public void update() {
+		if (!anyDirty) return;
+		if (levels == null) buildLevels();
+		for (int[] level : levels) {
+			if (level.length >= PARALLEL_THRESHOLD) {
+				IntStream.range(0, level.length).parallel().forEach(k -> updateOne(level[k]));
+			}
+			else {
+				for (int k=0; k<level.length; k++) {
+					updateOne(level[k]);
+				}
+			}
+		}
+		anyDirty = false;
+	}
+
+	/**
+	 * Group the objects by their depth in the hierarchy.
+	 */
+	private void buildLevels() {
+		int maxDepth = 0;
+		for (int i=0; i<count; i++) maxDepth = Math.max(maxDepth, depth[i]);
+		int[] sizes = new int[maxDepth+1];
+		for (int i=0; i<count; i++) sizes[depth[i]]++;
+		levels = new int[maxDepth+1][];
+		for (int d=0; d<=maxDepth; d++) levels[d] = new int[sizes[d]];
+		int[] filled = new int[maxDepth+1];
+		for (int i=0; i<count; i++) {
+			levels[depth[i]][filled[depth[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Recompute one object's world matrix if it or its parent changed (the parent's level has
+	 * already been updated).
+	 * 
+	 * @param i The index of the object.
+	 */
+	private void updateOne(int i) {
+		int p = parent[i];
+		boolean update = dirty[i] || (p >= 0 && changed[p]);
+		changed[i] = update;
+		if (!update) return;
+		dirty[i] = false;
+
+		// Local matrix: translate * Rz * Ry * Rx * scale (as ModelMaker.prepareModelMatrix())
+		double ax = Math.toRadians(rx[i]), ay = Math.toRadians(ry[i]), az = Math.toRadians(rz[i]);
+		float cx = (float)Math.cos(ax), snx = (float)Math.sin(ax);
+		float cy = (float)Math.cos(ay), sny = (float)Math.sin(ay);
+		float cz = (float)Math.cos(az), snz = (float)Math.sin(az);
+		float l00 = cz*cy*sx[i];
+		float l01 = (cz*sny*snx - snz*cx)*sy[i];
+		float l02 = (cz*sny*cx + snz*snx)*sz[i];
+		float l10 = snz*cy*sx[i];
+		float l11 = (snz*sny*snx + cz*cx)*sy[i];
+		float l12 = (snz*sny*cx - cz*snx)*sz[i];
+		float l20 = -sny*sx[i];
+		float l21 = cy*snx*sy[i];
+		float l22 = cy*cx*sz[i];
+		float l03 = tx[i], l13 = ty[i], l23 = tz[i];
+
+		int o = i*MATRIX_FLOATS;
+		if (p < 0) {
+			// Column-major: element (row r, column c) is at o + c*4 + r
+			world[o] = l00; world[o+1] = l10; world[o+2] = l20; world[o+3] = 0;
+			world[o+4] = l01; world[o+5] = l11; world[o+6] = l21; world[o+7] = 0;
+			world[o+8] = l02; world[o+9] = l12; world[o+10] = l22; world[o+11] = 0;
+			world[o+12] = l03; world[o+13] = l13; world[o+14] = l23; world[o+15] = 1;
+			return;
+		}
+		int q = p*MATRIX_FLOATS;
+		for (int r=0; r<4; r++) {
+			float p0 = world[q+r], p1 = world[q+4+r], p2 = world[q+8+r], p3 = world[q+12+r];
+			world[o+r] = p0*l00 + p1*l10 + p2*l20;
+			world[o+4+r] = p0*l01 + p1*l11 + p2*l21;
+			world[o+8+r] = p0*l02 + p1*l12 + p2*l22;
+			world[o+12+r] = p0*l03 + p1*l13 + p2*l23 + p3;
+		}
+	}
+
+	/**
+	 * Get the world matrices of every object (16 floats each, column-major).
+	 * 
+	 * @return The world matrices (not to be modified).
+	 */
+	public float[] getWorldMatrices() {
+		return world;
+	}
+
+	/**
+	 * Upload the world matrices into a vertex buffer (e.g. the instance buffer of a mesh).
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param bufferId The buffer to fill.
+	 */
+	public void upload(GL3 gl, int bufferId) {
+		int floats = count*MATRIX_FLOATS;
+		if (uploadBuffer == null || uploadBuffer.capacity() < floats) {
+			uploadBuffer = Buffers.newDirectFloatBuffer(world.length);
+		}
+		uploadBuffer.clear();
+		uploadBuffer.put(world, 0, floats);
+		uploadBuffer.flip();
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, bufferId);
+		// Orphan the old storage so the upload does not wait for draws still using it
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long)floats*Float.BYTES, null, GL2ES2.GL_STREAM_DRAW);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, (long)floats*Float.BYTES, uploadBuffer);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,226 @@
+import gmaths.*;
+import java.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class for streaming per-draw uniforms (model matrix, MVP matrix and material ID) through one
+ * large uniform buffer. The buffer is split into 3 frame regions used in turn, and each draw
+ * writes its data into the next slot of the current region and binds that slot to the PerDraw
+ * uniform block with glBindBufferRange, replacing the glUniform calls per field. A fence is placed
+ * after each frame, and a region is only reused once the GPU has finished the frame that last
+ * used it.
+ * 
+ * Where ARB_buffer_storage is available (a GL 4 context) the buffer is mapped once, persistently,
+ * so writing a draw's data is only a copy into memory. Otherwise (the GL3 profile the application
+ * creates) each draw's data is written into a small direct staging buffer and uploaded with one
+ * glBufferSubData: a buffer cannot be read by draws while it is mapped in GL 3.3, so the slot must
+ * be filled before the draw that reads it, and one call is cheaper than mapping and unmapping.
+ * The data is set up with two calls per draw (glBindBufferRange and glBufferSubData), and the
+ * matrices are written element by element with no temporary arrays.
+ * 
+ * The PerDraw block (std140) must be declared identically in the vertex and fragment shaders:
+ *   layout (std140) uniform PerDraw { mat4 model; mat4 mvpMatrix; int materialIndex; };
+ * The material itself is read from the MaterialTable with the index.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for streaming per-draw uniforms through a triple-buffered uniform buffer ring
+ * - Materials are passed as an index into the MaterialTable instead of their values
+ * - Without persistent mapping, slots are filled from a staging buffer with glBufferSubData
+ */
+public class UniformRing {
+	private static final boolean DISPLAY_RING = false;
+	public static final String PER_DRAW_BLOCK = "PerDraw";
+	public static final int PER_DRAW_BINDING = 0;
+	private static final int FRAMES = 3;
+	// std140 size of the block: two mat4s (128 bytes) and the material index (padded to 16 bytes)
+	private static final int PER_DRAW_BYTES = 144;
+	private static final int DEFAULT_SLOTS = 4096;
+
+	private int[] bufferId = new int[1];
+	private int slotBytes;
+	private int slotsPerFrame;
+	private boolean persistent = false;
+	private FloatBuffer mapped;
+	private ByteBuffer staging;
+	private FloatBuffer stagingFloats;
+	private long[] fences = new long[FRAMES];
+	private int frame = 0;
+	private int slot = 0;
+	private boolean warned = false;
+
+	/**
+	 * Constructor. Create the ring with room for the default number of draws per frame.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public UniformRing(GL3 gl) {
+		this(gl, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Constructor. Create the ring with room for a given number of draws per frame.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param slotsPerFrame The number of draws each frame region holds (more draws in a frame
+	 * 						wait for the GPU before reusing the region).
+	 */
+	public UniformRing(GL3 gl, int slotsPerFrame) {
+		this.slotsPerFrame = slotsPerFrame;
+		// Each slot must start at a multiple of the uniform buffer offset alignment
+		int[] alignment = new int[1];
+		gl.glGetIntegerv(GL3.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, alignment, 0);
+		int align = Math.max(alignment[0], 16);
+		slotBytes = (PER_DRAW_BYTES + align-1)/align*align;
+		long size = (long)slotBytes*slotsPerFrame*FRAMES;
+
+		gl.glGenBuffers(1, bufferId, 0);
+		gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+		if (gl.isGL4() && gl.isExtensionAvailable("GL_ARB_buffer_storage")) {
+			try {
+				int flags = GL.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+				gl.getGL4().glBufferStorage(GL3.GL_UNIFORM_BUFFER, size, null, flags);
+				ByteBuffer bytes = gl.glMapBufferRange(GL3.GL_UNIFORM_BUFFER, 0, size, flags);
+				mapped = bytes.order(ByteOrder.nativeOrder()).asFloatBuffer();
+				persistent = true;
+			}
+			catch (GLException e) {
+				// Buffer storage is immutable, so fall back with a fresh buffer
+				gl.glDeleteBuffers(1, bufferId, 0);
+				gl.glGenBuffers(1, bufferId, 0);
+				gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+			}
+		}
+		if (!persistent) {
+			gl.glBufferData(GL3.GL_UNIFORM_BUFFER, size, null, GL2ES2.GL_STREAM_DRAW);
+			staging = ByteBuffer.allocateDirect(PER_DRAW_BYTES).order(ByteOrder.nativeOrder());
+			stagingFloats = staging.asFloatBuffer();
+		}
+		gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+		if (DISPLAY_RING) {
+			System.out.println("Uniform ring: " + slotsPerFrame + " slots of " + slotBytes
+							   + " bytes per frame, " + (persistent ? "persistent mapping"
+																: "glBufferSubData uploads"));
+		}
+	}
+
+	/**
+	 * Whether the buffer is persistently mapped (ARB_buffer_storage).
+	 * 
+	 * @return True if the buffer is persistently mapped.
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/**
+	 * Move to the next frame region, waiting for the GPU to finish the frame that last used it
+	 * (normally long finished, two frames ago). Called before anything is drawn in a frame.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void beginFrame(GL3 gl) {
+		frame = (frame+1) % FRAMES;
+		slot = 0;
+		waitForRegion(gl, frame);
+	}
+
+	/**
+	 * Mark the end of the frame's draws so its region can be reused once the GPU passes this point.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void endFrame(GL3 gl) {
+		if (fences[frame] != 0) gl.glDeleteSync(fences[frame]);
+		fences[frame] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	/**
+	 * Wait for the GPU to finish with a frame region.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param region The frame region.
+	 */
+	private void waitForRegion(GL3 gl, int region) {
+		if (fences[region] == 0) return;
+		int result = gl.glClientWaitSync(fences[region], GL3.GL_SYNC_FLUSH_COMMANDS_BIT,
+										  Long.MAX_VALUE);
+		if (DISPLAY_RING && result == GL3.GL_CONDITION_SATISFIED) {
+			System.out.println("Uniform ring waited for region " + region);
+		}
+		gl.glDeleteSync(fences[region]);
+		fences[region] = 0;
+	}
+
+	/**
+	 * Write one draw's data into the next slot and bind the slot to the PerDraw block.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 * @param model The model matrix.
+	 * @param mvpMatrix The model-view-projection matrix.
+	 * @param materialId The ID of the model's material (see InternedMaterial).
+	 */
+	public void bindDraw(GL3 gl, Mat4 model, Mat4 mvpMatrix, int materialId) {
+		if (slot == slotsPerFrame) {
+			// More draws than the region holds: wait for the earlier ones and start it again
+			if (!warned) {
+				System.out.println("Uniform ring: more than " + slotsPerFrame + " draws in a frame");
+				warned = true;
+			}
+			gl.glFinish();
+			slot = 0;
+		}
+		long offset = ((long)frame*slotsPerFrame + slot)*slotBytes;
+		slot++;
+
+		FloatBuffer target = persistent ? mapped : stagingFloats;
+		target.position(persistent ? (int)(offset/Float.BYTES) : 0);
+		putMatrix(target, model);
+		putMatrix(target, mvpMatrix);
+		// The int is written as the float with the same bits
+		target.put(Float.intBitsToFloat(materialId));
+
+		// Binding the range also binds the buffer to GL_UNIFORM_BUFFER for the upload
+		gl.glBindBufferRange(GL3.GL_UNIFORM_BUFFER, PER_DRAW_BINDING, bufferId[0], offset,
+							 PER_DRAW_BYTES);
+		if (!persistent) {
+			// The fences guarantee the GPU is no longer reading this slot, so this never stalls
+			staging.rewind();
+			gl.glBufferSubData(GL3.GL_UNIFORM_BUFFER, offset, PER_DRAW_BYTES, staging);
+		}
+	}
+
+	/**
+	 * Write a matrix in column-major order (as std140 stores a mat4).
+	 * 
+	 * @param target The buffer written to (at its position).
+	 * @param m The matrix.
+	 */
+	private static void putMatrix(FloatBuffer target, Mat4 m) {
+		for (int c=0; c<4; c++) {
+			for (int r=0; r<4; r++) {
+				target.put(m.get(r, c));
+			}
+		}
+	}
+
+	/**
+	 * Wait for the GPU to finish with the ring and delete it.
+	 * 
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void dispose(GL3 gl) {
+		for (int i=0; i<FRAMES; i++) {
+			waitForRegion(gl, i);
+		}
+		if (persistent) {
+			gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+			gl.glUnmapBuffer(GL3.GL_UNIFORM_BUFFER);
+			gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+		}
+		gl.glDeleteBuffers(1, bufferId, 0);
+	}
+}
\ No newline at end of file
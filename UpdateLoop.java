@@ -0,0 +1,259 @@
+import gmaths.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class for running the simulation (camera movement from user input) on a thread of its own at a
+ * fixed timestep, apart from rendering. Input handlers on the AWT thread only record input: keys
+ * held (or tapped) and mouse movement added up since the last tick, all in atomic variables. Each
+ * tick the update thread applies that input to its own camera and publishes an immutable
+ * FrameSnapshot. The rendering thread takes the two latest snapshots from an AtomicReference and
+ * blends them by how far it is into the next tick, so:
+ * - movement runs at the same speed however slowly frames are drawn (speed * timestep per tick,
+ *   instead of a fixed step per key event),
+ * - the rendering thread never waits for input handling or for the update thread (no locks),
+ * - motion is smooth at any frame rate.
+ * 
+ * Snapshots are rendered one tick behind the latest input, the usual cost of interpolation.
+ * 
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ * 
+ * Changes made:
+ * - A new class for a fixed-timestep update thread publishing frame snapshots
+ * - The input applied at each tick can be recorded (CameraRecorder) and replayed with the same
+ *   movement (applyInput())
+ */
+public class UpdateLoop {
+	public static final int TICK_RATE = 120;
+	private static final long TICK_NS = 1_000_000_000L/TICK_RATE;
+	// Ticks run at once to catch up after a stall before the rest are dropped
+	private static final int MAX_CATCH_UP = 10;
+	// Camera speed with a movement key held (the old 0.2 units per key event at ~30 repeats/s)
+	private static final float MOVE_SPEED = 6.0f;
+	// Ticks after the last movement that frames are still needed (to finish interpolating)
+	private static final int SETTLE_TICKS = 2;
+
+	/**
+	 * Pair of the two latest snapshots, published together so the rendering thread always reads
+	 * a consistent pair.
+	 */
+	private static final class Published {
+		final FrameSnapshot previous;
+		final FrameSnapshot current;
+		final long currentNanos;
+
+		Published(FrameSnapshot previous, FrameSnapshot current, long currentNanos) {
+			this.previous = previous;
+			this.current = current;
+			this.currentNanos = currentNanos;
+		}
+	}
+
+	// Owned by the update thread
+	private final Camera camera;
+	private long tick = 0;
+	private long lastMovementTick = -SETTLE_TICKS-1;
+	private volatile CameraRecorder recorder;
+
+	// Written by input handlers, read by the update thread
+	private final AtomicInteger heldKeys = new AtomicInteger();
+	private final AtomicInteger tappedKeys = new AtomicInteger();
+	private final DoubleAdder yawInput = new DoubleAdder();
+	private final DoubleAdder pitchInput = new DoubleAdder();
+
+	// Written by the update thread, read by the rendering thread
+	private final AtomicReference<Published> published = new AtomicReference<>();
+	private volatile boolean moving = false;
+
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * Constructor. The simulation starts from the pose of a camera (which is not changed).
+	 * 
+	 * @param initial The camera whose position and direction the simulation starts from.
+	 */
+	public UpdateLoop(Camera initial) {
+		Vec3 position = initial.getPosition();
+		camera = new Camera(position, Vec3.add(position, initial.getFront()), Camera.DEFAULT_UP);
+		FrameSnapshot first = snapshot();
+		published.set(new Published(first, first, System.nanoTime()));
+	}
+
+	/**
+	 * Start ticking on the update thread.
+	 */
+	public void start() {
+		if (running) return;
+		running = true;
+		thread = new Thread(this::run, "UpdateLoop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop ticking (waiting for the current tick to finish).
+	 */
+	public void stop() {
+		running = false;
+		if (thread == null) return;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Record the input applied at every tick from now on (for replaying with Benchmark).
+	 * 
+	 * @param recorder The recorder of camera input (null to stop recording).
+	 */
+	public void setRecorder(CameraRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	// ***************************************************
+	/* INPUT (any thread) */
+
+	/**
+	 * Record that a movement key has been pressed (it moves the camera until released, and at
+	 * least one tick even if released before the next tick).
+	 * 
+	 * @param movement The movement of the key.
+	 */
+	public void keyPressed(Camera.Movement movement) {
+		int bit = 1 << movement.ordinal();
+		heldKeys.getAndUpdate(keys -> keys | bit);
+		tappedKeys.getAndUpdate(keys -> keys | bit);
+	}
+
+	/**
+	 * Record that a movement key has been released.
+	 * 
+	 * @param movement The movement of the key.
+	 */
+	public void keyReleased(Camera.Movement movement) {
+		int bit = 1 << movement.ordinal();
+		heldKeys.getAndUpdate(keys -> keys & ~bit);
+	}
+
+	/**
+	 * Add mouse movement to be applied to the camera's yaw and pitch at the next tick.
+	 * 
+	 * @param yaw The change of yaw.
+	 * @param pitch The change of pitch.
+	 */
+	public void addYawPitch(float yaw, float pitch) {
+		yawInput.add(yaw);
+		pitchInput.add(pitch);
+	}
+
+	// ***************************************************
+	/* SIMULATION (update thread) */
+
+	/**
+	 * The loop of the update thread: run a tick every timestep, catching up after short stalls.
+	 */
+	private void run() {
+		long nextTick = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now < nextTick) {
+				LockSupport.parkNanos(nextTick-now);
+				continue;
+			}
+			int ticks = 0;
+			while (now >= nextTick && ticks < MAX_CATCH_UP) {
+				tick();
+				nextTick += TICK_NS;
+				ticks++;
+			}
+			// Too far behind (e.g. the machine was suspended): drop the missed ticks
+			if (now >= nextTick) nextTick = now + TICK_NS;
+		}
+	}
+
+	/**
+	 * Apply the input since the last tick to the camera and publish a snapshot.
+	 */
+	private void tick() {
+		tick++;
+		int keys = heldKeys.get() | tappedKeys.getAndSet(0);
+		float yaw = (float)yawInput.sumThenReset();
+		float pitch = (float)pitchInput.sumThenReset();
+		CameraRecorder r = recorder;
+		if (r != null) r.recordTick(tick, keys, yaw, pitch);
+
+		if (applyInput(camera, keys, yaw, pitch)) lastMovementTick = tick;
+		moving = tick-lastMovementTick <= SETTLE_TICKS;
+		Published last = published.get();
+		published.set(new Published(last.current, snapshot(), System.nanoTime()));
+	}
+
+	/**
+	 * Apply one tick of input to a camera: each movement held moves it by speed * timestep, then
+	 * the mouse movement turns it. Also used to replay recorded input (CameraRecorder.Replay).
+	 * 
+	 * @param camera The camera to move.
+	 * @param keys The movements held (one bit per Camera.Movement ordinal).
+	 * @param yaw The change of yaw.
+	 * @param pitch The change of pitch.
+	 * @return True if the camera moved.
+	 */
+	public static boolean applyInput(Camera camera, int keys, float yaw, float pitch) {
+		float dt = 1f/TICK_RATE;
+		boolean moved = false;
+		for (Camera.Movement movement : Camera.Movement.values()) {
+			if (movement != Camera.Movement.NO_MOVEMENT && (keys & (1 << movement.ordinal())) != 0) {
+				camera.keyboardInput(movement, MOVE_SPEED*dt);
+				moved = true;
+			}
+		}
+		if (yaw != 0 || pitch != 0) {
+			camera.updateYawPitch(yaw, pitch);
+			moved = true;
+		}
+		return moved;
+	}
+
+	/**
+	 * Take a snapshot of the simulated state.
+	 * 
+	 * @return The snapshot.
+	 */
+	private FrameSnapshot snapshot() {
+		return new FrameSnapshot(tick, (double)tick/TICK_RATE, camera.getPosition(),
+								 camera.getFront());
+	}
+
+	// ***************************************************
+	/* RENDERING (rendering thread) */
+
+	/**
+	 * Get the state to draw at a given time: the two latest snapshots blended by how far the time
+	 * is past the latest (one tick behind the simulation).
+	 * 
+	 * @param nanos The time of the frame (from System.nanoTime()).
+	 * @return The blended snapshot.
+	 */
+	public FrameSnapshot interpolate(long nanos) {
+		Published pair = published.get();
+		float t = (float)(nanos-pair.currentNanos)/TICK_NS;
+		return FrameSnapshot.interpolate(pair.previous, pair.current, Math.min(Math.max(t, 0), 1));
+	}
+
+	/**
+	 * Whether the camera is moving (or has stopped too recently for interpolation to finish), so
+	 * frames are needed even without new input events.
+	 * 
+	 * @return True while the camera is moving.
+	 */
+	public boolean isMoving() {
+		return moving || heldKeys.get() != 0;
+	}
+}
\ No newline at end of file
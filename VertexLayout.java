@@ -0,0 +1,246 @@
+import java.nio.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * Class describing how a mesh's vertices are stored in its vertex buffer (the type, size and
+ * offset of each attribute). Mesh data is always given as 8 floats per vertex (x,y,z, nx,ny,nz,
+ * s,t); a layout packs it into its own format and sets up the matching vertex attributes.
+ *
+ * Formats:
+ * - FLOAT32: 8 x float32 (32 bytes), matches vs_standard.txt
+ * - PACKED: float32 position, normal packed as signed 10-10-10-2, half-float texture
+ *   coordinates (20 bytes), matches vs_standard.txt (the normal is unpacked by the hardware)
+ * - OCTAHEDRAL: float32 position, octahedral-encoded normal as 2 x snorm16, half-float texture
+ *   coordinates (20 bytes), needs vs_standard_oct.txt to decode the normal (used by
+ *   ModelImporter, whose detailed meshes show the 10-bit normals of PACKED as faceting)
+ *
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ *
+ * Changes made:
+ * - A new class for describing (and packing data into) compact vertex formats
+ */
+public final class VertexLayout {
+	public enum Format {FLOAT32, PACKED, OCTAHEDRAL};
+
+	public static final VertexLayout FLOAT32 = new VertexLayout(Format.FLOAT32);
+	public static final VertexLayout PACKED = new VertexLayout(Format.PACKED);
+	public static final VertexLayout OCTAHEDRAL = new VertexLayout(Format.OCTAHEDRAL);
+
+	private static final int SOURCE_STRIDE = 8;
+
+	private Format format;
+	private Attribute[] attributes;
+	private int stride;
+
+	/**
+	 * A single vertex attribute (as passed to glVertexAttribPointer).
+	 */
+	private static class Attribute {
+		final int location;
+		final int size;
+		final int type;
+		final boolean normalised;
+		final int offset;
+
+		Attribute(int location, int size, int type, boolean normalised, int offset) {
+			this.location = location;
+			this.size = size;
+			this.type = type;
+			this.normalised = normalised;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Constructor. Describe the attributes of one of the supported formats.
+	 *
+	 * @param format The vertex format.
+	 */
+	private VertexLayout(Format format) {
+		this.format = format;
+		switch (format) {
+			case PACKED:
+				attributes = new Attribute[] {
+					new Attribute(0, 3, GL.GL_FLOAT, false, 0),
+					new Attribute(1, 4, GL3.GL_INT_2_10_10_10_REV, true, 12),
+					new Attribute(2, 2, GL.GL_HALF_FLOAT, false, 16)};
+				stride = 20;
+				break;
+			case OCTAHEDRAL:
+				attributes = new Attribute[] {
+					new Attribute(0, 3, GL.GL_FLOAT, false, 0),
+					new Attribute(1, 2, GL.GL_SHORT, true, 12),
+					new Attribute(2, 2, GL.GL_HALF_FLOAT, false, 16)};
+				stride = 20;
+				break;
+			default:
+				attributes = new Attribute[] {
+					new Attribute(0, 3, GL.GL_FLOAT, false, 0),
+					new Attribute(1, 3, GL.GL_FLOAT, false, 12),
+					new Attribute(2, 2, GL.GL_FLOAT, false, 24)};
+				stride = 32;
+		}
+	}
+
+	/**
+	 * Get the vertex format described by this layout.
+	 *
+	 * @return The vertex format.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Get the number of bytes each vertex takes up in the vertex buffer.
+	 *
+	 * @return The stride in bytes.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Set up (and enable) the vertex attribute pointers for the currently bound vertex array and
+	 * array buffer.
+	 *
+	 * @param gl The OpenGL context used for rendering.
+	 */
+	public void setUpAttributes(GL3 gl) {
+		for (Attribute a : attributes) {
+			gl.glVertexAttribPointer(a.location, a.size, a.type, a.normalised, stride, a.offset);
+			gl.glEnableVertexAttribArray(a.location);
+		}
+	}
+
+	/**
+	 * Convert vertices given as 8 floats each (position, normal, texture coordinates) into the
+	 * bytes of this layout.
+	 *
+	 * @param vertices The vertices of the shape.
+	 * @return A direct buffer holding the packed vertices, ready for glBufferData.
+	 */
+	public ByteBuffer pack(float[] vertices) {
+		int vertexCount = vertices.length/SOURCE_STRIDE;
+		ByteBuffer bb = Buffers.newDirectByteBuffer(vertexCount*stride);
+		for (int i=0; i<vertexCount; i++) {
+			int v = i*SOURCE_STRIDE;
+			bb.putFloat(vertices[v]);
+			bb.putFloat(vertices[v+1]);
+			bb.putFloat(vertices[v+2]);
+			switch (format) {
+				case PACKED:
+					bb.putInt(packSnorm1010102(vertices[v+3], vertices[v+4], vertices[v+5]));
+					bb.putShort(toHalf(vertices[v+6]));
+					bb.putShort(toHalf(vertices[v+7]));
+					break;
+				case OCTAHEDRAL:
+					float[] oct = encodeOctahedral(vertices[v+3], vertices[v+4], vertices[v+5]);
+					bb.putShort(toSnorm16(oct[0]));
+					bb.putShort(toSnorm16(oct[1]));
+					bb.putShort(toHalf(vertices[v+6]));
+					bb.putShort(toHalf(vertices[v+7]));
+					break;
+				default:
+					for (int j=3; j<SOURCE_STRIDE; j++) {
+						bb.putFloat(vertices[v+j]);
+					}
+			}
+		}
+		bb.rewind();
+		return bb;
+	}
+
+	/**
+	 * Map a unit normal onto the octahedron and unfold it onto a square (-1 to 1 in both axes).
+	 *
+	 * @param x The x component of the normal.
+	 * @param y The y component of the normal.
+	 * @param z The z component of the normal.
+	 * @return The two octahedral coordinates.
+	 */
+	public static float[] encodeOctahedral(float x, float y, float z) {
+		float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		if (l1 == 0) return new float[] {0, 0};
+		float u = x/l1;
+		float v = y/l1;
+		if (z < 0) {
+			// Fold the lower hemisphere over the diagonals
+			float fu = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+			float fv = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+			u = fu;
+			v = fv;
+		}
+		return new float[] {u, v};
+	}
+
+	/**
+	 * Pack a normal into the GL_INT_2_10_10_10_REV format (signed, normalised, w = 0).
+	 *
+	 * @param x The x component of the normal.
+	 * @param y The y component of the normal.
+	 * @param z The z component of the normal.
+	 * @return The packed normal.
+	 */
+	public static int packSnorm1010102(float x, float y, float z) {
+		int px = Math.round(clamp(x)*511) & 0x3FF;
+		int py = Math.round(clamp(y)*511) & 0x3FF;
+		int pz = Math.round(clamp(z)*511) & 0x3FF;
+		return px | (py << 10) | (pz << 20);
+	}
+
+	/**
+	 * Convert a value in the range -1 to 1 into a signed normalised 16-bit integer.
+	 *
+	 * @param f The value to convert.
+	 * @return The snorm16 value.
+	 */
+	public static short toSnorm16(float f) {
+		return (short)Math.round(clamp(f)*32767);
+	}
+
+	/**
+	 * Convert a float into a half-precision float (IEEE 754 binary16, rounded to nearest).
+	 *
+	 * @param f The value to convert.
+	 * @return The bits of the half-precision value.
+	 */
+	public static short toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int value = (bits & 0x7FFFFFFF) + 0x1000;  // rounding bias
+		if (value >= 0x47800000) {
+			// Too large (or NaN/infinity)
+			if ((bits & 0x7FFFFFFF) >= 0x47800000) {
+				if ((bits & 0x7FFFFFFF) > 0x7F800000) return (short)(sign | 0x7E00);
+				return (short)(sign | 0x7C00);
+			}
+			return (short)(sign | 0x7BFF);
+		}
+		if (value >= 0x38800000) {
+			// Normalised half
+			return (short)(sign | ((value - 0x38000000) >>> 13));
+		}
+		if (value < 0x33000000) {
+			// Too small, flush to zero
+			return (short)sign;
+		}
+		// Denormalised half
+		value = (bits & 0x7FFFFFFF) >>> 23;
+		return (short)(sign | ((((bits & 0x7FFFFF) | 0x800000) + (0x800000 >>> (value - 102)))
+			>>> (126 - value)));
+	}
+
+	/**
+	 * Clamp a value into the range -1 to 1.
+	 *
+	 * @param f The value to clamp.
+	 * @return The clamped value.
+	 */
+	private static float clamp(float f) {
+		return Math.max(-1f, Math.min(1f, f));
+	}
+}
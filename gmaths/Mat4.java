@@ -29,6 +29,10 @@ public class Mat4 {   // row column formulation
     values[r][c] = f;
   }
   
+  public float get(int r, int c) {
+    return values[r][c];
+  }
+  
   private void makeZero() {
     for (int i=0; i<4; ++i) {
       for (int j=0; j<4; ++j) {
@@ -71,6 +75,28 @@ public class Mat4 {   // row column formulation
     return result;
   }
 
+  public void set(Mat4 m) {
+    for (int i=0; i<4; ++i) {
+      for (int j=0; j<4; ++j) {
+        values[i][j] = m.values[i][j];
+      }
+    }
+  }
+
+  // Multiplies into an existing matrix (no allocation unless result is also a or b)
+  public static void multiply(Mat4 a, Mat4 b, Mat4 result) {
+    if (result == a || result == b) {
+      result.set(multiply(a, b));
+      return;
+    }
+    for (int i=0; i<4; ++i) {
+      for (int j=0; j<4; ++j) {
+        result.values[i][j] = a.values[i][0]*b.values[0][j] + a.values[i][1]*b.values[1][j]
+                            + a.values[i][2]*b.values[2][j] + a.values[i][3]*b.values[3][j];
+      }
+    }
+  }
+
   public float[] toFloatArrayForGLSL() {  // col by row
     float[] f = new float[16];
     for (int j=0; j<4; ++j) {
@@ -0,0 +1,234 @@
+package gmaths.batch;
+
+import gmaths.*;
+
+/**
+ * A static class for transforming whole arrays of points, normals and matrices at once.
+ * Matrices are passed as 16 floats in column-major order (as given by Mat4.toFloatArrayForGLSL()
+ * and stored by TransformStore), so no Mat4/Vec3 objects are created per value. The loops are
+ * plain scalar loops over flat float arrays; the gain over Mat4 comes from avoiding allocation
+ * and method calls, not from SIMD (see BatchMathBenchmark for measured speedups).
+ *
+ * Interleaved versions take an offset and stride so they work directly on mesh vertex arrays
+ * (e.g. 8 floats per vertex: position, normal, texture coordinates).
+ *
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ *
+ * Changes made:
+ * - A new class for batch (array-at-a-time) vector and matrix operations
+ */
+public final class BatchMath {
+
+  private BatchMath() {
+  }
+
+  /**
+   * Transforms interleaved points by a matrix (w = 1). The source and destination may be the
+   * same array.
+   *
+   * @param m The matrix (16 floats, column-major)
+   * @param src The array holding the points
+   * @param dst The array the transformed points are written to (same layout as src)
+   * @param offset The index of the first point's x-component
+   * @param stride The number of floats from one point to the next
+   * @param count The number of points
+   */
+  public static void transformPoints(float[] m, float[] src, float[] dst,
+                                     int offset, int stride, int count) {
+    float m00 = m[0], m10 = m[1], m20 = m[2];
+    float m01 = m[4], m11 = m[5], m21 = m[6];
+    float m02 = m[8], m12 = m[9], m22 = m[10];
+    float m03 = m[12], m13 = m[13], m23 = m[14];
+    int end = offset + count*stride;
+    for (int i=offset; i<end; i+=stride) {
+      float x = src[i], y = src[i+1], z = src[i+2];
+      dst[i] = m00*x + m01*y + m02*z + m03;
+      dst[i+1] = m10*x + m11*y + m12*z + m13;
+      dst[i+2] = m20*x + m21*y + m22*z + m23;
+    }
+  }
+
+  /**
+   * Transforms points held as structure-of-arrays by a matrix (w = 1). Output arrays may be the
+   * input arrays.
+   *
+   * @param m The matrix (16 floats, column-major)
+   * @param x The x-components
+   * @param y The y-components
+   * @param z The z-components
+   * @param outX The transformed x-components
+   * @param outY The transformed y-components
+   * @param outZ The transformed z-components
+   * @param count The number of points
+   */
+  public static void transformPoints(float[] m, float[] x, float[] y, float[] z,
+                                     float[] outX, float[] outY, float[] outZ, int count) {
+    float m00 = m[0], m10 = m[1], m20 = m[2];
+    float m01 = m[4], m11 = m[5], m21 = m[6];
+    float m02 = m[8], m12 = m[9], m22 = m[10];
+    float m03 = m[12], m13 = m[13], m23 = m[14];
+    for (int i=0; i<count; i++) {
+      float px = x[i], py = y[i], pz = z[i];
+      outX[i] = m00*px + m01*py + m02*pz + m03;
+      outY[i] = m10*px + m11*py + m12*pz + m13;
+      outZ[i] = m20*px + m21*py + m22*pz + m23;
+    }
+  }
+
+  /**
+   * Creates the matrix that transforms normals for a model matrix: the cofactor matrix of the
+   * upper 3x3 (the inverse transpose up to scale), negated for mirroring matrices so normals
+   * keep facing outward.
+   *
+   * @param m The model matrix (16 floats, column-major)
+   * @return The normal matrix (9 floats, column-major)
+   */
+  public static float[] normalMatrix(float[] m) {
+    float[] n = new float[9];
+    for (int r=0; r<3; r++) {
+      for (int c=0; c<3; c++) {
+        int r1 = (r+1)%3, r2 = (r+2)%3, c1 = (c+1)%3, c2 = (c+2)%3;
+        n[c*3+r] = m[c1*4+r1]*m[c2*4+r2] - m[c2*4+r1]*m[c1*4+r2];
+      }
+    }
+    float det = m[0]*n[0] + m[4]*n[3] + m[8]*n[6];
+    if (det < 0) {
+      for (int i=0; i<9; i++) n[i] = -n[i];
+    }
+    return n;
+  }
+
+  /**
+   * Transforms interleaved normals by a model matrix and normalizes them. The source and
+   * destination may be the same array.
+   *
+   * @param m The model matrix (16 floats, column-major)
+   * @param src The array holding the normals
+   * @param dst The array the transformed normals are written to (same layout as src)
+   * @param offset The index of the first normal's x-component
+   * @param stride The number of floats from one normal to the next
+   * @param count The number of normals
+   */
+  public static void transformNormals(float[] m, float[] src, float[] dst,
+                                      int offset, int stride, int count) {
+    float[] n = normalMatrix(m);
+    float n00 = n[0], n10 = n[1], n20 = n[2];
+    float n01 = n[3], n11 = n[4], n21 = n[5];
+    float n02 = n[6], n12 = n[7], n22 = n[8];
+    int end = offset + count*stride;
+    for (int i=offset; i<end; i+=stride) {
+      float x = src[i], y = src[i+1], z = src[i+2];
+      float tx = n00*x + n01*y + n02*z;
+      float ty = n10*x + n11*y + n12*z;
+      float tz = n20*x + n21*y + n22*z;
+      float lengthSq = tx*tx + ty*ty + tz*tz;
+      float inv = (lengthSq > 0) ? (float)(1/Math.sqrt(lengthSq)) : 0;
+      dst[i] = tx*inv;
+      dst[i+1] = ty*inv;
+      dst[i+2] = tz*inv;
+    }
+  }
+
+  /**
+   * Normalizes interleaved vectors in place (zero-length vectors are left as zero).
+   *
+   * @param v The array holding the vectors
+   * @param offset The index of the first vector's x-component
+   * @param stride The number of floats from one vector to the next
+   * @param count The number of vectors
+   */
+  public static void normalize(float[] v, int offset, int stride, int count) {
+    int end = offset + count*stride;
+    for (int i=offset; i<end; i+=stride) {
+      float x = v[i], y = v[i+1], z = v[i+2];
+      float lengthSq = x*x + y*y + z*z;
+      float inv = (lengthSq > 0) ? (float)(1/Math.sqrt(lengthSq)) : 0;
+      v[i] = x*inv;
+      v[i+1] = y*inv;
+      v[i+2] = z*inv;
+    }
+  }
+
+  /**
+   * Normalizes vectors held as structure-of-arrays in place (zero-length vectors are left as
+   * zero).
+   *
+   * @param x The x-components
+   * @param y The y-components
+   * @param z The z-components
+   * @param count The number of vectors
+   */
+  public static void normalize(float[] x, float[] y, float[] z, int count) {
+    for (int i=0; i<count; i++) {
+      float lengthSq = x[i]*x[i] + y[i]*y[i] + z[i]*z[i];
+      float inv = (lengthSq > 0) ? (float)(1/Math.sqrt(lengthSq)) : 0;
+      x[i] *= inv;
+      y[i] *= inv;
+      z[i] *= inv;
+    }
+  }
+
+  /**
+   * Multiplies arrays of matrices pairwise: result[i] = a[i] * b[i]. Each array holds count
+   * matrices of 16 floats (column-major). The result may be a or b.
+   *
+   * @param a The left-hand matrices
+   * @param b The right-hand matrices
+   * @param result The array the products are written to
+   * @param count The number of matrices
+   */
+  public static void multiply(float[] a, float[] b, float[] result, int count) {
+    for (int k=0; k<count; k++) {
+      int o = k*16;
+      multiplyAt(a, o, b, o, result, o);
+    }
+  }
+
+  /**
+   * Multiplies one matrix by an array of matrices: result[i] = m * b[i] (e.g. placing many
+   * objects under one parent). The result may be b.
+   *
+   * @param m The left-hand matrix (16 floats, column-major)
+   * @param b The right-hand matrices
+   * @param result The array the products are written to
+   * @param count The number of matrices
+   */
+  public static void multiplyAll(float[] m, float[] b, float[] result, int count) {
+    for (int k=0; k<count; k++) {
+      int o = k*16;
+      multiplyAt(m, 0, b, o, result, o);
+    }
+  }
+
+  // Multiplies two column-major matrices held at offsets within arrays (a is read in full and
+  // each column of b before that column of r is written, so r may alias a or b)
+  private static void multiplyAt(float[] a, int ao, float[] b, int bo, float[] r, int ro) {
+    float a00 = a[ao], a10 = a[ao+1], a20 = a[ao+2], a30 = a[ao+3];
+    float a01 = a[ao+4], a11 = a[ao+5], a21 = a[ao+6], a31 = a[ao+7];
+    float a02 = a[ao+8], a12 = a[ao+9], a22 = a[ao+10], a32 = a[ao+11];
+    float a03 = a[ao+12], a13 = a[ao+13], a23 = a[ao+14], a33 = a[ao+15];
+    for (int c=0; c<4; c++) {
+      float b0 = b[bo+c*4], b1 = b[bo+c*4+1], b2 = b[bo+c*4+2], b3 = b[bo+c*4+3];
+      r[ro+c*4] = a00*b0 + a01*b1 + a02*b2 + a03*b3;
+      r[ro+c*4+1] = a10*b0 + a11*b1 + a12*b2 + a13*b3;
+      r[ro+c*4+2] = a20*b0 + a21*b1 + a22*b2 + a23*b3;
+      r[ro+c*4+3] = a30*b0 + a31*b1 + a32*b2 + a33*b3;
+    }
+  }
+
+  /**
+   * Copies an array of Mat4 objects into one flat array (16 floats each, column-major).
+   *
+   * @param matrices The matrices
+   * @return The flat array
+   */
+  public static float[] pack(Mat4[] matrices) {
+    float[] f = new float[matrices.length*16];
+    for (int k=0; k<matrices.length; k++) {
+      System.arraycopy(matrices[k].toFloatArrayForGLSL(), 0, f, k*16, 16);
+    }
+    return f;
+  }
+}
\ No newline at end of file
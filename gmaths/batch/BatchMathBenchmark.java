@@ -0,0 +1,126 @@
+package gmaths.batch;
+
+import gmaths.*;
+import java.util.Random;
+
+/**
+ * A microbenchmark comparing BatchMath with the object-per-value Mat4 operations. Each test is
+ * run for a number of warm-up rounds (so the JIT has compiled it) and then timed over several
+ * measured rounds; the best and median times per element are printed. Results are accumulated
+ * into a checksum that is printed at the end so the work cannot be optimised away.
+ *
+ * Usage: java gmaths.batch.BatchMathBenchmark [count] [rounds]
+ *
+ * I declare that this code is my own work.
+ * Author: Ellis Barker
+ * Email address: ebarker5@sheffield.ac.uk
+ *
+ * Changes made:
+ * - A new class for comparing batch and scalar maths performance
+ */
+public final class BatchMathBenchmark {
+
+  private static final int DEFAULT_COUNT = 100000;
+  private static final int DEFAULT_ROUNDS = 20;
+  private static final int WARMUP_ROUNDS = 10;
+
+  private static double checksum = 0;
+
+  private BatchMathBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_COUNT;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+    Random random = new Random(1);
+
+    Mat4[] a = new Mat4[count];
+    Mat4[] b = new Mat4[count];
+    for (int i=0; i<count; i++) {
+      a[i] = randomMatrix(random);
+      b[i] = randomMatrix(random);
+    }
+    float[] flatA = BatchMath.pack(a);
+    float[] flatB = BatchMath.pack(b);
+    float[] flatResult = new float[count*16];
+    Mat4 result = new Mat4();
+
+    float[] vertices = new float[count*8];
+    for (int i=0; i<vertices.length; i++) vertices[i] = random.nextFloat()*2-1;
+    float[] transformed = new float[vertices.length];
+    float[] m = a[0].toFloatArrayForGLSL();
+    float[] xs = new float[count], ys = new float[count], zs = new float[count];
+    float[] outX = new float[count], outY = new float[count], outZ = new float[count];
+    for (int i=0; i<count; i++) {
+      xs[i] = vertices[i*8];
+      ys[i] = vertices[i*8+1];
+      zs[i] = vertices[i*8+2];
+    }
+
+    System.out.println("Elements: " + count + ", rounds: " + rounds);
+    System.out.println("test, best ns/element, median ns/element");
+
+    run("Mat4.multiply (allocating)", count, rounds, () -> {
+      for (int i=0; i<count; i++) checksum += Mat4.multiply(a[i], b[i]).get(0,0);
+    });
+    run("Mat4.multiply (into result)", count, rounds, () -> {
+      for (int i=0; i<count; i++) {
+        Mat4.multiply(a[i], b[i], result);
+        checksum += result.get(0,0);
+      }
+    });
+    run("BatchMath.multiply", count, rounds, () -> {
+      BatchMath.multiply(flatA, flatB, flatResult, count);
+      checksum += flatResult[0];
+    });
+    run("Mat4 point transform (one Vec3 per point)", count, rounds, () -> {
+      Mat4 matrix = a[0];
+      for (int i=0; i<count; i++) {
+        Vec3 p = new Vec3(vertices[i*8], vertices[i*8+1], vertices[i*8+2]);
+        Vec3 t = new Vec3(
+          matrix.get(0,0)*p.x + matrix.get(0,1)*p.y + matrix.get(0,2)*p.z + matrix.get(0,3),
+          matrix.get(1,0)*p.x + matrix.get(1,1)*p.y + matrix.get(1,2)*p.z + matrix.get(1,3),
+          matrix.get(2,0)*p.x + matrix.get(2,1)*p.y + matrix.get(2,2)*p.z + matrix.get(2,3));
+        checksum += t.x + t.y + t.z;
+      }
+    });
+    run("BatchMath.transformPoints (interleaved)", count, rounds, () -> {
+      BatchMath.transformPoints(m, vertices, transformed, 0, 8, count);
+      checksum += transformed[0];
+    });
+    run("BatchMath.transformPoints (SoA)", count, rounds, () -> {
+      BatchMath.transformPoints(m, xs, ys, zs, outX, outY, outZ, count);
+      checksum += outX[0];
+    });
+    run("BatchMath.transformNormals (interleaved)", count, rounds, () -> {
+      BatchMath.transformNormals(m, vertices, transformed, 3, 8, count);
+      checksum += transformed[3];
+    });
+    System.out.println("checksum " + checksum);
+  }
+
+  // A random affine matrix (bottom row 0, 0, 0, 1)
+  private static Mat4 randomMatrix(Random random) {
+    Mat4 m = new Mat4(1);
+    for (int r=0; r<3; r++) {
+      for (int c=0; c<4; c++) {
+        m.set(r, c, random.nextFloat()*2-1);
+      }
+    }
+    return m;
+  }
+
+  // Times a test after warming it up and prints the best and median time per element
+  private static void run(String name, int count, int rounds, Runnable test) {
+    for (int i=0; i<WARMUP_ROUNDS; i++) test.run();
+    long[] times = new long[rounds];
+    for (int i=0; i<rounds; i++) {
+      long start = System.nanoTime();
+      test.run();
+      times[i] = System.nanoTime()-start;
+    }
+    java.util.Arrays.sort(times);
+    System.out.printf("%s, %.2f, %.2f%n", name, (double)times[0]/count,
+                      (double)times[rounds/2]/count);
+  }
+}
\ No newline at end of file